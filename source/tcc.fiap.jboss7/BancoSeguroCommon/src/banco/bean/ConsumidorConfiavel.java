@@ -2,16 +2,22 @@ package banco.bean;
 
 import java.io.Serializable;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Id;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 /**
  * Representa um consumidor de servicos confiavel,
  *   persistido via JPA.
  * @author Robson Martins (robson@robsonmartins.com)
  */
 @Entity
+@Cacheable
+@Cache(usage=CacheConcurrencyStrategy.TRANSACTIONAL, region="consumidorConfiavel")
 @SuppressWarnings("serial")
 public class ConsumidorConfiavel implements Serializable {
 
@@ -5,28 +5,45 @@ import java.io.Serializable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
 import javax.persistence.OneToOne;
 import javax.xml.bind.annotation.XmlElement;
 import javax.xml.bind.annotation.XmlRootElement;
 import javax.xml.bind.annotation.XmlTransient;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Index;
+import org.hibernate.annotations.Parameter;
+
 /**
  * Representa uma conta bancaria, persistido via JPA.
  * @author Robson Martins (robson@robsonmartins.com)
  */
 @Entity
 @XmlRootElement(name="conta")
+@NamedQueries({
+	@NamedQuery(name="Conta.localizarPorCpf",
+		query="from Conta c where c.cpf = :cpf")})
 @SuppressWarnings("serial")
 public class Conta implements Serializable {
 
+	/** Nome da sequencia usada na geracao dos ids. */
+	public static final String SEQUENCIA = "CONTA_SEQ";
+
 	@Id
-	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	@GeneratedValue(generator="contaSeq")
+	@GenericGenerator(name="contaSeq",strategy="enhanced-sequence",
+		parameters={
+			@Parameter(name="sequence_name",value=SEQUENCIA),
+			@Parameter(name="increment_size",value="10"),
+			@Parameter(name="optimizer",value="pooled-lo")})
 	@Column(name="conta")
 	private long numeroConta;
 	
+	@Index(name="idx_conta_cpf")
 	private String cpf;
 	
 	@OneToOne(cascade={},optional=false)
@@ -5,23 +5,42 @@ import java.util.Date;
 
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
 import javax.persistence.ManyToOne;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Index;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.annotations.Table;
+
 /**
  * Representa uma entrada de extrato bancario, persistido via JPA.
  * @author Robson Martins (robson@robsonmartins.com)
  */
 @Entity
+@NamedQueries({
+	@NamedQuery(name="Extrato.listarPorConta",
+		query="from Extrato e where e.conta = :conta order by e.data, e.sequencia")})
+@Table(appliesTo="Extrato",indexes={
+	@Index(name="idx_extrato_conta_data",columnNames={"conta","data"})})
 @SuppressWarnings("serial")
 public class Extrato implements Serializable {
 
+	/** Nome da sequencia usada na geracao dos ids. */
+	public static final String SEQUENCIA = "EXTRATO_SEQ";
+
 	@Id
-	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	@GeneratedValue(generator="extratoSeq")
+	@GenericGenerator(name="extratoSeq",strategy="enhanced-sequence",
+		parameters={
+			@Parameter(name="sequence_name",value=SEQUENCIA),
+			@Parameter(name="increment_size",value="50"),
+			@Parameter(name="optimizer",value="pooled-lo")})
 	private long sequencia;
 	
 	@ManyToOne
@@ -2,26 +2,45 @@ package banco.bean;
 
 import java.io.Serializable;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.QueryHint;
 import javax.xml.bind.annotation.XmlRootElement;
 import javax.xml.bind.annotation.XmlTransient;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.Index;
+
 /**
  * Representa um usuario do sistema, persistido via JPA.
  * @author Robson Martins (robson@robsonmartins.com)
  */
 @Entity
+@Cacheable
+@Cache(usage=CacheConcurrencyStrategy.TRANSACTIONAL, region="usuario")
 @XmlRootElement(name="usuario")
+@NamedQueries({
+	@NamedQuery(name="Usuario.localizarPorCpf",
+		query="from Usuario u where u.cpf = :cpf",
+		hints=@QueryHint(name="org.hibernate.cacheable",value="true")),
+	@NamedQuery(name="Usuario.listarPorRole",
+		query="from Usuario u where u.role = :role",
+		hints=@QueryHint(name="org.hibernate.cacheable",value="true"))})
 @SuppressWarnings("serial")
 public class Usuario implements Serializable {
 
 	@Id
 	private String dname;
 	@Column(nullable=false)
+	@Index(name="idx_usuario_cpf")
 	private String cpf;
 	private String name;
+	@Index(name="idx_usuario_role")
 	private String role;
 
 	/**
@@ -3,7 +3,6 @@ package banco.dao;
 import java.util.List;
 
 import javax.persistence.EntityManager;
-import javax.persistence.Query;
 
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
@@ -76,11 +75,10 @@ public class ContaDAO extends GenericDAO<Conta> {
 					"Localizar conta cpf='%s'", cpf));
 		}
 		Conta conta = null;
-		Query q = null;
 		try {
-			q = em.createQuery("from Conta where cpf like :cpf");
-			q.setParameter("cpf", cpf);
-			conta = (Conta) q.getSingleResult();
+			conta = em.createNamedQuery("Conta.localizarPorCpf", Conta.class)
+					.setParameter("cpf", cpf)
+					.getSingleResult();
 		} catch (Exception e) {
 			if (trace) {
 				logger.trace(String.format(
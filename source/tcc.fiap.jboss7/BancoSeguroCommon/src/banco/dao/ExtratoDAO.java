@@ -1,5 +1,6 @@
 package banco.dao;
 
+import java.util.Collection;
 import java.util.List;
 
 import javax.persistence.EntityManager;
@@ -8,17 +9,20 @@ import javax.persistence.Query;
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 
-import com.robsonmartins.fiap.tcc.dao.GenericDAO;
+import com.robsonmartins.fiap.tcc.dao.GenericBatchDAO;
 
 import banco.bean.Conta;
 import banco.bean.Extrato;
 
 /**
  * Classe de manipulacao de objetos persistidos via JPA
- * Objetos da classe bean {@link Extrato}
+ * Objetos da classe bean {@link Extrato}<br/>
+ * Os ids sao obtidos de uma sequencia em blocos (sem uma consulta ao
+ *   banco de dados por Extrato), de modo que as inclusoes sao enviadas
+ *   em lotes (hibernate.jdbc.batch_size).
  * @author Robson Martins (robson@robsonmartins.com)
  */
-public class ExtratoDAO extends GenericDAO<Extrato> {
+public class ExtratoDAO extends GenericBatchDAO<Extrato> {
 
 	protected static Logger logger;
 	protected static boolean trace;
@@ -92,11 +96,10 @@ public class ExtratoDAO extends GenericDAO<Extrato> {
 	}
 	
 	/**
-	 * Lista Extratos por Conta.
+	 * Lista Extratos por Conta, em ordem cronologica.
 	 * @param conta Objeto que representa a conta.
 	 * @return Lista de Extratos.
 	 */
-	@SuppressWarnings("unchecked")
 	public List<Extrato> listar(Conta conta) {
 		if (trace) {
 			logger.trace(String.format(
@@ -104,12 +107,10 @@ public class ExtratoDAO extends GenericDAO<Extrato> {
 					(conta != null) ? conta.getNumeroConta() : 0));
 		}
 		List<Extrato> list = null;
-		Query q = null;
 		try {
-			q = em.createQuery(
-					"from Extrato where conta = :conta");
-			q.setParameter("conta"  , conta);
-			list = (List<Extrato>) q.getResultList();
+			list = em.createNamedQuery("Extrato.listarPorConta", Extrato.class)
+					.setParameter("conta", conta)
+					.getResultList();
 		} catch (Exception e) {
 			if (trace) {
 				logger.trace(String.format(
@@ -146,6 +147,30 @@ public class ExtratoDAO extends GenericDAO<Extrato> {
 		}
 	}
 	
+	/**
+	 * Insere (persiste) um lote de Extratos, na transacao corrente,
+	 *   enviando as instrucoes SQL em lotes. Somente os Extratos do lote
+	 *   sao desanexados do contexto de persistencia.
+	 * @param extratos Extratos a serem persistidos.
+	 * @throws Exception 
+	 */
+	@Override
+	public void inserirLote(Collection<Extrato> extratos) throws Exception {
+		if (trace) {
+			logger.trace(String.format(
+					"Inserir lote de %d extratos", extratos.size()));
+		}
+		try {
+			super.inserirLote(extratos);
+			if (trace) {
+				logger.trace("Lote de extratos inserido");
+			}
+		} catch (Exception e) {
+			logger.error("Erro ao inserir lote de extratos", e);
+			throw new Exception("Erro ao inserir extratos", e);
+		}
+	}
+	
 	/**
 	 * Exclui um Extrato do banco de dados.
 	 * @param sequencia Numero de sequencia do Extrato.
@@ -0,0 +1,63 @@
+package banco.model;
+
+import javax.annotation.PostConstruct;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import banco.bean.Conta;
+import banco.bean.Extrato;
+import banco.dao.ContaDAO;
+import banco.dao.ExtratoDAO;
+
+/**
+ * Ajusta, na inicializacao da aplicacao, as sequencias usadas na geracao
+ *   dos ids de {@link Conta} e {@link Extrato}, para que os novos ids sejam maiores
+ *   que os ja' gravados (inclusive os gerados pelas colunas identity
+ *   usadas anteriormente).<br/>
+ * O ajuste e' feito antes de qualquer requisicao 'a aplicacao.
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+@Singleton
+@Startup
+public class AjusteSequencias {
+
+	/* nome da unidade de persistencia configurada em persistence.xml */
+	private static final String PERSISTENCE_UNIT_NAME = "bancoseguro";
+
+	/* EntityManager para JPA. */
+	@PersistenceContext(unitName=PERSISTENCE_UNIT_NAME)
+	private EntityManager entityManager;
+
+	/* para fazer log */
+	private static Logger logger;
+
+	/**
+	 * Cria uma nova instancia do ajuste das sequencias.
+	 */
+	public AjusteSequencias() {
+		logger = LogManager.getLogger(AjusteSequencias.class);
+	}
+
+	/* ajusta as sequencias, na transacao do container */
+	@PostConstruct
+	@TransactionAttribute(TransactionAttributeType.REQUIRED)
+	protected void init() {
+		try {
+			if (new ContaDAO(entityManager).ajustarSequencia(Conta.SEQUENCIA)) {
+				logger.info("Sequencia ajustada: " + Conta.SEQUENCIA);
+			}
+			if (new ExtratoDAO(entityManager).ajustarSequencia(Extrato.SEQUENCIA)) {
+				logger.info("Sequencia ajustada: " + Extrato.SEQUENCIA);
+			}
+		} catch (Exception e) {
+			logger.error("Error adjusting id sequences", e);
+		}
+	}
+}
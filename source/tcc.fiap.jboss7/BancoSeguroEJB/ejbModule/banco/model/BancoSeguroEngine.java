@@ -3,8 +3,11 @@ package banco.model;
 import java.io.InputStream;
 import java.security.MessageDigest;
 import java.security.cert.X509Certificate;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.security.PermitAll;
@@ -17,7 +20,10 @@ import org.apache.log4j.Logger;
 
 import sicid.bean.CertificadoStatus;
 import sicid.bean.Cidadao;
+import sicid.bean.IdentificacaoCidadao;
 import sicid.util.CertificadoIcpBrasilParser;
+import sicid.util.CertificadoIcpBrasilParser.AtributoIcpBrasil;
+import sicid.ws.SICidAsyncClient;
 import sicid.ws.SICidClient;
 
 import sun.misc.BASE64Encoder;
@@ -33,6 +39,7 @@ import banco.dao.ExtratoDAO;
 import banco.dao.UsuarioDAO;
 
 import com.robsonmartins.fiap.tcc.util.CertificadoSerializador;
+import com.robsonmartins.fiap.tcc.util.EstatisticasCache;
 
 /**
  * Motor (Model) do Banco Seguro.<br/>
@@ -63,6 +70,8 @@ public class BancoSeguroEngine implements IBancoSeguroEngine {
 
 	/* Cliente SICid */
 	private SICidClient sicidClient;
+	/* Cliente SICid assincrono */
+	private SICidAsyncClient sicidAsyncClient;
 
 	/* para fazer log */
 	private static Logger logger;
@@ -83,6 +92,7 @@ public class BancoSeguroEngine implements IBancoSeguroEngine {
 		consConfiavelDAO = new ConsumidorConfiavelDAO(entityManager);
 		contaDAO = new ContaDAO(entityManager);
 		extratoDAO = new ExtratoDAO(entityManager);
+		EstatisticasCache.registrarMBean(entityManager, PERSISTENCE_UNIT_NAME);
 		sicidClient = new SICidClient();
 	}
 
@@ -561,15 +571,13 @@ public class BancoSeguroEngine implements IBancoSeguroEngine {
 	 * @throws Exception
 	 */
 	private Conta getContaFromCert(String content) throws Exception {
-		CertificadoStatus certStatus = null;
+		Future<IdentificacaoCidadao> resposta = null;
+		IdentificacaoCidadao identificacao = null;
 		Cidadao cidadao = null;
 		Conta conta = null;
 
 		try {
-			sicidClient.connect(BANCOSEGURO_SICID_CLIENT_PROPS_FILE);
-			certStatus = sicidClient.getService().validarCertificado(content);
-			cidadao = sicidClient.getService().consultarCidadao(content);
-			
+			resposta = getSICidAsyncClient().identificarCidadao(content);
 		} catch (Exception e) {
 			Exception ex = new Exception(
 					"Erro ao conectar com o Servi\u00E7o de Identifica\u00E7\u00E3o do Cidad\u00E3o.");
@@ -577,21 +585,73 @@ public class BancoSeguroEngine implements IBancoSeguroEngine {
 			throw ex;
 		}
 		
-		if (certStatus != CertificadoStatus.VALID) {
+		/* enquanto o SICid responde, localiza a conta pelo CPF
+		   presente no proprio certificado */
+		String cpf = getCpfFromCert(content);
+		if (cpf != null) {
+			conta = localizarContaPorCpf(cpf);
+		}
+		
+		try {
+			identificacao = resposta.get();
+		} catch (Exception e) {
+			Exception ex = new Exception(
+					"Erro ao conectar com o Servi\u00E7o de Identifica\u00E7\u00E3o do Cidad\u00E3o.");
+			ex.initCause((e instanceof ExecutionException && e.getCause() != null)
+					? e.getCause() : e);
+			throw ex;
+		}
+		
+		if (identificacao == null || 
+				identificacao.getStatus() != CertificadoStatus.VALID) {
 			throw new Exception("Certificado Inv\u00E1lido.");
 		}
 		
+		cidadao = identificacao.getCidadao();
 		if (cidadao == null) {
 			throw new Exception("Cidad\u00E3o n\u00E3o encontrado no cadastro.");
 		}
 		
-		conta = localizarContaPorCpf(cidadao.getCpf());
+		/* o CPF do cadastro prevalece sobre o do certificado; um cidadao
+		   sem CPF no cadastro nao possui conta */
+		String cpfCadastro = cidadao.getCpf();
+		if (cpfCadastro == null) {
+			conta = null;
+		} else if (conta == null || !cpfCadastro.equals(cpf)) {
+			conta = localizarContaPorCpf(cpfCadastro);
+		}
 		if (conta == null) {
 			throw new Exception("Conta n\u00E3o encontrada.");
 		}
 		return conta;
 	}
 
+	/* Retorna o CPF do titular de um certificado digital (padrao ICP Brasil).
+	 * @param content Conteudo de um certificado, codificado em Base64.
+	 * @return CPF do titular, ou null se nao for possivel obte-lo.
+	 */
+	private String getCpfFromCert(String content) {
+		try {
+			X509Certificate cert = CertificadoSerializador.strToCert(content);
+			return CertificadoIcpBrasilParser.getAtributosIcpBrasil(cert)
+					.get(AtributoIcpBrasil.CPF);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/* Retorna o cliente SICid assincrono, criando-o se necessario.
+	 * @return Cliente SICid assincrono.
+	 * @throws Exception
+	 */
+	private SICidAsyncClient getSICidAsyncClient() throws Exception {
+		if (sicidAsyncClient == null) {
+			sicidAsyncClient =
+				new SICidAsyncClient(BANCOSEGURO_SICID_CLIENT_PROPS_FILE);
+		}
+		return sicidAsyncClient;
+	}
+
 	/* Realiza a movimentacao de uma conta.
 	 * @param contaOrigem Conta a ser movimentada.
 	 * @param contaDestino Conta de destino, caso a operacao seja 
@@ -662,13 +722,16 @@ public class BancoSeguroEngine implements IBancoSeguroEngine {
 		}
 		
 		extrato.setSaldoFinal(contaOrigem.getSaldo());
+		List<Extrato> extratos = new ArrayList<Extrato>(2);
+		extratos.add(extrato);
 		contaDAO.inserir(contaOrigem);
-		extratoDAO.inserir(extrato);
 
 		if (operacao == Operacao.TRANSFERENCIA) {
 			contaDAO.inserir(contaDestino);
-			extratoDAO.inserir(extratoDest);
+			extratos.add(extratoDest);
 		}
+		/* entradas do extrato gravadas em um unico lote */
+		extratoDAO.inserirLote(extratos);
 		
 		return contaOrigem;
 	}
@@ -5,34 +5,55 @@ import java.util.Date;
 
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
 
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Index;
+import org.hibernate.annotations.Parameter;
+
 /**
  * Representa o registro de um Certificado emitido, persistido em Banco de Dados.
  * @author Robson Martins (robson@robsonmartins.com)
  */
 @Entity
+@NamedQueries({
+	@NamedQuery(name="Certificado.listarPorNomeAC",
+		query="from Certificado c where c.nomeAC = :nomeAC"),
+	@NamedQuery(name="Certificado.excluirPorNomeAC",
+		query="delete from Certificado c where c.nomeAC = :nomeAC")})
 @SuppressWarnings("serial")
 public class Certificado implements Serializable {
 
+	/** Nome da sequencia usada na geracao dos ids. */
+	public static final String SEQUENCIA = "CERTIFICADO_SEQ";
+
 	@Id
-	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	@GeneratedValue(generator="certificadoSeq")
+	@GenericGenerator(name="certificadoSeq",strategy="enhanced-sequence",
+		parameters={
+			@Parameter(name="sequence_name",value=SEQUENCIA),
+			@Parameter(name="increment_size",value="10"),
+			@Parameter(name="optimizer",value="pooled-lo")})
 	private long id;
 	
 	private TipoCertificado tipo;
+	@Index(name="idx_certificado_nomeac")
 	private String nomeAC;
 	private String commonName;
 	private String certFilename;
 	private String keyFilename;
 	private String reqFilename;
+	@Index(name="idx_certificado_status")
 	private StatusCertificado status;
 	
 	@Temporal(TemporalType.DATE)
 	private Date emissao;
 	@Temporal(TemporalType.DATE)
+	@Index(name="idx_certificado_expiracao")
 	private Date expiracao;
 	
 	/**
@@ -2,23 +2,42 @@ package icp.bean;
 
 import java.io.Serializable;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.QueryHint;
+
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.Index;
 
 /**
  * Representa um usuario do sistema, persistido via JPA.
  * @author Robson Martins (robson@robsonmartins.com)
  */
 @Entity
+@Cacheable
+@Cache(usage=CacheConcurrencyStrategy.TRANSACTIONAL, region="usuario")
+@NamedQueries({
+	@NamedQuery(name="Usuario.localizarPorUsername",
+		query="from Usuario u where u.username = :username",
+		hints=@QueryHint(name="org.hibernate.cacheable",value="true")),
+	@NamedQuery(name="Usuario.listarPorRole",
+		query="from Usuario u where u.role = :role",
+		hints=@QueryHint(name="org.hibernate.cacheable",value="true"))})
 @SuppressWarnings("serial")
 public class Usuario implements Serializable {
 
 	@Id
 	private String dname;
 	@Column(nullable=false)
+	@Index(name="idx_usuario_username")
 	private String username;
 	private String name;
+	@Index(name="idx_usuario_role")
 	private String role;
 
 	/**
@@ -141,18 +141,16 @@ public class CertificadoDAO extends GenericDAO<Certificado> {
 	 *   Se nulo, retorna uma lista com os certificados emitidos por todas AC's.
 	 * @return Lista de certificados emitidos pela AC.
 	 */
-	@SuppressWarnings("unchecked")
 	public List<Certificado> listarPorNomeAC(String nomeAC) {
 		if (nomeAC == null) { return listar(); }
 		if (trace) {
 			logger.trace(String.format("Listar certificados da AC '%s'", nomeAC));
 		}
 		List<Certificado> list = null;
-		Query q = null;
 		try {
-			q = em.createQuery("from Certificado where nomeAC like :nomeAC");
-			q.setParameter("nomeAC", nomeAC);
-			list = (List<Certificado>) q.getResultList();
+			list = em.createNamedQuery("Certificado.listarPorNomeAC", Certificado.class)
+					.setParameter("nomeAC", nomeAC)
+					.getResultList();
 		} catch (Exception e) {
 			if (trace) {
 				logger.trace(String.format("Listar certificados: %s",e.getLocalizedMessage()));
@@ -177,9 +175,9 @@ public class CertificadoDAO extends GenericDAO<Certificado> {
 		}
 		int count = 0;
 		try {
-			Query q = em.createQuery("delete from Certificado where nomeAC like :nomeAC"); 
-			q.setParameter("nomeAC", nomeAC);
-			count = q.executeUpdate();			
+			count = em.createNamedQuery("Certificado.excluirPorNomeAC")
+					.setParameter("nomeAC", nomeAC)
+					.executeUpdate();
 		} catch (Exception e) {
 			logger.error(String.format("Erro ao excluir certificados: %s",e.getLocalizedMessage()));
 		}
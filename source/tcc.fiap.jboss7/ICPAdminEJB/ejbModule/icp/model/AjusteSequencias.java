@@ -0,0 +1,58 @@
+package icp.model;
+
+import icp.bean.Certificado;
+import icp.dao.CertificadoDAO;
+
+import javax.annotation.PostConstruct;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+/**
+ * Ajusta, na inicializacao da aplicacao, a sequencia usada na geracao
+ *   dos ids de {@link Certificado}, para que os novos ids sejam maiores
+ *   que os ja' gravados (inclusive os gerados pelas colunas identity
+ *   usadas anteriormente).<br/>
+ * O ajuste e' feito antes de qualquer requisicao 'a aplicacao.
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+@Singleton
+@Startup
+public class AjusteSequencias {
+
+	/* nome da unidade de persistencia configurada em persistence.xml */
+	private static final String PERSISTENCE_UNIT_NAME = "icpadmin";
+
+	/* EntityManager para JPA. */
+	@PersistenceContext(unitName=PERSISTENCE_UNIT_NAME)
+	private EntityManager entityManager;
+
+	/* para fazer log */
+	private static Logger logger;
+
+	/**
+	 * Cria uma nova instancia do ajuste das sequencias.
+	 */
+	public AjusteSequencias() {
+		logger = LogManager.getLogger(AjusteSequencias.class);
+	}
+
+	/* ajusta a sequencia, na transacao do container */
+	@PostConstruct
+	@TransactionAttribute(TransactionAttributeType.REQUIRED)
+	protected void init() {
+		try {
+			if (new CertificadoDAO(entityManager).ajustarSequencia(Certificado.SEQUENCIA)) {
+				logger.info("Sequencia ajustada: " + Certificado.SEQUENCIA);
+			}
+		} catch (Exception e) {
+			logger.error("Error adjusting id sequences", e);
+		}
+	}
+}
@@ -41,6 +41,7 @@ import sicid.ws.SICidClient;
 import sun.misc.BASE64Encoder;
 
 import com.robsonmartins.fiap.tcc.util.CertificadoSerializador;
+import com.robsonmartins.fiap.tcc.util.EstatisticasCache;
 import com.robsonmartins.fiap.tcc.util.JBossUtil;
 
 /**
@@ -117,6 +118,7 @@ public class IcpAdmin implements IIcpAdmin {
 
 		certDAO = new CertificadoDAO(entityManager);
 		usuarioDAO = new UsuarioDAO(entityManager);
+		EstatisticasCache.registrarMBean(entityManager, PERSISTENCE_UNIT_NAME);
 		sicidClient = new SICidClient();
 	}
 
@@ -341,6 +343,7 @@ public class IcpAdmin implements IIcpAdmin {
 		} else {
 			icpBrasilDAO.createCRLforCA(acEmissora, acPassword);
 		}
+		notificarRevogacao(baseDir + File.separatorChar + cert.getCertFilename());
 	}
 
 	@Override
@@ -582,6 +585,36 @@ public class IcpAdmin implements IIcpAdmin {
 		certDAO.inserir(cert);
 	}	
 
+	/* Notifica o SICid da revogacao de um certificado (ja' incluido na
+	 *   nova CRL da AC emissora), para que os consumidores descartem as
+	 *   decisoes em cache. Falhas sao somente registradas: a revogacao
+	 *   e' obtida pelos consumidores na proxima atualizacao da CRL. O
+	 *   certificado do cliente do SICid (icpadmin.properties) deve estar
+	 *   cadastrado no SICid como aplicacao de AC (role icpuser).
+	 * @param certFileName Nome do arquivo do certificado revogado.
+	 */
+	private void notificarRevogacao(String certFileName) {
+		InputStream istream = null;
+		try {
+			istream = new FileInputStream(certFileName);
+			X509Certificate x509cert =
+				CertificadoSerializador.loadCertFromStream(istream);
+			String content = CertificadoSerializador.certToStr(x509cert);
+			sicidClient.connect(ICPADMIN_SICID_CLIENT_PROPS_FILE);
+			sicidClient.getService().notificarRevogacao(content);
+		} catch (Exception e) {
+			logger.error("Error notifying SICid of certificate revocation: " +
+					e.getMessage());
+		} finally {
+			if (istream != null) {
+				try {
+					istream.close();
+				} catch (Exception e) { }
+			}
+			sicidClient.close();
+		}
+	}
+
 	/* Atualiza um certificado no cadastro, no caso, uma renovacao. 
 	 * @param cert Certificado sendo renovado.
 	 * @throws Exception
@@ -2,23 +2,42 @@ package receita.bean;
 
 import java.io.Serializable;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Id;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.QueryHint;
+
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+import org.hibernate.annotations.Index;
 
 /**
  * Representa um usuario do sistema, persistido via JPA.
  * @author Robson Martins (robson@robsonmartins.com)
  */
 @Entity
+@Cacheable
+@Cache(usage=CacheConcurrencyStrategy.TRANSACTIONAL, region="cidadao")
+@NamedQueries({
+	@NamedQuery(name="Cidadao.localizarPorRic",
+		query="from Cidadao c where c.ric = :ric",
+		hints=@QueryHint(name="org.hibernate.cacheable",value="true")),
+	@NamedQuery(name="Cidadao.listarPorRole",
+		query="from Cidadao c where c.role = :role",
+		hints=@QueryHint(name="org.hibernate.cacheable",value="true"))})
 @SuppressWarnings("serial")
 public class Cidadao implements Serializable {
 
 	@Id
 	private String dname;
 	@Column(nullable=false)
+	@Index(name="idx_cidadao_ric")
 	private String ric;
 	private String name;
+	@Index(name="idx_cidadao_role")
 	private String role;
 
 	/**
@@ -3,7 +3,6 @@ package receita.dao;
 import java.util.List;
 
 import javax.persistence.EntityManager;
-import javax.persistence.Query;
 
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
@@ -75,11 +74,10 @@ public class CidadaoDAO extends GenericDAO<Cidadao> {
 					"Localizar cidadao ric='%s'", ric));
 		}
 		Cidadao cidadao = null;
-		Query q = null;
 		try {
-			q = em.createQuery("from Cidadao where ric like :ric");
-			q.setParameter("ric", ric);
-			cidadao = (Cidadao) q.getSingleResult();
+			cidadao = em.createNamedQuery("Cidadao.localizarPorRic", Cidadao.class)
+					.setParameter("ric", ric)
+					.getSingleResult();
 		} catch (Exception e) {
 			if (trace) {
 				logger.trace(String.format(
@@ -118,18 +116,16 @@ public class CidadaoDAO extends GenericDAO<Cidadao> {
 	 * @param role Role dos cidadaos.
 	 * @return Lista de Cidadaos.
 	 */
-	@SuppressWarnings("unchecked")
 	public List<Cidadao> listarPorRole(String role) {
 		if (trace) {
 			logger.trace(String.format(
 					"Listar cidadaos por role=%s", role));
 		}
 		List<Cidadao> list = null;
-		Query q = null;
 		try {
-			q = em.createQuery("from Cidadao where role like :role");
-			q.setParameter("role", role);
-			list = (List<Cidadao>) q.getResultList();
+			list = em.createNamedQuery("Cidadao.listarPorRole", Cidadao.class)
+					.setParameter("role", role)
+					.getResultList();
 		} catch (Exception e) {
 			if (trace) {
 				logger.trace("Erro ao Listar cidadaos", e);
@@ -3,7 +3,6 @@ package receita.dao;
 import java.util.List;
 
 import javax.persistence.EntityManager;
-import javax.persistence.Query;
 
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
@@ -44,11 +43,9 @@ public class TributoDAO extends GenericDAO<Tributo> {
 					"Localizar tributo ric='%s'", ric));
 		}
 		Tributo situacao = null;
-		Query q = null;
 		try {
-			q = em.createQuery("from Tributo where ric like :ric");
-			q.setParameter("ric", ric);
-			situacao = (Tributo) q.getSingleResult();
+			/* o RIC e' a chave primaria do tributo */
+			situacao = super.localizar(ric);
 		} catch (Exception e) {
 			if (trace) {
 				logger.trace(String.format(
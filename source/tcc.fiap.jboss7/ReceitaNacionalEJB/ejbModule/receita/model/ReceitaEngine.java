@@ -19,11 +19,13 @@ import receita.bean.Tributo;
 import receita.dao.CidadaoDAO;
 import receita.dao.TributoDAO;
 import sicid.bean.CidadaoCollecion;
+import sicid.ws.ISICidService;
 import sicid.ws.SICidClient;
 import banco.bean.StatusOperacao;
 import banco.ws.BancoSeguroClient;
 
 import com.robsonmartins.fiap.tcc.util.CertificadoSerializador;
+import com.robsonmartins.fiap.tcc.util.EstatisticasCache;
 
 /**
  * Motor (Model) da Receita Nacional.<br/>
@@ -36,6 +38,9 @@ public class ReceitaEngine implements IReceitaEngine {
 
 	/* nome do arquivo de properties com a configuracao de conexao do cliente sicid */ 
 	private static final String RECEITA_SICID_CLIENT_PROPS_FILE = "receita.properties";
+	/* numero de cidadaos obtidos do servico sicid por requisicao */
+	private static final int RECEITA_SICID_PAGINA =
+		Integer.getInteger("receita.sicid.pagina", 500);
 	/* nome do arquivo de properties com a configuracao de conexao do cliente bancoseguro */ 
 	private static final String RECEITA_BANCOSEGURO_CLIENT_PROPS_FILE = "receita.properties";
 	
@@ -76,6 +81,7 @@ public class ReceitaEngine implements IReceitaEngine {
 	protected void init() {
 		cidadaoDAO = new CidadaoDAO(entityManager);
 		tributoDAO = new TributoDAO(entityManager);
+		EstatisticasCache.registrarMBean(entityManager, PERSISTENCE_UNIT_NAME);
 		sicidClient = new SICidClient();
 		bancoClient = new BancoSeguroClient();
 	}
@@ -220,11 +226,14 @@ public class ReceitaEngine implements IReceitaEngine {
 	public void calcularTributos() throws Exception {
 
 		CidadaoCollecion cidadaos = null;
-		/* consulta servico SICid, buscando lista de cidadaos */
+		ISICidService sicidService = null;
+		/* consulta servico SICid, buscando a primeira pagina de cidadaos */
 		try {
 			sicidClient.connect(RECEITA_SICID_CLIENT_PROPS_FILE);
-			cidadaos = sicidClient.getService().listarCidadaos();
-			if (cidadaos == null) {
+			sicidService = sicidClient.getService();
+			cidadaos = sicidService.listarCidadaosPaginado(null, RECEITA_SICID_PAGINA);
+			if (cidadaos == null || cidadaos.getCidadaos() == null ||
+					cidadaos.getCidadaos().isEmpty()) {
 				throw new Exception("Nenhum Cidad\u00E3o encontrado.");
 			}
 		} catch (Exception e) {
@@ -240,38 +249,57 @@ public class ReceitaEngine implements IReceitaEngine {
 			tributoDAO.excluir(tributo.getRic());
 		}
 		
-		/* calcula valores aleatorios de tributos para cada cidadao */
-		for (sicid.bean.Cidadao sicidCidadao : cidadaos.getCidadaos()) {
-			Cidadao cidadao = 
-				cidadaoDAO.localizarPorRic(sicidCidadao.getRic());
-			
-			if (cidadao == null) {
-				cidadao = new Cidadao();
-				cidadao.setRic(sicidCidadao.getRic());
-				cidadao.setDname(sicidCidadao.getDname());
-				cidadao.setName(sicidCidadao.getNome());
-				cidadao.setRole(RECEITA_CIDADAO_ACCESS_ROLE);
-				cidadaoDAO.inserir(cidadao);
+		/* calcula valores aleatorios de tributos para cada cidadao,
+		   uma pagina por vez (a memoria usada nao depende do numero
+		   de cidadaos) */
+		while (cidadaos != null && cidadaos.getCidadaos() != null &&
+				!cidadaos.getCidadaos().isEmpty()) {
+			String aposDname = null;
+			for (sicid.bean.Cidadao sicidCidadao : cidadaos.getCidadaos()) {
+				calcularTributo(sicidCidadao);
+				aposDname = sicidCidadao.getDname();
 			}
+			/* descarta as entidades ja' gravadas do contexto de persistencia */
+			entityManager.flush();
+			entityManager.clear();
+			cidadaos = sicidService.listarCidadaosPaginado(aposDname, RECEITA_SICID_PAGINA);
+		}
+	}
+	
+	/* Calcula o valor (aleatorio) do tributo de um cidadao.
+	 * @param sicidCidadao Cidadao cadastrado no SICid.
+	 * @throws Exception
+	 */
+	private void calcularTributo(sicid.bean.Cidadao sicidCidadao) throws Exception {
+		Cidadao cidadao = 
+			cidadaoDAO.localizarPorRic(sicidCidadao.getRic());
+		
+		if (cidadao == null) {
+			cidadao = new Cidadao();
+			cidadao.setRic(sicidCidadao.getRic());
+			cidadao.setDname(sicidCidadao.getDname());
+			cidadao.setName(sicidCidadao.getNome());
+			cidadao.setRole(RECEITA_CIDADAO_ACCESS_ROLE);
+			cidadaoDAO.inserir(cidadao);
+		}
 
-			Tributo tributo = 
-				tributoDAO.localizarPorRic(sicidCidadao.getRic());
-			if (tributo == null) {
-				tributo = new Tributo();
-			}
-			
-			/* calcula imposto aleatoriamente */
-			/* imposto devido sera' sempre < 1000,00, com 20% de chance de isencao */ 
-			float impostoDevido = (randomizer.nextFloat() - 0.2f) * 1000.0f;
-			if (impostoDevido < 0.0f) { impostoDevido = 0.0f; } /* isento */
-			boolean impostoPago = (impostoDevido == 0.0f) ? true : false;
-			
-			tributo.setImpostoDevido(impostoDevido);
-			tributo.setImpostoPago(impostoPago);
-			tributo.setCidadao(cidadao);
-			
-			tributoDAO.inserir(tributo);
+		Tributo tributo = 
+			tributoDAO.localizarPorRic(sicidCidadao.getRic());
+		if (tributo == null) {
+			tributo = new Tributo();
 		}
+		
+		/* calcula imposto aleatoriamente */
+		/* imposto devido sera' sempre < 1000,00, com 20% de chance de isencao */ 
+		float impostoDevido = (randomizer.nextFloat() - 0.2f) * 1000.0f;
+		if (impostoDevido < 0.0f) { impostoDevido = 0.0f; } /* isento */
+		boolean impostoPago = (impostoDevido == 0.0f) ? true : false;
+		
+		tributo.setImpostoDevido(impostoDevido);
+		tributo.setImpostoPago(impostoPago);
+		tributo.setCidadao(cidadao);
+		
+		tributoDAO.inserir(tributo);
 	}
 	
 	@Override
@@ -3,6 +3,7 @@ package sicid.bean;
 import java.io.Serializable;
 import java.security.cert.X509Certificate;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Embedded;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
@@ -10,11 +11,16 @@ import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.Transient;
 
+import org.hibernate.annotations.Cache;
+import org.hibernate.annotations.CacheConcurrencyStrategy;
+
 /**
  * Representa um certificado confiavel (trusted), persistido via JPA.
  * @author Robson Martins (robson@robsonmartins.com)
  */
 @Entity
+@Cacheable
+@Cache(usage=CacheConcurrencyStrategy.TRANSACTIONAL, region="certificadoConfiavel")
 @SuppressWarnings("serial")
 public class CertificadoConfiavel implements Serializable {
 
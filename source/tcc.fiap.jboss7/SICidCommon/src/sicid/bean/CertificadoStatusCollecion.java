@@ -0,0 +1,54 @@
+package sicid.bean;
+
+import java.io.Serializable;
+import java.util.List;
+
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Representa uma colecao (lista) de status de validacao de certificados,
+ *   usada por metodos do servico SICid como representacao XML. A ordem
+ *   dos elementos corresponde 'a ordem dos certificados na requisicao.
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+@XmlRootElement(name="statusList")
+@SuppressWarnings("serial")
+public class CertificadoStatusCollecion implements Serializable {
+
+	private List<CertificadoStatus> status;
+
+	/**
+	 * Retorna a quantidade de elementos na colecao.
+	 * @return Quantidade de elementos na colecao.
+	 */
+	@XmlAttribute(name="count")
+	public Integer getCount() {
+		return (status != null) ? status.size() : null;
+	}
+	
+	/**
+	 * Configura a quantidade de elementos na colecao.
+	 * @param count Quantidade de elementos na colecao.
+	 */
+	public void setCount(Integer count) { }
+
+	/**
+	 * Retorna a lista de status de certificados.
+	 * @return Lista de status de certificados.
+	 */
+	@XmlElement(name="status")
+	public List<CertificadoStatus> getStatus() {
+		return status;
+	}
+
+	/** 
+	 * Configura a lista de status de certificados.
+	 * @param status Lista de status de certificados.
+	 */
+	public void setStatus(List<CertificadoStatus> status) {
+		this.status = status;
+	}
+	
+}
@@ -13,6 +13,8 @@ import javax.persistence.TemporalType;
 import javax.persistence.Transient;
 import javax.xml.bind.annotation.XmlRootElement;
 
+import org.hibernate.annotations.Index;
+
 /**
  * Representa um cidadao, persistido via JPA e usado
  *   por metodos do servico SICid como representacao XML.
@@ -35,8 +37,10 @@ public class Cidadao implements Serializable, Cloneable {
 	@Temporal(TemporalType.DATE)
 	private Date dataNascimento;
 	@Column(length=11)
+	@Index(name="idx_cidadao_ric")
 	private String ric;
 	@Column(length=11,nullable=true)
+	@Index(name="idx_cidadao_cpf")
 	private String cpf;
 	@Embedded
 	@Column(nullable=true)
@@ -48,6 +52,11 @@ public class Cidadao implements Serializable, Cloneable {
 	private String pisPasep;
 	@Column(length=12,nullable=true)
 	private String cei;
+	@Column(nullable=false,columnDefinition="bigint default 0")
+	@Index(name="idx_cidadao_versao")
+	private long versao;
+	@Column(nullable=false,columnDefinition="boolean default false")
+	private boolean excluido;
 	@Transient
 	private String email;
 	@Transient
@@ -83,6 +92,8 @@ public class Cidadao implements Serializable, Cloneable {
 			.append(String.format("titulo='%s',",titulo))
 			.append(String.format("pisPasep='%s',",pisPasep))
 			.append(String.format("cei='%s',",cei))
+			.append(String.format("versao='%d',",versao))
+			.append(String.format("excluido='%s',",excluido))
 			.append(String.format("email='%s',",email))
 			.append(String.format("login='%s'",login))
 			.append("]");
@@ -269,6 +280,41 @@ public class Cidadao implements Serializable, Cloneable {
 		this.cei = cei;
 	}
 
+	/**
+	 * Retorna a versao da ultima alteracao (inclusao, atualizacao ou
+	 *   exclusao) do cidadao. As versoes sao crescentes e unicas entre
+	 *   todos os cidadaos.
+	 * @return Versao da ultima alteracao.
+	 */
+	public long getVersao() {
+		return versao;
+	}
+
+	/**
+	 * Configura a versao da ultima alteracao do cidadao.
+	 * @param versao Versao da ultima alteracao.
+	 */
+	public void setVersao(long versao) {
+		this.versao = versao;
+	}
+
+	/**
+	 * Indica se o cidadao foi excluido (registro mantido somente para
+	 *   informar a exclusao aos consumidores das alteracoes).
+	 * @return True se excluido.
+	 */
+	public boolean isExcluido() {
+		return excluido;
+	}
+
+	/**
+	 * Configura se o cidadao foi excluido.
+	 * @param excluido True se excluido.
+	 */
+	public void setExcluido(boolean excluido) {
+		this.excluido = excluido;
+	}
+
 	/**
 	 * Retorna o endereco de e-mail do cidadao.<br>
 	 *   (Atributo nao persistido em banco de dados).  
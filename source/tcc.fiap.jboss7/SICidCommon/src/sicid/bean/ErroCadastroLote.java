@@ -0,0 +1,59 @@
+package sicid.bean;
+
+import java.io.Serializable;
+
+/**
+ * Representa a falha no cadastro de um registro (certificado) de um
+ *   cadastro de cidadaos em lote.
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+@SuppressWarnings("serial")
+public class ErroCadastroLote implements Serializable {
+
+	private long registro;
+	private String arquivo;
+	private String mensagem;
+
+	/**
+	 * Cria uma nova instancia do erro.
+	 * @param registro Numero do registro (a partir de 1).
+	 * @param arquivo Nome do arquivo do registro.
+	 * @param mensagem Mensagem de erro.
+	 */
+	public ErroCadastroLote(long registro, String arquivo, String mensagem) {
+		this.registro = registro;
+		this.arquivo = arquivo;
+		this.mensagem = mensagem;
+	}
+
+	/**
+	 * Retorna o numero do registro, na ordem do lote (a partir de 1).
+	 * @return Numero do registro.
+	 */
+	public long getRegistro() {
+		return registro;
+	}
+
+	/**
+	 * Retorna o nome do arquivo do registro.
+	 * @return Nome do arquivo.
+	 */
+	public String getArquivo() {
+		return arquivo;
+	}
+
+	/**
+	 * Retorna a mensagem de erro.
+	 * @return Mensagem de erro.
+	 */
+	public String getMensagem() {
+		return mensagem;
+	}
+
+	/* Retorna uma representacao String do objeto corrente.
+	 * @return Representacao do objeto como String. */
+	@Override
+	public String toString() {
+		return String.format("%d (%s): %s", registro, arquivo, mensagem);
+	}
+}
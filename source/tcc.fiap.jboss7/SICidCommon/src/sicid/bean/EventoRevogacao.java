@@ -0,0 +1,151 @@
+package sicid.bean;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Representa um evento de revogacao publicado pelo Servico de
+ *   Identificacao do Cidadao (SICid): revogacao de um certificado,
+ *   alteracao dos certificados confiaveis ou reemissao de uma CRL.<br/>
+ * Os eventos sao numerados em sequencia crescente, permitindo que um
+ *   consumidor obtenha os eventos perdidos a partir do ultimo recebido.
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+@XmlRootElement(name="evento")
+@SuppressWarnings("serial")
+public class EventoRevogacao implements Serializable {
+
+	private long sequencia;
+	private TipoEventoRevogacao tipo;
+	private Date data;
+	private String emissor;
+	private String serial;
+	private String fingerprint;
+	private String url;
+
+	/**
+	 * Retorna o numero de sequencia do evento.
+	 * @return Numero de sequencia.
+	 */
+	@XmlElement(name="sequencia")
+	public long getSequencia() {
+		return sequencia;
+	}
+
+	/**
+	 * Configura o numero de sequencia do evento.
+	 * @param sequencia Numero de sequencia.
+	 */
+	public void setSequencia(long sequencia) {
+		this.sequencia = sequencia;
+	}
+
+	/**
+	 * Retorna o tipo do evento.
+	 * @return Tipo do evento.
+	 */
+	@XmlElement(name="tipo")
+	public TipoEventoRevogacao getTipo() {
+		return tipo;
+	}
+
+	/**
+	 * Configura o tipo do evento.
+	 * @param tipo Tipo do evento.
+	 */
+	public void setTipo(TipoEventoRevogacao tipo) {
+		this.tipo = tipo;
+	}
+
+	/**
+	 * Retorna a data do evento.
+	 * @return Data do evento.
+	 */
+	@XmlElement(name="data")
+	public Date getData() {
+		return data;
+	}
+
+	/**
+	 * Configura a data do evento.
+	 * @param data Data do evento.
+	 */
+	public void setData(Date data) {
+		this.data = data;
+	}
+
+	/**
+	 * Retorna o Distinguished Name (DN) do emissor do certificado ou da
+	 *   CRL (ou o DN do proprio certificado, para uma ancora).
+	 * @return DN do emissor.
+	 */
+	@XmlElement(name="emissor")
+	public String getEmissor() {
+		return emissor;
+	}
+
+	/**
+	 * Configura o Distinguished Name (DN) do emissor.
+	 * @param emissor DN do emissor.
+	 */
+	public void setEmissor(String emissor) {
+		this.emissor = emissor;
+	}
+
+	/**
+	 * Retorna o numero de serie do certificado, em hexadecimal.
+	 * @return Numero de serie, ou null se o evento nao se referir
+	 *   a um certificado.
+	 */
+	@XmlElement(name="serial")
+	public String getSerial() {
+		return serial;
+	}
+
+	/**
+	 * Configura o numero de serie do certificado, em hexadecimal.
+	 * @param serial Numero de serie.
+	 */
+	public void setSerial(String serial) {
+		this.serial = serial;
+	}
+
+	/**
+	 * Retorna o fingerprint do certificado.
+	 * @return Fingerprint, ou null se o evento nao se referir
+	 *   a um certificado.
+	 */
+	@XmlElement(name="fingerprint")
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	/**
+	 * Configura o fingerprint do certificado.
+	 * @param fingerprint Fingerprint do certificado.
+	 */
+	public void setFingerprint(String fingerprint) {
+		this.fingerprint = fingerprint;
+	}
+
+	/**
+	 * Retorna a URL do ponto de distribuicao da CRL.
+	 * @return URL da CRL, ou null se o evento nao se referir a uma CRL.
+	 */
+	@XmlElement(name="url")
+	public String getUrl() {
+		return url;
+	}
+
+	/**
+	 * Configura a URL do ponto de distribuicao da CRL.
+	 * @param url URL da CRL.
+	 */
+	public void setUrl(String url) {
+		this.url = url;
+	}
+	
+}
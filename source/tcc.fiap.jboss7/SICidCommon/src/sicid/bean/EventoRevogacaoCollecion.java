@@ -0,0 +1,53 @@
+package sicid.bean;
+
+import java.io.Serializable;
+import java.util.Collection;
+
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Representa uma colecao (lista) de eventos de revogacao, usada
+ *   por metodos do servico SICid como representacao XML.
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+@XmlRootElement(name="eventos")
+@SuppressWarnings("serial")
+public class EventoRevogacaoCollecion implements Serializable {
+
+	private Collection<EventoRevogacao> eventos;
+
+	/**
+	 * Retorna a quantidade de elementos na colecao.
+	 * @return Quantidade de elementos na colecao.
+	 */
+	@XmlAttribute(name="count")
+	public Integer getCount() {
+		return (eventos != null) ? eventos.size() : null;
+	}
+	
+	/**
+	 * Configura a quantidade de elementos na colecao.
+	 * @param count Quantidade de elementos na colecao.
+	 */
+	public void setCount(Integer count) { }
+
+	/**
+	 * Retorna uma colecao de eventos.
+	 * @return Colecao de eventos.
+	 */
+	@XmlElement(name="evento")
+	public Collection<EventoRevogacao> getEventos() {
+		return eventos;
+	}
+
+	/** 
+	 * Configura a colecao de eventos.
+	 * @param eventos Colecao de eventos.
+	 */
+	public void setEventos(Collection<EventoRevogacao> eventos) {
+		this.eventos = eventos;
+	}
+	
+}
@@ -0,0 +1,56 @@
+package sicid.bean;
+
+import java.io.Serializable;
+
+import javax.xml.bind.annotation.XmlElement;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Representa o resultado da identificacao de um cidadao pelo seu
+ *   certificado digital: o status de validacao do certificado e,
+ *   somente se o certificado for valido, os dados cadastrais do cidadao.
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+@XmlRootElement(name="identificacao")
+@SuppressWarnings("serial")
+public class IdentificacaoCidadao implements Serializable {
+
+	private CertificadoStatus status;
+	private Cidadao cidadao;
+
+	/**
+	 * Retorna o status de validacao do certificado.
+	 * @return Status do certificado.
+	 */
+	@XmlElement(name="status")
+	public CertificadoStatus getStatus() {
+		return status;
+	}
+
+	/**
+	 * Configura o status de validacao do certificado.
+	 * @param status Status do certificado.
+	 */
+	public void setStatus(CertificadoStatus status) {
+		this.status = status;
+	}
+
+	/**
+	 * Retorna os dados cadastrais do cidadao.
+	 * @return Dados cadastrais do cidadao, ou null se o certificado
+	 *   nao for valido ou o cidadao nao estiver cadastrado.
+	 */
+	@XmlElement(name="cidadao")
+	public Cidadao getCidadao() {
+		return cidadao;
+	}
+
+	/**
+	 * Configura os dados cadastrais do cidadao.
+	 * @param cidadao Dados cadastrais do cidadao.
+	 */
+	public void setCidadao(Cidadao cidadao) {
+		this.cidadao = cidadao;
+	}
+	
+}
@@ -0,0 +1,113 @@
+package sicid.bean;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Representa o resultado (parcial ou final) de um cadastro de
+ *   cidadaos em lote: contadores de registros e o relatorio dos
+ *   registros que falharam.
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+@SuppressWarnings("serial")
+public class ResultadoCadastroLote implements Serializable {
+
+	private long processados;
+	private long cadastrados;
+	private long falhas;
+	private long inicio = System.currentTimeMillis();
+	private long duracao;
+	private final int maximoErros;
+	private final List<ErroCadastroLote> erros = new ArrayList<ErroCadastroLote>();
+
+	/**
+	 * Cria um novo resultado.
+	 * @param maximoErros Numero maximo de erros mantidos no relatorio
+	 *   (os demais sao somente contados).
+	 */
+	public ResultadoCadastroLote(int maximoErros) {
+		this.maximoErros = maximoErros;
+	}
+
+	/**
+	 * Registra um cidadao cadastrado.
+	 */
+	public synchronized void adicionarCadastrado() {
+		processados++;
+		cadastrados++;
+		duracao = System.currentTimeMillis() - inicio;
+	}
+
+	/**
+	 * Registra a falha de um registro.
+	 * @param erro Erro do registro.
+	 */
+	public synchronized void adicionarErro(ErroCadastroLote erro) {
+		processados++;
+		falhas++;
+		if (erros.size() < maximoErros) {
+			erros.add(erro);
+		}
+		duracao = System.currentTimeMillis() - inicio;
+	}
+
+	/**
+	 * Retorna o numero de registros processados.
+	 * @return Numero de registros processados.
+	 */
+	public synchronized long getProcessados() {
+		return processados;
+	}
+
+	/**
+	 * Retorna o numero de cidadaos cadastrados (incluidos ou atualizados).
+	 * @return Numero de cidadaos cadastrados.
+	 */
+	public synchronized long getCadastrados() {
+		return cadastrados;
+	}
+
+	/**
+	 * Retorna o numero de registros que falharam.
+	 * @return Numero de falhas.
+	 */
+	public synchronized long getFalhas() {
+		return falhas;
+	}
+
+	/**
+	 * Retorna o tempo decorrido ate' o ultimo registro processado.
+	 * @return Tempo decorrido, em ms.
+	 */
+	public synchronized long getDuracao() {
+		return duracao;
+	}
+
+	/**
+	 * Retorna a taxa de processamento.
+	 * @return Registros processados por segundo.
+	 */
+	public synchronized double getTaxa() {
+		return (duracao > 0) ? processados * 1000.0 / duracao : 0.0;
+	}
+
+	/**
+	 * Retorna o relatorio dos registros que falharam (limitado ao
+	 *   numero maximo de erros mantidos).
+	 * @return Lista de erros, em ordem de registro.
+	 */
+	public synchronized List<ErroCadastroLote> getErros() {
+		return Collections.unmodifiableList(new ArrayList<ErroCadastroLote>(erros));
+	}
+
+	/* Retorna uma representacao String do objeto corrente.
+	 * @return Representacao do objeto como String. */
+	@Override
+	public synchronized String toString() {
+		return String.format(
+				"%d registros processados, %d cadastrados, %d falhas (%.1f registros/s)",
+				processados, cadastrados, falhas, getTaxa());
+	}
+}
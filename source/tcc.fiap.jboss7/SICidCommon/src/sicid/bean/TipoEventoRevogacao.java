@@ -0,0 +1,28 @@
+package sicid.bean;
+
+import javax.xml.bind.annotation.XmlEnum;
+import javax.xml.bind.annotation.XmlType;
+
+/**
+ * Enumera os tipos de eventos de revogacao publicados pelo
+ *   Servico de Identificacao do Cidadao (SICid).
+ * @see EventoRevogacao
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+@XmlType(name="tipoEvento")
+@XmlEnum
+public enum TipoEventoRevogacao {
+
+	/** Certificado revogado pela sua AC emissora. */
+	CERTIFICADO_REVOGADO,
+	/** Certificado confiavel (ancora) adicionado ao cadastro. */
+	ANCORA_ADICIONADA,
+	/** Certificado confiavel (ancora) removido do cadastro. */
+	ANCORA_REMOVIDA,
+	/** CRL (Lista de Certificados Revogados) reemitida. */
+	CRL_REEMITIDA,
+	/** Eventos anteriores descartados: todas as decisoes em cache
+	 *   devem ser invalidadas. */
+	RESINCRONIZAR;
+	
+}
@@ -0,0 +1,60 @@
+package sicid.bean;
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+
+/**
+ * Representa o contador das versoes das alteracoes de cidadaos
+ *   ({@link Cidadao#getVersao()}), persistido via JPA.<br/>
+ * O contador e' mantido em um unico registro, bloqueado (select for update)
+ *   pela transacao que reserva versoes ate' o seu termino. Assim, as versoes
+ *   se tornam visiveis na ordem em que as transacoes sao confirmadas.
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+@Entity
+@SuppressWarnings("serial")
+public class VersaoCidadao implements Serializable {
+
+	/** Identificador do (unico) registro do contador. */
+	public static final int ID = 1;
+
+	@Id
+	private int id;
+	@Column(nullable=false)
+	private long valor;
+
+	/**
+	 * Retorna o identificador do registro.
+	 * @return Identificador do registro.
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Configura o identificador do registro.
+	 * @param id Identificador do registro.
+	 */
+	public void setId(int id) {
+		this.id = id;
+	}
+
+	/**
+	 * Retorna a ultima versao reservada.
+	 * @return Ultima versao reservada.
+	 */
+	public long getValor() {
+		return valor;
+	}
+
+	/**
+	 * Configura a ultima versao reservada.
+	 * @param valor Ultima versao reservada.
+	 */
+	public void setValor(long valor) {
+		this.valor = valor;
+	}
+}
@@ -1,22 +1,39 @@
 package sicid.dao;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javax.persistence.EntityManager;
+import javax.persistence.LockModeType;
+import javax.persistence.Query;
 
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 
-import com.robsonmartins.fiap.tcc.dao.GenericDAO;
+import com.robsonmartins.fiap.tcc.dao.GenericBatchDAO;
 
 import sicid.bean.Cidadao;
+import sicid.bean.VersaoCidadao;
 
 /**
  * Classe de manipulacao de objetos persistidos via JPA
- * Objetos da classe bean {@link Cidadao}
+ * Objetos da classe bean {@link Cidadao}<br/>
+ * Cada inclusao, atualizacao ou exclusao recebe uma nova versao
+ *   ({@link Cidadao#getVersao()}); os Cidadaos excluidos sao mantidos
+ *   (marcados como excluidos) para que as exclusoes sejam informadas em
+ *   {@link #listarAlteracoes(long, int)}, e nao sao retornados pelas
+ *   demais consultas.<br/>
+ * As versoes sao reservadas no contador {@link VersaoCidadao}, que
+ *   permanece bloqueado ate' o termino da transacao: uma transacao nao
+ *   confirmada nunca possui versoes menores que as de uma ja' confirmada,
+ *   e a paginacao por versao nao salta alteracoes. O contador deve ser
+ *   preparado na inicializacao da aplicacao ({@link #prepararVersoes()}).
  * @author Robson Martins (robson@robsonmartins.com)
  */
-public class CidadaoDAO extends GenericDAO<Cidadao> {
+public class CidadaoDAO extends GenericBatchDAO<Cidadao> {
 
 	protected static Logger logger;
 	protected static boolean trace;
@@ -44,6 +61,9 @@ public class CidadaoDAO extends GenericDAO<Cidadao> {
 		Cidadao cidadao = null;
 		try {
 			cidadao = super.localizar(dname);
+			if (cidadao != null && cidadao.isExcluido()) {
+				cidadao = null;
+			}
 		} catch (Exception e) {
 			if (trace) {
 				logger.trace("Erro ao localizar cidadao", e);
@@ -62,18 +82,76 @@ public class CidadaoDAO extends GenericDAO<Cidadao> {
 		return cidadao;
 	}
 	
+	/**
+	 * Retorna um Cidadao pelo CPF.
+	 * @param cpf Numero do CPF do Cidadao.
+	 * @return Objeto que representa o Cidadao, ou null se nao encontrado.
+	 */
+	public Cidadao localizarPorCpf(String cpf) {
+		return localizarPorAtributo("cpf", cpf);
+	}
+
+	/**
+	 * Retorna um Cidadao pelo RIC.
+	 * @param ric Numero do RIC do Cidadao.
+	 * @return Objeto que representa o Cidadao, ou null se nao encontrado.
+	 */
+	public Cidadao localizarPorRic(String ric) {
+		return localizarPorAtributo("ric", ric);
+	}
+
+	/* Retorna um Cidadao (nao excluido) pelo valor de um atributo
+	 *   indexado, por igualdade (de modo a usar o indice).
+	 * @param atributo Nome do atributo ("cpf" ou "ric").
+	 * @param valor Valor do atributo.
+	 * @return Objeto que representa o Cidadao, ou null se nao encontrado.
+	 */
+	@SuppressWarnings("unchecked")
+	private Cidadao localizarPorAtributo(String atributo, String valor) {
+		if (valor == null) { return null; }
+		if (trace) {
+			logger.trace(String.format(
+					"Localizar cidadao %s='%s'", atributo, valor));
+		}
+		Cidadao cidadao = null;
+		try {
+			List<Cidadao> list = (List<Cidadao>) em.createQuery(
+					"from Cidadao c where c." + atributo + " = :valor" +
+					" and c.excluido = false")
+					.setParameter("valor", valor)
+					.setMaxResults(1)
+					.getResultList();
+			if (!list.isEmpty()) {
+				cidadao = list.get(0);
+			}
+		} catch (Exception e) {
+			if (trace) {
+				logger.trace(String.format(
+						"Localizar cidadao: %s", e.getLocalizedMessage()));
+			}
+		}
+		if (trace) {
+			logger.trace((cidadao != null)
+					? String.format("Cidadao encontrado - DN: %s", cidadao.getDname())
+					: "Cidadao nao encontrado");
+		}
+		return cidadao;
+	}
+
 	/**
 	 * Lista todos os Cidadaos.
 	 * @return Lista de Cidadaos.
 	 */
 	@Override
+	@SuppressWarnings("unchecked")
 	public List<Cidadao> listar() {
 		if (trace) {
 			logger.trace("Listar cidadaos");
 		}
 		List<Cidadao> list = null;
 		try {
-			list = super.listar();
+			list = (List<Cidadao>) em.createQuery(
+					"from Cidadao c where c.excluido = false").getResultList();
 		} catch (Exception e) {
 			if (trace) {
 				logger.trace("Erro ao Listar cidadao", e);
@@ -86,6 +164,129 @@ public class CidadaoDAO extends GenericDAO<Cidadao> {
 		return list;
 	}
 	
+	/**
+	 * Lista uma pagina de Cidadaos, em ordem de DN (paginacao por chave:
+	 *   cada pagina inicia apos o ultimo DN da pagina anterior).
+	 * @param aposDname DN do ultimo Cidadao da pagina anterior
+	 *   (null = primeira pagina).
+	 * @param tamanhoPagina Numero maximo de Cidadaos na pagina.
+	 * @return Lista de Cidadaos.
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Cidadao> listarPagina(String aposDname, int tamanhoPagina) {
+		if (trace) {
+			logger.trace(String.format("Listar cidadaos apos DN: %s", aposDname));
+		}
+		List<Cidadao> list = null;
+		try {
+			Query query = (aposDname != null)
+				? em.createQuery("from Cidadao c where c.excluido = false" +
+						" and c.dname > :dname order by c.dname")
+						.setParameter("dname", aposDname)
+				: em.createQuery("from Cidadao c where c.excluido = false" +
+						" order by c.dname");
+			list = (List<Cidadao>) query.setMaxResults(tamanhoPagina).getResultList();
+		} catch (Exception e) {
+			if (trace) {
+				logger.trace("Erro ao Listar cidadao", e);
+			}
+		}
+		if (trace) {
+			logger.trace(String.format("%d cidadaos encontrados",
+					(list != null) ? list.size() : 0));
+		}
+		return list;
+	}
+
+	/**
+	 * Percorre todos os Cidadaos, em ordem de DN, atraves de um cursor
+	 *   (somente leitura) do banco de dados ({@link GenericBatchDAO.Cursor}).
+	 * @param processador Processador de cada Cidadao.
+	 * @param tamanhoLote Numero de linhas obtidas do banco de dados
+	 *   a cada leitura do cursor.
+	 * @return Numero de Cidadaos processados.
+	 * @throws Exception
+	 */
+	public long percorrer(Processador processador,
+			int tamanhoLote) throws Exception {
+		if (trace) {
+			logger.trace("Percorrer cidadaos");
+		}
+		long total = 0;
+		Cursor<Cidadao> cursor = percorrer(
+				"from Cidadao c where c.excluido = false order by c.dname", tamanhoLote);
+		try {
+			while (cursor.hasNext()) {
+				processador.processar(cursor.next());
+				total++;
+			}
+		} finally {
+			cursor.close();
+		}
+		if (trace) {
+			logger.trace(String.format("%d cidadaos percorridos", total));
+		}
+		return total;
+	}
+
+	/**
+	 * Abre um cursor (somente leitura) sobre todos os Cidadaos (nao
+	 *   excluidos), em ordem de DN.
+	 * @return Cursor dos Cidadaos.
+	 * @throws Exception 
+	 */
+	@Override
+	public Cursor<Cidadao> percorrer() throws Exception {
+		return percorrer("from Cidadao c where c.excluido = false order by c.dname");
+	}
+
+	/**
+	 * Lista uma pagina de Cidadaos (nao excluidos), em ordem de DN.
+	 * @param aposId DN do ultimo Cidadao da pagina anterior
+	 *   (null = primeira pagina).
+	 * @param limite Numero maximo de Cidadaos na pagina.
+	 * @return Lista de Cidadaos.
+	 */
+	@Override
+	public List<Cidadao> listar(Object aposId, int limite) {
+		return listarPagina((String) aposId, limite);
+	}
+
+	/**
+	 * Lista as alteracoes (inclusoes, atualizacoes e exclusoes) de
+	 *   Cidadaos posteriores a uma versao, em ordem de versao. Cada
+	 *   Cidadao aparece uma unica vez, no seu estado atual; os excluidos
+	 *   sao retornados com {@link Cidadao#isExcluido()} verdadeiro.
+	 * @param aposVersao Versao da ultima alteracao ja' recebida
+	 *   (0 = todas).
+	 * @param tamanhoPagina Numero maximo de Cidadaos retornados.
+	 * @return Lista de Cidadaos alterados.
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Cidadao> listarAlteracoes(long aposVersao, int tamanhoPagina) {
+		if (trace) {
+			logger.trace(String.format("Listar alteracoes de cidadaos apos versao: %d",
+					aposVersao));
+		}
+		List<Cidadao> list = null;
+		try {
+			list = (List<Cidadao>) em.createQuery(
+					"from Cidadao c where c.versao > :versao order by c.versao")
+					.setParameter("versao", aposVersao)
+					.setMaxResults(tamanhoPagina)
+					.getResultList();
+		} catch (Exception e) {
+			if (trace) {
+				logger.trace("Erro ao Listar alteracoes de cidadaos", e);
+			}
+		}
+		if (trace) {
+			logger.trace(String.format("%d cidadaos alterados encontrados",
+					(list != null) ? list.size() : 0));
+		}
+		return list;
+	}
+
 	/**
 	 * Insere ou Atualiza (persiste) um Cidadao. 
 	 * @param cidadao Cidadao a ser persistido.
@@ -98,6 +299,8 @@ public class CidadaoDAO extends GenericDAO<Cidadao> {
 					cidadao.getNome()));
 		}
 		try {
+			cidadao.setVersao(reservarVersoes(1));
+			cidadao.setExcluido(false);
 			super.inserir(cidadao);
 			if (trace) {
 				logger.trace("Cidadao inserido/atualizado");
@@ -109,7 +312,59 @@ public class CidadaoDAO extends GenericDAO<Cidadao> {
 	}
 	
 	/**
-	 * Exclui um Cidadao do banco de dados.
+	 * Insere ou Atualiza (persiste) um lote de Cidadaos, na transacao
+	 *   corrente. Os Cidadaos sao gravados com uma unica consulta dos ja'
+	 *   cadastrados e uma unica reserva de versoes, e as instrucoes SQL
+	 *   sao enviadas em lotes (hibernate.jdbc.batch_size). Ao final, os
+	 *   Cidadaos do lote sao desanexados do contexto de persistencia.
+	 * @param cidadaos Cidadaos a serem persistidos (DNs distintos).
+	 * @throws Exception 
+	 */
+	@Override
+	@SuppressWarnings("unchecked")
+	public void inserirLote(Collection<Cidadao> lote) throws Exception {
+		if (lote.isEmpty()) { return; }
+		List<Cidadao> cidadaos = new ArrayList<Cidadao>(lote);
+		if (trace) {
+			logger.trace(String.format("Inserir/Atualizar lote de %d cidadaos",
+					cidadaos.size()));
+		}
+		try {
+			/* as versoes sao reservadas antes de qualquer gravacao */
+			long versao = reservarVersoes(cidadaos.size());
+			List<String> dnames = new ArrayList<String>(cidadaos.size());
+			for (Cidadao cidadao : cidadaos) {
+				dnames.add(cidadao.getDname());
+			}
+			Set<String> existentes = new HashSet<String>(em.createQuery(
+					"select c.dname from Cidadao c where c.dname in (:dnames)")
+					.setParameter("dnames", dnames)
+					.getResultList());
+			List<Cidadao> gravados = new ArrayList<Cidadao>(cidadaos.size());
+			for (int i = 0; i < cidadaos.size(); i++) {
+				Cidadao cidadao = cidadaos.get(i);
+				cidadao.setVersao(versao + i);
+				cidadao.setExcluido(false);
+				if (existentes.contains(cidadao.getDname())) {
+					gravados.add(em.merge(cidadao));
+				} else {
+					em.persist(cidadao);
+					gravados.add(cidadao);
+				}
+			}
+			desanexar(gravados);
+			if (trace) {
+				logger.trace("Lote de cidadaos inserido/atualizado");
+			}
+		} catch (Exception e) {
+			logger.error("Erro ao inserir/atualizar lote de cidadaos", e);
+			throw new Exception("Erro ao inserir/atualizar cidad\u00E3os", e);
+		}
+	}
+	
+	/**
+	 * Exclui um Cidadao do banco de dados (o registro e' mantido,
+	 *   marcado como excluido, com uma nova versao).
 	 * @param dname Distinguished Name (DN)
 	 *   do Cidadao a ser removido.
 	 * @throws Exception 
@@ -119,7 +374,14 @@ public class CidadaoDAO extends GenericDAO<Cidadao> {
 			logger.trace(String.format("Excluir cidadao DN: %s", dname));
 		}
 		try {
-			super.excluir(dname);
+			long versao = reservarVersoes(1);
+			Cidadao cidadao = em.find(Cidadao.class, dname);
+			if (cidadao == null || cidadao.isExcluido()) {
+				throw new Exception(String.format("Cidadao not found: %s", dname));
+			}
+			cidadao.setVersao(versao);
+			cidadao.setExcluido(true);
+			em.flush();
 			if (trace) {
 				logger.trace("Cidadao excluido");
 			}
@@ -128,4 +390,132 @@ public class CidadaoDAO extends GenericDAO<Cidadao> {
 			throw new Exception("Erro ao excluir cidad\u00E3o", e);
 		}
 	}
+
+	/**
+	 * Prepara o contador das versoes das alteracoes de Cidadaos, criando-o
+	 *   se ainda nao existir, e atribui uma versao aos Cidadaos gravados
+	 *   antes da existencia das versoes. Deve ser executado uma unica vez,
+	 *   na inicializacao da aplicacao, em uma transacao.
+	 * @return Numero de Cidadaos que receberam uma versao.
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	public int prepararVersoes() throws Exception {
+		VersaoCidadao contador = em.find(VersaoCidadao.class,
+				VersaoCidadao.ID, LockModeType.PESSIMISTIC_WRITE);
+		if (contador == null) {
+			Number maximo = (Number) em.createQuery(
+					"select max(c.versao) from Cidadao c").getSingleResult();
+			contador = new VersaoCidadao();
+			contador.setId(VersaoCidadao.ID);
+			contador.setValor((maximo != null) ? maximo.longValue() : 0);
+			em.persist(contador);
+			em.flush();
+		}
+		List<String> dnames = (List<String>) em.createQuery(
+				"select c.dname from Cidadao c where c.versao = 0 order by c.dname")
+				.getResultList();
+		if (dnames.isEmpty()) { return 0; }
+		long versao = reservarVersoes(dnames.size());
+		for (String dname : dnames) {
+			em.createQuery(
+					"update Cidadao c set c.versao = :versao where c.dname = :dname")
+					.setParameter("versao", versao++)
+					.setParameter("dname", dname)
+					.executeUpdate();
+		}
+		return dnames.size();
+	}
+
+	/* Reserva um intervalo de versoes das alteracoes de Cidadaos. O
+	 *   registro do contador permanece bloqueado ate' o termino da
+	 *   transacao, de modo que as versoes sao atribuidas na ordem de
+	 *   confirmacao das transacoes. Deve preceder qualquer gravacao de
+	 *   Cidadaos na transacao.
+	 * @param quantidade Numero de versoes.
+	 * @return Primeira versao reservada.
+	 * @throws Exception Se o contador nao tiver sido preparado.
+	 */
+	private long reservarVersoes(int quantidade) throws Exception {
+		VersaoCidadao contador = em.find(VersaoCidadao.class,
+				VersaoCidadao.ID, LockModeType.PESSIMISTIC_WRITE);
+		if (contador == null) {
+			throw new Exception("Citizen version counter not initialized");
+		}
+		long primeira = contador.getValor() + 1;
+		contador.setValor(contador.getValor() + quantidade);
+		return primeira;
+	}
+
+	/**
+	 * Exclui um Cidadao do banco de dados (o registro e' mantido,
+	 *   marcado como excluido).
+	 * @param id Distinguished Name (DN) do Cidadao a ser removido.
+	 * @throws Exception 
+	 */
+	@Override
+	public void excluir(Object id) throws Exception {
+		excluir((String) id);
+	}
+
+	/**
+	 * Exclui um lote de Cidadaos do banco de dados (os registros sao
+	 *   mantidos, marcados como excluidos, cada um com uma nova versao).
+	 * @param ids Distinguished Names (DN) dos Cidadaos a serem removidos.
+	 * @return Numero de Cidadaos removidos.
+	 * @throws Exception 
+	 */
+	@Override
+	public int excluirLote(Collection<?> ids) throws Exception {
+		if (ids.isEmpty()) { return 0; }
+		List<Object> bloco = new ArrayList<Object>(getIntervaloLote());
+		int excluidos = 0;
+		for (Object id : ids) {
+			bloco.add(id);
+			if (bloco.size() == getIntervaloLote()) {
+				excluidos += marcarExcluidos(bloco);
+				bloco.clear();
+			}
+		}
+		if (!bloco.isEmpty()) {
+			excluidos += marcarExcluidos(bloco);
+		}
+		return excluidos;
+	}
+
+	/* Marca um bloco de Cidadaos como excluidos, com novas versoes (as
+	 *   atualizacoes sao enviadas em lotes, hibernate.jdbc.batch_size), e
+	 *   os desanexa do contexto de persistencia.
+	 * @param dnames DNs dos Cidadaos.
+	 * @return Numero de Cidadaos marcados.
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	private int marcarExcluidos(List<Object> dnames) throws Exception {
+		long versao = reservarVersoes(dnames.size());
+		List<Cidadao> cidadaos = (List<Cidadao>) em.createQuery(
+				"from Cidadao c where c.excluido = false and c.dname in (:dnames)")
+				.setParameter("dnames", dnames)
+				.getResultList();
+		for (Cidadao cidadao : cidadaos) {
+			cidadao.setVersao(versao++);
+			cidadao.setExcluido(true);
+		}
+		int marcados = cidadaos.size();
+		desanexar(cidadaos);
+		return marcados;
+	}
+
+	/**
+	 * Processador dos Cidadaos percorridos por
+	 *   {@link CidadaoDAO#percorrer(Processador, int)}.
+	 */
+	public interface Processador {
+		/**
+		 * Processa um Cidadao.
+		 * @param cidadao Cidadao.
+		 * @throws Exception Interrompe o percurso.
+		 */
+		public void processar(Cidadao cidadao) throws Exception;
+	}
 }
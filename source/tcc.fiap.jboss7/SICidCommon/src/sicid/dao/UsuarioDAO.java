@@ -3,7 +3,6 @@ package sicid.dao;
 import java.util.List;
 
 import javax.persistence.EntityManager;
-import javax.persistence.Query;
 
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
@@ -75,11 +74,10 @@ public class UsuarioDAO extends GenericDAO<Usuario> {
 					"Localizar usuario username='%s'", username));
 		}
 		Usuario usuario = null;
-		Query q = null;
 		try {
-			q = em.createQuery("from Usuario where username like :username");
-			q.setParameter("username", username);
-			usuario = (Usuario) q.getSingleResult();
+			usuario = em.createNamedQuery("Usuario.localizarPorUsername", Usuario.class)
+					.setParameter("username", username)
+					.getSingleResult();
 		} catch (Exception e) {
 			if (trace) {
 				logger.trace(String.format(
@@ -118,18 +116,16 @@ public class UsuarioDAO extends GenericDAO<Usuario> {
 	 * @param role Role dos usuarios.
 	 * @return Lista de Usuarios.
 	 */
-	@SuppressWarnings("unchecked")
 	public List<Usuario> listarPorRole(String role) {
 		if (trace) {
 			logger.trace(String.format(
 					"Listar usuarios por role=%s", role));
 		}
 		List<Usuario> list = null;
-		Query q = null;
 		try {
-			q = em.createQuery("from Usuario where role like :role");
-			q.setParameter("role", role);
-			list = (List<Usuario>) q.getResultList();
+			list = em.createNamedQuery("Usuario.listarPorRole", Usuario.class)
+					.setParameter("role", role)
+					.getResultList();
 		} catch (Exception e) {
 			if (trace) {
 				logger.trace("Erro ao Listar usuarios", e);
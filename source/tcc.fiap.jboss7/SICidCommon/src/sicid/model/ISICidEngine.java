@@ -1,6 +1,7 @@
 package sicid.model;
 
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.List;
 
 import javax.ejb.Local;
@@ -9,6 +10,10 @@ import sicid.bean.CertificadoConfiavel;
 import sicid.bean.CertificadoStatus;
 import sicid.bean.Cidadao;
 import sicid.bean.ConsumidorConfiavel;
+import sicid.bean.EventoRevogacao;
+import sicid.bean.IdentificacaoCidadao;
+import sicid.bean.ResultadoCadastroLote;
+import sicid.bean.TipoEventoRevogacao;
 import sicid.bean.Usuario;
 
 /**
@@ -21,6 +26,9 @@ import sicid.bean.Usuario;
 	
 	/** Role para acessar o servico SICid. */
 	public static final String SICID_ACCESS_ROLE = "wsuser";
+	/** Role para acessar o servico SICid e notificar revogacoes de
+	 *  certificados (aplicacao de uma AC, ex: ICPAdmin). */
+	public static final String SICID_ICP_ROLE = "icpuser";
 	/** Role para acessar a aplicacao web do SICid Admin. */
 	public static final String SICIDWEB_ACCESS_ROLE = "admin";
 	
@@ -31,6 +39,19 @@ import sicid.bean.Usuario;
 	 */
 	public CertificadoStatus validarCertificado(String content);
 
+	/**
+	 * Valida um lote de certificados digitais. Os certificados sao
+	 *   validados em paralelo, e certificados repetidos sao validados
+	 *   uma unica vez.
+	 * @param contents Lista de conteudos de certificados, codificados
+	 *   em Base64.
+	 * @return Lista de status dos certificados, na ordem da lista de entrada.
+	 * @throws Exception Se a lista for nula ou exceder o tamanho maximo
+	 *   de um lote.
+	 */
+	public List<CertificadoStatus> validarCertificados(List<String> contents)
+			throws Exception;
+
 	/**
 	 * Consulta os dados cadastrais de um cidadao,
 	 *   a partir de seu certificado digital.
@@ -39,12 +60,107 @@ import sicid.bean.Usuario;
 	 */
 	public Cidadao consultarCidadao(String content);
 
+	/**
+	 * Consulta os dados cadastrais de um cidadao pelo numero do CPF.
+	 * @param cpf Numero do CPF.
+	 * @return Dados cadastrais do cidadao, ou null se nao encontrado.
+	 */
+	public Cidadao consultarCidadaoPorCpf(String cpf);
+
+	/**
+	 * Consulta os dados cadastrais de um cidadao pelo numero do RIC.
+	 * @param ric Numero do RIC.
+	 * @return Dados cadastrais do cidadao, ou null se nao encontrado.
+	 */
+	public Cidadao consultarCidadaoPorRic(String ric);
+
+	/**
+	 * Valida um certificado digital e, se valido, consulta os dados
+	 *   cadastrais do cidadao (equivale a {@link #validarCertificado(String)}
+	 *   seguido de {@link #consultarCidadao(String)}, com uma unica
+	 *   decodificacao do certificado).
+	 * @param content Conteudo de um certificado, codificado em Base64.  
+	 * @return Status do certificado e, se valido, dados cadastrais
+	 *   do cidadao.
+	 */
+	public IdentificacaoCidadao identificarCidadao(String content);
+
 	/**
 	 * Retorna a lista de cidadaos cadastrados.
 	 * @return Lista de cidadaos.
 	 */
 	public List<Cidadao> listarCidadaos();
 
+	/**
+	 * Retorna uma pagina da lista de cidadaos cadastrados, em ordem de DN.
+	 * @param aposDname DN do ultimo cidadao da pagina anterior
+	 *   (null = primeira pagina).
+	 * @param tamanhoPagina Numero maximo de cidadaos na pagina
+	 *   (limitado pela configuracao).
+	 * @return Lista de cidadaos (vazia apos a ultima pagina).
+	 */
+	public List<Cidadao> listarCidadaos(String aposDname, int tamanhoPagina);
+
+	/**
+	 * Retorna as alteracoes (inclusoes, atualizacoes e exclusoes) de
+	 *   cidadaos posteriores a uma versao, em ordem de versao.
+	 * @param aposVersao Versao da ultima alteracao ja' recebida
+	 *   (0 = todas).
+	 * @param tamanhoPagina Numero maximo de cidadaos retornados
+	 *   (limitado pela configuracao).
+	 * @return Lista de cidadaos alterados, no seu estado atual (os
+	 *   excluidos com {@link Cidadao#isExcluido()} verdadeiro), vazia se
+	 *   nao houver alteracoes.
+	 */
+	public List<Cidadao> listarAlteracoesCidadaos(long aposVersao, int tamanhoPagina);
+
+	/**
+	 * Exporta todos os cidadaos cadastrados, em ordem de DN, gravando-os
+	 *   um a um em um stream no formato {@link sicid.ws.FluxoCidadaos}.
+	 * @param out Stream de saida (nao e' fechado).
+	 * @return Numero de cidadaos exportados.
+	 * @throws Exception
+	 */
+	public long exportarCidadaos(OutputStream out) throws Exception;
+
+	/**
+	 * Retorna o pacote de validacao offline mais recente (certificados
+	 *   confiaveis e CRLs dos seus emissores), assinado pelo SICid.
+	 * @param versao Versao do pacote atual do cliente (0 = nenhuma).
+	 * @return Pacote assinado, contendo somente as diferencas em relacao
+	 *   'a versao do cliente quando possivel, ou vazio se o cliente ja'
+	 *   estiver na versao mais recente.
+	 * @throws Exception
+	 */
+	public byte[] obterPacoteValidacao(long versao) throws Exception;
+
+	/**
+	 * Notifica a revogacao de um certificado (ex: pela AC emissora). As
+	 *   informacoes de revogacao em cache sao descartadas e o certificado
+	 *   e' validado novamente; se a revogacao for confirmada, e' publicado
+	 *   um evento {@link TipoEventoRevogacao#CERTIFICADO_REVOGADO}.<br/>
+	 * Somente certificados de emissores confiaveis sao aceitos, e o numero
+	 *   de notificacoes por emissor e' limitado (sicid.revogacao.limite
+	 *   notificacoes a cada sicid.revogacao.janela ms).
+	 * @param content Conteudo de um certificado, codificado em Base64.
+	 * @return Status atual do certificado.
+	 * @throws Exception Se o emissor nao for confiavel, ou se o limite de
+	 *   notificacoes do emissor for excedido.
+	 */
+	public CertificadoStatus notificarRevogacao(String content) throws Exception;
+
+	/**
+	 * Retorna os eventos de revogacao posteriores a um numero de
+	 *   sequencia, aguardando por novos eventos se nao houver nenhum.
+	 * @param aposSequencia Sequencia do ultimo evento recebido (0 = nenhum).
+	 * @param espera Tempo maximo de espera por novos eventos, em ms
+	 *   (0 = nao aguarda).
+	 * @return Lista de eventos, em ordem de sequencia.
+	 * @throws Exception
+	 */
+	public List<EventoRevogacao> listarEventosRevogacao(long aposSequencia,
+			long espera) throws Exception;
+
 	/**
 	 * Retorna a lista de certificados confiaveis cadastrados.
 	 * @return Lista de certificados confiaveis.
@@ -80,6 +196,16 @@ import sicid.bean.Usuario;
 	 */
 	public void adicionarAppConfiavel(InputStream istream) throws Exception;
 
+	/**
+	 * Adiciona a aplicacao de uma AC (ex: ICPAdmin) ao cadastro, a partir
+	 *   de um objeto {@link InputStream} (que pode apontar para um arquivo
+	 *   de certificado). Alem do acesso ao servico, a aplicacao pode
+	 *   notificar revogacoes de certificados ({@link #SICID_ICP_ROLE}).
+	 * @param istream Objeto InputStream.
+	 * @throws Exception
+	 */
+	public void adicionarAppIcp(InputStream istream) throws Exception;
+
 	/**
 	 * Remove um consumidor confiavel do cadastro.
 	 * @param dname Distinguished Name (DN) do consumidor no banco de dados.
@@ -144,6 +270,29 @@ import sicid.bean.Usuario;
 	 */
 	public void removerCidadao(String dname) throws Exception;
 	
+	/**
+	 * Cadastra (inclui ou atualiza) cidadaos em lote, a partir de um
+	 *   arquivo ZIP contendo um certificado digital (DER ou PEM) por
+	 *   cidadao. Os certificados sao analisados em paralelo e os cidadaos
+	 *   sao gravados em blocos, cada um em uma transacao propria: uma
+	 *   falha afeta somente os registros envolvidos, informados no
+	 *   relatorio de erros.
+	 * @param istream Objeto InputStream com o conteudo do arquivo ZIP.
+	 * @param ouvinte Ouvinte do progresso do cadastro (pode ser null).
+	 * @return Resultado do cadastro, com o relatorio de erros.
+	 * @throws Exception Se o arquivo nao puder ser lido.
+	 */
+	public ResultadoCadastroLote adicionarCidadaos(InputStream istream,
+			OuvinteCadastroLote ouvinte) throws Exception;
+	
+	/**
+	 * Grava um bloco de cidadaos em uma nova transacao (usado pelo
+	 *   cadastro em lote).
+	 * @param cidadaos Cidadaos a serem gravados (DNs distintos).
+	 * @throws Exception
+	 */
+	public void adicionarBlocoCidadaos(List<Cidadao> cidadaos) throws Exception;
+	
 	/**
 	 * Retorna informacoes de um cidadao contidas em seu certificado digital.
 	 * @param content Conteudo de um certificado, codificado em Base64.
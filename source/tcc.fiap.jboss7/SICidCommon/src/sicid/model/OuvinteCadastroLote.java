@@ -0,0 +1,18 @@
+package sicid.model;
+
+import sicid.bean.ResultadoCadastroLote;
+
+/**
+ * Ouvinte do progresso de um cadastro de cidadaos em lote
+ *   ({@link ISICidEngine#adicionarCidadaos(java.io.InputStream, OuvinteCadastroLote)}).
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+public interface OuvinteCadastroLote {
+
+	/**
+	 * Notifica o progresso do cadastro, apos cada bloco de registros.
+	 * @param resultado Resultado parcial do cadastro.
+	 */
+	public void progresso(ResultadoCadastroLote resultado);
+	
+}
@@ -0,0 +1,428 @@
+package sicid.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache de CRLs (Listas de Certificados Revogados), indexado pela URL
+ *   do ponto de distribuicao.<br/>
+ * Cada CRL e' mantida como um indice em disco, mapeado em memoria
+ *   ({@link IndiceCRL}), reaproveitado apos o reinicio da JVM enquanto
+ *   a CRL estiver vigente.<br/>
+ * Uma CRL obtida e' mantida ate' a sua proxima atualizacao (nextUpdate),
+ *   e e' atualizada em segundo plano pouco antes de expirar. Caso a
+ *   atualizacao falhe, a ultima CRL valida continua sendo utilizada,
+ *   sem aguardar novos downloads, por um periodo de tolerancia
+ *   configuravel, enquanto a atualizacao e' repetida em segundo plano
+ *   a cada minuto. Downloads simultaneos
+ *   de uma mesma URL sao agrupados em uma unica requisicao, e um
+ *   download iniciado antes de uma invalidacao da URL e' descartado.<br/>
+ * Configuracao (system properties; tempos em ms):
+ * <ul>
+ *   <li>sicid.crl.antecedencia: antecedencia da atualizacao em segundo
+ *     plano, em relacao ao nextUpdate (padrao: 5 minutos);</li>
+ *   <li>sicid.crl.tolerancia: tempo maximo de uso de uma CRL apos o seu
+ *     nextUpdate, caso nao seja possivel atualiza-la (padrao: 1 hora);</li>
+ *   <li>sicid.crl.ttl: tempo de vida de uma CRL sem nextUpdate
+ *     (padrao: 1 hora);</li>
+ *   <li>sicid.crl.timeout: tempo maximo de conexao e de leitura de um
+ *     download (padrao: 30 segundos);</li>
+ *   <li>sicid.crl.threads: numero de threads das atualizacoes em
+ *     segundo plano (padrao: 2);</li>
+ *   <li>sicid.crl.diretorio: diretorio dos indices de CRLs (padrao:
+ *     jboss.server.data.dir/sicid-crl ou, fora do servidor,
+ *     user.home/.sicid/crl). O diretorio e' criado com permissoes somente
+ *     para o proprietario; se pertencer a outro usuario ou tiver
+ *     permissoes para outros usuarios, e' substituido por um diretorio
+ *     temporario exclusivo (os indices nao sao reaproveitados apos o
+ *     reinicio da JVM).</li>
+ * </ul>
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+public class CacheCRL {
+
+	/* antecedencia da atualizacao em segundo plano, em ms */
+	private static final long ANTECEDENCIA =
+		Long.getLong("sicid.crl.antecedencia", 5 * 60 * 1000L);
+	/* tolerancia para uso de uma CRL expirada, em ms */
+	private static final long TOLERANCIA =
+		Long.getLong("sicid.crl.tolerancia", 60 * 60 * 1000L);
+	/* tempo de vida de uma CRL sem nextUpdate, em ms */
+	private static final long TTL_SEM_NEXTUPDATE =
+		Long.getLong("sicid.crl.ttl", 60 * 60 * 1000L);
+	/* intervalo entre tentativas de atualizacao apos uma falha, em ms */
+	private static final long INTERVALO_RETENTATIVA = 60 * 1000L;
+	/* numero de threads das atualizacoes em segundo plano */
+	private static final int THREADS =
+		Math.max(Integer.getInteger("sicid.crl.threads", 2), 1);
+	/* diretorio dos indices de CRLs */
+	private static final File DIRETORIO = prepararDiretorio();
+
+	/* CRLs armazenadas, por URL */
+	private static final ConcurrentMap<String, Entrada> crls =
+		new ConcurrentHashMap<String, Entrada>();
+	/* URLs invalidadas, cujo indice em disco nao deve ser reaproveitado
+	   ate' o proximo download */
+	private static final Set<String> invalidadas =
+		Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	/* downloads em andamento, por URL */
+	private static final ConcurrentMap<String, FutureTask<Entrada>> downloads =
+		new ConcurrentHashMap<String, FutureTask<Entrada>>();
+	/* geracao de cada URL, incrementada a cada invalidacao: um download
+	   (ou abertura de indice) iniciado em uma geracao anterior nao e'
+	   publicado no cache */
+	private static final ConcurrentMap<String, AtomicLong> geracoes =
+		new ConcurrentHashMap<String, AtomicLong>();
+	/* trava da publicacao e da invalidacao das entradas */
+	private static final Object trava = new Object();
+
+	/* ouvintes das reemissoes de CRLs */
+	private static final CopyOnWriteArrayList<OuvinteCRL> ouvintes =
+		new CopyOnWriteArrayList<OuvinteCRL>();
+
+	/* executor das atualizacoes em segundo plano */
+	private static ScheduledExecutorService agendador;
+
+	/**
+	 * Obtem o indice de uma CRL (Lista de Certificados Revogados), a
+	 *   partir do cache, do indice gravado em disco ou, se necessario,
+	 *   do seu ponto de distribuicao.
+	 * @param crlURL URL da CRL (Lista de Certificados Revogados).
+	 * @return Indice da CRL.
+	 * @throws Exception
+	 */
+	public static IndiceCRL getCRL(String crlURL) throws Exception {
+
+		Entrada entrada = crls.get(crlURL);
+		if (entrada == null && !invalidadas.contains(crlURL)) {
+			entrada = abrir(crlURL);
+		}
+		/* uma CRL expirada, dentro da tolerancia, e' usada sem aguardar
+		   o download: a sua atualizacao ja' esta' agendada em segundo
+		   plano, e e' repetida a cada INTERVALO_RETENTATIVA */
+		if (entrada != null &&
+				System.currentTimeMillis() < entrada.expiraEm + TOLERANCIA) {
+			return entrada.crl;
+		}
+		return baixar(crlURL).crl;
+	}
+
+	/**
+	 * Remove uma CRL do cache, forcando o seu download na proxima consulta
+	 *   (o indice gravado em disco nao e' reaproveitado).
+	 * @param crlURL URL da CRL (Lista de Certificados Revogados).
+	 */
+	public static void invalidar(String crlURL) {
+		synchronized (trava) {
+			getGeracao(crlURL).incrementAndGet();
+			invalidadas.add(crlURL);
+			crls.remove(crlURL);
+			/* consultas posteriores nao aguardam um download anterior */
+			downloads.remove(crlURL);
+		}
+	}
+
+	/**
+	 * Remove todas as CRLs do cache, forcando o seu download na proxima
+	 *   consulta.
+	 */
+	public static void limpar() {
+		synchronized (trava) {
+			for (AtomicLong geracao : geracoes.values()) {
+				geracao.incrementAndGet();
+			}
+			invalidadas.addAll(crls.keySet());
+			crls.clear();
+			downloads.clear();
+		}
+	}
+
+	/**
+	 * Retorna os indices das CRLs armazenados no cache (inclusive os
+	 *   expirados ainda nao atualizados).
+	 * @return Copia dos indices das CRLs, por URL.
+	 */
+	public static Map<String, IndiceCRL> listar() {
+		Map<String, IndiceCRL> lista = new TreeMap<String, IndiceCRL>();
+		for (Map.Entry<String, Entrada> entrada : crls.entrySet()) {
+			lista.put(entrada.getKey(), entrada.getValue().crl);
+		}
+		return lista;
+	}
+
+	/**
+	 * Registra um ouvinte das reemissoes de CRLs.
+	 * @param ouvinte Ouvinte a ser notificado.
+	 */
+	public static void adicionarOuvinte(OuvinteCRL ouvinte) {
+		ouvintes.addIfAbsent(ouvinte);
+	}
+
+	/**
+	 * Remove um ouvinte das reemissoes de CRLs.
+	 * @param ouvinte Ouvinte registrado.
+	 */
+	public static void removerOuvinte(OuvinteCRL ouvinte) {
+		ouvintes.remove(ouvinte);
+	}
+
+	/* Notifica os ouvintes da reemissao de uma CRL.
+	 * @param crlURL URL da CRL (Lista de Certificados Revogados).
+	 * @param crl Indice da nova CRL.
+	 */
+	private static void notificar(String crlURL, IndiceCRL crl) {
+		for (OuvinteCRL ouvinte : ouvintes) {
+			try {
+				ouvinte.crlReemitida(crlURL, crl);
+			} catch (RuntimeException e) { }
+		}
+	}
+
+	/* Abre o indice de uma CRL gravado em disco (ex: antes do reinicio
+	 *   da JVM) e, se ainda vigente ou dentro da tolerancia, o armazena
+	 *   no cache, agendando a sua atualizacao.
+	 * @param crlURL URL da CRL (Lista de Certificados Revogados).
+	 * @return Entrada do cache com o indice (possivelmente expirada),
+	 *   ou null se nao existir ou nao for mais tolerada.
+	 */
+	private static Entrada abrir(String crlURL) {
+		long geracao = getGeracao(crlURL).get();
+		IndiceCRL crl = IndiceCRL.abrir(getArquivo(crlURL));
+		if (crl == null) {
+			return null;
+		}
+		/* o indice gravado vale somente ate' o nextUpdate da CRL */
+		long expiraEm = (crl.getNextUpdate() != null)
+			? crl.getNextUpdate().getTime()
+			: crl.getArquivo().lastModified() + TTL_SEM_NEXTUPDATE;
+		Entrada entrada = new Entrada(crl, expiraEm);
+		if (System.currentTimeMillis() >= entrada.expiraEm + TOLERANCIA) {
+			return null;
+		}
+		synchronized (trava) {
+			if (getGeracao(crlURL).get() != geracao) {
+				return null;
+			}
+			Entrada existente = crls.putIfAbsent(crlURL, entrada);
+			if (existente != null) {
+				return existente;
+			}
+		}
+		agendarAtualizacao(crlURL, entrada, entrada.expiraEm - ANTECEDENCIA);
+		return entrada;
+	}
+
+	/* Prepara o diretorio dos indices de CRLs: o diretorio configurado
+	 *   ou, se inseguro, um diretorio temporario exclusivo.
+	 * @return Diretorio dos indices.
+	 */
+	private static File prepararDiretorio() {
+		String dados = System.getProperty("jboss.server.data.dir");
+		File diretorio = new File(System.getProperty("sicid.crl.diretorio",
+				(dados != null) ? new File(dados, "sicid-crl").getPath()
+					: new File(System.getProperty("user.home"),
+							".sicid" + File.separator + "crl").getPath()));
+		try {
+			IndiceCRL.criarDiretorio(diretorio);
+			return diretorio;
+		} catch (IOException e) {
+			try {
+				/* criado somente com permissoes para o proprietario (POSIX) */
+				return Files.createTempDirectory("sicid-crl").toFile();
+			} catch (IOException ex) {
+				return diretorio;
+			}
+		}
+	}
+
+	/* Retorna a geracao de uma URL, criando-a se necessario.
+	 * @param crlURL URL da CRL (Lista de Certificados Revogados).
+	 * @return Geracao da URL.
+	 */
+	private static AtomicLong getGeracao(String crlURL) {
+		AtomicLong geracao = geracoes.get(crlURL);
+		if (geracao == null) {
+			AtomicLong nova = new AtomicLong();
+			geracao = geracoes.putIfAbsent(crlURL, nova);
+			if (geracao == null) {
+				geracao = nova;
+			}
+		}
+		return geracao;
+	}
+
+	/* Retorna o arquivo do indice de uma CRL.
+	 * @param crlURL URL da CRL (Lista de Certificados Revogados).
+	 * @return Arquivo do indice.
+	 */
+	private static File getArquivo(String crlURL) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-1").digest(
+					crlURL.getBytes("UTF-8"));
+			StringBuilder nome = new StringBuilder(hash.length * 2 + 4);
+			for (byte b : hash) {
+				nome.append(String.format("%02x", b & 0xFF));
+			}
+			return new File(DIRETORIO, nome.append(".idx").toString());
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/* Realiza o download de uma CRL e a armazena no cache. Requisicoes
+	 *   simultaneas para uma mesma URL aguardam um unico download. Se a
+	 *   URL for invalidada durante o download, a CRL obtida e' retornada
+	 *   a quem o iniciou, mas nao e' armazenada no cache.
+	 * @param crlURL URL da CRL (Lista de Certificados Revogados).
+	 * @return Entrada do cache com a CRL obtida.
+	 * @throws Exception
+	 */
+	private static Entrada baixar(final String crlURL) throws Exception {
+
+		FutureTask<Entrada> tarefa = new FutureTask<Entrada>(
+			new Callable<Entrada>() {
+				@Override
+				public Entrada call() throws Exception {
+					long geracao = getGeracao(crlURL).get();
+					Entrada atual = crls.get(crlURL);
+					File arquivo = getArquivo(crlURL);
+					IndiceCRL anterior = (atual != null)
+						? atual.crl : IndiceCRL.abrir(arquivo);
+					IndiceCRL crl = CertificadoValidador.downloadCRL(
+							crlURL, arquivo, anterior);
+					Entrada entrada = new Entrada(crl);
+					synchronized (trava) {
+						if (getGeracao(crlURL).get() != geracao) {
+							return entrada;
+						}
+						crls.put(crlURL, entrada);
+						invalidadas.remove(crlURL);
+					}
+					if (anterior != null && crl != anterior) {
+						notificar(crlURL, crl);
+					}
+					agendarAtualizacao(crlURL, entrada, 
+							entrada.expiraEm - ANTECEDENCIA);
+					return entrada;
+				}
+			});
+		FutureTask<Entrada> emAndamento = downloads.putIfAbsent(crlURL, tarefa);
+		if (emAndamento == null) {
+			emAndamento = tarefa;
+			try {
+				tarefa.run();
+			} finally {
+				downloads.remove(crlURL, tarefa);
+			}
+		}
+		try {
+			return emAndamento.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception) {
+				throw (Exception) e.getCause();
+			}
+			throw e;
+		}
+	}
+
+	/* Agenda a atualizacao de uma CRL em segundo plano. A atualizacao
+	 *   e' descartada se a entrada tiver sido substituida ou invalidada.
+	 * @param crlURL URL da CRL (Lista de Certificados Revogados).
+	 * @param entrada Entrada do cache a ser atualizada.
+	 * @param instante Instante da atualizacao, em ms.
+	 */
+	private static void agendarAtualizacao(final String crlURL,
+			final Entrada entrada, long instante) {
+
+		long atraso = Math.max(instante - System.currentTimeMillis(), 0);
+		getAgendador().schedule(new Runnable() {
+			@Override
+			public void run() {
+				if (crls.get(crlURL) != entrada) { return; }
+				try {
+					baixar(crlURL);
+				} catch (Exception e) {
+					/* mantem a CRL atual e tenta novamente, dentro
+					   do periodo de tolerancia */
+					long proxima = System.currentTimeMillis() + INTERVALO_RETENTATIVA;
+					if (proxima < entrada.expiraEm + TOLERANCIA) {
+						agendarAtualizacao(crlURL, entrada, proxima);
+					}
+				}
+			}
+		}, atraso, TimeUnit.MILLISECONDS);
+	}
+
+	/* Retorna o executor das atualizacoes em segundo plano, criando-o
+	 *   se necessario: um pool de sicid.crl.threads threads daemon (para
+	 *   nao impedir o shutdown), de modo que um download lento nao atrase
+	 *   a atualizacao das demais CRLs.
+	 * @return Executor das atualizacoes.
+	 */
+	private static synchronized ScheduledExecutorService getAgendador() {
+		if (agendador == null) {
+			agendador = Executors.newScheduledThreadPool(THREADS,
+				new ThreadFactory() {
+					private final AtomicInteger contador = new AtomicInteger();
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "sicid-crl-cache-" +
+								contador.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		}
+		return agendador;
+	}
+
+	/**
+	 * Ouvinte das reemissoes de CRLs obtidas pelo cache.
+	 */
+	public interface OuvinteCRL {
+		/**
+		 * Notifica que uma CRL foi reemitida (obtida uma CRL com numero
+		 *   ou emissor diferente da anterior).
+		 * @param crlURL URL da CRL (Lista de Certificados Revogados).
+		 * @param crl Indice da nova CRL.
+		 */
+		public void crlReemitida(String crlURL, IndiceCRL crl);
+	}
+
+	/* Entrada do cache: indice da CRL e instante de expiracao. */
+	private static class Entrada {
+		private final IndiceCRL crl;
+		private final long expiraEm;
+		private Entrada(IndiceCRL crl) {
+			this.crl = crl;
+			long agora = System.currentTimeMillis();
+			/* uma CRL ja' vencida na origem e' mantida por um intervalo
+			   minimo, para nao ser baixada a cada consulta */
+			this.expiraEm = (crl.getNextUpdate() != null)
+				? Math.max(crl.getNextUpdate().getTime(), agora + INTERVALO_RETENTATIVA)
+				: agora + TTL_SEM_NEXTUPDATE;
+		}
+		private Entrada(IndiceCRL crl, long expiraEm) {
+			this.crl = crl;
+			this.expiraEm = expiraEm;
+		}
+	}
+}
@@ -0,0 +1,465 @@
+package sicid.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1InputStream;
+import org.bouncycastle.asn1.ASN1Integer;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.DERNull;
+import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.ocsp.BasicOCSPResponse;
+import org.bouncycastle.asn1.ocsp.CertID;
+import org.bouncycastle.asn1.ocsp.OCSPObjectIdentifiers;
+import org.bouncycastle.asn1.oiw.OIWObjectIdentifiers;
+import org.bouncycastle.asn1.x509.AlgorithmIdentifier;
+import org.bouncycastle.asn1.x509.SubjectPublicKeyInfo;
+import org.bouncycastle.ocsp.CertificateID;
+import org.bouncycastle.ocsp.CertificateStatus;
+import org.bouncycastle.ocsp.OCSPRespStatus;
+import org.bouncycastle.ocsp.RevokedStatus;
+import org.bouncycastle.ocsp.SingleResp;
+
+import com.robsonmartins.fiap.tcc.util.CacheExpiravel;
+
+/**
+ * Cliente OCSP (Online Certificate Status Protocol) com cache de
+ *   respostas, indexado pelo identificador do certificado (CertID).<br/>
+ * As requisicoes sao enviadas sem nonce, de modo que as respostas
+ *   (pre-produzidas pelo respondedor) possam ser reaproveitadas ate' a
+ *   sua proxima atualizacao (nextUpdate). Varios certificados de um
+ *   mesmo emissor podem ser consultados em uma unica requisicao.
+ *   Respostas que contenham nonce nao sao armazenadas. O cache e'
+ *   limitado (politica LRU) e os seus contadores sao publicados via JMX
+ *   (nome "SICidOCSP").<br/>
+ * Configuracao (system properties):
+ * <ul>
+ *   <li>sicid.ocsp.ttl: tempo de vida, em ms, de uma resposta sem
+ *     nextUpdate (padrao: 1 minuto);</li>
+ *   <li>sicid.ocsp.timeout: tempo maximo de conexao e de leitura da
+ *     resposta, em ms (padrao: 10 segundos);</li>
+ *   <li>sicid.ocsp.lote: numero maximo de certificados por requisicao
+ *     (padrao: 50);</li>
+ *   <li>sicid.ocsp.capacidade: numero maximo de certificados com
+ *     respostas armazenadas (padrao: 10000);</li>
+ *   <li>sicid.ocsp.ttl.maximo: tempo de vida maximo de uma resposta, em
+ *     ms, mesmo que o seu nextUpdate seja posterior (padrao: 1 dia).</li>
+ * </ul>
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+/* API OCSP legada do BouncyCastle: o bcpkix nao esta' disponivel no servidor
+ * (as classes deprecated sao referenciadas por nome qualificado, pois o
+ * import nao e' coberto pelo @SuppressWarnings) */
+@SuppressWarnings("deprecation")
+public class CacheOCSP {
+
+	/* tempo de vida de uma resposta sem nextUpdate, em ms */
+	private static final long TTL_SEM_NEXTUPDATE =
+		Long.getLong("sicid.ocsp.ttl", 60 * 1000L);
+	/* tempo maximo de conexao e de leitura, em ms */
+	private static final int TIMEOUT =
+		Integer.getInteger("sicid.ocsp.timeout", 10 * 1000);
+	/* numero maximo de certificados por requisicao */
+	private static final int LOTE_MAXIMO =
+		Math.max(Integer.getInteger("sicid.ocsp.lote", 50), 1);
+	/* tolerancia para diferencas de relogio com o respondedor, em ms */
+	private static final long TOLERANCIA_RELOGIO = 5 * 60 * 1000L;
+	/* tamanho maximo de uma resposta OCSP, em bytes */
+	private static final int TAMANHO_MAXIMO = 1024 * 1024;
+
+	/* OID do uso estendido de chave id-kp-OCSPSigning */
+	private static final String OID_OCSP_SIGNING = "1.3.6.1.5.5.7.3.9";
+
+	/* respostas armazenadas, por numero de serie do certificado (e, para
+	 * o caso de seriais repetidos entre emissores, por identificador) */
+	private static final CacheExpiravel<BigInteger, Map<CertificateID, Resposta>> respostas =
+		new CacheExpiravel<BigInteger, Map<CertificateID, Resposta>>(
+			Integer.getInteger("sicid.ocsp.capacidade", 10000),
+			Long.getLong("sicid.ocsp.ttl.maximo", 24 * 60 * 60 * 1000L));
+	static {
+		respostas.registrarMBean("SICidOCSP");
+	}
+
+	/**
+	 * Obtem o status de revogacao de um certificado, a partir do cache
+	 *   ou, se necessario, do respondedor OCSP.
+	 * @param cert Objeto que representa o certificado.
+	 * @param emissor Certificado do emissor de cert.
+	 * @param ocspURL URL do respondedor OCSP.
+	 * @return Resposta do respondedor, ou null se o status do
+	 *   certificado for desconhecido pelo respondedor.
+	 * @throws Exception
+	 */
+	public static Resposta getResposta(X509Certificate cert,
+			X509Certificate emissor, String ocspURL) throws Exception {
+
+		List<X509Certificate> certs = new ArrayList<X509Certificate>(1);
+		certs.add(cert);
+		return getRespostas(certs, emissor, ocspURL).get(0);
+	}
+
+	/**
+	 * Obtem o status de revogacao de um conjunto de certificados de um
+	 *   mesmo emissor, a partir do cache ou, se necessario, do respondedor
+	 *   OCSP. Os certificados ausentes do cache sao consultados em uma
+	 *   unica requisicao (ou em lotes de sicid.ocsp.lote certificados).
+	 * @param certs Lista de certificados.
+	 * @param emissor Certificado do emissor dos certificados.
+	 * @param ocspURL URL do respondedor OCSP.
+	 * @return Lista de respostas, na mesma ordem dos certificados (uma
+	 *   resposta e' null se o status do certificado for desconhecido).
+	 * @throws Exception
+	 */
+	public static List<Resposta> getRespostas(List<X509Certificate> certs,
+			X509Certificate emissor, String ocspURL) throws Exception {
+
+		long agora = System.currentTimeMillis();
+		List<CertificateID> ids = new ArrayList<CertificateID>(certs.size());
+		Map<CertificateID, Resposta> obtidas =
+			new LinkedHashMap<CertificateID, Resposta>();
+		List<CertificateID> pendentes = new ArrayList<CertificateID>();
+		for (X509Certificate cert : certs) {
+			CertificateID id = getCertificateID(cert, emissor);
+			ids.add(id);
+			Map<CertificateID, Resposta> armazenadas =
+				respostas.obter(cert.getSerialNumber());
+			Resposta resposta =
+				(armazenadas != null) ? armazenadas.get(id) : null;
+			if (resposta != null && agora < resposta.expiraEm) {
+				obtidas.put(id, resposta);
+			} else if (!obtidas.containsKey(id)) {
+				obtidas.put(id, null);
+				pendentes.add(id);
+			}
+		}
+		for (int i = 0; i < pendentes.size(); i += LOTE_MAXIMO) {
+			obtidas.putAll(consultar(pendentes.subList(i,
+					Math.min(i + LOTE_MAXIMO, pendentes.size())),
+					emissor, ocspURL));
+		}
+		List<Resposta> resultado = new ArrayList<Resposta>(ids.size());
+		for (CertificateID id : ids) {
+			resultado.add(obtidas.get(id));
+		}
+		return resultado;
+	}
+
+	/**
+	 * Remove do cache as respostas de um certificado, pelo seu numero
+	 *   de serie (de qualquer emissor).
+	 * @param serial Numero de serie do certificado.
+	 */
+	public static void invalidar(BigInteger serial) {
+		respostas.remover(serial);
+	}
+
+	/**
+	 * Remove todas as respostas do cache.
+	 */
+	public static void limpar() {
+		respostas.limpar();
+	}
+
+	/* Armazena a resposta de um certificado, preservando as respostas
+	 *   ainda validas de certificados de mesmo serial de outros emissores.
+	 * @param id Identificador do certificado.
+	 * @param resposta Resposta do respondedor.
+	 */
+	private static void armazenar(CertificateID id, Resposta resposta) {
+		synchronized (respostas) {
+			Map<CertificateID, Resposta> armazenadas =
+				respostas.obter(id.getSerialNumber());
+			Map<CertificateID, Resposta> novas =
+				new LinkedHashMap<CertificateID, Resposta>();
+			long expiraEm = resposta.expiraEm;
+			if (armazenadas != null) {
+				for (Map.Entry<CertificateID, Resposta> e : armazenadas.entrySet()) {
+					if (e.getValue().expiraEm > System.currentTimeMillis()) {
+						novas.put(e.getKey(), e.getValue());
+						expiraEm = Math.max(expiraEm, e.getValue().expiraEm);
+					}
+				}
+			}
+			novas.put(id, resposta);
+			respostas.inserir(id.getSerialNumber(),
+					Collections.unmodifiableMap(novas), expiraEm);
+		}
+	}
+
+	/* Envia uma requisicao OCSP com um conjunto de certificados, e armazena
+	 *   as respostas cacheaveis.
+	 * @param ids Identificadores dos certificados.
+	 * @param emissor Certificado do emissor dos certificados.
+	 * @param ocspURL URL do respondedor OCSP.
+	 * @return Respostas obtidas, por identificador (certificados de status
+	 *   desconhecido nao sao incluidos).
+	 * @throws Exception
+	 */
+	private static Map<CertificateID, Resposta> consultar(
+			List<CertificateID> ids, X509Certificate emissor,
+			String ocspURL) throws Exception {
+
+		org.bouncycastle.ocsp.OCSPReqGenerator gerador =
+			new org.bouncycastle.ocsp.OCSPReqGenerator();
+		for (CertificateID id : ids) {
+			gerador.addRequest(id);
+		}
+		org.bouncycastle.ocsp.OCSPResp ocspResp =
+			new org.bouncycastle.ocsp.OCSPResp(
+				enviar(ocspURL, gerador.generate().getEncoded()));
+		if (ocspResp.getStatus() != OCSPRespStatus.SUCCESSFUL) {
+			throw new Exception(String.format(
+					"OCSP responder returned status %d: %s",
+					ocspResp.getStatus(), ocspURL));
+		}
+		Object objeto = ocspResp.getResponseObject();
+		if (!(objeto instanceof org.bouncycastle.ocsp.BasicOCSPResp)) {
+			throw new Exception(String.format(
+					"Unsupported OCSP response type: %s", ocspURL));
+		}
+		org.bouncycastle.ocsp.BasicOCSPResp basicResp =
+			(org.bouncycastle.ocsp.BasicOCSPResp) objeto;
+		if (!verificarAssinatura(basicResp, emissor)) {
+			throw new Exception(String.format(
+					"Invalid OCSP response signature: %s", ocspURL));
+		}
+		/* uma resposta com nonce foi gerada para outra requisicao */
+		boolean cacheavel = basicResp.getExtensionValue(
+				OCSPObjectIdentifiers.id_pkix_ocsp_nonce.getId()) == null;
+
+		long agora = System.currentTimeMillis();
+		Map<CertificateID, Resposta> obtidas =
+			new LinkedHashMap<CertificateID, Resposta>();
+		for (SingleResp singleResp : basicResp.getResponses()) {
+			CertificateID id = singleResp.getCertID();
+			if (!ids.contains(id)) { continue; }
+			Date thisUpdate = singleResp.getThisUpdate();
+			Date nextUpdate = singleResp.getNextUpdate();
+			if (thisUpdate.getTime() > agora + TOLERANCIA_RELOGIO) {
+				continue;
+			}
+			if (nextUpdate != null &&
+					nextUpdate.getTime() < agora - TOLERANCIA_RELOGIO) {
+				continue;
+			}
+			Object status = singleResp.getCertStatus();
+			boolean revogado;
+			if (status == CertificateStatus.GOOD) {
+				revogado = false;
+			} else if (status instanceof RevokedStatus) {
+				revogado = true;
+			} else {
+				continue; /* status desconhecido */
+			}
+			Resposta resposta = new Resposta(revogado, nextUpdate, agora);
+			obtidas.put(id, resposta);
+			if (cacheavel) {
+				armazenar(id, resposta);
+			}
+		}
+		return obtidas;
+	}
+
+	/* Envia uma requisicao OCSP por HTTP (POST).
+	 * @param ocspURL URL do respondedor OCSP.
+	 * @param requisicao Requisicao OCSP codificada (DER).
+	 * @return Resposta OCSP codificada (DER).
+	 * @throws Exception
+	 */
+	private static byte[] enviar(String ocspURL,
+			byte[] requisicao) throws Exception {
+
+		if (!ocspURL.startsWith("http://") && !ocspURL.startsWith("https://")) {
+			throw new Exception(String.format(
+					"Unsupported OCSP responder: %s", ocspURL));
+		}
+		HttpURLConnection con =
+			(HttpURLConnection) new URL(ocspURL).openConnection();
+		try {
+			con.setConnectTimeout(TIMEOUT);
+			con.setReadTimeout(TIMEOUT);
+			con.setDoOutput(true);
+			con.setUseCaches(false);
+			con.setRequestMethod("POST");
+			con.setRequestProperty("Content-Type", "application/ocsp-request");
+			con.setRequestProperty("Accept", "application/ocsp-response");
+			con.setFixedLengthStreamingMode(requisicao.length);
+			OutputStream out = con.getOutputStream();
+			try {
+				out.write(requisicao);
+			} finally {
+				out.close();
+			}
+			if (con.getResponseCode() != HttpURLConnection.HTTP_OK) {
+				throw new IOException(String.format(
+						"OCSP responder returned HTTP %d: %s",
+						con.getResponseCode(), ocspURL));
+			}
+			InputStream in = con.getInputStream();
+			try {
+				ByteArrayOutputStream resposta = new ByteArrayOutputStream();
+				byte[] buffer = new byte[4096];
+				int lidos;
+				while ((lidos = in.read(buffer)) != -1) {
+					resposta.write(buffer, 0, lidos);
+					if (resposta.size() > TAMANHO_MAXIMO) {
+						throw new IOException(String.format(
+								"OCSP response too large: %s", ocspURL));
+					}
+				}
+				return resposta.toByteArray();
+			} finally {
+				in.close();
+			}
+		} finally {
+			con.disconnect();
+		}
+	}
+
+	/* Verifica a assinatura de uma resposta OCSP. A resposta deve ser
+	 *   assinada pelo proprio emissor, ou por um respondedor delegado
+	 *   (certificado incluido na resposta, emitido pelo emissor e com o
+	 *   uso estendido id-kp-OCSPSigning).
+	 * @param basicResp Resposta OCSP.
+	 * @param emissor Certificado do emissor dos certificados consultados.
+	 * @return True se a assinatura e' valida.
+	 * @throws Exception
+	 */
+	private static boolean verificarAssinatura(
+			org.bouncycastle.ocsp.BasicOCSPResp basicResp,
+			X509Certificate emissor) throws Exception {
+
+		if (verificarAssinatura(basicResp, emissor.getPublicKey())) {
+			return true;
+		}
+		ASN1InputStream asnInStream = new ASN1InputStream(basicResp.getEncoded());
+		try {
+			ASN1Sequence certs = BasicOCSPResponse.getInstance(
+					asnInStream.readObject()).getCerts();
+			if (certs == null) { return false; }
+			CertificateFactory certFactory = CertificateFactory.getInstance("X.509");
+			for (int i = 0; i < certs.size(); i++) {
+				ASN1Encodable certificado = certs.getObjectAt(i);
+				X509Certificate respondedor = (X509Certificate)
+					certFactory.generateCertificate(new ByteArrayInputStream(
+							certificado.toASN1Primitive().getEncoded()));
+				List<String> usos = respondedor.getExtendedKeyUsage();
+				if (usos == null || !usos.contains(OID_OCSP_SIGNING) ||
+						!CertificadoValidador.isValidByDate(respondedor) ||
+						!emissor.getSubjectX500Principal().equals(
+								respondedor.getIssuerX500Principal())) {
+					continue;
+				}
+				try {
+					respondedor.verify(emissor.getPublicKey());
+				} catch (Exception e) {
+					continue;
+				}
+				if (verificarAssinatura(basicResp, respondedor.getPublicKey())) {
+					return true;
+				}
+			}
+			return false;
+		} finally {
+			asnInStream.close();
+		}
+	}
+
+	/* Verifica a assinatura de uma resposta OCSP com uma chave publica.
+	 * @param basicResp Resposta OCSP.
+	 * @param key Chave publica do signatario.
+	 * @return True se a assinatura e' valida.
+	 */
+	private static boolean verificarAssinatura(
+			org.bouncycastle.ocsp.BasicOCSPResp basicResp, PublicKey key) {
+		try {
+			Signature signature =
+				Signature.getInstance(basicResp.getSignatureAlgName());
+			signature.initVerify(key);
+			signature.update(basicResp.getTBSResponseData());
+			return signature.verify(basicResp.getSignature());
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	/* Calcula o identificador OCSP (CertID, com SHA-1) de um certificado,
+	 *   sem depender do registro do provider BouncyCastle.
+	 * @param cert Objeto que representa o certificado.
+	 * @param emissor Certificado do emissor de cert.
+	 * @return Identificador do certificado.
+	 * @throws Exception
+	 */
+	private static CertificateID getCertificateID(X509Certificate cert,
+			X509Certificate emissor) throws Exception {
+
+		MessageDigest digest = MessageDigest.getInstance("SHA-1");
+		byte[] nameHash =
+			digest.digest(emissor.getSubjectX500Principal().getEncoded());
+		byte[] keyHash = digest.digest(SubjectPublicKeyInfo.getInstance(
+				emissor.getPublicKey().getEncoded()).getPublicKeyData().getBytes());
+		BigInteger serial = cert.getSerialNumber();
+		return new CertificateID(new CertID(
+				new AlgorithmIdentifier(OIWObjectIdentifiers.idSHA1, DERNull.INSTANCE),
+				new DEROctetString(nameHash), new DEROctetString(keyHash),
+				new ASN1Integer(serial)));
+	}
+
+	/**
+	 * Resposta OCSP para um certificado.
+	 */
+	public static class Resposta {
+
+		/* indica se o certificado foi revogado */
+		private final boolean revogado;
+		/* instante de expiracao no cache, em ms */
+		private final long expiraEm;
+
+		/* Cria uma nova resposta.
+		 * @param revogado Indica se o certificado foi revogado.
+		 * @param proximaAtualizacao Proxima atualizacao (pode ser null).
+		 * @param agora Instante atual, em ms.
+		 */
+		private Resposta(boolean revogado, Date proximaAtualizacao, long agora) {
+			this.revogado = revogado;
+			this.expiraEm = (proximaAtualizacao != null)
+				? proximaAtualizacao.getTime() : agora + TTL_SEM_NEXTUPDATE;
+		}
+
+		/**
+		 * Indica se o certificado foi revogado.
+		 * @return True se o certificado foi revogado.
+		 */
+		public boolean isRevogado() {
+			return revogado;
+		}
+
+		/**
+		 * Retorna a data de validade da resposta: a proxima atualizacao
+		 *   (nextUpdate) informada pelo respondedor ou, na sua ausencia,
+		 *   o tempo de vida padrao.
+		 * @return Data de validade da resposta.
+		 */
+		public Date getValidade() {
+			return new Date(expiraEm);
+		}
+	}
+}
@@ -2,21 +2,12 @@ package sicid.util;
 
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 
-import org.bouncycastle.asn1.ASN1ObjectIdentifier;
-import org.bouncycastle.asn1.ASN1Primitive;
-import org.bouncycastle.asn1.ASN1Sequence;
-import org.bouncycastle.asn1.ASN1TaggedObject;
-import org.bouncycastle.asn1.DERObjectIdentifier;
-import org.bouncycastle.asn1.DEROctetString;
-import org.bouncycastle.asn1.DERPrintableString;
-import org.bouncycastle.asn1.DERUTF8String;
-import org.bouncycastle.x509.extension.X509ExtensionUtil;
+import com.robsonmartins.fiap.tcc.util.CacheExpiravel;
+import com.robsonmartins.fiap.tcc.util.CertificadoSerializador;
 
 /**
  * Implementa metodos para extrair informacoes de certificados no padrao ICP Brasil.
@@ -75,142 +66,125 @@ public class CertificadoIcpBrasilParser {
 		GUID_SERVER;
 	}
 	
-	/* OID's definidos pela ICP Brasil */
-	private static final DERObjectIdentifier OID_PF_DADOS_TITULAR     = new DERObjectIdentifier("2.16.76.1.3.1");
-	private static final DERObjectIdentifier OID_PJ_RESPONSAVEL       = new DERObjectIdentifier("2.16.76.1.3.2");
-	private static final DERObjectIdentifier OID_PJ_CNPJ              = new DERObjectIdentifier("2.16.76.1.3.3");
-	private static final DERObjectIdentifier OID_PJ_DADOS_RESPONSAVEL = new DERObjectIdentifier("2.16.76.1.3.4");
-	private static final DERObjectIdentifier OID_PF_ELEITORAL         = new DERObjectIdentifier("2.16.76.1.3.5");
-	private static final DERObjectIdentifier OID_PF_CEI               = new DERObjectIdentifier("2.16.76.1.3.6");
-	private static final DERObjectIdentifier OID_PJ_CEI               = new DERObjectIdentifier("2.16.76.1.3.7");
-	private static final DERObjectIdentifier OID_PJ_NOME_EMPRESARIAL  = new DERObjectIdentifier("2.16.76.1.3.8");
-	private static final DERObjectIdentifier OID_PF_RIC               = new DERObjectIdentifier("2.16.76.1.3.9");
-	private static final DERObjectIdentifier OID_PF_LOGIN             = new DERObjectIdentifier("1.3.6.1.4.1.311.20.2.3");
-	private static final DERObjectIdentifier OID_PJ_GUID_SERVER       = new DERObjectIdentifier("1.3.6.1.4.1.311.25.1");
+	/* OID's definidos pela ICP Brasil (arco 2.16.76.1.3) */
+	private static final int OID_PF_DADOS_TITULAR     = 1;
+	private static final int OID_PJ_RESPONSAVEL       = 2;
+	private static final int OID_PJ_CNPJ              = 3;
+	private static final int OID_PJ_DADOS_RESPONSAVEL = 4;
+	private static final int OID_PF_ELEITORAL         = 5;
+	private static final int OID_PF_CEI               = 6;
+	private static final int OID_PJ_CEI               = 7;
+	private static final int OID_PJ_NOME_EMPRESARIAL  = 8;
+	private static final int OID_PF_RIC               = 9;
+	
+	/* conteudo DER dos prefixos de OID's */
+	private static final byte[] DER_OID_ICP_BRASIL     = { 0x60, 0x4C, 0x01, 0x03 };
+	private static final byte[] DER_OID_PF_LOGIN       = { 0x2B, 0x06, 0x01, 0x04, 0x01, (byte) 0x82, 0x37, 0x14, 0x02, 0x03 };
+	private static final byte[] DER_OID_PJ_GUID_SERVER = { 0x2B, 0x06, 0x01, 0x04, 0x01, (byte) 0x82, 0x37, 0x19, 0x01 };
+	
+	/* OID da extensao SubjectAltName */
+	private static final String OID_SUBJECT_ALT_NAME = "2.5.29.17";
+	
+	/* tags DER utilizadas */
+	private static final int TAG_OCTET_STRING     = 0x04;
+	private static final int TAG_OID              = 0x06;
+	private static final int TAG_UTF8_STRING      = 0x0C;
+	private static final int TAG_PRINTABLE_STRING = 0x13;
+	private static final int TAG_SEQUENCE         = 0x30;
+	private static final int TAG_OTHER_NAME       = 0xA0;
+	private static final int TAG_RFC822_NAME      = 0x81;
+	private static final int TAG_EXPLICIT_0       = 0xA0;
+	private static final int TAG_IMPLICIT_0       = 0x80;
+	
+	/* cache de atributos, por fingerprint do certificado */
+	private static final CacheExpiravel<String, EnumMap<AtributoIcpBrasil, String>> cache =
+		new CacheExpiravel<String, EnumMap<AtributoIcpBrasil, String>>(
+			Integer.getInteger("sicid.cache.atributos.capacidade", 1000),
+			Long.getLong("sicid.cache.atributos.ttl", 10 * 60 * 1000L));
+	static {
+		cache.registrarMBean("AtributosIcpBrasil");
+	}
 	
 	/**
-	 * Retorna os atributos de um certificado digital, padrao ICP Brasil.
+	 * Retorna os atributos de um certificado digital, padrao ICP Brasil.<br/>
+	 * A extensao SubjectAltName e' percorrida uma unica vez, e o resultado
+	 *   e' mantido em cache, indexado pelo fingerprint do certificado.
 	 * @param cert Objeto {@link X509Certificate} que representa o certificado.
 	 * @return Objeto {@link Map} contendo os atributos.
 	 * @throws Exception
 	 */
-	@SuppressWarnings("rawtypes")
 	public static Map<AtributoIcpBrasil, String> getAtributosIcpBrasil(
 			X509Certificate cert) throws Exception {
 		
-		Map<AtributoIcpBrasil, String> atributos = 
-			new HashMap<AtributoIcpBrasil, String>();
+		String fingerprint = CertificadoSerializador.getFingerprint(cert);
+		EnumMap<AtributoIcpBrasil, String> atributos = cache.obter(fingerprint);
+		if (atributos == null) {
+			atributos = decodificarAtributos(cert);
+			cache.inserir(fingerprint, atributos);
+		}
+		/* copia, pois o resultado armazenado e' compartilhado */
+		return new EnumMap<AtributoIcpBrasil, String>(atributos);
+	}
 
-		Collection subjAltNames = 
-			X509ExtensionUtil.getSubjectAlternativeNames(cert);
-	
-		for (Object obj : subjAltNames) {
-	
-			if (obj instanceof ArrayList) {
+	/* Decodifica os atributos de um certificado digital, padrao ICP Brasil,
+	 *   percorrendo o conteudo DER da extensao SubjectAltName.
+	 * @param cert Objeto que representa o certificado.
+	 * @return Atributos do certificado.
+	 * @throws Exception Se a extensao estiver mal-formada.
+	 */
+	private static EnumMap<AtributoIcpBrasil, String> decodificarAtributos(
+			X509Certificate cert) throws Exception {
+		
+		EnumMap<AtributoIcpBrasil, String> atributos = 
+			new EnumMap<AtributoIcpBrasil, String>(AtributoIcpBrasil.class);
 
-				Object key   = ((ArrayList) obj).get(0);
-				Object value = ((ArrayList) obj).get(1);
+		byte[] extensao = cert.getExtensionValue(OID_SUBJECT_ALT_NAME);
+		if (extensao != null) {
+			LeitorDER der = new LeitorDER(extensao);
+			/* OCTET STRING { SEQUENCE OF GeneralName } */
+			der.entrar(TAG_OCTET_STRING);
+			int fimNomes = der.entrar(TAG_SEQUENCE);
+			
+			while (der.pos < fimNomes) {
+				int tag = der.lerTag();
+				int fim = der.lerComprimento() + der.pos;
 				
-				if (((Number) key).intValue() == 1) {
-					String email =
-						extraiAtributo((String) value, -1, -1);
+				if (tag == TAG_RFC822_NAME) {
+					String email = extraiAtributo(
+							new String(der.buf, der.pos, fim - der.pos, "US-ASCII"),
+							-1, -1);
 					atributos.put(AtributoIcpBrasil.EMAIL, email);
-				}
-				
-				if (value instanceof ASN1Sequence) {
-					ASN1Sequence seq = (ASN1Sequence) value;
-					ASN1ObjectIdentifier oid =
-						(ASN1ObjectIdentifier) seq.getObjectAt(0);
-					ASN1TaggedObject tagged =
-						(ASN1TaggedObject) seq.getObjectAt(1);
+					
+				} else if (tag == TAG_OTHER_NAME) {
+					/* OtherName ::= SEQUENCE { OID, [0] EXPLICIT valor } */
+					int fimOid = der.entrar(TAG_OID);
+					int inicioOid = der.pos;
+					der.pos = fimOid;
+					int tagValor;
+					int tamValor;
+					if (der.pos < fim && (der.buf[der.pos] & 0xFF) == TAG_IMPLICIT_0) {
+						/* [0] IMPLICIT primitivo: valor tratado como OCTET STRING */
+						der.lerTag();
+						tagValor = TAG_OCTET_STRING;
+						tamValor = der.lerComprimento();
+					} else {
+						der.entrar(TAG_EXPLICIT_0);
+						tagValor = der.lerTag();
+						tamValor = der.lerComprimento();
+					}
 					String data = null;
-					ASN1Primitive derObj = tagged.getObject();
-
-					if (derObj instanceof DEROctetString) {
-						DEROctetString octet = (DEROctetString) derObj;
-						data = new String(octet.getOctets());
-					} else if (derObj instanceof DERPrintableString) {
-						DERPrintableString octet = (DERPrintableString) derObj;
-						data = new String(octet.getOctets());
-					} else if (derObj instanceof DERUTF8String) {
-						DERUTF8String str = (DERUTF8String) derObj;
-						data = str.getString();
+					if (tagValor == TAG_OCTET_STRING ||
+							tagValor == TAG_PRINTABLE_STRING) {
+						data = new String(der.buf, der.pos, tamValor);
+					} else if (tagValor == TAG_UTF8_STRING) {
+						data = new String(der.buf, der.pos, tamValor, "UTF-8");
 					}
-	
 					if (data != null && !data.isEmpty()) {
-						
-						if (oid.equals(OID_PF_DADOS_TITULAR)
-								|| oid.equals(OID_PJ_DADOS_RESPONSAVEL)) {
-							
-							String nascimento = extraiAtributo(data, 0, 8);
-							atributos.put(AtributoIcpBrasil.NASCIMENTO, nascimento);
-
-							String cpf = extraiAtributo(data, 8, 19);
-							atributos.put(AtributoIcpBrasil.CPF, cpf);
-							
-							String pisPasep = extraiAtributo(data, 19, 30);
-							atributos.put(AtributoIcpBrasil.PISPASEP, pisPasep);
-
-							String rg       = extraiAtributo(data, 30, 45);
-							String rgOrgExp = extraiAtributo(data, 45, 49);
-							String rgUF     = extraiAtributo(data, 49, 51);
-                            if ("".equals(rg)) { 
-                            	rgOrgExp = ""; rgUF = "";
-                            }
-							atributos.put(AtributoIcpBrasil.RG, rg);
-							atributos.put(AtributoIcpBrasil.RG_ORGEXPEDIDOR, rgOrgExp);
-							atributos.put(AtributoIcpBrasil.RG_UF, rgUF);
-							
-						} else if (oid.equals(OID_PF_CEI)) {
-							String cei = extraiAtributo(data, 0, 12);
-							atributos.put(AtributoIcpBrasil.CEI, cei);
-							
-						} else if (oid.equals(OID_PF_ELEITORAL)) {
-							String titulo    = extraiAtributo(data,  0, 12);
-							String zona      = extraiAtributo(data, 12, 15);
-							String secao     = extraiAtributo(data, 15, 19);
-							String municipio = extraiAtributo(data, 19, 39);
-							String uf        = extraiAtributo(data, 39, 41);
-							if ("".equals(titulo)) {
-								zona = ""; secao = ""; municipio = ""; uf = "";
-							} 
-							atributos.put(AtributoIcpBrasil.TITULO, titulo);
-							atributos.put(AtributoIcpBrasil.TITULO_ZONA, zona);
-							atributos.put(AtributoIcpBrasil.TITULO_SECAO, secao);
-							atributos.put(AtributoIcpBrasil.TITULO_MUNICIPIO, municipio);
-							atributos.put(AtributoIcpBrasil.TITULO_UF, uf);
-							
-						} else if (oid.equals(OID_PJ_RESPONSAVEL)) {
-							String nome = extraiAtributo(data, -1, -1);
-							atributos.put(AtributoIcpBrasil.NOME_RESPONSAVEL, nome);
-							
-
-						} else if (oid.equals(OID_PJ_CNPJ)) {
-							String cnpj = extraiAtributo(data, -1, -1);
-							atributos.put(AtributoIcpBrasil.CNPJ, cnpj);
-						
-						} else if (oid.equals(OID_PJ_CEI)) {
-							String cei = extraiAtributo(data, 0, 12);
-							atributos.put(AtributoIcpBrasil.CEI, cei);
-							
-						} else if (oid.equals(OID_PJ_NOME_EMPRESARIAL)) {
-							String nomePJ = extraiAtributo(data, -1, -1);
-							atributos.put(AtributoIcpBrasil.NOME_PJ, nomePJ);
-							
-						} else if (oid.equals(OID_PF_RIC)) {
-							String ric = extraiAtributo(data, -1, -1);
-							atributos.put(AtributoIcpBrasil.RIC, ric);
-							
-						} else if (oid.equals(OID_PF_LOGIN)) {
-							String login = extraiAtributo(data, -1, -1);
-							atributos.put(AtributoIcpBrasil.LOGIN, login);
-							
-						} else if (oid.equals(OID_PJ_GUID_SERVER)) {
-							String guid = extraiAtributo(data, -1, -1);
-							atributos.put(AtributoIcpBrasil.GUID_SERVER, guid);
-						}
+						extraiAtributos(der.buf, inicioOid,
+								fimOid - inicioOid, data, atributos);
 					}
 				}
+				der.pos = fim;
 			}
 		}
 		/* se certificado for PF, nome esta' no subject CN, antes da separacao
@@ -225,6 +199,98 @@ public class CertificadoIcpBrasilParser {
 		return atributos;
 	}
 
+	/* Extrai os atributos de um OtherName, conforme o seu OID.
+	 * @param buf Buffer com o conteudo DER.
+	 * @param inicioOid Posicao do conteudo do OID no buffer.
+	 * @param tamOid Tamanho do conteudo do OID.
+	 * @param data Valor do OtherName.
+	 * @param atributos Mapa onde os atributos sao armazenados.
+	 */
+	private static void extraiAtributos(byte[] buf, int inicioOid, int tamOid,
+			String data, EnumMap<AtributoIcpBrasil, String> atributos) {
+		
+		if (tamOid == DER_OID_ICP_BRASIL.length + 1 &&
+				isPrefixo(buf, inicioOid, DER_OID_ICP_BRASIL)) {
+			
+			switch (buf[inicioOid + DER_OID_ICP_BRASIL.length]) {
+			
+			case OID_PF_DADOS_TITULAR:
+			case OID_PJ_DADOS_RESPONSAVEL:
+				atributos.put(AtributoIcpBrasil.NASCIMENTO, extraiAtributo(data, 0, 8));
+				atributos.put(AtributoIcpBrasil.CPF, extraiAtributo(data, 8, 19));
+				atributos.put(AtributoIcpBrasil.PISPASEP, extraiAtributo(data, 19, 30));
+				String rg       = extraiAtributo(data, 30, 45);
+				String rgOrgExp = extraiAtributo(data, 45, 49);
+				String rgUF     = extraiAtributo(data, 49, 51);
+				if ("".equals(rg)) { 
+					rgOrgExp = ""; rgUF = "";
+				}
+				atributos.put(AtributoIcpBrasil.RG, rg);
+				atributos.put(AtributoIcpBrasil.RG_ORGEXPEDIDOR, rgOrgExp);
+				atributos.put(AtributoIcpBrasil.RG_UF, rgUF);
+				break;
+				
+			case OID_PF_CEI:
+			case OID_PJ_CEI:
+				atributos.put(AtributoIcpBrasil.CEI, extraiAtributo(data, 0, 12));
+				break;
+				
+			case OID_PF_ELEITORAL:
+				String titulo    = extraiAtributo(data,  0, 12);
+				String zona      = extraiAtributo(data, 12, 15);
+				String secao     = extraiAtributo(data, 15, 19);
+				String municipio = extraiAtributo(data, 19, 39);
+				String uf        = extraiAtributo(data, 39, 41);
+				if ("".equals(titulo)) {
+					zona = ""; secao = ""; municipio = ""; uf = "";
+				} 
+				atributos.put(AtributoIcpBrasil.TITULO, titulo);
+				atributos.put(AtributoIcpBrasil.TITULO_ZONA, zona);
+				atributos.put(AtributoIcpBrasil.TITULO_SECAO, secao);
+				atributos.put(AtributoIcpBrasil.TITULO_MUNICIPIO, municipio);
+				atributos.put(AtributoIcpBrasil.TITULO_UF, uf);
+				break;
+				
+			case OID_PJ_RESPONSAVEL:
+				atributos.put(AtributoIcpBrasil.NOME_RESPONSAVEL, extraiAtributo(data, -1, -1));
+				break;
+				
+			case OID_PJ_CNPJ:
+				atributos.put(AtributoIcpBrasil.CNPJ, extraiAtributo(data, -1, -1));
+				break;
+				
+			case OID_PJ_NOME_EMPRESARIAL:
+				atributos.put(AtributoIcpBrasil.NOME_PJ, extraiAtributo(data, -1, -1));
+				break;
+				
+			case OID_PF_RIC:
+				atributos.put(AtributoIcpBrasil.RIC, extraiAtributo(data, -1, -1));
+				break;
+			}
+			
+		} else if (tamOid == DER_OID_PF_LOGIN.length &&
+				isPrefixo(buf, inicioOid, DER_OID_PF_LOGIN)) {
+			atributos.put(AtributoIcpBrasil.LOGIN, extraiAtributo(data, -1, -1));
+			
+		} else if (tamOid == DER_OID_PJ_GUID_SERVER.length &&
+				isPrefixo(buf, inicioOid, DER_OID_PJ_GUID_SERVER)) {
+			atributos.put(AtributoIcpBrasil.GUID_SERVER, extraiAtributo(data, -1, -1));
+		}
+	}
+
+	/* Verifica se um trecho de um buffer inicia com um prefixo.
+	 * @param buf Buffer.
+	 * @param pos Posicao inicial do trecho no buffer.
+	 * @param prefixo Prefixo procurado.
+	 * @return True se o trecho inicia com o prefixo.
+	 */
+	private static boolean isPrefixo(byte[] buf, int pos, byte[] prefixo) {
+		if (pos + prefixo.length > buf.length) { return false; }
+		for (int i = 0; i < prefixo.length; i++) {
+			if (buf[pos + i] != prefixo[i]) { return false; }
+		}
+		return true;
+	}
 	/**
 	 * Extrai o nome do titular a partir do Common Name (CN), presente
 	 *   no Distinguished Name (DN) de um certificado padrao ICP Brasil.<br/>
@@ -285,30 +351,64 @@ public class CertificadoIcpBrasilParser {
 	 *   (se negativo, usa string inteira).
 	 * @param endIndex Indice de fim do atributo na substring.
 	 * @return String com o atributo, vazio se atributo estiver preenchido
-	 *   somente com zeros. 
+	 *   somente com zeros, ou se estiver fora dos limites da string. 
 	 */
 	private static String extraiAtributo(
 			String value, int startIndex, int endIndex) {
 	
-		String atributo = null;
-		char zeroPattern[] = null;
-
-		try {
-			if (startIndex < 0) {
-				atributo = value;
-			} else {
-				atributo = value.substring(startIndex, endIndex);
-				zeroPattern = new char[endIndex - startIndex];
-				Arrays.fill(zeroPattern, '0');
-			}
-			if (zeroPattern != null && 
-					(new String(zeroPattern)).equals(atributo)) {
-				atributo = "";
-			}
-		} catch (Exception e) { /* retorna vazio apenas */ }
+		if (value == null) { return ""; }
+		if (startIndex < 0) { return value.trim(); }
+		if (endIndex > value.length() || startIndex > endIndex) { return ""; }
 		
-		if (atributo == null) { atributo = ""; }
-		return atributo.trim();
+		boolean zeros = true;
+		for (int i = startIndex; i < endIndex && zeros; i++) {
+			zeros = (value.charAt(i) == '0');
+		}
+		if (zeros) { return ""; }
+		return value.substring(startIndex, endIndex).trim();
 	}
 	
+	/* Leitor sequencial de conteudo DER (tags de um byte). */
+	private static class LeitorDER {
+		private final byte[] buf;
+		private int pos;
+		private LeitorDER(byte[] buf) {
+			this.buf = buf;
+			this.pos = 0;
+		}
+		/* Le a tag do proximo elemento. */
+		private int lerTag() throws Exception {
+			if (pos >= buf.length) {
+				throw new Exception("Invalid DER content: unexpected end");
+			}
+			return buf[pos++] & 0xFF;
+		}
+		/* Le o comprimento do elemento atual (formas curta e longa). */
+		private int lerComprimento() throws Exception {
+			int b = lerTag();
+			int len = b;
+			if (b > 0x80 && b <= 0x84) {
+				len = 0;
+				for (int i = 0; i < (b & 0x7F); i++) {
+					len = (len << 8) | lerTag();
+				}
+			} else if (b >= 0x80) {
+				throw new Exception("Invalid DER content: length");
+			}
+			if (len < 0 || pos + len > buf.length) {
+				throw new Exception("Invalid DER content: length");
+			}
+			return len;
+		}
+		/* Entra no conteudo de um elemento com a tag esperada.
+		 * @return Posicao final do conteudo do elemento. */
+		private int entrar(int tag) throws Exception {
+			if (lerTag() != tag) {
+				throw new Exception(String.format(
+						"Invalid DER content: expected tag 0x%02X", tag));
+			}
+			int len = lerComprimento();
+			return pos + len;
+		}
+	}
 }
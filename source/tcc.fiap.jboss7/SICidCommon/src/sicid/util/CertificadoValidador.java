@@ -1,27 +1,23 @@
 package sicid.util;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.InputStream;
 import java.net.URL;
+import java.net.URLConnection;
 import java.security.KeyStore;
 import java.security.PublicKey;
 import java.security.cert.CRLException;
-import java.security.cert.CertPath;
-import java.security.cert.CertPathValidator;
-import java.security.cert.CertPathValidatorException;
-import java.security.cert.Certificate;
-import java.security.cert.CertificateFactory;
-import java.security.cert.PKIXParameters;
-import java.security.cert.TrustAnchor;
-import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
+import java.util.Date;
 import java.util.Enumeration;
 import java.util.Hashtable;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
 
 import javax.naming.Context;
 import javax.naming.directory.Attribute;
@@ -33,6 +29,8 @@ import org.bouncycastle.asn1.ASN1InputStream;
 import org.bouncycastle.asn1.ASN1Primitive;
 import org.bouncycastle.asn1.DERIA5String;
 import org.bouncycastle.asn1.DEROctetString;
+import org.bouncycastle.asn1.x509.AccessDescription;
+import org.bouncycastle.asn1.x509.AuthorityInformationAccess;
 import org.bouncycastle.asn1.x509.CRLDistPoint;
 import org.bouncycastle.asn1.x509.DistributionPoint;
 import org.bouncycastle.asn1.x509.DistributionPointName;
@@ -46,6 +44,14 @@ import org.bouncycastle.asn1.x509.X509Extension;
  */
 public class CertificadoValidador {
 
+	/* tempo maximo de conexao e de leitura do download de uma CRL, em ms */
+	private static final int TIMEOUT_CRL =
+		Integer.getInteger("sicid.crl.timeout", 30 * 1000);
+
+	/* ultimo indice de certificados confiaveis construido, e o seu conjunto */
+	private static IndiceConfianca ultimoIndice;
+	private static List<X509Certificate> ultimoConjunto;
+
 	/**
 	 * Verifica a validade (datas de validade/expiracao) de um certificado. 
 	 * @param cert Objeto que representa o certificado a ser validado.
@@ -61,11 +67,16 @@ public class CertificadoValidador {
 	}
 
 	/**
-	 * Verifica se um certificado e' auto-assinado.
+	 * Verifica se um certificado e' auto-assinado. A assinatura so' e'
+	 *   verificada se o emissor do certificado for o proprio titular.
 	 * @param cert Objeto que representa o certificado a ser validado.
 	 * @return True se certificado e' auto-assinado.
 	 */
 	public static boolean isSelfSigned(X509Certificate cert) {
+		if (!cert.getIssuerX500Principal().equals(
+				cert.getSubjectX500Principal())) {
+			return false;
+		}
   		try {
            PublicKey key = cert.getPublicKey();
            cert.verify(key);
@@ -115,42 +126,23 @@ public class CertificadoValidador {
 		if (trustedCerts == null || trustedCerts.length == 0) {
 			return true;
 		}
-		
-		boolean found = false;
-		int argIdx = trustedCerts.length;
-		CertificateFactory certFactory = CertificateFactory.getInstance("X.509");
-		CertPathValidator validator = CertPathValidator.getInstance("PKIX");
-
-		TrustAnchor anchor;
-		Set<TrustAnchor> anchors;
-		CertPath certPath;
-		List<Certificate> certList;
-		PKIXParameters params;
-
-		while (!found && argIdx > 0) {
-			anchor = new TrustAnchor(trustedCerts[--argIdx], null);
-			anchors = Collections.singleton(anchor);
-
-			certList = Arrays.asList(new Certificate[] { cert });
-			certPath = certFactory.generateCertPath(certList);
-
-			params = new PKIXParameters(anchors);
-			params.setRevocationEnabled(false);
-
-			if (cert.getIssuerDN().equals(trustedCerts[argIdx].getSubjectDN())) {
-				try {
-					validator.validate(certPath, params);
-					if (isSelfSigned(trustedCerts[argIdx])) {
-						found = true;
-					} else if (!cert.equals(trustedCerts[argIdx])) {
-						found = isValidKeyChain(trustedCerts[argIdx], trustedCerts);
-					}
-				} catch (CertPathValidatorException e) { }
-			}
-		}
-		return found;
+		return getIndiceConfianca(trustedCerts).isValidKeyChain(cert);
 	}
 	
+	/**
+	 * Descarta as informacoes de revogacao de um certificado mantidas
+	 *   em cache (CRLs dos seus pontos de distribuicao e respostas OCSP),
+	 *   forcando a sua obtencao na proxima consulta.
+	 * @param cert Objeto que representa o certificado.
+	 * @throws Exception
+	 */
+	public static void invalidarRevogacao(X509Certificate cert) throws Exception {
+		for (String crlURL : getCrlDistPoints(cert)) {
+			CacheCRL.invalidar(crlURL);
+		}
+		CacheOCSP.invalidar(cert.getSerialNumber());
+	}
+
 	/**
 	 * Vertifica se um certificado foi revogado pelo seu emissor
 	 *   (ou um emissor na sua cadeia de certificados), atraves da
@@ -160,10 +152,31 @@ public class CertificadoValidador {
 	 * @throws Exception
 	 */
 	public static boolean isRevoked(X509Certificate cert) throws Exception {
+		return isRevoked(cert, null);
+	}
+
+	/**
+	 * Vertifica se um certificado foi revogado pelo seu emissor
+	 *   (ou um emissor na sua cadeia de certificados), atraves da
+	 *   consulta 'as CRLs (Listas de Certificados Revogados).
+	 * @param cert Objeto que representa o certificado a ser validado.
+	 * @param crlsConsultadas Lista onde serao adicionadas as CRLs
+	 *   efetivamente consultadas (pode ser null). Permite ao chamador
+	 *   conhecer a data da proxima atualizacao (nextUpdate) de cada CRL.
+	 * @return True se certificado foi revogado.
+	 * @throws Exception
+	 */
+	public static boolean isRevoked(X509Certificate cert,
+			List<IndiceCRL> crlsConsultadas) throws Exception {
 		
+		IndiceCRL crl;
 		for (String crlURL : getCrlDistPoints(cert)) {
 			try {
-				if (downloadCRL(crlURL).isRevoked(cert)) {
+				crl = CacheCRL.getCRL(crlURL);
+				if (crlsConsultadas != null) {
+					crlsConsultadas.add(crl);
+				}
+				if (crl.isRevoked(cert)) {
 					return true;
 				}
 			} catch (Exception e) { /* erro acessando a CRL */ }
@@ -171,13 +184,109 @@ public class CertificadoValidador {
 		return false;
 	}
 
+	/**
+	 * Vertifica se um certificado foi revogado pelo seu emissor.<br/>
+	 * Se o certificado indicar um respondedor OCSP (extensao Authority
+	 *   Information Access), o status e' obtido por OCSP ({@link CacheOCSP});
+	 *   caso contrario, ou se nenhum respondedor informar o status, sao
+	 *   consultadas as CRLs (Listas de Certificados Revogados).
+	 * @param cert Objeto que representa o certificado a ser validado.
+	 * @param emissor Certificado do emissor de cert (se null, somente
+	 *   as CRLs sao consultadas).
+	 * @param validades Lista onde serao adicionadas as datas de validade
+	 *   das informacoes de revogacao consultadas (nextUpdate das respostas
+	 *   OCSP ou das CRLs; uma CRL sem nextUpdate e' indicada por uma data
+	 *   sem limite). Se permanecer vazia, nenhuma fonte de revogacao foi
+	 *   efetivamente consultada. Pode ser null.
+	 * @return True se certificado foi revogado.
+	 * @throws Exception
+	 */
+	public static boolean isRevoked(X509Certificate cert,
+			X509Certificate emissor, List<Date> validades) throws Exception {
+
+		if (emissor != null) {
+			for (String ocspURL : getOcspUrls(cert)) {
+				try {
+					CacheOCSP.Resposta resposta =
+						CacheOCSP.getResposta(cert, emissor, ocspURL);
+					if (resposta != null) {
+						if (validades != null) {
+							validades.add(resposta.getValidade());
+						}
+						return resposta.isRevogado();
+					}
+				} catch (Exception e) { /* erro acessando o respondedor */ }
+			}
+		}
+		List<IndiceCRL> crls = new ArrayList<IndiceCRL>();
+		boolean revogado = isRevoked(cert, crls);
+		if (validades != null) {
+			for (IndiceCRL crl : crls) {
+				validades.add(crl.getNextUpdate() != null
+						? crl.getNextUpdate() : new Date(Long.MAX_VALUE));
+			}
+		}
+		return revogado;
+	}
+
+	/**
+	 * Consulta antecipadamente, por OCSP, o status de revogacao de um
+	 *   conjunto de certificados de um mesmo emissor. Os certificados
+	 *   de um mesmo respondedor sao consultados em uma unica requisicao,
+	 *   e as respostas sao mantidas no cache ({@link CacheOCSP}), para
+	 *   uso nas verificacoes individuais seguintes. Falhas sao ignoradas.
+	 * @param certs Lista de certificados.
+	 * @param emissor Certificado do emissor dos certificados.
+	 */
+	public static void consultarOCSP(List<X509Certificate> certs,
+			X509Certificate emissor) {
+
+		Map<String, List<X509Certificate>> porRespondedor =
+			new LinkedHashMap<String, List<X509Certificate>>();
+		for (X509Certificate cert : certs) {
+			try {
+				List<String> ocspUrls = getOcspUrls(cert);
+				if (ocspUrls.isEmpty()) { continue; }
+				List<X509Certificate> lote = porRespondedor.get(ocspUrls.get(0));
+				if (lote == null) {
+					lote = new ArrayList<X509Certificate>();
+					porRespondedor.put(ocspUrls.get(0), lote);
+				}
+				lote.add(cert);
+			} catch (Exception e) { /* extensao AIA invalida */ }
+		}
+		for (Map.Entry<String, List<X509Certificate>> lote :
+				porRespondedor.entrySet()) {
+			try {
+				CacheOCSP.getRespostas(lote.getValue(), emissor, lote.getKey());
+			} catch (Exception e) { /* erro acessando o respondedor */ }
+		}
+	}
+
+	/* Retorna o indice de um conjunto de certificados confiaveis. O ultimo
+	 *   indice construido e' mantido, e reaproveitado enquanto o conjunto
+	 *   nao for alterado.
+	 * @param trustedCerts Conjunto de certificados emissores confiaveis.
+	 * @return Indice dos certificados confiaveis.
+	 */
+	private static synchronized IndiceConfianca getIndiceConfianca(
+			X509Certificate[] trustedCerts) {
+		
+		List<X509Certificate> conjunto = Arrays.asList(trustedCerts.clone());
+		if (ultimoIndice == null || !conjunto.equals(ultimoConjunto)) {
+			ultimoIndice = new IndiceConfianca(trustedCerts, ultimoIndice);
+			ultimoConjunto = conjunto;
+		}
+		return ultimoIndice;
+	}
+
 	/* Retorna uma lista com os pontos de distribuicao de CRL
 	 *   (Lista de Certificados Revogados).
 	 * @param cert Objeto que representa o certificado.
 	 * @return Lista de pontos de distribuicao de CRL.
 	 * @throws Exception
 	 */
-	private static List<String> getCrlDistPoints(X509Certificate cert) throws Exception {
+	static List<String> getCrlDistPoints(X509Certificate cert) throws Exception {
 		
 		byte[] crlDistPointExt =
 			cert.getExtensionValue(X509Extension.cRLDistributionPoints.getId());
@@ -225,22 +334,58 @@ public class CertificadoValidador {
 		return crlUrls;
 	}
 
-	/* Realiza o download de uma CRL (Lista de Certificados Revogados).
+	/* Retorna uma lista com as URLs dos respondedores OCSP, indicadas
+	 *   na extensao Authority Information Access.
+	 * @param cert Objeto que representa o certificado.
+	 * @return Lista de URLs de respondedores OCSP.
+	 * @throws Exception
+	 */
+	private static List<String> getOcspUrls(X509Certificate cert) throws Exception {
+
+		List<String> ocspUrls = new ArrayList<String>();
+		byte[] aiaExt =
+			cert.getExtensionValue(X509Extension.authorityInfoAccess.getId());
+		if (aiaExt == null) {
+			return ocspUrls;
+		}
+		AuthorityInformationAccess aia = AuthorityInformationAccess.getInstance(
+				ASN1Primitive.fromByteArray(
+						DEROctetString.getInstance(
+								ASN1Primitive.fromByteArray(aiaExt)).getOctets()));
+		for (AccessDescription descr : aia.getAccessDescriptions()) {
+			GeneralName local = descr.getAccessLocation();
+			if (AccessDescription.id_ad_ocsp.equals(descr.getAccessMethod()) &&
+					local.getTagNo() == GeneralName.uniformResourceIdentifier) {
+				ocspUrls.add(DERIA5String.getInstance(local.getName()).getString());
+			}
+		}
+		return ocspUrls;
+	}
+
+	/* Realiza o download de uma CRL (Lista de Certificados Revogados),
+	 *   compilando-a em um indice ({@link IndiceCRL}). Utilizado pelo
+	 *   cache de CRLs ({@link CacheCRL}).
 	 * @param crlURL URL da CRL (Lista de Certificados Revogados).
-	 * @return Objeto que representa a CRL.
+	 * @param arquivo Arquivo do indice.
+	 * @param atual Indice atual da CRL (pode ser null); e' mantido se
+	 *   o numero da CRL nao tiver mudado.
+	 * @return Indice da CRL.
 	 * @throws Exception
 	 */
-	private static X509CRL downloadCRL(String crlURL) throws Exception {
+	static IndiceCRL downloadCRL(String crlURL, File arquivo,
+			IndiceCRL atual) throws Exception {
 		
+		InputStream crlStream;
 		if (crlURL.startsWith("http://" ) ||
 			crlURL.startsWith("https://") ||
-			crlURL.startsWith("ftp://"  )) {
+			crlURL.startsWith("ftp://"  ) ||
+			crlURL.startsWith("file:"   )) {
 			
-			return downloadCRLFromWeb(crlURL);
+			crlStream = downloadCRLFromWeb(crlURL);
 			
 		} else if (crlURL.startsWith("ldap://")) {
 			
-			return downloadCRLFromLDAP(crlURL);
+			crlStream = downloadCRLFromLDAP(crlURL);
 			
 		} else {
 			throw new CRLException(
@@ -248,38 +393,41 @@ public class CertificadoValidador {
 							"Can not download CRL from certificate distribution point: %s",
 							crlURL));
 		}
+		try {
+			return IndiceCRL.compilar(crlStream, arquivo, atual);
+		} finally {
+			crlStream.close();
+		}
 	}
 
 	/* Realiza o download de uma CRL (Lista de Certificados Revogados),
-	 *   a partir da web (HTTP, HTTPS, FTP).
+	 *   a partir da web (HTTP, HTTPS, FTP) ou de um arquivo local (FILE).
 	 * @param crlURL URL da CRL (Lista de Certificados Revogados).
-	 * @return Objeto que representa a CRL.
+	 * @return Stream com a CRL.
 	 * @throws Exception
 	 */
-	private static X509CRL downloadCRLFromWeb(String crlURL) throws Exception {
+	private static InputStream downloadCRLFromWeb(String crlURL) throws Exception {
 		
-		URL url = new URL(crlURL);
-		InputStream crlStream = url.openStream();
-		try {
-			CertificateFactory certFactory = CertificateFactory.getInstance("X.509");
-			return (X509CRL) certFactory.generateCRL(crlStream);
-		} finally {
-			crlStream.close();
-		}
+		URLConnection con = new URL(crlURL).openConnection();
+		con.setConnectTimeout(TIMEOUT_CRL);
+		con.setReadTimeout(TIMEOUT_CRL);
+		return new BufferedInputStream(con.getInputStream(), 64 * 1024);
 	}
 
 	/* Realiza o download de uma CRL (Lista de Certificados Revogados),
 	 *   a partir de um servidor LDAP.
 	 * @param ldapURL URL da CRL (Lista de Certificados Revogados),
 	 *   no servicor LDAP.
-	 * @return Objeto que representa a CRL.
+	 * @return Stream com a CRL.
 	 * @throws Exception
 	 */
-	private static X509CRL downloadCRLFromLDAP(String ldapURL) throws Exception {
+	private static InputStream downloadCRLFromLDAP(String ldapURL) throws Exception {
 		
 		Hashtable<String, String> env = new Hashtable<String, String>();
 		env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
         env.put(Context.PROVIDER_URL, ldapURL);
+        env.put("com.sun.jndi.ldap.connect.timeout", String.valueOf(TIMEOUT_CRL));
+        env.put("com.sun.jndi.ldap.read.timeout", String.valueOf(TIMEOUT_CRL));
 
         DirContext context = new InitialDirContext(env);
         Attributes attrs = context.getAttributes("");
@@ -292,10 +440,7 @@ public class CertificadoValidador {
         			String.format("Can not download CRL from: %s", ldapURL));
         } else {
         
-        	InputStream crlStream = new ByteArrayInputStream(crlValue);
-            CertificateFactory certFactory = CertificateFactory.getInstance("X.509");
-        	X509CRL crl = (X509CRL) certFactory.generateCRL(crlStream);
-        	return crl;
+        	return new ByteArrayInputStream(crlValue);
         }
 	}
 }
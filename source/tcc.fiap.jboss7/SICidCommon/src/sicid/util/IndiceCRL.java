@@ -0,0 +1,1341 @@
+package sicid.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.security.MessageDigest;
+import java.security.cert.CRLException;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.bouncycastle.asn1.ASN1Encodable;
+import org.bouncycastle.asn1.ASN1ObjectIdentifier;
+import org.bouncycastle.asn1.ASN1OctetString;
+import org.bouncycastle.asn1.ASN1Primitive;
+import org.bouncycastle.asn1.ASN1Sequence;
+import org.bouncycastle.asn1.ASN1SequenceParser;
+import org.bouncycastle.asn1.ASN1StreamParser;
+import org.bouncycastle.asn1.ASN1TaggedObject;
+import org.bouncycastle.asn1.ASN1TaggedObjectParser;
+import org.bouncycastle.asn1.DEREnumerated;
+import org.bouncycastle.asn1.DERInteger;
+import org.bouncycastle.asn1.InMemoryRepresentable;
+import org.bouncycastle.asn1.x509.IssuingDistributionPoint;
+import org.bouncycastle.asn1.x509.Time;
+import org.bouncycastle.asn1.x509.X509Extension;
+
+/**
+ * Indice dos numeros de serie revogados de uma CRL (Lista de
+ *   Certificados Revogados), mantido em disco e mapeado em memoria.<br/>
+ * A CRL e' lida de forma sequencial (sem carregar as suas entradas no
+ *   heap) e compilada em um arquivo com registros de tamanho fixo:
+ *   numero de serie (20 bytes, sem sinal, alinhado 'a direita), instante
+ *   de revogacao (8 bytes) e motivo da revogacao (1 byte), ordenados pelo
+ *   numero de serie. As consultas
+ *   sao feitas por busca binaria sobre o arquivo mapeado
+ *   ({@link FileChannel#map}). Numeros de serie fora do padrao (negativos
+ *   ou com mais de 20 bytes) sao mantidos em memoria.<br/>
+ * O indice so' e' reconstruido quando o numero da CRL (extensao
+ *   cRLNumber) muda, e pode ser reaberto apos o reinicio da JVM. CRLs
+ *   indiretas (entradas de outros emissores) nao sao suportadas.<br/>
+ * A CRL original (assinada) e' mantida ao lado do indice (extensao
+ *   .crl), e o indice termina com o seu resumo SHA-256. Ao ser reaberto,
+ *   o indice so' e' reaproveitado se o diretorio e os arquivos pertencerem
+ *   ao usuario da JVM e nao tiverem permissoes para outros usuarios, se
+ *   o resumo conferir e se o emissor, o numero e a data de emissao
+ *   (thisUpdate) forem os da CRL original; caso contrario, e' recompilado
+ *   a partir desta.
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+public class IndiceCRL {
+
+	/* identificador (e versao) do formato do arquivo */
+	private static final int MAGIC = 0x53435232; /* "SCR2" */
+	/* tamanho do cabecalho: magic, quantidade, thisUpdate, nextUpdate,
+	   posicao da secao complementar */
+	private static final int CABECALHO = 4 + 4 + 8 + 8 + 8;
+	/* tamanho de um numero de serie no indice, em bytes */
+	private static final int TAMANHO_SERIAL = 20;
+	/* tamanho de um registro do indice, em bytes */
+	private static final int TAMANHO_REGISTRO = TAMANHO_SERIAL + 8 + 1;
+	/* nextUpdate ausente */
+	private static final long SEM_NEXTUPDATE = Long.MIN_VALUE;
+	/* tags DER do cabecalho da CRL */
+	private static final int TAG_SEQUENCE  = 0x30;
+	private static final int TAG_EXTENSOES = 0xA0;
+	/* motivo da revogacao ausente (extensao reasonCode) */
+	private static final byte SEM_MOTIVO = (byte) 0xFF;
+	/* algoritmo e tamanho do resumo gravado ao final do indice */
+	private static final String ALGORITMO_RESUMO = "SHA-256";
+	private static final int TAMANHO_RESUMO = 32;
+	/* permissoes do diretorio dos indices (somente o proprietario) */
+	private static final String PERMISSOES_DIRETORIO = "rwx------";
+
+	/* usuario da JVM (proprietario dos arquivos criados) */
+	private static UserPrincipal usuario;
+
+	/* arquivos temporarios em uso: compilacoes em andamento, e indices
+	   mantidos no arquivo temporario (ATOMIC_MOVE indisponivel) */
+	private static final Set<File> temporarios =
+		Collections.newSetFromMap(new ConcurrentHashMap<File, Boolean>());
+	/* indices mantidos no arquivo temporario, por arquivo do indice */
+	private static final ConcurrentMap<File, File> substitutos =
+		new ConcurrentHashMap<File, File>();
+
+	/* arquivo do indice */
+	private final File arquivo;
+	/* registros ordenados, mapeados em memoria */
+	private final ByteBuffer registros;
+	/* numero de registros */
+	private final int quantidade;
+	/* emissor da CRL */
+	private final X500Principal emissor;
+	/* data de emissao da CRL */
+	private final Date thisUpdate;
+	/* proxima atualizacao da CRL (pode ser null) */
+	private final Date nextUpdate;
+	/* numero da CRL (pode ser null) */
+	private final BigInteger numero;
+	/* numeros de serie fora do padrao, com o instante de revogacao */
+	private final Map<BigInteger, Long> especiais;
+
+	/* Cria uma nova instancia do indice, a partir de um arquivo.
+	 * @param arquivo Arquivo do indice.
+	 * @throws Exception
+	 */
+	private IndiceCRL(File arquivo) throws Exception {
+		this.arquivo = arquivo;
+		RandomAccessFile raf = new RandomAccessFile(arquivo, "r");
+		try {
+			if (raf.length() < CABECALHO || raf.readInt() != MAGIC) {
+				throw new CRLException(String.format(
+						"Invalid CRL index file: %s", arquivo));
+			}
+			this.quantidade = raf.readInt();
+			this.thisUpdate = new Date(raf.readLong());
+			long proxima = raf.readLong();
+			this.nextUpdate = (proxima != SEM_NEXTUPDATE) ? new Date(proxima) : null;
+			long posicao = raf.readLong();
+			if (quantidade < 0 || posicao != CABECALHO +
+					(long) quantidade * TAMANHO_REGISTRO || posicao > raf.length()) {
+				throw new CRLException(String.format(
+						"Invalid CRL index file: %s", arquivo));
+			}
+			this.registros = raf.getChannel().map(FileChannel.MapMode.READ_ONLY,
+					CABECALHO, (long) quantidade * TAMANHO_REGISTRO);
+		} finally {
+			raf.close();
+		}
+		FileInputStream fis = new FileInputStream(arquivo);
+		try {
+			fis.getChannel().position(CABECALHO +
+					(long) quantidade * TAMANHO_REGISTRO);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(fis));
+			this.emissor = new X500Principal(lerBytes(in));
+			byte[] numeroCRL = lerBytes(in);
+			this.numero = (numeroCRL.length > 0) ? new BigInteger(numeroCRL) : null;
+			int quantidadeEspeciais = in.readInt();
+			this.especiais = new HashMap<BigInteger, Long>();
+			for (int i = 0; i < quantidadeEspeciais; i++) {
+				BigInteger serial = new BigInteger(lerBytes(in));
+				especiais.put(serial, in.readLong());
+			}
+		} finally {
+			fis.close();
+		}
+	}
+
+	/* Cria uma nova instancia do indice, mantido em memoria (ex: recebido
+	 *   em um pacote de validacao).
+	 * @param registros Registros ordenados.
+	 * @param cabecalho Cabecalho da CRL.
+	 * @param especiais Numeros de serie fora do padrao.
+	 */
+	private IndiceCRL(ByteBuffer registros, Cabecalho cabecalho,
+			Map<BigInteger, Long> especiais) {
+		this.arquivo = null;
+		this.registros = registros;
+		this.quantidade = cabecalho.quantidade;
+		this.emissor = cabecalho.emissor;
+		this.thisUpdate = cabecalho.thisUpdate;
+		this.nextUpdate = cabecalho.nextUpdate;
+		this.numero = cabecalho.numero;
+		this.especiais = especiais;
+	}
+
+	/**
+	 * Abre um indice existente. Se o indice nao for integro (proprietario,
+	 *   permissoes, resumo, ou correspondencia com a CRL original), e'
+	 *   recompilado a partir da CRL original.
+	 * @param arquivo Arquivo do indice.
+	 * @return Indice, ou null se o arquivo nao existir, ou se for invalido
+	 *   e nao puder ser recompilado.
+	 */
+	public static IndiceCRL abrir(File arquivo) {
+		File crl = getArquivoCRL(arquivo);
+		if (!arquivo.isFile() || !isSeguro(
+				arquivo.getAbsoluteFile().getParentFile())) {
+			return null;
+		}
+		try {
+			if (isSeguro(arquivo) && isSeguro(crl) && verificarResumo(arquivo)) {
+				IndiceCRL indice = new IndiceCRL(arquivo);
+				if (indice.isMesmaCRL(lerCabecalho(crl))) {
+					return indice;
+				}
+			}
+		} catch (Exception e) { /* indice invalido */ }
+		/* recompila o indice a partir da CRL original */
+		if (!isSeguro(crl)) {
+			return null;
+		}
+		try {
+			InputStream in = new FileInputStream(crl);
+			try {
+				return compilar(in, arquivo, null);
+			} finally {
+				in.close();
+			}
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Cria (se necessario) o diretorio dos indices, com permissoes somente
+	 *   para o proprietario, e verifica se ele e' seguro.
+	 * @param diretorio Diretorio dos indices.
+	 * @throws IOException Se o diretorio nao puder ser criado, nao
+	 *   pertencer ao usuario da JVM ou tiver permissoes para outros
+	 *   usuarios.
+	 */
+	public static void criarDiretorio(File diretorio) throws IOException {
+		Path path = diretorio.getAbsoluteFile().toPath();
+		if (!Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+			if (isPosix()) {
+				Files.createDirectories(path, PosixFilePermissions.asFileAttribute(
+						PosixFilePermissions.fromString(PERMISSOES_DIRETORIO)));
+			} else {
+				Files.createDirectories(path);
+			}
+		}
+		if (!isSeguro(diretorio)) {
+			throw new IOException(String.format(
+					"Insecure CRL index directory: %s", diretorio));
+		}
+	}
+
+	/**
+	 * Compila uma CRL, lida de um stream (codificacao DER), em um indice.
+	 *   A CRL e' copiada para um arquivo temporario e o seu cabecalho
+	 *   (emissor e numero) e' lido antes das entradas: se o numero da CRL
+	 *   for igual ao do indice atual, este e' mantido e o arquivo nao e'
+	 *   reescrito.
+	 * @param crlStream Stream com a CRL.
+	 * @param arquivo Arquivo do indice.
+	 * @param atual Indice atual da mesma CRL (pode ser null).
+	 * @return Indice da CRL.
+	 * @throws Exception
+	 */
+	public static IndiceCRL compilar(InputStream crlStream, File arquivo,
+			IndiceCRL atual) throws Exception {
+
+		criarDiretorio(arquivo.getAbsoluteFile().getParentFile());
+		File crl = criarTemporario(arquivo, ".crl.tmp");
+		File temporario = null;
+		try {
+			copiar(crlStream, crl);
+			Cabecalho cabecalho = lerCabecalho(crl);
+			if (isMesmaCRL(atual, cabecalho)) {
+				return atual;
+			}
+			temporario = criarTemporario(arquivo, ".tmp");
+			InputStream in = new BufferedInputStream(
+					new FileInputStream(crl), 64 * 1024);
+			try {
+				cabecalho = gravar(in, temporario);
+			} finally {
+				in.close();
+			}
+			if (isMesmaCRL(atual, cabecalho)) {
+				return atual;
+			}
+			ordenar(temporario, cabecalho.quantidade);
+			gravarResumo(temporario);
+			IndiceCRL indice;
+			try {
+				/* a CRL original antes do indice: uma interrupcao entre
+				   as duas operacoes e' detectada ao reabrir o indice */
+				Files.move(crl.toPath(), getArquivoCRL(arquivo).toPath(),
+						StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+				Files.move(temporario.toPath(), arquivo.toPath(),
+						StandardCopyOption.REPLACE_EXISTING,
+						StandardCopyOption.ATOMIC_MOVE);
+				indice = new IndiceCRL(arquivo);
+				descartarSubstituto(arquivo, null);
+			} catch (IOException e) {
+				/* arquivo atual ainda mapeado (ex: Windows): mantem o
+				   indice no arquivo temporario, removido quando este for
+				   substituido por uma nova compilacao */
+				indice = new IndiceCRL(temporario);
+				descartarSubstituto(arquivo, temporario);
+			}
+			temporario = null;
+			return indice;
+		} finally {
+			crl.delete();
+			temporarios.remove(crl);
+			if (temporario != null) {
+				temporario.delete();
+				temporarios.remove(temporario);
+			}
+		}
+	}
+
+	/**
+	 * Verifica se um certificado consta da CRL.
+	 * @param cert Objeto que representa o certificado.
+	 * @return True se o certificado foi revogado.
+	 */
+	public boolean isRevoked(X509Certificate cert) {
+		return getDataRevogacao(cert) != null;
+	}
+
+	/**
+	 * Retorna a data de revogacao de um certificado.
+	 * @param cert Objeto que representa o certificado.
+	 * @return Data de revogacao, ou null se o certificado nao consta da CRL.
+	 */
+	public Date getDataRevogacao(X509Certificate cert) {
+		if (!emissor.equals(cert.getIssuerX500Principal())) {
+			return null;
+		}
+		BigInteger serial = cert.getSerialNumber();
+		byte[] chave = getChave(serial);
+		if (chave == null) {
+			Long instante = especiais.get(serial);
+			return (instante != null) ? new Date(instante) : null;
+		}
+		int posicao = buscar(chave);
+		return (posicao >= 0) ? new Date(registros.getLong(
+				posicao + TAMANHO_SERIAL)) : null;
+	}
+
+	/**
+	 * Retorna o motivo da revogacao de um certificado (extensao reasonCode
+	 *   da entrada da CRL).
+	 * @param cert Objeto que representa o certificado.
+	 * @return Codigo do motivo (CRLReason), ou null se o certificado nao
+	 *   consta da CRL, se o motivo nao foi informado, ou se o numero de
+	 *   serie estiver fora do padrao.
+	 */
+	public Integer getMotivoRevogacao(X509Certificate cert) {
+		if (!emissor.equals(cert.getIssuerX500Principal())) {
+			return null;
+		}
+		byte[] chave = getChave(cert.getSerialNumber());
+		int posicao = (chave != null) ? buscar(chave) : -1;
+		if (posicao < 0) {
+			return null;
+		}
+		byte motivo = registros.get(posicao + TAMANHO_SERIAL + 8);
+		return (motivo != SEM_MOTIVO) ? Integer.valueOf(motivo) : null;
+	}
+
+	/* Busca um numero de serie nos registros (busca binaria).
+	 * @param chave Chave do numero de serie.
+	 * @return Posicao do registro, ou -1 se nao encontrado.
+	 */
+	private int buscar(byte[] chave) {
+		ByteBuffer buffer = ByteBuffer.wrap(chave);
+		long k0 = buffer.getLong(0);
+		long k1 = buffer.getLong(8);
+		int  k2 = buffer.getInt(16);
+		int inicio = 0;
+		int fim = quantidade - 1;
+		while (inicio <= fim) {
+			int meio = (inicio + fim) >>> 1;
+			int cmp = comparar(registros, meio * TAMANHO_REGISTRO, k0, k1, k2);
+			if (cmp < 0) {
+				inicio = meio + 1;
+			} else if (cmp > 0) {
+				fim = meio - 1;
+			} else {
+				return meio * TAMANHO_REGISTRO;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Retorna o emissor da CRL.
+	 * @return Emissor da CRL.
+	 */
+	public X500Principal getIssuerX500Principal() {
+		return emissor;
+	}
+
+	/**
+	 * Retorna a data de emissao da CRL.
+	 * @return Data de emissao (thisUpdate).
+	 */
+	public Date getThisUpdate() {
+		return new Date(thisUpdate.getTime());
+	}
+
+	/**
+	 * Retorna a data da proxima atualizacao da CRL.
+	 * @return Data da proxima atualizacao (nextUpdate), ou null se ausente.
+	 */
+	public Date getNextUpdate() {
+		return (nextUpdate != null) ? new Date(nextUpdate.getTime()) : null;
+	}
+
+	/**
+	 * Retorna o numero da CRL (extensao cRLNumber).
+	 * @return Numero da CRL, ou null se ausente.
+	 */
+	public BigInteger getNumero() {
+		return numero;
+	}
+
+	/**
+	 * Retorna o numero de certificados revogados na CRL.
+	 * @return Numero de certificados revogados.
+	 */
+	public int size() {
+		return quantidade + especiais.size();
+	}
+
+	/**
+	 * Retorna o arquivo do indice.
+	 * @return Arquivo do indice, ou null se o indice for mantido em memoria.
+	 */
+	public File getArquivo() {
+		return arquivo;
+	}
+
+	/**
+	 * Grava o indice em um stream (ex: pacote de validacao). Se um indice
+	 *   base da mesma CRL for informado, somente as diferencas em relacao
+	 *   a ele sao gravadas (numeros de serie removidos e adicionados; uma
+	 *   entrada cuja data ou motivo de revogacao mudou e' gravada como
+	 *   removida e adicionada).
+	 * @param out Stream de saida.
+	 * @param base Indice base (pode ser null).
+	 * @throws IOException
+	 * @see #importar(DataInputStream, IndiceCRL)
+	 */
+	public void exportar(DataOutputStream out, IndiceCRL base) throws IOException {
+		gravarBytes(out, emissor.getEncoded());
+		out.writeLong(thisUpdate.getTime());
+		out.writeLong((nextUpdate != null) ? nextUpdate.getTime() : SEM_NEXTUPDATE);
+		gravarBytes(out, (numero != null) ? numero.toByteArray() : new byte[0]);
+		out.writeInt(especiais.size());
+		for (Map.Entry<BigInteger, Long> especial : especiais.entrySet()) {
+			gravarBytes(out, especial.getKey().toByteArray());
+			out.writeLong(especial.getValue());
+		}
+		byte[] registro = new byte[TAMANHO_REGISTRO];
+		if (base == null) {
+			out.writeInt(quantidade);
+			for (int i = 0; i < quantidade; i++) {
+				lerRegistro(registros, i, registro);
+				out.write(registro);
+			}
+			return;
+		}
+		/* diferenca entre os registros (ordenados) do indice base e deste */
+		ByteArrayOutputStream removidos = new ByteArrayOutputStream();
+		ByteArrayOutputStream adicionados = new ByteArrayOutputStream();
+		int i = 0;
+		int j = 0;
+		while (i < quantidade || j < base.quantidade) {
+			int cmp = (i >= quantidade) ? 1 : ((j >= base.quantidade) ? -1
+				: comparar(registros, i * TAMANHO_REGISTRO,
+						base.registros, j * TAMANHO_REGISTRO));
+			if (cmp == 0) {
+				if (!isMesmoRegistro(registros, i, base.registros, j)) {
+					lerRegistro(registros, i, registro);
+					adicionados.write(registro);
+					removidos.write(registro, 0, TAMANHO_SERIAL);
+				}
+				i++;
+				j++;
+			} else if (cmp < 0) {
+				lerRegistro(registros, i++, registro);
+				adicionados.write(registro);
+			} else {
+				lerRegistro(base.registros, j++, registro);
+				removidos.write(registro, 0, TAMANHO_SERIAL);
+			}
+		}
+		out.writeInt(removidos.size() / TAMANHO_SERIAL);
+		removidos.writeTo(out);
+		out.writeInt(adicionados.size() / TAMANHO_REGISTRO);
+		adicionados.writeTo(out);
+	}
+
+	/**
+	 * Le um indice gravado em um stream por
+	 *   {@link #exportar(DataOutputStream, IndiceCRL)}. O indice lido e'
+	 *   mantido em memoria.
+	 * @param in Stream de entrada.
+	 * @param base Indice base, se o stream contiver somente as diferencas
+	 *   em relacao a ele (ou null, se contiver o indice completo).
+	 * @return Indice da CRL.
+	 * @throws IOException
+	 */
+	public static IndiceCRL importar(DataInputStream in,
+			IndiceCRL base) throws IOException {
+
+		Cabecalho cabecalho = new Cabecalho();
+		cabecalho.emissor = new X500Principal(lerBytes(in));
+		cabecalho.thisUpdate = new Date(in.readLong());
+		long proxima = in.readLong();
+		cabecalho.nextUpdate = (proxima != SEM_NEXTUPDATE) ? new Date(proxima) : null;
+		byte[] numeroCRL = lerBytes(in);
+		cabecalho.numero = (numeroCRL.length > 0) ? new BigInteger(numeroCRL) : null;
+		int quantidadeEspeciais = lerQuantidade(in, 1);
+		Map<BigInteger, Long> especiais = new HashMap<BigInteger, Long>();
+		for (int i = 0; i < quantidadeEspeciais; i++) {
+			BigInteger serial = new BigInteger(lerBytes(in));
+			especiais.put(serial, in.readLong());
+		}
+		if (base == null) {
+			cabecalho.quantidade = lerQuantidade(in, TAMANHO_REGISTRO);
+			byte[] dados = new byte[cabecalho.quantidade * TAMANHO_REGISTRO];
+			in.readFully(dados);
+			return new IndiceCRL(ByteBuffer.wrap(dados), cabecalho, especiais);
+		}
+		byte[] removidos = new byte[lerQuantidade(in, TAMANHO_SERIAL) * TAMANHO_SERIAL];
+		in.readFully(removidos);
+		byte[] adicionados = new byte[lerQuantidade(in, TAMANHO_REGISTRO) * TAMANHO_REGISTRO];
+		in.readFully(adicionados);
+		ByteBuffer bufRemovidos = ByteBuffer.wrap(removidos);
+		ByteBuffer bufAdicionados = ByteBuffer.wrap(adicionados);
+		int nRemovidos = removidos.length / TAMANHO_SERIAL;
+		int nAdicionados = adicionados.length / TAMANHO_REGISTRO;
+		long total = (long) base.quantidade - nRemovidos + nAdicionados;
+		if (total < 0 || total * TAMANHO_REGISTRO > Integer.MAX_VALUE) {
+			throw new IOException("Invalid CRL index delta");
+		}
+		/* intercala os registros do indice base (menos os removidos)
+		   com os adicionados */
+		ByteBuffer dados = ByteBuffer.allocate((int) total * TAMANHO_REGISTRO);
+		byte[] registro = new byte[TAMANHO_REGISTRO];
+		int r = 0;
+		int a = 0;
+		for (int j = 0; j < base.quantidade; j++) {
+			int posicao = j * TAMANHO_REGISTRO;
+			while (a < nAdicionados && comparar(bufAdicionados,
+					a * TAMANHO_REGISTRO, base.registros, posicao) < 0) {
+				bufAdicionados.position(a++ * TAMANHO_REGISTRO);
+				bufAdicionados.get(registro);
+				dados.put(registro);
+			}
+			if (r < nRemovidos && comparar(bufRemovidos, r * TAMANHO_SERIAL,
+					base.registros, posicao) == 0) {
+				r++;
+				continue;
+			}
+			lerRegistro(base.registros, j, registro);
+			dados.put(registro);
+		}
+		while (a < nAdicionados) {
+			bufAdicionados.position(a++ * TAMANHO_REGISTRO);
+			bufAdicionados.get(registro);
+			dados.put(registro);
+		}
+		if (r != nRemovidos || dados.hasRemaining()) {
+			throw new IOException("CRL index delta does not match its base");
+		}
+		cabecalho.quantidade = (int) total;
+		return new IndiceCRL(dados, cabecalho, especiais);
+	}
+
+	/* Verifica se o indice corresponde 'a CRL de um cabecalho (mesmo
+	 *   emissor, numero e data de emissao).
+	 * @param cabecalho Cabecalho da CRL (pode ser null).
+	 * @return True se o indice corresponde 'a CRL.
+	 */
+	private boolean isMesmaCRL(Cabecalho cabecalho) {
+		return cabecalho != null && emissor.equals(cabecalho.emissor) &&
+			thisUpdate.equals(cabecalho.thisUpdate) &&
+			((numero != null) ? numero.equals(cabecalho.numero)
+				: cabecalho.numero == null);
+	}
+
+	/* Retorna o arquivo da CRL original de um indice.
+	 * @param arquivo Arquivo do indice.
+	 * @return Arquivo da CRL.
+	 */
+	private static File getArquivoCRL(File arquivo) {
+		String nome = arquivo.getName();
+		if (nome.endsWith(".idx")) {
+			nome = nome.substring(0, nome.length() - 4);
+		}
+		return new File(arquivo.getAbsoluteFile().getParentFile(), nome + ".crl");
+	}
+
+	/* Verifica se um arquivo (ou diretorio) pertence ao usuario da JVM e
+	 *   nao tem permissoes para outros usuarios (se o sistema de arquivos
+	 *   suportar permissoes POSIX). Links simbolicos nao sao aceitos.
+	 * @param arquivo Arquivo ou diretorio.
+	 * @return True se o arquivo existe e e' seguro.
+	 */
+	static boolean isSeguro(File arquivo) {
+		try {
+			Path path = arquivo.getAbsoluteFile().toPath();
+			if (Files.isSymbolicLink(path) ||
+					!Files.getOwner(path, LinkOption.NOFOLLOW_LINKS).equals(getUsuario())) {
+				return false;
+			}
+			PosixFileAttributeView posix = Files.getFileAttributeView(path,
+					PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS);
+			if (posix != null) {
+				for (PosixFilePermission permissao :
+						posix.readAttributes().permissions()) {
+					if (!permissao.name().startsWith("OWNER_")) {
+						return false;
+					}
+				}
+			}
+			return true;
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	/* Retorna o usuario da JVM, como o proprietario de um arquivo
+	 *   temporario criado por ela.
+	 * @return Usuario da JVM.
+	 * @throws IOException
+	 */
+	private static synchronized UserPrincipal getUsuario() throws IOException {
+		if (usuario == null) {
+			Path teste = Files.createTempFile("sicid-crl", ".tmp");
+			try {
+				usuario = Files.getOwner(teste);
+			} finally {
+				Files.delete(teste);
+			}
+		}
+		return usuario;
+	}
+
+	/* Verifica se o sistema de arquivos padrao suporta permissoes POSIX.
+	 * @return True se suporta.
+	 */
+	private static boolean isPosix() {
+		return FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+	}
+
+	/* Calcula o resumo do conteudo de um indice, e o grava ao seu final.
+	 * @param arquivo Arquivo do indice.
+	 * @throws Exception
+	 */
+	private static void gravarResumo(File arquivo) throws Exception {
+		byte[] resumo = calcularResumo(arquivo, arquivo.length());
+		OutputStream out = new FileOutputStream(arquivo, true);
+		try {
+			out.write(resumo);
+		} finally {
+			out.close();
+		}
+	}
+
+	/* Verifica o resumo gravado ao final de um indice.
+	 * @param arquivo Arquivo do indice.
+	 * @return True se o resumo confere com o conteudo.
+	 * @throws Exception
+	 */
+	private static boolean verificarResumo(File arquivo) throws Exception {
+		long tamanho = arquivo.length() - TAMANHO_RESUMO;
+		if (tamanho < CABECALHO) {
+			return false;
+		}
+		RandomAccessFile raf = new RandomAccessFile(arquivo, "r");
+		byte[] gravado = new byte[TAMANHO_RESUMO];
+		try {
+			raf.seek(tamanho);
+			raf.readFully(gravado);
+		} finally {
+			raf.close();
+		}
+		return MessageDigest.isEqual(gravado, calcularResumo(arquivo, tamanho));
+	}
+
+	/* Calcula o resumo dos primeiros bytes de um arquivo.
+	 * @param arquivo Arquivo.
+	 * @param tamanho Numero de bytes.
+	 * @return Resumo.
+	 * @throws Exception
+	 */
+	private static byte[] calcularResumo(File arquivo, long tamanho)
+			throws Exception {
+		MessageDigest digest = MessageDigest.getInstance(ALGORITMO_RESUMO);
+		InputStream in = new FileInputStream(arquivo);
+		try {
+			byte[] buffer = new byte[64 * 1024];
+			while (tamanho > 0) {
+				int lidos = in.read(buffer, 0, (int) Math.min(buffer.length, tamanho));
+				if (lidos < 0) {
+					throw new IOException("Invalid CRL index file");
+				}
+				digest.update(buffer, 0, lidos);
+				tamanho -= lidos;
+			}
+		} finally {
+			in.close();
+		}
+		return digest.digest();
+	}
+
+	/* Verifica se o indice atual corresponde 'a CRL de um cabecalho
+	 *   (mesmo emissor e mesmo numero).
+	 * @param atual Indice atual (pode ser null).
+	 * @param cabecalho Cabecalho da CRL (pode ser null).
+	 * @return True se o indice corresponde 'a mesma CRL.
+	 */
+	private static boolean isMesmaCRL(IndiceCRL atual, Cabecalho cabecalho) {
+		return atual != null && cabecalho != null && atual.numero != null &&
+			atual.numero.equals(cabecalho.numero) &&
+			atual.emissor.equals(cabecalho.emissor);
+	}
+
+	/* Cria um arquivo temporario no diretorio de um indice, removendo
+	 *   antes os arquivos temporarios abandonados do mesmo indice (ex:
+	 *   de uma execucao anterior da JVM).
+	 * @param arquivo Arquivo do indice.
+	 * @param sufixo Sufixo do arquivo temporario.
+	 * @return Arquivo temporario criado.
+	 * @throws IOException
+	 */
+	private static File criarTemporario(File arquivo,
+			String sufixo) throws IOException {
+
+		File diretorio = arquivo.getAbsoluteFile().getParentFile();
+		synchronized (temporarios) {
+			File[] existentes = diretorio.listFiles();
+			if (existentes != null) {
+				for (File existente : existentes) {
+					if (existente.getName().startsWith(arquivo.getName()) &&
+							existente.getName().endsWith(".tmp") &&
+							!temporarios.contains(existente.getAbsoluteFile())) {
+						existente.delete();
+					}
+				}
+			}
+			/* criado somente com permissoes para o proprietario (POSIX) */
+			File temporario = Files.createTempFile(diretorio.toPath(),
+					arquivo.getName(), sufixo).toFile().getAbsoluteFile();
+			temporarios.add(temporario);
+			return temporario;
+		}
+	}
+
+	/* Registra o arquivo temporario que mantem o indice de um arquivo
+	 *   (ATOMIC_MOVE indisponivel), removendo o anterior.
+	 * @param arquivo Arquivo do indice.
+	 * @param substituto Novo arquivo temporario (null, se o indice foi
+	 *   gravado no proprio arquivo).
+	 */
+	private static void descartarSubstituto(File arquivo, File substituto) {
+		File anterior = (substituto != null)
+			? substitutos.put(arquivo.getAbsoluteFile(), substituto)
+			: substitutos.remove(arquivo.getAbsoluteFile());
+		if (anterior != null) {
+			temporarios.remove(anterior);
+			/* se ainda mapeado, e' removido na proxima compilacao */
+			anterior.delete();
+		}
+	}
+
+	/* Copia todo o conteudo de um stream para um arquivo.
+	 * @param in Stream de entrada.
+	 * @param arquivo Arquivo de destino.
+	 * @throws IOException
+	 */
+	private static void copiar(InputStream in, File arquivo) throws IOException {
+		OutputStream out = new FileOutputStream(arquivo);
+		try {
+			byte[] buffer = new byte[64 * 1024];
+			int lidos;
+			while ((lidos = in.read(buffer)) != -1) {
+				out.write(buffer, 0, lidos);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/* Le o cabecalho (emissor, datas e extensoes) de uma CRL gravada em
+	 *   arquivo, sem percorrer as suas entradas: a lista de certificados
+	 *   revogados e' saltada pelo seu comprimento (codificacao DER).
+	 * @param crl Arquivo da CRL.
+	 * @return Cabecalho da CRL (sem a quantidade de registros), ou null
+	 *   se a CRL nao estiver em codificacao DER (comprimentos definidos).
+	 * @throws Exception
+	 */
+	private static Cabecalho lerCabecalho(File crl) throws Exception {
+		LeitorDER der = new LeitorDER(new DataInputStream(
+				new BufferedInputStream(new FileInputStream(crl), 64 * 1024)));
+		try {
+			Cabecalho cabecalho = new Cabecalho();
+			/* CertificateList ::= SEQUENCE { TBSCertList, ... } */
+			if (der.lerTag() != TAG_SEQUENCE || der.lerComprimento() < 0 ||
+					der.lerTag() != TAG_SEQUENCE) {
+				throw new CRLException("Invalid CRL encoding");
+			}
+			long tamanho = der.lerComprimento();
+			if (tamanho < 0) { return null; }
+			long fim = der.lidos + tamanho;
+			int sequencias = 0;
+			int datas = 0;
+			while (der.lidos < fim) {
+				int tag = der.lerTag();
+				long comprimento = der.lerComprimento();
+				if (comprimento < 0) { return null; }
+				if (tag == TAG_SEQUENCE && sequencias++ != 1) {
+					/* algoritmo de assinatura e certificados revogados */
+					der.saltar(comprimento);
+					continue;
+				}
+				ASN1Primitive obj = ASN1Primitive.fromByteArray(
+						der.lerElemento(tag, comprimento));
+				if (tag == TAG_SEQUENCE) {
+					cabecalho.emissor = new X500Principal(obj.getEncoded());
+				} else if (tag == TAG_EXTENSOES) {
+					lerExtensoes((ASN1TaggedObject) obj, cabecalho);
+				} else if (!(obj instanceof DERInteger)) {
+					Date data = Time.getInstance(obj).getDate();
+					if (datas++ == 0) {
+						cabecalho.thisUpdate = data;
+					} else {
+						cabecalho.nextUpdate = data;
+					}
+				}
+			}
+			if (cabecalho.emissor == null || cabecalho.thisUpdate == null) {
+				throw new CRLException("Invalid CRL encoding");
+			}
+			return cabecalho;
+		} catch (ClassCastException e) {
+			CRLException ex = new CRLException("Invalid CRL encoding");
+			ex.initCause(e);
+			throw ex;
+		} catch (IllegalArgumentException e) {
+			CRLException ex = new CRLException("Invalid CRL encoding");
+			ex.initCause(e);
+			throw ex;
+		} finally {
+			der.in.close();
+		}
+	}
+
+	/* Le a CRL de forma sequencial e grava os registros (ainda nao
+	 *   ordenados) e a secao complementar no arquivo do indice.
+	 * @param crlStream Stream com a CRL.
+	 * @param arquivo Arquivo do indice.
+	 * @return Cabecalho da CRL.
+	 * @throws Exception
+	 */
+	private static Cabecalho gravar(InputStream crlStream,
+			File arquivo) throws Exception {
+
+		Cabecalho cabecalho = new Cabecalho();
+		Map<BigInteger, Long> especiais = new HashMap<BigInteger, Long>();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+				new FileOutputStream(arquivo), 64 * 1024));
+		try {
+			out.write(new byte[CABECALHO]);
+			ASN1SequenceParser certList = getSequencia(
+					new ASN1StreamParser(crlStream).readObject());
+			ASN1SequenceParser tbsCertList = getSequencia(certList.readObject());
+
+			ASN1Encodable obj = tbsCertList.readObject();
+			if (obj instanceof DERInteger) {
+				obj = tbsCertList.readObject(); /* versao */
+			}
+			carregar(obj); /* algoritmo de assinatura */
+			cabecalho.emissor = new X500Principal(
+					carregar(tbsCertList.readObject()).getEncoded());
+			cabecalho.thisUpdate =
+				Time.getInstance(carregar(tbsCertList.readObject())).getDate();
+			obj = tbsCertList.readObject();
+			if (obj != null && !(obj instanceof ASN1SequenceParser) &&
+					!(obj instanceof ASN1TaggedObjectParser)) {
+				cabecalho.nextUpdate = Time.getInstance(carregar(obj)).getDate();
+				obj = tbsCertList.readObject();
+			}
+			if (obj instanceof ASN1SequenceParser) {
+				ASN1SequenceParser revogados = (ASN1SequenceParser) obj;
+				byte[] registro = new byte[TAMANHO_REGISTRO];
+				ASN1Encodable entrada;
+				while ((entrada = revogados.readObject()) != null) {
+					ASN1SequenceParser campos = getSequencia(entrada);
+					BigInteger serial =
+						((DERInteger) carregar(campos.readObject())).getValue();
+					long instante =
+						Time.getInstance(carregar(campos.readObject())).getDate().getTime();
+					byte motivo = SEM_MOTIVO;
+					while ((obj = campos.readObject()) != null) {
+						motivo = getMotivo(carregar(obj)); /* extensoes da entrada */
+					}
+					byte[] chave = getChave(serial);
+					if (chave == null) {
+						especiais.put(serial, instante);
+						continue;
+					}
+					System.arraycopy(chave, 0, registro, 0, TAMANHO_SERIAL);
+					for (int i = 0; i < 8; i++) {
+						registro[TAMANHO_SERIAL + i] = (byte) (instante >>> (56 - 8 * i));
+					}
+					registro[TAMANHO_SERIAL + 8] = motivo;
+					out.write(registro);
+					if (++cabecalho.quantidade < 0 ||
+							(long) cabecalho.quantidade * TAMANHO_REGISTRO >
+								Integer.MAX_VALUE) {
+						throw new CRLException("CRL too large to be indexed");
+					}
+				}
+				obj = tbsCertList.readObject();
+			}
+			if (obj instanceof ASN1TaggedObjectParser) {
+				lerExtensoes((ASN1TaggedObject) carregar(obj), cabecalho);
+			}
+
+			gravarBytes(out, cabecalho.emissor.getEncoded());
+			gravarBytes(out, (cabecalho.numero != null)
+					? cabecalho.numero.toByteArray() : new byte[0]);
+			out.writeInt(especiais.size());
+			for (Map.Entry<BigInteger, Long> especial : especiais.entrySet()) {
+				gravarBytes(out, especial.getKey().toByteArray());
+				out.writeLong(especial.getValue());
+			}
+		} catch (ClassCastException e) {
+			CRLException ex = new CRLException("Invalid CRL encoding");
+			ex.initCause(e);
+			throw ex;
+		} catch (IllegalArgumentException e) {
+			CRLException ex = new CRLException("Invalid CRL encoding");
+			ex.initCause(e);
+			throw ex;
+		} finally {
+			out.close();
+		}
+
+		RandomAccessFile raf = new RandomAccessFile(arquivo, "rw");
+		try {
+			raf.writeInt(MAGIC);
+			raf.writeInt(cabecalho.quantidade);
+			raf.writeLong(cabecalho.thisUpdate.getTime());
+			raf.writeLong((cabecalho.nextUpdate != null)
+					? cabecalho.nextUpdate.getTime() : SEM_NEXTUPDATE);
+			raf.writeLong(CABECALHO +
+					(long) cabecalho.quantidade * TAMANHO_REGISTRO);
+		} finally {
+			raf.close();
+		}
+		return cabecalho;
+	}
+
+	/* Ordena os registros do indice, no proprio arquivo mapeado em memoria
+	 *   (heapsort, sem memoria adicional).
+	 * @param arquivo Arquivo do indice.
+	 * @param quantidade Numero de registros.
+	 * @throws Exception
+	 */
+	private static void ordenar(File arquivo, int quantidade) throws Exception {
+		RandomAccessFile raf = new RandomAccessFile(arquivo, "rw");
+		try {
+			MappedByteBuffer buffer = raf.getChannel().map(
+					FileChannel.MapMode.READ_WRITE, CABECALHO,
+					(long) quantidade * TAMANHO_REGISTRO);
+			for (int i = quantidade / 2 - 1; i >= 0; i--) {
+				descer(buffer, i, quantidade);
+			}
+			for (int fim = quantidade - 1; fim > 0; fim--) {
+				trocar(buffer, 0, fim);
+				descer(buffer, 0, fim);
+			}
+			buffer.force();
+		} finally {
+			raf.close();
+		}
+	}
+
+	/* Reposiciona um registro no heap (max-heap pelo numero de serie).
+	 * @param buffer Registros.
+	 * @param i Indice do registro.
+	 * @param tamanho Tamanho do heap.
+	 */
+	private static void descer(ByteBuffer buffer, int i, int tamanho) {
+		while (true) {
+			int maior = i;
+			int esq = 2 * i + 1;
+			int dir = esq + 1;
+			if (esq < tamanho && comparar(buffer, esq, maior) > 0) { maior = esq; }
+			if (dir < tamanho && comparar(buffer, dir, maior) > 0) { maior = dir; }
+			if (maior == i) { return; }
+			trocar(buffer, i, maior);
+			i = maior;
+		}
+	}
+
+	/* Compara os numeros de serie de dois registros.
+	 * @param buffer Registros.
+	 * @param i Indice do primeiro registro.
+	 * @param j Indice do segundo registro.
+	 * @return Negativo, zero ou positivo, conforme o primeiro seja menor,
+	 *   igual ou maior que o segundo.
+	 */
+	private static int comparar(ByteBuffer buffer, int i, int j) {
+		int pj = j * TAMANHO_REGISTRO;
+		return comparar(buffer, i * TAMANHO_REGISTRO,
+				buffer.getLong(pj), buffer.getLong(pj + 8), buffer.getInt(pj + 16));
+	}
+
+	/* Compara os numeros de serie de dois registros, em buffers distintos.
+	 * @param a Buffer do primeiro registro.
+	 * @param posicaoA Posicao do primeiro registro.
+	 * @param b Buffer do segundo registro.
+	 * @param posicaoB Posicao do segundo registro.
+	 * @return Negativo, zero ou positivo, conforme o primeiro seja menor,
+	 *   igual ou maior que o segundo.
+	 */
+	private static int comparar(ByteBuffer a, int posicaoA,
+			ByteBuffer b, int posicaoB) {
+		return comparar(a, posicaoA, b.getLong(posicaoB),
+				b.getLong(posicaoB + 8), b.getInt(posicaoB + 16));
+	}
+
+	/* Verifica se dois registros de mesmo numero de serie tem a mesma
+	 *   data e o mesmo motivo de revogacao.
+	 * @param a Registros do primeiro indice.
+	 * @param i Indice do registro no primeiro indice.
+	 * @param b Registros do segundo indice.
+	 * @param j Indice do registro no segundo indice.
+	 * @return True se os registros sao iguais.
+	 */
+	private static boolean isMesmoRegistro(ByteBuffer a, int i,
+			ByteBuffer b, int j) {
+		int pi = i * TAMANHO_REGISTRO + TAMANHO_SERIAL;
+		int pj = j * TAMANHO_REGISTRO + TAMANHO_SERIAL;
+		return a.getLong(pi) == b.getLong(pj) && a.get(pi + 8) == b.get(pj + 8);
+	}
+
+	/* Copia um registro de um buffer.
+	 * @param buffer Registros.
+	 * @param i Indice do registro.
+	 * @param registro Array de destino.
+	 */
+	private static void lerRegistro(ByteBuffer buffer, int i, byte[] registro) {
+		int posicao = i * TAMANHO_REGISTRO;
+		for (int k = 0; k < TAMANHO_REGISTRO; k++) {
+			registro[k] = buffer.get(posicao + k);
+		}
+	}
+
+	/* Le uma quantidade de itens de um stream, validando o tamanho total.
+	 * @param in Stream de entrada.
+	 * @param tamanhoItem Tamanho de cada item, em bytes.
+	 * @return Quantidade de itens.
+	 * @throws IOException
+	 */
+	private static int lerQuantidade(DataInputStream in,
+			int tamanhoItem) throws IOException {
+		int quantidade = in.readInt();
+		if (quantidade < 0 || (long) quantidade * tamanhoItem > Integer.MAX_VALUE) {
+			throw new IOException("Invalid CRL index data");
+		}
+		return quantidade;
+	}
+
+	/* Compara o numero de serie de um registro com uma chave (sem sinal).
+	 * @param buffer Registros.
+	 * @param posicao Posicao do registro.
+	 * @param k0 Bytes 0-7 da chave.
+	 * @param k1 Bytes 8-15 da chave.
+	 * @param k2 Bytes 16-19 da chave.
+	 * @return Negativo, zero ou positivo, conforme o registro seja menor,
+	 *   igual ou maior que a chave.
+	 */
+	private static int comparar(ByteBuffer buffer, int posicao,
+			long k0, long k1, int k2) {
+		int cmp = compararSemSinal(buffer.getLong(posicao), k0);
+		if (cmp != 0) { return cmp; }
+		cmp = compararSemSinal(buffer.getLong(posicao + 8), k1);
+		if (cmp != 0) { return cmp; }
+		return compararSemSinal(buffer.getInt(posicao + 16) & 0xFFFFFFFFL,
+				k2 & 0xFFFFFFFFL);
+	}
+
+	/* Compara dois valores de 64 bits, sem sinal.
+	 * @param a Primeiro valor.
+	 * @param b Segundo valor.
+	 * @return Negativo, zero ou positivo.
+	 */
+	private static int compararSemSinal(long a, long b) {
+		a ^= Long.MIN_VALUE;
+		b ^= Long.MIN_VALUE;
+		return (a < b) ? -1 : ((a > b) ? 1 : 0);
+	}
+
+	/* Troca dois registros de posicao (3 longs, 1 int e 1 byte por
+	 *   registro).
+	 * @param buffer Registros.
+	 * @param i Indice do primeiro registro.
+	 * @param j Indice do segundo registro.
+	 */
+	private static void trocar(ByteBuffer buffer, int i, int j) {
+		int pi = i * TAMANHO_REGISTRO;
+		int pj = j * TAMANHO_REGISTRO;
+		for (int k = 0; k < 24; k += 8) {
+			long temp = buffer.getLong(pi + k);
+			buffer.putLong(pi + k, buffer.getLong(pj + k));
+			buffer.putLong(pj + k, temp);
+		}
+		int temp = buffer.getInt(pi + 24);
+		buffer.putInt(pi + 24, buffer.getInt(pj + 24));
+		buffer.putInt(pj + 24, temp);
+		byte motivo = buffer.get(pi + 28);
+		buffer.put(pi + 28, buffer.get(pj + 28));
+		buffer.put(pj + 28, motivo);
+	}
+
+	/* Retorna a chave de um numero de serie: 20 bytes, sem sinal,
+	 *   alinhados 'a direita.
+	 * @param serial Numero de serie.
+	 * @return Chave, ou null se o numero de serie for negativo ou
+	 *   tiver mais de 20 bytes.
+	 */
+	private static byte[] getChave(BigInteger serial) {
+		if (serial.signum() < 0 || serial.bitLength() > TAMANHO_SERIAL * 8) {
+			return null;
+		}
+		byte[] valor = serial.toByteArray();
+		int inicio = (valor.length > TAMANHO_SERIAL) ? valor.length - TAMANHO_SERIAL : 0;
+		byte[] chave = new byte[TAMANHO_SERIAL];
+		System.arraycopy(valor, inicio, chave,
+				TAMANHO_SERIAL - (valor.length - inicio), valor.length - inicio);
+		return chave;
+	}
+
+	/* Le as extensoes da CRL: obtem o numero da CRL (extensao cRLNumber)
+	 *   e rejeita CRLs indiretas (extensao issuingDistributionPoint).
+	 * @param extensoes Extensoes da CRL ([0] EXPLICIT Extensions).
+	 * @param cabecalho Cabecalho onde o numero da CRL e' armazenado.
+	 * @throws Exception
+	 */
+	private static void lerExtensoes(ASN1TaggedObject extensoes,
+			Cabecalho cabecalho) throws Exception {
+
+		ASN1Sequence sequencia = ASN1Sequence.getInstance(extensoes, true);
+		for (int i = 0; i < sequencia.size(); i++) {
+			ASN1Sequence extensao = ASN1Sequence.getInstance(sequencia.getObjectAt(i));
+			ASN1Primitive valor = getValorExtensao(extensao);
+			if (X509Extension.cRLNumber.equals(extensao.getObjectAt(0))) {
+				cabecalho.numero = DERInteger.getInstance(valor).getValue();
+			} else if (X509Extension.issuingDistributionPoint.equals(
+					extensao.getObjectAt(0)) &&
+					IssuingDistributionPoint.getInstance(valor).isIndirectCRL()) {
+				throw new CRLException("Indirect CRLs are not supported");
+			}
+		}
+	}
+
+	/* Obtem o motivo da revogacao (extensao reasonCode) das extensoes de
+	 *   uma entrada da CRL. Rejeita entradas de outro emissor (extensao
+	 *   certificateIssuer, de CRLs indiretas).
+	 * @param extensoes Extensoes da entrada.
+	 * @return Codigo do motivo, ou SEM_MOTIVO se ausente.
+	 * @throws Exception
+	 */
+	private static byte getMotivo(ASN1Primitive extensoes) throws Exception {
+		byte motivo = SEM_MOTIVO;
+		ASN1Sequence sequencia = ASN1Sequence.getInstance(extensoes);
+		for (int i = 0; i < sequencia.size(); i++) {
+			ASN1Sequence extensao = ASN1Sequence.getInstance(sequencia.getObjectAt(i));
+			if (X509Extension.reasonCode.equals(extensao.getObjectAt(0))) {
+				int codigo = DEREnumerated.getInstance(
+						getValorExtensao(extensao)).getValue().intValue();
+				if (codigo >= 0 && codigo < 0xFF) {
+					motivo = (byte) codigo;
+				}
+			} else if (X509Extension.certificateIssuer.equals(
+					extensao.getObjectAt(0))) {
+				throw new CRLException("Indirect CRLs are not supported");
+			}
+		}
+		return motivo;
+	}
+
+	/* Decodifica o valor (extnValue) de uma extensao.
+	 * @param extensao Extensao (SEQUENCE { OID, critical, OCTET STRING }).
+	 * @return Valor decodificado.
+	 * @throws Exception
+	 */
+	private static ASN1Primitive getValorExtensao(ASN1Sequence extensao)
+			throws Exception {
+		ASN1OctetString valor = ASN1OctetString.getInstance(
+				extensao.getObjectAt(extensao.size() - 1));
+		return ASN1Primitive.fromByteArray(valor.getOctets());
+	}
+
+	/* Retorna um objeto ASN.1 como um parser de sequencia.
+	 * @param obj Objeto ASN.1.
+	 * @return Parser da sequencia.
+	 * @throws Exception
+	 */
+	private static ASN1SequenceParser getSequencia(ASN1Encodable obj)
+			throws Exception {
+		if (!(obj instanceof ASN1SequenceParser)) {
+			throw new CRLException("Invalid CRL encoding");
+		}
+		return (ASN1SequenceParser) obj;
+	}
+
+	/* Carrega em memoria um objeto ASN.1 lido pelo parser.
+	 * @param obj Objeto ASN.1.
+	 * @return Objeto carregado.
+	 * @throws Exception
+	 */
+	private static ASN1Primitive carregar(ASN1Encodable obj) throws Exception {
+		if (obj == null) {
+			throw new CRLException("Invalid CRL encoding");
+		}
+		if (obj instanceof InMemoryRepresentable) {
+			return ((InMemoryRepresentable) obj).getLoadedObject();
+		}
+		return obj.toASN1Primitive();
+	}
+
+	/* Grava um array de bytes precedido do seu tamanho (secao
+	 *   complementar do indice).
+	 * @param out Stream de saida.
+	 * @param valor Array de bytes.
+	 * @throws IOException
+	 */
+	private static void gravarBytes(DataOutputStream out,
+			byte[] valor) throws IOException {
+		out.writeInt(valor.length);
+		out.write(valor);
+	}
+
+	/* Le um array de bytes precedido do seu tamanho.
+	 * @param in Stream de entrada.
+	 * @return Array de bytes.
+	 * @throws IOException
+	 */
+	private static byte[] lerBytes(DataInputStream in) throws IOException {
+		int tamanho = in.readInt();
+		if (tamanho < 0 || tamanho > 64 * 1024) {
+			throw new IOException("Invalid CRL index file");
+		}
+		byte[] valor = new byte[tamanho];
+		in.readFully(valor);
+		return valor;
+	}
+
+	/* Leitor de elementos DER de um stream, com comprimentos definidos. */
+	private static class LeitorDER {
+		private final DataInputStream in;
+		private long lidos;
+		private LeitorDER(DataInputStream in) {
+			this.in = in;
+		}
+		/* Le a tag do proximo elemento (tags de um byte). */
+		private int lerTag() throws IOException {
+			lidos++;
+			return in.readUnsignedByte();
+		}
+		/* Le o comprimento do elemento atual.
+		 * @return Comprimento, ou -1 se indefinido (BER). */
+		private long lerComprimento() throws IOException {
+			int b = lerTag();
+			if (b == 0x80) { return -1; }
+			if (b < 0x80) { return b; }
+			if ((b & 0x7F) > 4) {
+				throw new IOException("Invalid CRL encoding");
+			}
+			long comprimento = 0;
+			for (int i = 0; i < (b & 0x7F); i++) {
+				comprimento = (comprimento << 8) | lerTag();
+			}
+			return comprimento;
+		}
+		/* Salta o conteudo do elemento atual. */
+		private void saltar(long comprimento) throws IOException {
+			while (comprimento > 0) {
+				int saltados = in.skipBytes((int) Math.min(comprimento, 1 << 20));
+				if (saltados <= 0) {
+					throw new IOException("Invalid CRL encoding");
+				}
+				comprimento -= saltados;
+				lidos += saltados;
+			}
+		}
+		/* Le o elemento atual completo (tag, comprimento e conteudo). */
+		private byte[] lerElemento(int tag, long comprimento) throws IOException {
+			if (comprimento > 64 * 1024) {
+				throw new IOException("Invalid CRL encoding");
+			}
+			ByteArrayOutputStream elemento = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(elemento);
+			out.writeByte(tag);
+			if (comprimento < 0x80) {
+				out.writeByte((int) comprimento);
+			} else {
+				out.writeByte(0x84);
+				out.writeInt((int) comprimento);
+			}
+			byte[] conteudo = new byte[(int) comprimento];
+			in.readFully(conteudo);
+			lidos += comprimento;
+			out.write(conteudo);
+			return elemento.toByteArray();
+		}
+	}
+
+	/* Cabecalho de uma CRL, obtido na leitura sequencial. */
+	private static class Cabecalho {
+		private X500Principal emissor;
+		private Date thisUpdate;
+		private Date nextUpdate;
+		private BigInteger numero;
+		private int quantidade;
+	}
+}
@@ -0,0 +1,406 @@
+package sicid.util;
+
+import java.security.cert.CertPathBuilder;
+import java.security.cert.CertStore;
+import java.security.cert.Certificate;
+import java.security.cert.CollectionCertStoreParameters;
+import java.security.cert.PKIXBuilderParameters;
+import java.security.cert.PKIXCertPathBuilderResult;
+import java.security.cert.TrustAnchor;
+import java.security.cert.X509CertSelector;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.bouncycastle.asn1.x509.AuthorityKeyIdentifier;
+import org.bouncycastle.asn1.x509.SubjectKeyIdentifier;
+import org.bouncycastle.asn1.x509.X509Extension;
+import org.bouncycastle.x509.extension.X509ExtensionUtil;
+
+/**
+ * Indice imutavel de um conjunto de certificados confiaveis, para
+ *   validacao de cadeias de certificados.<br/>
+ * Os certificados sao indexados pelo DN do titular (subject) e pelo
+ *   identificador de chave (Subject Key Identifier). Os caminhos dos
+ *   certificados intermediarios ate' um certificado raiz sao construidos
+ *   e validados ({@link CertPathBuilder} PKIX) na construcao do indice,
+ *   de modo que a validacao de um certificado exige apenas uma consulta
+ *   ao indice e a verificacao da assinatura do proprio certificado.<br/>
+ * Para refletir alteracoes no conjunto de certificados confiaveis, um
+ *   novo indice deve ser construido e substituir o anterior. Os caminhos
+ *   do indice anterior que continuam validos sao reaproveitados.
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+public class IndiceConfianca {
+
+	/* digitos hexadecimais, para a conversao dos identificadores de chave */
+	private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+
+	/* certificados confiaveis */
+	private final List<X509Certificate> certificados;
+	/* certificados confiaveis, por DN do titular */
+	private final Map<X500Principal, List<X509Certificate>> porSubject;
+	/* certificados confiaveis, por identificador de chave (SKI) */
+	private final Map<String, List<X509Certificate>> porSKI;
+	/* certificados confiaveis ancorados em um certificado raiz do
+	   conjunto, com o caminho ate' a raiz e o periodo em que e' valido */
+	private final Map<X509Certificate, Periodo> ancorados;
+
+	/* certificados raiz (auto-assinados) do conjunto, como ancoras PKIX */
+	private final Set<TrustAnchor> raizes;
+	/* repositorio PKIX com os certificados confiaveis */
+	private CertStore certStore;
+
+	/**
+	 * Constroi o indice de um conjunto de certificados confiaveis.
+	 * @param trustedCerts Conjunto de certificados confiaveis.
+	 */
+	public IndiceConfianca(X509Certificate[] trustedCerts) {
+		this(trustedCerts, null);
+	}
+
+	/**
+	 * Constroi o indice de um conjunto de certificados confiaveis,
+	 *   reaproveitando os caminhos de um indice anterior que continuam
+	 *   contidos no novo conjunto.
+	 * @param trustedCerts Conjunto de certificados confiaveis.
+	 * @param anterior Indice anterior (pode ser null).
+	 */
+	public IndiceConfianca(X509Certificate[] trustedCerts,
+			IndiceConfianca anterior) {
+		certificados = new ArrayList<X509Certificate>();
+		porSubject = new HashMap<X500Principal, List<X509Certificate>>();
+		porSKI = new HashMap<String, List<X509Certificate>>();
+		ancorados = new HashMap<X509Certificate, Periodo>();
+		raizes = new HashSet<TrustAnchor>();
+
+		if (trustedCerts != null) {
+			for (X509Certificate cert : trustedCerts) {
+				if (cert == null) { continue; }
+				certificados.add(cert);
+				if (CertificadoValidador.isSelfSigned(cert)) {
+					raizes.add(new TrustAnchor(cert, null));
+				}
+				adicionar(porSubject, cert.getSubjectX500Principal(), cert);
+				String ski = getSubjectKeyId(cert);
+				if (ski != null) {
+					adicionar(porSKI, ski, cert);
+				}
+			}
+		}
+		try {
+			certStore = CertStore.getInstance("Collection",
+					new CollectionCertStoreParameters(certificados));
+		} catch (Exception e) {
+			certStore = null;
+		}
+		Set<X509Certificate> conjunto = new HashSet<X509Certificate>(certificados);
+		Map<X509Certificate, Periodo> visitados =
+			new IdentityHashMap<X509Certificate, Periodo>();
+		for (X509Certificate cert : certificados) {
+			Periodo periodo = null;
+			if (anterior != null) {
+				periodo = anterior.ancorados.get(cert);
+				if (periodo != null && !conjunto.containsAll(periodo.caminho)) {
+					periodo = null;
+				}
+			}
+			if (periodo == null) {
+				periodo = ancorar(cert, visitados);
+			}
+			if (periodo != null) {
+				ancorados.put(cert, periodo);
+			}
+		}
+	}
+
+	/**
+	 * Verifica se o indice nao possui certificados confiaveis.
+	 * @return True se nao ha' certificados confiaveis.
+	 */
+	public boolean isEmpty() {
+		return certificados.isEmpty();
+	}
+
+	/**
+	 * Retorna os certificados confiaveis indexados.
+	 * @return Lista (imutavel) de certificados confiaveis.
+	 */
+	public List<X509Certificate> getCertificados() {
+		return Collections.unmodifiableList(certificados);
+	}
+
+	/**
+	 * Verifica se um certificado tem sua cadeia valida dentro do
+	 *   conjunto de certificados confiaveis indexado. Se o conjunto
+	 *   estiver vazio, qualquer certificado e' aceito.
+	 * @param cert Objeto que representa o certificado a ser validado.
+	 * @return True se o certificado foi emitido por um dos emissores
+	 *   confiaveis do indice.
+	 */
+	public boolean isValidKeyChain(X509Certificate cert) {
+		if (isEmpty()) {
+			return true;
+		}
+		if (!CertificadoValidador.isValidByDate(cert)) {
+			return false;
+		}
+		return getEmissorConfiavel(cert) != null;
+	}
+
+	/**
+	 * Retorna o certificado confiavel que emitiu um certificado, desde que
+	 *   a cadeia do emissor esteja ancorada em um certificado raiz e
+	 *   valida no instante atual. A assinatura do certificado e' verificada
+	 *   uma unica vez, de modo que o emissor retornado pode ser reaproveitado
+	 *   nas etapas seguintes da validacao (ex.: consulta de revogacao).
+	 * @param cert Objeto que representa o certificado.
+	 * @return Certificado emissor, ou null se o certificado nao foi
+	 *   emitido por um dos emissores confiaveis do indice.
+	 */
+	public X509Certificate getEmissorConfiavel(X509Certificate cert) {
+		long agora = System.currentTimeMillis();
+		for (X509Certificate emissor : getEmissores(cert)) {
+			Periodo periodo = ancorados.get(emissor);
+			if (periodo == null || !periodo.contem(agora)) {
+				continue;
+			}
+			if (!periodo.raiz && cert.equals(emissor)) {
+				continue;
+			}
+			if (verificarAssinatura(cert, emissor)) {
+				return emissor;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Retorna os certificados confiaveis candidatos a emissor de um
+	 *   certificado, pelo identificador de chave da autoridade (AKI) ou,
+	 *   na sua ausencia, pelo DN do emissor.
+	 * @param cert Objeto que representa o certificado.
+	 * @return Lista de candidatos a emissor (pode ser vazia).
+	 */
+	public List<X509Certificate> getEmissores(X509Certificate cert) {
+		List<X509Certificate> candidatos = null;
+		X500Principal issuer = cert.getIssuerX500Principal();
+		String aki = getAuthorityKeyId(cert);
+		if (aki != null) {
+			candidatos = porSKI.get(aki);
+		}
+		if (candidatos == null) {
+			candidatos = porSubject.get(issuer);
+			return (candidatos != null)
+				? candidatos : Collections.<X509Certificate>emptyList();
+		}
+		/* o DN do emissor deve corresponder ao titular do candidato */
+		List<X509Certificate> emissores = new ArrayList<X509Certificate>();
+		for (X509Certificate candidato : candidatos) {
+			if (issuer.equals(candidato.getSubjectX500Principal())) {
+				emissores.add(candidato);
+			}
+		}
+		return emissores;
+	}
+
+	/**
+	 * Retorna o certificado confiavel que emitiu um certificado
+	 *   (candidato a emissor cuja chave publica confere a assinatura).
+	 * @param cert Objeto que representa o certificado.
+	 * @return Certificado emissor, ou null se nao encontrado.
+	 */
+	public X509Certificate getEmissor(X509Certificate cert) {
+		for (X509Certificate emissor : getEmissores(cert)) {
+			if (verificarAssinatura(cert, emissor)) {
+				return emissor;
+			}
+		}
+		return null;
+	}
+
+	/* Verifica se um certificado confiavel esta' ancorado em um certificado
+	 *   raiz (auto-assinado) do conjunto, e calcula o periodo de validade
+	 *   da sua cadeia (intersecao das validades dos intermediarios).<br/>
+	 * O caminho e' construido pelo {@link CertPathBuilder} PKIX; se este
+	 *   falhar, recorre 'a verificacao elo a elo (que, como a validacao
+	 *   original, nao exige basicConstraints nos intermediarios).
+	 * @param cert Certificado confiavel.
+	 * @param visitados Resultados ja' calculados (null = em calculo).
+	 * @return Periodo de validade da cadeia, ou null se nao ancorado.
+	 */
+	private Periodo ancorar(X509Certificate cert,
+			Map<X509Certificate, Periodo> visitados) {
+
+		if (visitados.containsKey(cert)) {
+			return visitados.get(cert);
+		}
+		visitados.put(cert, null); /* evita ciclos */
+		Periodo periodo = null;
+		if (CertificadoValidador.isSelfSigned(cert)) {
+			List<X509Certificate> caminho = Collections.singletonList(cert);
+			periodo = new Periodo(Long.MIN_VALUE, Long.MAX_VALUE, true, caminho);
+		} else {
+			periodo = construirCaminho(cert);
+		}
+		if (periodo == null) {
+			for (X509Certificate emissor : getEmissores(cert)) {
+				if (emissor.equals(cert) || !verificarAssinatura(cert, emissor)) {
+					continue;
+				}
+				Periodo periodoEmissor = ancorar(emissor, visitados);
+				if (periodoEmissor == null) { continue; }
+				List<X509Certificate> caminho = new ArrayList<X509Certificate>();
+				caminho.add(cert);
+				caminho.addAll(periodoEmissor.caminho);
+				Periodo candidato = new Periodo(
+					Math.max(cert.getNotBefore().getTime(), periodoEmissor.de),
+					Math.min(cert.getNotAfter().getTime(), periodoEmissor.ate),
+					false, caminho);
+				if (periodo == null || candidato.ate > periodo.ate) {
+					periodo = candidato;
+				}
+			}
+		}
+		visitados.put(cert, periodo);
+		return periodo;
+	}
+
+	/* Constroi e valida o caminho de um certificado confiavel ate' um
+	 *   certificado raiz do conjunto, atraves do {@link CertPathBuilder} PKIX.
+	 * @param cert Certificado confiavel.
+	 * @return Periodo de validade do caminho, ou null se nao foi possivel
+	 *   construir um caminho valido.
+	 */
+	private Periodo construirCaminho(X509Certificate cert) {
+		if (raizes.isEmpty() || certStore == null) {
+			return null;
+		}
+		try {
+			X509CertSelector alvo = new X509CertSelector();
+			alvo.setCertificate(cert);
+			PKIXBuilderParameters params = new PKIXBuilderParameters(raizes, alvo);
+			params.setRevocationEnabled(false);
+			params.addCertStore(certStore);
+			PKIXCertPathBuilderResult result = (PKIXCertPathBuilderResult)
+				CertPathBuilder.getInstance("PKIX").build(params);
+
+			long de = Long.MIN_VALUE;
+			long ate = Long.MAX_VALUE;
+			List<X509Certificate> caminho = new ArrayList<X509Certificate>();
+			for (Certificate c : result.getCertPath().getCertificates()) {
+				X509Certificate x509 = (X509Certificate) c;
+				de = Math.max(de, x509.getNotBefore().getTime());
+				ate = Math.min(ate, x509.getNotAfter().getTime());
+				caminho.add(x509);
+			}
+			caminho.add(result.getTrustAnchor().getTrustedCert());
+			return new Periodo(de, ate, false, caminho);
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/* Verifica a assinatura de um certificado com a chave do emissor.
+	 * @param cert Certificado a ser verificado.
+	 * @param emissor Certificado do emissor.
+	 * @return True se a assinatura e' valida.
+	 */
+	private static boolean verificarAssinatura(X509Certificate cert,
+			X509Certificate emissor) {
+		try {
+			cert.verify(emissor.getPublicKey());
+			return true;
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	/* Retorna o identificador de chave do titular (SKI) de um certificado.
+	 * @param cert Objeto que representa o certificado.
+	 * @return SKI em hexadecimal, ou null se ausente.
+	 */
+	private static String getSubjectKeyId(X509Certificate cert) {
+		try {
+			byte[] ext = cert.getExtensionValue(
+					X509Extension.subjectKeyIdentifier.getId());
+			if (ext == null) { return null; }
+			return toHex(SubjectKeyIdentifier.getInstance(
+					X509ExtensionUtil.fromExtensionValue(ext)).getKeyIdentifier());
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/* Retorna o identificador de chave da autoridade (AKI) de um certificado.
+	 * @param cert Objeto que representa o certificado.
+	 * @return AKI em hexadecimal, ou null se ausente.
+	 */
+	private static String getAuthorityKeyId(X509Certificate cert) {
+		try {
+			byte[] ext = cert.getExtensionValue(
+					X509Extension.authorityKeyIdentifier.getId());
+			if (ext == null) { return null; }
+			return toHex(AuthorityKeyIdentifier.getInstance(
+					X509ExtensionUtil.fromExtensionValue(ext)).getKeyIdentifier());
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/* Converte um array de bytes para hexadecimal.
+	 * @param buffer Array de bytes (pode ser null).
+	 * @return String em hexadecimal, ou null.
+	 */
+	private static String toHex(byte[] buffer) {
+		if (buffer == null) { return null; }
+		char[] out = new char[buffer.length * 2];
+		for (int i = 0; i < buffer.length; i++) {
+			out[i * 2    ] = HEX_CHARS[(buffer[i] >> 4) & 0x0F];
+			out[i * 2 + 1] = HEX_CHARS[ buffer[i]       & 0x0F];
+		}
+		return new String(out);
+	}
+
+	/* Adiciona um certificado a uma lista indexada.
+	 * @param mapa Indice.
+	 * @param chave Chave do indice.
+	 * @param cert Certificado.
+	 */
+	private static <K> void adicionar(Map<K, List<X509Certificate>> mapa,
+			K chave, X509Certificate cert) {
+		List<X509Certificate> lista = mapa.get(chave);
+		if (lista == null) {
+			lista = new ArrayList<X509Certificate>();
+			mapa.put(chave, lista);
+		}
+		lista.add(cert);
+	}
+
+	/* Caminho de um certificado confiavel ate' a raiz, e o periodo em
+	 *   que e' valido. */
+	private static class Periodo {
+		private final long de;
+		private final long ate;
+		private final boolean raiz;
+		private final List<X509Certificate> caminho;
+		private Periodo(long de, long ate, boolean raiz,
+				List<X509Certificate> caminho) {
+			this.de = de;
+			this.ate = ate;
+			this.raiz = raiz;
+			this.caminho = caminho;
+		}
+		private boolean contem(long instante) {
+			return instante >= de && instante <= ate;
+		}
+	}
+}
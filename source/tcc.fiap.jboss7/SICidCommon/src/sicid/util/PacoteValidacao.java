@@ -0,0 +1,330 @@
+package sicid.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pacote de validacao offline do SICid: conjunto dos certificados
+ *   confiaveis (ancoras) e indices de revogacao ({@link IndiceCRL}) das
+ *   CRLs dos seus emissores, identificado por uma versao.<br/>
+ * O pacote e' publicado pelo SICid em formato binario e assinado. Um
+ *   pacote pode ser completo, ou conter somente as diferencas em relacao
+ *   a uma versao anterior (base): as ancoras sao sempre enviadas por
+ *   completo, e cada CRL e' enviada por completo, somente com os numeros
+ *   de serie removidos e adicionados, ou marcada como inalterada.
+ * @see ValidadorOffline
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+public class PacoteValidacao {
+
+	/* identificador (e versao) do formato do pacote */
+	private static final int MAGIC = 0x53434232; /* "SCB2" */
+
+	/* tipos de registro de uma CRL no pacote */
+	private static final byte CRL_COMPLETA   = 0;
+	private static final byte CRL_DIFERENCA  = 1;
+	private static final byte CRL_INALTERADA = 2;
+
+	/* versao do pacote */
+	private final long versao;
+	/* instante de geracao do pacote, em ms */
+	private final long geradoEm;
+	/* certificados confiaveis */
+	private final List<X509Certificate> ancoras;
+	/* indices das CRLs, por URL */
+	private final Map<String, IndiceCRL> crls;
+	/* indice dos certificados confiaveis (construido sob demanda) */
+	private volatile IndiceConfianca indiceConfianca;
+
+	/**
+	 * Cria um novo pacote de validacao.
+	 * @param versao Versao do pacote (crescente).
+	 * @param ancoras Certificados confiaveis.
+	 * @param crls Indices das CRLs, por URL do ponto de distribuicao.
+	 */
+	public PacoteValidacao(long versao, List<X509Certificate> ancoras,
+			Map<String, IndiceCRL> crls) {
+		this(versao, System.currentTimeMillis(), ancoras, crls);
+	}
+
+	/* Cria um novo pacote de validacao.
+	 * @param versao Versao do pacote.
+	 * @param geradoEm Instante de geracao do pacote, em ms.
+	 * @param ancoras Certificados confiaveis.
+	 * @param crls Indices das CRLs, por URL.
+	 */
+	private PacoteValidacao(long versao, long geradoEm,
+			List<X509Certificate> ancoras, Map<String, IndiceCRL> crls) {
+		this.versao = versao;
+		this.geradoEm = geradoEm;
+		this.ancoras = Collections.unmodifiableList(
+				new ArrayList<X509Certificate>(ancoras));
+		this.crls = Collections.unmodifiableMap(
+				new LinkedHashMap<String, IndiceCRL>(crls));
+	}
+
+	/**
+	 * Retorna a versao do pacote.
+	 * @return Versao do pacote.
+	 */
+	public long getVersao() {
+		return versao;
+	}
+
+	/**
+	 * Retorna o instante de geracao do pacote.
+	 * @return Instante de geracao, em ms.
+	 */
+	public long getGeradoEm() {
+		return geradoEm;
+	}
+
+	/**
+	 * Retorna os certificados confiaveis do pacote.
+	 * @return Certificados confiaveis (somente leitura).
+	 */
+	public List<X509Certificate> getAncoras() {
+		return ancoras;
+	}
+
+	/**
+	 * Retorna os indices das CRLs do pacote.
+	 * @return Indices das CRLs, por URL (somente leitura).
+	 */
+	public Map<String, IndiceCRL> getCRLs() {
+		return crls;
+	}
+
+	/**
+	 * Retorna o indice dos certificados confiaveis do pacote.
+	 * @return Indice dos certificados confiaveis.
+	 */
+	public IndiceConfianca getIndiceConfianca() {
+		IndiceConfianca indice = indiceConfianca;
+		if (indice == null) {
+			indice = new IndiceConfianca(
+					ancoras.toArray(new X509Certificate[ancoras.size()]));
+			indiceConfianca = indice;
+		}
+		return indice;
+	}
+
+	/**
+	 * Verifica se o pacote tem o mesmo conteudo de um conjunto de
+	 *   ancoras e CRLs (mesmos certificados e mesmas CRLs, pelo numero
+	 *   e data de emissao).
+	 * @param ancoras Certificados confiaveis.
+	 * @param crls Indices das CRLs, por URL.
+	 * @return True se o conteudo e' o mesmo.
+	 */
+	public boolean isEquivalente(List<X509Certificate> ancoras,
+			Map<String, IndiceCRL> crls) {
+		if (!this.ancoras.equals(ancoras) || !this.crls.keySet().equals(crls.keySet())) {
+			return false;
+		}
+		for (Map.Entry<String, IndiceCRL> crl : crls.entrySet()) {
+			if (!isMesmaCRL(this.crls.get(crl.getKey()), crl.getValue())) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Gera o pacote em formato binario, assinado. Se um pacote base for
+	 *   informado, somente as diferencas em relacao a ele sao incluidas.
+	 * @param base Pacote base (pode ser null).
+	 * @param chave Chave privada do SICid.
+	 * @param signatario Certificado do SICid.
+	 * @return Pacote assinado.
+	 * @throws Exception
+	 */
+	public byte[] gerar(PacoteValidacao base, PrivateKey chave,
+			X509Certificate signatario) throws Exception {
+
+		ByteArrayOutputStream conteudo = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(conteudo);
+		out.writeInt(MAGIC);
+		out.writeLong(versao);
+		out.writeLong((base != null) ? base.versao : 0);
+		out.writeLong(geradoEm);
+		out.writeInt(ancoras.size());
+		for (X509Certificate ancora : ancoras) {
+			gravarBytes(out, ancora.getEncoded());
+		}
+		out.writeInt(crls.size());
+		for (Map.Entry<String, IndiceCRL> crl : crls.entrySet()) {
+			out.writeUTF(crl.getKey());
+			IndiceCRL anterior = (base != null) ? base.crls.get(crl.getKey()) : null;
+			if (anterior == null ||
+					!anterior.getIssuerX500Principal().equals(
+							crl.getValue().getIssuerX500Principal())) {
+				out.writeByte(CRL_COMPLETA);
+				crl.getValue().exportar(out, null);
+			} else if (isMesmaCRL(anterior, crl.getValue())) {
+				out.writeByte(CRL_INALTERADA);
+			} else {
+				out.writeByte(CRL_DIFERENCA);
+				crl.getValue().exportar(out, anterior);
+			}
+		}
+		out.flush();
+
+		String algoritmo = getAlgoritmo(chave);
+		Signature sig = Signature.getInstance(algoritmo);
+		sig.initSign(chave);
+		sig.update(conteudo.toByteArray());
+
+		ByteArrayOutputStream pacote =
+			new ByteArrayOutputStream(conteudo.size() + 4096);
+		DataOutputStream saida = new DataOutputStream(pacote);
+		gravarBytes(saida, conteudo.toByteArray());
+		saida.writeUTF(algoritmo);
+		gravarBytes(saida, signatario.getEncoded());
+		gravarBytes(saida, sig.sign());
+		saida.flush();
+		return pacote.toByteArray();
+	}
+
+	/**
+	 * Le um pacote de validacao, verificando a sua assinatura.
+	 * @param pacote Pacote assinado, gerado por
+	 *   {@link #gerar(PacoteValidacao, PrivateKey, X509Certificate)}.
+	 * @param signatario Certificado do SICid (signatario confiavel).
+	 * @param base Pacote atual do cliente (pode ser null). Obrigatorio
+	 *   se o pacote contiver somente diferencas.
+	 * @return Pacote de validacao.
+	 * @throws Exception Se a assinatura for invalida, o pacote estiver
+	 *   corrompido, ou a versao base nao corresponder ao pacote atual.
+	 */
+	public static PacoteValidacao ler(byte[] pacote, X509Certificate signatario,
+			PacoteValidacao base) throws Exception {
+
+		DataInputStream entrada =
+			new DataInputStream(new ByteArrayInputStream(pacote));
+		byte[] conteudo = lerBytes(entrada, pacote.length);
+		String algoritmo = entrada.readUTF();
+		byte[] certificado = lerBytes(entrada, pacote.length);
+		byte[] assinatura = lerBytes(entrada, pacote.length);
+		if (!signatario.equals(getCertificado(certificado))) {
+			throw new SecurityException(
+					"Validation bundle signed by an untrusted certificate");
+		}
+		Signature sig = Signature.getInstance(algoritmo);
+		sig.initVerify(signatario.getPublicKey());
+		sig.update(conteudo);
+		if (!sig.verify(assinatura)) {
+			throw new SecurityException("Invalid validation bundle signature");
+		}
+
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(conteudo));
+		if (in.readInt() != MAGIC) {
+			throw new IOException("Invalid validation bundle format");
+		}
+		long versao = in.readLong();
+		long versaoBase = in.readLong();
+		long geradoEm = in.readLong();
+		if (versaoBase != 0 && (base == null || base.versao != versaoBase)) {
+			throw new IOException(String.format(
+					"Validation bundle %d is a delta from version %d", versao, versaoBase));
+		}
+		int quantidade = in.readInt();
+		List<X509Certificate> ancoras = new ArrayList<X509Certificate>();
+		for (int i = 0; i < quantidade; i++) {
+			ancoras.add(getCertificado(lerBytes(in, conteudo.length)));
+		}
+		quantidade = in.readInt();
+		Map<String, IndiceCRL> crls = new LinkedHashMap<String, IndiceCRL>();
+		for (int i = 0; i < quantidade; i++) {
+			String url = in.readUTF();
+			byte tipo = in.readByte();
+			IndiceCRL anterior = (versaoBase != 0) ? base.crls.get(url) : null;
+			if (tipo == CRL_COMPLETA) {
+				crls.put(url, IndiceCRL.importar(in, null));
+			} else if (anterior == null) {
+				throw new IOException(String.format(
+						"Validation bundle refers to an unknown CRL: %s", url));
+			} else if (tipo == CRL_INALTERADA) {
+				crls.put(url, anterior);
+			} else {
+				crls.put(url, IndiceCRL.importar(in, anterior));
+			}
+		}
+		return new PacoteValidacao(versao, geradoEm, ancoras, crls);
+	}
+
+	/* Verifica se dois indices correspondem 'a mesma CRL.
+	 * @param a Primeiro indice (pode ser null).
+	 * @param b Segundo indice (pode ser null).
+	 * @return True se correspondem 'a mesma CRL (emissor, numero e
+	 *   data de emissao).
+	 */
+	private static boolean isMesmaCRL(IndiceCRL a, IndiceCRL b) {
+		if (a == b) { return true; }
+		if (a == null || b == null) { return false; }
+		return a.getIssuerX500Principal().equals(b.getIssuerX500Principal()) &&
+			a.getThisUpdate().equals(b.getThisUpdate()) &&
+			((a.getNumero() != null) ? a.getNumero().equals(b.getNumero())
+					: b.getNumero() == null);
+	}
+
+	/* Retorna o algoritmo de assinatura do pacote, conforme a chave.
+	 * @param chave Chave privada.
+	 * @return Algoritmo de assinatura.
+	 */
+	private static String getAlgoritmo(PrivateKey chave) {
+		String algoritmo = chave.getAlgorithm();
+		return "SHA256with" + ("EC".equals(algoritmo) ? "ECDSA" : algoritmo);
+	}
+
+	/* Decodifica um certificado (DER).
+	 * @param der Certificado codificado.
+	 * @return Objeto que representa o certificado.
+	 * @throws Exception
+	 */
+	private static X509Certificate getCertificado(byte[] der) throws Exception {
+		CertificateFactory certFactory = CertificateFactory.getInstance("X.509");
+		return (X509Certificate) certFactory.generateCertificate(
+				new ByteArrayInputStream(der));
+	}
+
+	/* Grava um array de bytes precedido do seu tamanho.
+	 * @param out Stream de saida.
+	 * @param valor Array de bytes.
+	 * @throws IOException
+	 */
+	private static void gravarBytes(DataOutputStream out,
+			byte[] valor) throws IOException {
+		out.writeInt(valor.length);
+		out.write(valor);
+	}
+
+	/* Le um array de bytes precedido do seu tamanho.
+	 * @param in Stream de entrada.
+	 * @param maximo Tamanho maximo.
+	 * @return Array de bytes.
+	 * @throws IOException
+	 */
+	private static byte[] lerBytes(DataInputStream in,
+			int maximo) throws IOException {
+		int tamanho = in.readInt();
+		if (tamanho < 0 || tamanho > maximo) {
+			throw new IOException("Invalid validation bundle format");
+		}
+		byte[] valor = new byte[tamanho];
+		in.readFully(valor);
+		return valor;
+	}
+}
@@ -0,0 +1,201 @@
+package sicid.util;
+
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.List;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import sicid.bean.CertificadoStatus;
+import sicid.ws.ISICidService;
+
+import com.robsonmartins.fiap.tcc.util.CertificadoSerializador;
+
+/**
+ * Validador de certificados digitais offline, para as partes confiantes
+ *   (relying parties) do SICid.<br/>
+ * Valida certificados localmente, a partir de um {@link PacoteValidacao}
+ *   publicado e assinado pelo SICid, sem uma requisicao ao servico por
+ *   certificado. O pacote e' atualizado periodicamente pelo chamador,
+ *   recebendo somente as diferencas em relacao 'a versao atual.<br/>
+ * A validacao segue as mesmas etapas do SICid: estrutura, data, cadeia
+ *   de confianca e revogacao (pelas CRLs do pacote). Se o pacote nao
+ *   contiver uma CRL vigente para o certificado, o status e'
+ *   {@link CertificadoStatus#UNKNOWN}.<br/>
+ * Configuracao (system properties; tempos em ms):
+ * <ul>
+ *   <li>sicid.pacote.tolerancia: tempo maximo de uso de uma CRL do
+ *     pacote apos o seu nextUpdate (padrao: 1 hora);</li>
+ *   <li>sicid.pacote.idade: idade maxima de um pacote recebido, a
+ *     partir da sua geracao (padrao: 0 = sem limite).</li>
+ * </ul>
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+public class ValidadorOffline {
+
+	/* tempo maximo de uso de uma CRL apos o seu nextUpdate */
+	private static final long TOLERANCIA =
+		Long.getLong("sicid.pacote.tolerancia", 60 * 60 * 1000L);
+	/* idade maxima de um pacote recebido (0 = sem limite) */
+	private static final long IDADE_MAXIMA =
+		Long.getLong("sicid.pacote.idade", 0L);
+
+	/* certificado do SICid (signatario dos pacotes) */
+	private final X509Certificate signatario;
+	/* pacote atual (null = ainda nao obtido) */
+	private volatile PacoteValidacao pacote;
+
+	/* para fazer log */
+	private static Logger logger;
+	private static boolean trace;
+
+	/**
+	 * Cria uma nova instancia do validador offline.
+	 * @param signatario Certificado do SICid, usado para verificar a
+	 *   assinatura dos pacotes.
+	 */
+	public ValidadorOffline(X509Certificate signatario) {
+		logger = LogManager.getLogger(ValidadorOffline.class);
+		trace = logger.isTraceEnabled();
+		this.signatario = signatario;
+	}
+
+	/**
+	 * Retorna a versao do pacote atual.
+	 * @return Versao do pacote, ou 0 se ainda nao obtido.
+	 */
+	public long getVersao() {
+		PacoteValidacao atual = pacote;
+		return (atual != null) ? atual.getVersao() : 0;
+	}
+
+	/**
+	 * Retorna o pacote atual.
+	 * @return Pacote de validacao, ou null se ainda nao obtido.
+	 */
+	public PacoteValidacao getPacote() {
+		return pacote;
+	}
+
+	/**
+	 * Atualiza o pacote a partir do servico SICid, obtendo somente as
+	 *   diferencas em relacao 'a versao atual.
+	 * @param servico Proxy do servico SICid.
+	 * @return True se o pacote foi atualizado, false se ja' estava
+	 *   na versao mais recente.
+	 * @throws Exception
+	 */
+	public boolean atualizar(ISICidService servico) throws Exception {
+		return atualizar(servico.obterPacoteValidacao(getVersao()));
+	}
+
+	/**
+	 * Atualiza o pacote a partir de um pacote (completo ou diferencial)
+	 *   publicado pelo SICid. Pacotes com versao igual ou anterior 'a
+	 *   atual sao rejeitados, impedindo que a reapresentacao de um pacote
+	 *   antigo (validamente assinado) retroceda o validador.
+	 * @param dados Pacote assinado. Um pacote vazio indica que a versao
+	 *   atual e' a mais recente.
+	 * @return True se o pacote foi atualizado.
+	 * @throws Exception Se a assinatura for invalida, o pacote estiver
+	 *   corrompido, nao for posterior 'a versao atual, exceder a idade
+	 *   maxima ou, se diferencial, nao tiver como base a versao atual.
+	 */
+	public synchronized boolean atualizar(byte[] dados) throws Exception {
+		if (dados == null || dados.length == 0) {
+			return false;
+		}
+		try {
+			PacoteValidacao atual = pacote;
+			PacoteValidacao novo = PacoteValidacao.ler(dados, signatario, atual);
+			if (atual != null && novo.getVersao() <= atual.getVersao()) {
+				throw new Exception(String.format(
+						"Validation bundle %d is not newer than current version %d",
+						novo.getVersao(), atual.getVersao()));
+			}
+			if (IDADE_MAXIMA > 0 &&
+					System.currentTimeMillis() - novo.getGeradoEm() > IDADE_MAXIMA) {
+				throw new Exception(String.format(
+						"Validation bundle %d is too old (generated at %s)",
+						novo.getVersao(), new Date(novo.getGeradoEm())));
+			}
+			pacote = novo;
+			if (trace) {
+				logger.trace(String.format(
+						"Pacote de validacao atualizado: versao %d (%d CRLs)",
+						novo.getVersao(), novo.getCRLs().size()));
+			}
+			return true;
+		} catch (Exception e) {
+			logger.error("Error updating validation bundle: " + e.getMessage());
+			Exception ex = new Exception("Error updating validation bundle");
+			ex.initCause(e);
+			throw ex;
+		}
+	}
+
+	/**
+	 * Valida um certificado digital.
+	 * @param content Conteudo de um certificado, codificado em Base64.
+	 * @return Status do certificado.
+	 */
+	public CertificadoStatus validar(String content) {
+		X509Certificate cert;
+		try {
+			cert = CertificadoSerializador.strToCert(content);
+		} catch (Exception e) {
+			return CertificadoStatus.INVALID;
+		}
+		return validar(cert);
+	}
+
+	/**
+	 * Valida um certificado digital.
+	 * @param cert Objeto que representa o certificado.
+	 * @return Status do certificado.
+	 */
+	public CertificadoStatus validar(X509Certificate cert) {
+		if (cert == null) {
+			return CertificadoStatus.INVALID;
+		}
+		boolean expirado = !CertificadoValidador.isValidByDate(cert);
+		if (CertificadoValidador.isSelfSigned(cert)) {
+			return CertificadoStatus.INVALID;
+		}
+		if (expirado) {
+			return CertificadoStatus.EXPIRED;
+		}
+		PacoteValidacao atual = pacote;
+		if (atual == null) {
+			return CertificadoStatus.UNKNOWN;
+		}
+		IndiceConfianca indice = atual.getIndiceConfianca();
+		if (!indice.isValidKeyChain(cert)) {
+			return CertificadoStatus.INVALID;
+		}
+		try {
+			List<String> crlURLs = CertificadoValidador.getCrlDistPoints(cert);
+			boolean consultado = crlURLs.isEmpty();
+			Date limite = new Date(System.currentTimeMillis() - TOLERANCIA);
+			for (String crlURL : crlURLs) {
+				IndiceCRL crl = atual.getCRLs().get(crlURL);
+				if (crl == null ||
+						!crl.getIssuerX500Principal().equals(cert.getIssuerX500Principal())) {
+					continue;
+				}
+				if (crl.getNextUpdate() != null && crl.getNextUpdate().before(limite)) {
+					continue;
+				}
+				if (crl.isRevoked(cert)) {
+					return CertificadoStatus.REVOKED;
+				}
+				consultado = true;
+			}
+			return consultado ? CertificadoStatus.VALID : CertificadoStatus.UNKNOWN;
+		} catch (Exception e) {
+			logger.error("Error checking revocation: " + e.getMessage());
+			return CertificadoStatus.UNKNOWN;
+		}
+	}
+}
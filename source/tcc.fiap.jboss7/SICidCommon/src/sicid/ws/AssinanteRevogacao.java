@@ -0,0 +1,301 @@
+package sicid.ws;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.xml.ws.BindingProvider;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import sicid.bean.EventoRevogacao;
+import sicid.bean.TipoEventoRevogacao;
+import sicid.util.CacheCRL;
+import sicid.util.CacheOCSP;
+
+import com.robsonmartins.fiap.tcc.util.FabricaClienteWS;
+
+/**
+ * Assinante dos eventos de revogacao publicados pelo Servico de
+ *   Identificacao do Cidadao (SICid).<br/>
+ * Uma thread propria consulta continuamente o servico (long-poll),
+ *   a partir do ultimo evento recebido, de modo que nenhum evento e'
+ *   perdido enquanto o servico mantiver o historico. Ao receber um
+ *   evento, o assinante descarta as informacoes de revogacao mantidas
+ *   em cache localmente ({@link CacheCRL}, {@link CacheOCSP}) e notifica
+ *   os ouvintes registrados ({@link OuvinteRevogacao}), que podem
+ *   descartar as suas proprias decisoes em cache.<br/>
+ * Enquanto o assinante estiver conectado ({@link #isConectado()}), os
+ *   consumidores podem manter decisoes de validacao em cache por mais
+ *   tempo, pois serao notificados de revogacoes.
+ *
+ * <p>
+ *   Alem das opcoes de conexao descritas em {@link SICidClient}, o arquivo
+ *   properties pode conter:
+ * <ul>
+ * <li><em>sicid.eventos.espera</em>: Tempo maximo de espera por novos
+ *   eventos em cada consulta, em ms (default: 25000).
+ * <li><em>sicid.eventos.retentativa</em>: Intervalo entre consultas apos
+ *   uma falha, em ms (default: 10000).
+ * </ul>
+ * <p>
+ *
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+public class AssinanteRevogacao {
+
+	/* nomes das opcoes do assinante no arquivo properties */
+	private final static String OPTION_EVENTOS_ESPERA      = "sicid.eventos.espera"     ;
+	private final static String OPTION_EVENTOS_RETENTATIVA = "sicid.eventos.retentativa";
+
+	/* valores padrao, em ms */
+	private final static long DEFAULT_ESPERA      = 25 * 1000L;
+	private final static long DEFAULT_RETENTATIVA = 10 * 1000L;
+	/* margem do timeout de resposta sobre o tempo de espera, em ms */
+	private final static long MARGEM_RESPOSTA     = 10 * 1000L;
+
+	/* assinantes compartilhados, por arquivo de configuracao */
+	private static final ConcurrentMap<String, AssinanteRevogacao> assinantes =
+		new ConcurrentHashMap<String, AssinanteRevogacao>();
+
+	/* opcoes de conexao */
+	private final Properties props;
+	/* tempo maximo de espera por novos eventos, em ms */
+	private final long espera;
+	/* intervalo entre consultas apos uma falha, em ms */
+	private final long retentativa;
+	/* ouvintes registrados */
+	private final CopyOnWriteArrayList<OuvinteRevogacao> ouvintes =
+		new CopyOnWriteArrayList<OuvinteRevogacao>();
+
+	/* sequencia do ultimo evento recebido */
+	private volatile long sequencia;
+	/* instante da ultima consulta bem-sucedida */
+	private volatile long consultadoEm;
+	/* thread de consulta (null = parado) */
+	private Thread thread;
+
+	private static Logger logger;
+	private static boolean trace;
+
+	/**
+	 * Cria uma nova instancia do assinante.
+	 * @param props Properties com as opcoes de conexao do cliente.
+	 */
+	public AssinanteRevogacao(Properties props) {
+		logger = LogManager.getLogger(AssinanteRevogacao.class);
+		trace = logger.isTraceEnabled();
+		this.props = props;
+		this.espera = getTempo(props, OPTION_EVENTOS_ESPERA, DEFAULT_ESPERA);
+		this.retentativa = getTempo(
+				props, OPTION_EVENTOS_RETENTATIVA, DEFAULT_RETENTATIVA);
+	}
+
+	/**
+	 * Cria uma nova instancia do assinante.
+	 * @param propsFileName Nome do arquivo properties
+	 *   com as opcoes de conexao do cliente.
+	 * @throws Exception
+	 */
+	public AssinanteRevogacao(String propsFileName) throws Exception {
+		this(FabricaClienteWS.getPropriedades(
+				propsFileName, AssinanteRevogacao.class.getClassLoader()));
+	}
+
+	/**
+	 * Retorna o assinante (ja' iniciado) compartilhado por todos os
+	 *   usuarios de um mesmo arquivo de configuracao.
+	 * @param propsFileName Nome do arquivo properties
+	 *   com as opcoes de conexao do cliente.
+	 * @return Assinante dos eventos de revogacao.
+	 * @throws Exception
+	 */
+	public static AssinanteRevogacao getInstance(
+			String propsFileName) throws Exception {
+
+		AssinanteRevogacao assinante = assinantes.get(propsFileName);
+		if (assinante == null) {
+			AssinanteRevogacao novo = new AssinanteRevogacao(propsFileName);
+			assinante = assinantes.putIfAbsent(propsFileName, novo);
+			if (assinante == null) {
+				assinante = novo;
+				assinante.iniciar();
+			}
+		}
+		return assinante;
+	}
+
+	/**
+	 * Registra um ouvinte dos eventos de revogacao.
+	 * @param ouvinte Ouvinte a ser notificado.
+	 */
+	public void adicionarOuvinte(OuvinteRevogacao ouvinte) {
+		ouvintes.addIfAbsent(ouvinte);
+	}
+
+	/**
+	 * Remove um ouvinte dos eventos de revogacao.
+	 * @param ouvinte Ouvinte registrado.
+	 */
+	public void removerOuvinte(OuvinteRevogacao ouvinte) {
+		ouvintes.remove(ouvinte);
+	}
+
+	/**
+	 * Inicia a consulta dos eventos em segundo plano.
+	 */
+	public synchronized void iniciar() {
+		if (thread != null) { return; }
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				executar();
+			}
+		}, "sicid-eventos");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Interrompe a consulta dos eventos.
+	 */
+	public synchronized void parar() {
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+		consultadoEm = 0;
+	}
+
+	/**
+	 * Retorna a sequencia do ultimo evento recebido.
+	 * @return Sequencia do ultimo evento, ou 0 se nenhum.
+	 */
+	public long getSequencia() {
+		return sequencia;
+	}
+
+	/**
+	 * Indica se o assinante esta' recebendo os eventos, ou seja, se a
+	 *   ultima consulta ao servico foi bem-sucedida e recente.
+	 * @return True se conectado.
+	 */
+	public boolean isConectado() {
+		return System.currentTimeMillis() - consultadoEm <
+			espera + MARGEM_RESPOSTA + retentativa;
+	}
+
+	/* Consulta continuamente os eventos, ate' o assinante ser parado. */
+	private void executar() {
+		Thread atual = Thread.currentThread();
+		while (!atual.isInterrupted()) {
+			try {
+				Collection<EventoRevogacao> eventos = consultar();
+				consultadoEm = System.currentTimeMillis();
+				despachar(eventos);
+			} catch (Exception e) {
+				consultadoEm = 0;
+				logger.error("Error receiving revocation events: " + e.getMessage());
+				try {
+					Thread.sleep(retentativa);
+				} catch (InterruptedException ie) {
+					atual.interrupt();
+				}
+			}
+		}
+	}
+
+	/* Consulta os eventos posteriores ao ultimo recebido.
+	 * @return Eventos recebidos.
+	 * @throws Exception
+	 */
+	private Collection<EventoRevogacao> consultar() throws Exception {
+		SICidClient client = new SICidClient(props);
+		try {
+			ISICidService servico = client.getService();
+			Map<String, Object> context =
+				((BindingProvider) servico).getRequestContext();
+			for (String propriedade : SICidAsyncClient.PROPRIEDADES_TIMEOUT_RESPOSTA) {
+				context.put(propriedade, (int) (espera + MARGEM_RESPOSTA));
+			}
+			Collection<EventoRevogacao> eventos = servico.listarEventosRevogacao(
+					sequencia, espera).getEventos();
+			return (eventos != null) ? eventos : new ArrayList<EventoRevogacao>();
+		} finally {
+			client.close();
+		}
+	}
+
+	/* Processa os eventos recebidos, em ordem de sequencia.
+	 * @param eventos Eventos recebidos.
+	 */
+	private void despachar(Collection<EventoRevogacao> eventos) {
+		for (EventoRevogacao evento : eventos) {
+			if (evento.getSequencia() <= sequencia &&
+					evento.getTipo() != TipoEventoRevogacao.RESINCRONIZAR) {
+				continue;
+			}
+			if (trace) {
+				logger.trace(String.format("Evento de revogacao %d: %s",
+						evento.getSequencia(), evento.getTipo()));
+			}
+			invalidar(evento);
+			for (OuvinteRevogacao ouvinte : ouvintes) {
+				try {
+					ouvinte.eventoRecebido(evento);
+				} catch (RuntimeException e) {
+					logger.error("Error notifying revocation event: " + e.getMessage());
+				}
+			}
+			sequencia = evento.getSequencia();
+		}
+	}
+
+	/* Descarta as informacoes de revogacao em cache afetadas por um evento.
+	 * @param evento Evento de revogacao.
+	 */
+	private static void invalidar(EventoRevogacao evento) {
+		switch (evento.getTipo()) {
+			case CERTIFICADO_REVOGADO:
+				if (evento.getSerial() != null) {
+					CacheOCSP.invalidar(new BigInteger(evento.getSerial(), 16));
+				}
+				break;
+			case CRL_REEMITIDA:
+				if (evento.getUrl() != null) {
+					CacheCRL.invalidar(evento.getUrl());
+				}
+				break;
+			case RESINCRONIZAR:
+				CacheOCSP.limpar();
+				CacheCRL.limpar();
+				break;
+			default:
+				break;
+		}
+	}
+
+	/* Retorna um tempo definido nas opcoes do cliente.
+	 * @param props Opcoes do cliente.
+	 * @param option Nome da opcao.
+	 * @param padrao Valor padrao, em ms.
+	 * @return Tempo, em ms.
+	 */
+	private static long getTempo(Properties props,
+			String option, long padrao) {
+		String valor = props.getProperty(option);
+		if (valor == null || "".equals(valor.trim())) { return padrao; }
+		try {
+			long tempo = Long.parseLong(valor.trim());
+			return (tempo > 0) ? tempo : padrao;
+		} catch (NumberFormatException e) {
+			return padrao;
+		}
+	}
+}
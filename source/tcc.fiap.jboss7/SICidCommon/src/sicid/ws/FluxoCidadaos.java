@@ -0,0 +1,198 @@
+package sicid.ws;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+import sicid.bean.Cidadao;
+
+/**
+ * Formato do fluxo (stream) de exportacao de cidadaos do Servico de
+ *   Identificacao do Cidadao (SICid): um documento XML com um elemento
+ *   raiz "cidadaos" contendo um elemento "cidadao" por cidadao.<br/>
+ * O fluxo e' gravado ({@link Escritor}) e lido ({@link Leitor}) um
+ *   cidadao por vez, de modo que a memoria usada nao depende do numero
+ *   de cidadaos exportados.
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+public class FluxoCidadaos {
+
+	/* nome do elemento raiz do fluxo */
+	private static final String ELEMENTO_RAIZ = "cidadaos";
+	/* nome do elemento de cada cidadao */
+	private static final String ELEMENTO_CIDADAO = "cidadao";
+
+	/* contexto JAXB (thread-safe) */
+	private static JAXBContext contexto;
+
+	/* Classe utilitaria: nao instanciavel. */
+	private FluxoCidadaos() { }
+
+	/* Retorna o contexto JAXB dos cidadaos.
+	 * @return Contexto JAXB.
+	 * @throws JAXBException
+	 */
+	private static synchronized JAXBContext getContexto() throws JAXBException {
+		if (contexto == null) {
+			contexto = JAXBContext.newInstance(Cidadao.class);
+		}
+		return contexto;
+	}
+
+	/**
+	 * Grava um fluxo de exportacao de cidadaos.
+	 */
+	public static class Escritor implements Closeable {
+
+		private final XMLStreamWriter writer;
+		private final Marshaller marshaller;
+		private long quantidade;
+
+		/**
+		 * Cria um novo escritor, iniciando o documento.
+		 * @param out Stream de saida (nao e' fechado pelo escritor).
+		 * @throws Exception
+		 */
+		public Escritor(OutputStream out) throws Exception {
+			writer = XMLOutputFactory.newInstance()
+				.createXMLStreamWriter(out, "UTF-8");
+			marshaller = getContexto().createMarshaller();
+			marshaller.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+			writer.writeStartDocument("UTF-8", "1.0");
+			writer.writeStartElement(ELEMENTO_RAIZ);
+		}
+
+		/**
+		 * Grava um cidadao no fluxo.
+		 * @param cidadao Cidadao.
+		 * @throws Exception
+		 */
+		public void escrever(Cidadao cidadao) throws Exception {
+			marshaller.marshal(cidadao, writer);
+			quantidade++;
+		}
+
+		/**
+		 * Retorna o numero de cidadaos gravados.
+		 * @return Numero de cidadaos.
+		 */
+		public long getQuantidade() {
+			return quantidade;
+		}
+
+		/**
+		 * Finaliza o documento.
+		 * @throws IOException
+		 */
+		@Override
+		public void close() throws IOException {
+			try {
+				writer.writeEndElement();
+				writer.writeEndDocument();
+				writer.flush();
+				writer.close();
+			} catch (XMLStreamException e) {
+				throw new IOException("Error writing citizens stream", e);
+			}
+		}
+	}
+
+	/**
+	 * Le um fluxo de exportacao de cidadaos, um cidadao por vez.
+	 */
+	public static class Leitor implements Iterator<Cidadao>, Closeable {
+
+		private final InputStream in;
+		private final XMLStreamReader reader;
+		private final Unmarshaller unmarshaller;
+		/* proximo cidadao (null = ainda nao lido ou fim do fluxo) */
+		private Cidadao proximo;
+
+		/**
+		 * Cria um novo leitor.
+		 * @param in Stream de entrada (fechado por {@link #close()}).
+		 * @throws Exception
+		 */
+		public Leitor(InputStream in) throws Exception {
+			this.in = in;
+			XMLInputFactory factory = XMLInputFactory.newInstance();
+			factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+			reader = factory.createXMLStreamReader(in);
+			unmarshaller = getContexto().createUnmarshaller();
+		}
+
+		/**
+		 * Verifica se ha' mais cidadaos no fluxo.
+		 * @return True se houver mais cidadaos.
+		 */
+		@Override
+		public boolean hasNext() {
+			if (proximo == null) {
+				try {
+					while (reader.hasNext()) {
+						if (reader.getEventType() == XMLStreamConstants.START_ELEMENT &&
+								ELEMENTO_CIDADAO.equals(reader.getLocalName())) {
+							proximo = unmarshaller.unmarshal(
+									reader, Cidadao.class).getValue();
+							break;
+						}
+						reader.next();
+					}
+				} catch (Exception e) {
+					throw new IllegalStateException("Error reading citizens stream", e);
+				}
+			}
+			return proximo != null;
+		}
+
+		/**
+		 * Retorna o proximo cidadao do fluxo.
+		 * @return Cidadao.
+		 */
+		@Override
+		public Cidadao next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Cidadao cidadao = proximo;
+			proximo = null;
+			return cidadao;
+		}
+
+		/**
+		 * Operacao nao suportada.
+		 */
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		/**
+		 * Fecha o leitor e o stream de entrada.
+		 * @throws IOException
+		 */
+		@Override
+		public void close() throws IOException {
+			try {
+				reader.close();
+			} catch (XMLStreamException e) {
+			} finally {
+				in.close();
+			}
+		}
+	}
+}
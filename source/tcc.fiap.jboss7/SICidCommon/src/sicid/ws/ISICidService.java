@@ -1,15 +1,23 @@
 package sicid.ws;
 
+import java.util.List;
+
+import javax.activation.DataHandler;
+
 import javax.jws.WebMethod;
 import javax.jws.WebParam;
 import javax.jws.WebResult;
 import javax.jws.WebService;
 import javax.jws.soap.SOAPBinding;
 import javax.jws.soap.SOAPBinding.Style;
+import javax.xml.bind.annotation.XmlMimeType;
 
 import sicid.bean.CertificadoStatus;
+import sicid.bean.CertificadoStatusCollecion;
 import sicid.bean.Cidadao;
 import sicid.bean.CidadaoCollecion;
+import sicid.bean.EventoRevogacaoCollecion;
+import sicid.bean.IdentificacaoCidadao;
 
 /**
  * Interface do Servico de Identificacao do Cidadao (SICid).
@@ -29,6 +37,19 @@ public interface ISICidService {
 	public CertificadoStatus validarCertificado(
 			@WebParam(name="certificado") String content);
 	
+	/**
+	 * Valida um lote de certificados digitais.
+	 * @param contents Lista de conteudos de certificados, codificados
+	 *   em Base64.
+	 * @return Lista de status dos certificados, na ordem da lista de entrada.
+	 * @throws Exception Se a lista for nula ou exceder o tamanho maximo
+	 *   de um lote.
+	 */
+	@WebMethod
+	@WebResult(name="statusList")
+	public CertificadoStatusCollecion validarCertificados(
+			@WebParam(name="certificado") List<String> contents) throws Exception;
+	
 	/**
 	 * Consulta os dados cadastrais de um cidadao,
 	 *   a partir de seu certificado digital.
@@ -40,6 +61,38 @@ public interface ISICidService {
 	public Cidadao consultarCidadao(
 			@WebParam(name="certificado") String content);
 	
+	/**
+	 * Consulta os dados cadastrais de um cidadao pelo numero do CPF.
+	 * @param cpf Numero do CPF.
+	 * @return Dados cadastrais do cidadao, ou null se nao encontrado.
+	 */
+	@WebMethod
+	@WebResult(name="cidadao")
+	public Cidadao consultarCidadaoPorCpf(
+			@WebParam(name="cpf") String cpf);
+	
+	/**
+	 * Consulta os dados cadastrais de um cidadao pelo numero do RIC.
+	 * @param ric Numero do RIC.
+	 * @return Dados cadastrais do cidadao, ou null se nao encontrado.
+	 */
+	@WebMethod
+	@WebResult(name="cidadao")
+	public Cidadao consultarCidadaoPorRic(
+			@WebParam(name="ric") String ric);
+	
+	/**
+	 * Valida um certificado digital e, se valido, consulta os dados
+	 *   cadastrais do cidadao, em uma unica requisicao.
+	 * @param content Conteudo de um certificado, codificado em Base64.  
+	 * @return Status do certificado e, se valido, dados cadastrais
+	 *   do cidadao.
+	 */
+	@WebMethod
+	@WebResult(name="identificacao")
+	public IdentificacaoCidadao identificarCidadao(
+			@WebParam(name="certificado") String content);
+	
 	/**
 	 * Retorna uma lista de todos cidadaos cadastrados.
 	 * @return Lista de cidadaos cadastrados.
@@ -48,5 +101,99 @@ public interface ISICidService {
 	@WebResult(name="cidadaos")
 	public CidadaoCollecion listarCidadaos();
 	
+	/**
+	 * Retorna uma pagina da lista de cidadaos cadastrados, em ordem de DN
+	 *   (paginacao por chave). Para obter a proxima pagina, informar o DN
+	 *   do ultimo cidadao da pagina anterior.
+	 * @param aposDname DN do ultimo cidadao da pagina anterior
+	 *   (null = primeira pagina).
+	 * @param tamanhoPagina Numero maximo de cidadaos na pagina
+	 *   (limitado pelo servico).
+	 * @return Lista de cidadaos (vazia apos a ultima pagina).
+	 */
+	@WebMethod
+	@WebResult(name="cidadaos")
+	public CidadaoCollecion listarCidadaosPaginado(
+			@WebParam(name="aposDname") String aposDname,
+			@WebParam(name="tamanhoPagina") int tamanhoPagina);
+	
+	/**
+	 * Retorna as alteracoes (inclusoes, atualizacoes e exclusoes) de
+	 *   cidadaos posteriores a uma versao, em ordem de versao. Um
+	 *   consumidor que mantenha uma copia local do cadastro informa a
+	 *   versao do ultimo cidadao recebido, obtendo somente as alteracoes
+	 *   seguintes.
+	 * @param aposVersao Versao da ultima alteracao ja' recebida
+	 *   (0 = todas).
+	 * @param tamanhoPagina Numero maximo de cidadaos retornados
+	 *   (limitado pelo servico).
+	 * @return Lista de cidadaos alterados, no seu estado atual (os
+	 *   excluidos com o atributo "excluido" verdadeiro), vazia se nao
+	 *   houver alteracoes.
+	 */
+	@WebMethod
+	@WebResult(name="cidadaos")
+	public CidadaoCollecion listarAlteracoesCidadaos(
+			@WebParam(name="aposVersao") long aposVersao,
+			@WebParam(name="tamanhoPagina") int tamanhoPagina);
+	
+	/**
+	 * Exporta todos os cidadaos cadastrados, em ordem de DN, como um
+	 *   anexo MTOM no formato {@link FluxoCidadaos}, que pode ser lido
+	 *   um cidadao por vez ({@link FluxoCidadaos.Leitor}).
+	 * @return Anexo com os cidadaos exportados.
+	 * @throws Exception
+	 */
+	@WebMethod
+	@WebResult(name="cidadaos")
+	@XmlMimeType("application/octet-stream")
+	public DataHandler exportarCidadaos() throws Exception;
+	
+	/**
+	 * Notifica a revogacao de um certificado (ex: pela AC emissora). O
+	 *   certificado e' validado novamente e, se a revogacao for
+	 *   confirmada, e' publicado um evento de revogacao. Restrito 'as
+	 *   aplicacoes de ACs cadastradas no SICid (role icpuser), e limitado
+	 *   por emissor.
+	 * @param content Conteudo de um certificado, codificado em Base64.
+	 * @return Status atual do certificado.
+	 * @throws Exception
+	 */
+	@WebMethod
+	@WebResult(name="status")
+	public CertificadoStatus notificarRevogacao(
+			@WebParam(name="certificado") String content) throws Exception;
+	
+	/**
+	 * Retorna os eventos de revogacao (certificados revogados, alteracoes
+	 *   dos certificados confiaveis e reemissoes de CRLs) posteriores a um
+	 *   numero de sequencia, aguardando por novos eventos se nao houver
+	 *   nenhum (long-poll).
+	 * @param aposSequencia Sequencia do ultimo evento recebido (0 = nenhum).
+	 * @param espera Tempo maximo de espera por novos eventos, em ms
+	 *   (0 = nao aguarda).
+	 * @return Lista de eventos, em ordem de sequencia.
+	 * @throws Exception
+	 */
+	@WebMethod
+	@WebResult(name="eventos")
+	public EventoRevogacaoCollecion listarEventosRevogacao(
+			@WebParam(name="sequencia") long aposSequencia,
+			@WebParam(name="espera") long espera) throws Exception;
+	
+	/**
+	 * Retorna o pacote de validacao offline mais recente (certificados
+	 *   confiaveis e CRLs dos seus emissores), assinado pelo SICid.
+	 * @param versao Versao do pacote atual do cliente (0 = nenhuma).
+	 * @return Pacote assinado, contendo somente as diferencas em relacao
+	 *   'a versao do cliente quando possivel, ou vazio se o cliente ja'
+	 *   estiver na versao mais recente.
+	 * @throws Exception
+	 */
+	@WebMethod
+	@WebResult(name="pacote")
+	public byte[] obterPacoteValidacao(
+			@WebParam(name="versao") long versao) throws Exception;
+	
 	
 }
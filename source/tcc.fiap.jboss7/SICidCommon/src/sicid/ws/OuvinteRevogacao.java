@@ -0,0 +1,19 @@
+package sicid.ws;
+
+import sicid.bean.EventoRevogacao;
+
+/**
+ * Ouvinte dos eventos de revogacao recebidos por um
+ *   {@link AssinanteRevogacao}.
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+public interface OuvinteRevogacao {
+
+	/**
+	 * Notifica um evento de revogacao. Os eventos sao notificados em
+	 *   ordem de sequencia, uma unica vez.
+	 * @param evento Evento de revogacao.
+	 */
+	public void eventoRecebido(EventoRevogacao evento);
+	
+}
@@ -0,0 +1,343 @@
+package sicid.ws;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.xml.ws.BindingProvider;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import sicid.bean.CertificadoStatus;
+import sicid.bean.Cidadao;
+import sicid.bean.IdentificacaoCidadao;
+
+import com.robsonmartins.fiap.tcc.util.FabricaClienteWS;
+
+/**
+ * Implementa um cliente assincrono para o Servico de Identificacao do
+ *   Cidadao (SICid).<br/>
+ * Cada metodo submete a requisicao e retorna imediatamente um
+ *   {@link Future}, permitindo que o chamador execute outras tarefas
+ *   (ex: consultas ao banco de dados) enquanto aguarda a resposta.
+ *   As requisicoes sao executadas por um pool de threads proprio,
+ *   usando os proxies compartilhados de {@link SICidClient}.
+ *
+ * <p>
+ *   Alem das opcoes de conexao descritas em {@link SICidClient}, o arquivo
+ *   properties pode conter:
+ * <ul>
+ * <li><em>sicid.timeout.conexao</em>: Tempo maximo para conexao com o
+ *   servico, e para aguardar uma vaga de requisicao, em ms (default: 10000).
+ * <li><em>sicid.timeout.resposta</em>: Tempo maximo para aguardar a
+ *   resposta do servico, em ms (default: 30000).
+ * </ul>
+ * <p>
+ * O numero maximo de requisicoes pendentes (em todo o processo) e'
+ *   definido pela system property <em>sicid.async.maximo</em>
+ *   (default: 64).
+ * <p>
+ *
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+public class SICidAsyncClient {
+
+	/* nomes das opcoes do cliente no arquivo properties */
+	private final static String OPTION_SICID_TIMEOUT_CONEXAO  = "sicid.timeout.conexao" ;
+	private final static String OPTION_SICID_TIMEOUT_RESPOSTA = "sicid.timeout.resposta";
+
+	/* timeouts padrao, em ms */
+	private final static long DEFAULT_TIMEOUT_CONEXAO  = 10 * 1000L;
+	private final static long DEFAULT_TIMEOUT_RESPOSTA = 30 * 1000L;
+
+	/* propriedades de timeout do cliente JAX-WS (CXF e RI) */
+	private final static String[] PROPRIEDADES_TIMEOUT_CONEXAO = {
+		"javax.xml.ws.client.connectionTimeout", "com.sun.xml.ws.connect.timeout" };
+	final static String[] PROPRIEDADES_TIMEOUT_RESPOSTA = {
+		"javax.xml.ws.client.receiveTimeout", "com.sun.xml.ws.request.timeout" };
+
+	/* numero maximo de requisicoes pendentes */
+	private static final int MAXIMO_PENDENTES =
+		Integer.getInteger("sicid.async.maximo", 64);
+	/* vagas para requisicoes pendentes */
+	private static final Semaphore pendentes = new Semaphore(MAXIMO_PENDENTES);
+
+	/* executor das requisicoes (limitado pelo numero de vagas) */
+	private static final ExecutorService executor =
+		Executors.newCachedThreadPool(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "sicid-async");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+
+	/* opcoes de conexao */
+	private final Properties props;
+	/* timeout de conexao, em ms */
+	private final long timeoutConexao;
+	/* timeout de resposta, em ms */
+	private final long timeoutResposta;
+
+	private static Logger logger;
+	private static boolean trace;
+
+	/**
+	 * Cria uma nova instancia do cliente SICid assincrono.
+	 * @param props Properties com as opcoes de conexao do cliente.
+	 */
+	public SICidAsyncClient(Properties props) {
+		logger = LogManager.getLogger(SICidAsyncClient.class);
+		trace = logger.isTraceEnabled();
+		this.props = props;
+		this.timeoutConexao = getTimeout(
+				props, OPTION_SICID_TIMEOUT_CONEXAO, DEFAULT_TIMEOUT_CONEXAO);
+		this.timeoutResposta = getTimeout(
+				props, OPTION_SICID_TIMEOUT_RESPOSTA, DEFAULT_TIMEOUT_RESPOSTA);
+	}
+
+	/**
+	 * Cria uma nova instancia do cliente SICid assincrono.
+	 * @param propsFileName Nome do arquivo properties
+	 *   com as opcoes de conexao do cliente.
+	 * @throws Exception
+	 */
+	public SICidAsyncClient(String propsFileName) throws Exception {
+		this(FabricaClienteWS.getPropriedades(
+				propsFileName, SICidAsyncClient.class.getClassLoader()));
+	}
+
+	/**
+	 * Valida um certificado digital, de forma assincrona.
+	 * @param content Conteudo de um certificado, codificado em Base64.
+	 * @return Resultado futuro, com o status do certificado.
+	 * @throws Exception Se o limite de requisicoes pendentes for excedido.
+	 */
+	public Future<CertificadoStatus> validarCertificado(
+			final String content) throws Exception {
+
+		return submeter(new Chamada<CertificadoStatus>() {
+			@Override
+			public CertificadoStatus executar(ISICidService servico) {
+				return servico.validarCertificado(content);
+			}
+		});
+	}
+
+	/**
+	 * Consulta os dados cadastrais de um cidadao, a partir de seu
+	 *   certificado digital, de forma assincrona.
+	 * @param content Conteudo de um certificado, codificado em Base64.
+	 * @return Resultado futuro, com os dados cadastrais do cidadao.
+	 * @throws Exception Se o limite de requisicoes pendentes for excedido.
+	 */
+	public Future<Cidadao> consultarCidadao(
+			final String content) throws Exception {
+
+		return submeter(new Chamada<Cidadao>() {
+			@Override
+			public Cidadao executar(ISICidService servico) {
+				return servico.consultarCidadao(content);
+			}
+		});
+	}
+
+	/**
+	 * Valida um certificado digital e, se valido, consulta os dados
+	 *   cadastrais do cidadao, de forma assincrona.
+	 * @param content Conteudo de um certificado, codificado em Base64.
+	 * @return Resultado futuro, com o status do certificado e, se valido,
+	 *   os dados cadastrais do cidadao.
+	 * @throws Exception Se o limite de requisicoes pendentes for excedido.
+	 */
+	public Future<IdentificacaoCidadao> identificarCidadao(
+			final String content) throws Exception {
+
+		return submeter(new Chamada<IdentificacaoCidadao>() {
+			@Override
+			public IdentificacaoCidadao executar(ISICidService servico) {
+				return servico.identificarCidadao(content);
+			}
+		});
+	}
+
+	/* Submete uma chamada ao servico SICid, aguardando (no maximo o
+	 *   timeout de conexao) por uma vaga de requisicao.
+	 * @param chamada Chamada ao servico.
+	 * @return Resultado futuro da chamada.
+	 * @throws Exception
+	 */
+	private <T> Future<T> submeter(final Chamada<T> chamada) throws Exception {
+		if (!pendentes.tryAcquire(timeoutConexao, TimeUnit.MILLISECONDS)) {
+			logger.error("Too many pending requests to SICid service");
+			throw new Exception(String.format(
+					"Too many pending requests to SICid service (max=%d)",
+					MAXIMO_PENDENTES));
+		}
+		final Vaga vaga = new Vaga();
+		try {
+			Future<T> futuro = executor.submit(new Callable<T>() {
+				@Override
+				public T call() throws Exception {
+					try {
+						return executar(chamada);
+					} finally {
+						vaga.liberar();
+					}
+				}
+			});
+			return new Resultado<T>(futuro, vaga, timeoutConexao + timeoutResposta);
+
+		} catch (RejectedExecutionException e) {
+			vaga.liberar();
+			Exception exception =
+				new Exception("Error submitting request to SICid service");
+			exception.initCause(e);
+			throw exception;
+		}
+	}
+
+	/* Executa uma chamada ao servico SICid, com um proxy do pool. Os
+	 *   timeouts sao definidos somente durante a chamada: os valores
+	 *   anteriores sao restaurados antes de o proxy voltar ao pool
+	 *   compartilhado com os clientes sincronos.
+	 * @param chamada Chamada ao servico.
+	 * @return Resultado da chamada.
+	 * @throws Exception
+	 */
+	private <T> T executar(Chamada<T> chamada) throws Exception {
+		SICidClient client = new SICidClient(props);
+		Map<String, Object> context = null;
+		Map<String, Object> anteriores = new HashMap<String, Object>();
+		try {
+			ISICidService servico = client.getService();
+			context = ((BindingProvider) servico).getRequestContext();
+			for (String propriedade : PROPRIEDADES_TIMEOUT_CONEXAO) {
+				anteriores.put(propriedade,
+						context.put(propriedade, (int) timeoutConexao));
+			}
+			for (String propriedade : PROPRIEDADES_TIMEOUT_RESPOSTA) {
+				anteriores.put(propriedade,
+						context.put(propriedade, (int) timeoutResposta));
+			}
+			if (trace) {
+				logger.trace("Executing asynchronous request to SICid service");
+			}
+			return chamada.executar(servico);
+		} finally {
+			if (context != null) {
+				for (Map.Entry<String, Object> anterior : anteriores.entrySet()) {
+					if (anterior.getValue() == null) {
+						context.remove(anterior.getKey());
+					} else {
+						context.put(anterior.getKey(), anterior.getValue());
+					}
+				}
+			}
+			client.close();
+		}
+	}
+
+	/* Retorna um timeout definido nas opcoes do cliente.
+	 * @param props Opcoes do cliente.
+	 * @param option Nome da opcao.
+	 * @param padrao Valor padrao, em ms.
+	 * @return Timeout, em ms.
+	 */
+	private static long getTimeout(Properties props,
+			String option, long padrao) {
+		String valor = props.getProperty(option);
+		if (valor == null || "".equals(valor.trim())) { return padrao; }
+		try {
+			long timeout = Long.parseLong(valor.trim());
+			return (timeout > 0) ? timeout : padrao;
+		} catch (NumberFormatException e) {
+			return padrao;
+		}
+	}
+
+	/* Chamada a uma operacao do servico SICid. */
+	private interface Chamada<T> {
+		/* Executa a chamada.
+		 * @param servico Proxy do servico.
+		 * @return Resultado da operacao.
+		 */
+		public T executar(ISICidService servico);
+	}
+
+	/* Vaga de uma requisicao pendente, liberada uma unica vez: ao final
+	 *   da chamada ou no seu cancelamento, o que ocorrer primeiro. */
+	private static class Vaga {
+		private final AtomicBoolean liberada = new AtomicBoolean(false);
+		private void liberar() {
+			if (liberada.compareAndSet(false, true)) {
+				pendentes.release();
+			}
+		}
+	}
+
+	/* Resultado futuro de uma chamada: toda espera e' limitada ao timeout
+	 *   total da requisicao e, se esgotada, cancela a chamada e libera a
+	 *   sua vaga (a thread bloqueada em E/S termina pelo timeout de
+	 *   resposta). */
+	private static class Resultado<T> implements Future<T> {
+		private final Future<T> futuro;
+		private final Vaga vaga;
+		private final long timeout;
+		private Resultado(Future<T> futuro, Vaga vaga, long timeout) {
+			this.futuro = futuro;
+			this.vaga = vaga;
+			this.timeout = timeout;
+		}
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean cancelado = futuro.cancel(mayInterruptIfRunning);
+			if (cancelado) {
+				vaga.liberar();
+			}
+			return cancelado;
+		}
+		@Override
+		public boolean isCancelled() {
+			return futuro.isCancelled();
+		}
+		@Override
+		public boolean isDone() {
+			return futuro.isDone();
+		}
+		@Override
+		public T get() throws InterruptedException, ExecutionException {
+			try {
+				return futuro.get(timeout, TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				cancel(true);
+				throw new ExecutionException(
+						"Timeout waiting for SICid service", e);
+			}
+		}
+		@Override
+		public T get(long timeout, TimeUnit unit) throws InterruptedException,
+				ExecutionException, TimeoutException {
+			try {
+				return futuro.get(Math.min(unit.toMillis(timeout),
+						this.timeout), TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				cancel(true);
+				throw e;
+			}
+		}
+	}
+}
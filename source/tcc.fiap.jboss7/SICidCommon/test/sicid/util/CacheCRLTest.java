@@ -0,0 +1,176 @@
+package sicid.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Testes do cache de CRLs ({@link CacheCRL}), contra um ponto de
+ *   distribuicao simulado local.
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+@SuppressWarnings("restriction")
+public class CacheCRLTest {
+
+	/* timeout dos downloads usado nos testes, em ms */
+	private static final int TIMEOUT = 500;
+
+	private static File diretorio;
+	private static HttpServer servidor;
+	private static byte[] crl;
+	private static X509Certificate revogado;
+
+	/* numero de downloads recebidos */
+	private static final AtomicInteger downloads = new AtomicInteger();
+	/* liberacao dos downloads retidos */
+	private static volatile CountDownLatch liberacao = new CountDownLatch(0);
+
+	@BeforeClass
+	public static void iniciar() throws Exception {
+		/* lidos na carga das classes do cache e do validador */
+		diretorio = new File(File.createTempFile("sicid-crl", ""), "");
+		diretorio.delete();
+		System.setProperty("sicid.crl.diretorio", diretorio.getPath());
+		System.setProperty("sicid.crl.timeout", String.valueOf(TIMEOUT));
+
+		KeyPair chaves = CertificadosTeste.gerarChaves();
+		X509Certificate emissor =
+			CertificadosTeste.emitirRaiz("CN=AC Teste CRL", chaves);
+		revogado = CertificadosTeste.emitir("CN=Revogado",
+				CertificadosTeste.gerarChaves().getPublic(), emissor,
+				chaves.getPrivate(), false);
+		crl = CertificadosTeste.emitirCRL(emissor, chaves.getPrivate(), 1,
+				revogado.getSerialNumber(), BigInteger.TEN).getEncoded();
+
+		servidor = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		servidor.setExecutor(Executors.newCachedThreadPool());
+		servidor.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange troca) throws IOException {
+				downloads.incrementAndGet();
+				try {
+					if (troca.getRequestURI().getPath().startsWith("/lenta")) {
+						Thread.sleep(TIMEOUT * 4);
+					} else {
+						liberacao.await(5, TimeUnit.SECONDS);
+					}
+					troca.sendResponseHeaders(200, crl.length);
+					OutputStream out = troca.getResponseBody();
+					out.write(crl);
+					out.close();
+				} catch (Exception e) {
+					/* cliente desistiu */
+				} finally {
+					troca.close();
+				}
+			}
+		});
+		servidor.start();
+	}
+
+	@AfterClass
+	public static void finalizar() {
+		servidor.stop(0);
+		File[] arquivos = diretorio.listFiles();
+		if (arquivos != null) {
+			for (File arquivo : arquivos) {
+				arquivo.delete();
+			}
+		}
+		diretorio.delete();
+	}
+
+	@Before
+	public void limpar() {
+		CacheCRL.limpar();
+		liberacao = new CountDownLatch(0);
+	}
+
+	@Test
+	public void testDownload() throws Exception {
+		String url = getURL("/ac.crl");
+		int anteriores = downloads.get();
+		IndiceCRL indice = CacheCRL.getCRL(url);
+		assertTrue(indice.isRevoked(revogado));
+		assertTrue(CacheCRL.listar().containsKey(url));
+		/* segunda consulta: atendida pelo cache */
+		CacheCRL.getCRL(url);
+		assertEquals(anteriores + 1, downloads.get());
+	}
+
+	@Test
+	public void testInvalidarDuranteDownload() throws Exception {
+		final String url = getURL("/invalidada.crl");
+		liberacao = new CountDownLatch(1);
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			int anteriores = downloads.get();
+			Future<IndiceCRL> atrasada = executor.submit(
+				new Callable<IndiceCRL>() {
+					@Override
+					public IndiceCRL call() throws Exception {
+						return CacheCRL.getCRL(url);
+					}
+				});
+			while (downloads.get() == anteriores) {
+				Thread.sleep(10);
+			}
+			CacheCRL.invalidar(url);
+			liberacao.countDown();
+			/* quem iniciou o download recebe a CRL, mas ela nao e' publicada */
+			assertTrue(atrasada.get().isRevoked(revogado));
+			assertFalse(CacheCRL.listar().containsKey(url));
+			/* a proxima consulta realiza um novo download */
+			CacheCRL.getCRL(url);
+			assertEquals(anteriores + 2, downloads.get());
+			assertTrue(CacheCRL.listar().containsKey(url));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testTimeoutDownload() throws Exception {
+		long inicio = System.currentTimeMillis();
+		try {
+			CacheCRL.getCRL(getURL("/lenta.crl"));
+			fail("CRL download timeout not enforced");
+		} catch (Exception e) {
+			assertTrue(System.currentTimeMillis() - inicio < TIMEOUT * 4);
+		}
+	}
+
+	/* Retorna a URL de uma CRL no ponto de distribuicao simulado.
+	 * @param caminho Caminho da CRL.
+	 * @return URL da CRL.
+	 */
+	private static String getURL(String caminho) {
+		return String.format("http://127.0.0.1:%d%s",
+				servidor.getAddress().getPort(), caminho);
+	}
+}
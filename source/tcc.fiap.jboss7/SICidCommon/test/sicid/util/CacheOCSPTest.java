@@ -0,0 +1,153 @@
+package sicid.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.ocsp.CertificateStatus;
+import org.bouncycastle.ocsp.RevokedStatus;
+import org.bouncycastle.ocsp.UnknownStatus;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Testes do cliente OCSP com cache ({@link CacheOCSP}), contra um
+ *   respondedor OCSP simulado local.
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+@SuppressWarnings("deprecation")
+public class CacheOCSPTest {
+
+	private static KeyPair chavesEmissor;
+	private static X509Certificate emissor;
+	private static RespondedorOCSPStub respondedor;
+
+	@BeforeClass
+	public static void iniciar() throws Exception {
+		chavesEmissor = CertificadosTeste.gerarChaves();
+		emissor = CertificadosTeste.emitirRaiz("CN=AC Teste OCSP", chavesEmissor);
+		respondedor = new RespondedorOCSPStub(chavesEmissor);
+	}
+
+	@AfterClass
+	public static void finalizar() {
+		respondedor.finalizar();
+	}
+
+	@Before
+	public void limpar() {
+		CacheOCSP.limpar();
+	}
+
+	@After
+	public void restaurar() {
+		respondedor.setSignatario(chavesEmissor);
+		respondedor.setProximaAtualizacao(60 * 60 * 1000L);
+	}
+
+	@Test
+	public void testBom() throws Exception {
+		X509Certificate cert = emitir(CertificateStatus.GOOD);
+		int requisicoes = respondedor.getRequisicoes();
+		CacheOCSP.Resposta resposta =
+			CacheOCSP.getResposta(cert, emissor, respondedor.getURL());
+		assertFalse(resposta.isRevogado());
+		assertTrue(resposta.getValidade().after(new Date()));
+		/* segunda consulta: atendida pelo cache */
+		assertFalse(CacheOCSP.getResposta(
+				cert, emissor, respondedor.getURL()).isRevogado());
+		assertEquals(requisicoes + 1, respondedor.getRequisicoes());
+	}
+
+	@Test
+	public void testRevogado() throws Exception {
+		X509Certificate cert = emitir(new RevokedStatus(
+				new Date(), CRLReason.keyCompromise));
+		assertTrue(CacheOCSP.getResposta(
+				cert, emissor, respondedor.getURL()).isRevogado());
+	}
+
+	@Test
+	public void testDesconhecido() throws Exception {
+		X509Certificate cert = emitir(new UnknownStatus());
+		int requisicoes = respondedor.getRequisicoes();
+		assertNull(CacheOCSP.getResposta(cert, emissor, respondedor.getURL()));
+		/* status desconhecido nao e' armazenado */
+		assertNull(CacheOCSP.getResposta(cert, emissor, respondedor.getURL()));
+		assertEquals(requisicoes + 2, respondedor.getRequisicoes());
+	}
+
+	@Test
+	public void testProximaAtualizacaoExpirada() throws Exception {
+		X509Certificate cert = emitir(CertificateStatus.GOOD);
+		respondedor.setProximaAtualizacao(-CertificadosTeste.DIA);
+		assertNull(CacheOCSP.getResposta(cert, emissor, respondedor.getURL()));
+	}
+
+	@Test
+	public void testAssinaturaInvalida() throws Exception {
+		X509Certificate cert = emitir(CertificateStatus.GOOD);
+		respondedor.setSignatario(CertificadosTeste.gerarChaves());
+		try {
+			CacheOCSP.getResposta(cert, emissor, respondedor.getURL());
+			fail("Invalid OCSP response signature accepted");
+		} catch (Exception e) {
+			assertTrue(e.getMessage().startsWith("Invalid OCSP response signature"));
+		}
+	}
+
+	@Test
+	public void testInvalidar() throws Exception {
+		X509Certificate cert = emitir(CertificateStatus.GOOD);
+		int requisicoes = respondedor.getRequisicoes();
+		assertFalse(CacheOCSP.getResposta(
+				cert, emissor, respondedor.getURL()).isRevogado());
+		respondedor.setStatus(cert, new RevokedStatus(
+				new Date(), CRLReason.keyCompromise));
+		CacheOCSP.invalidar(cert.getSerialNumber());
+		assertTrue(CacheOCSP.getResposta(
+				cert, emissor, respondedor.getURL()).isRevogado());
+		assertEquals(requisicoes + 2, respondedor.getRequisicoes());
+	}
+
+	@Test
+	public void testLote() throws Exception {
+		List<X509Certificate> certs = new ArrayList<X509Certificate>();
+		certs.add(emitir(CertificateStatus.GOOD));
+		certs.add(emitir(new RevokedStatus(new Date(), CRLReason.superseded)));
+		certs.add(emitir(new UnknownStatus()));
+		int requisicoes = respondedor.getRequisicoes();
+		List<CacheOCSP.Resposta> respostas =
+			CacheOCSP.getRespostas(certs, emissor, respondedor.getURL());
+		assertFalse(respostas.get(0).isRevogado());
+		assertTrue(respostas.get(1).isRevogado());
+		assertNull(respostas.get(2));
+		assertEquals(requisicoes + 1, respondedor.getRequisicoes());
+	}
+
+	/* Emite um certificado e configura o seu status no respondedor.
+	 * @param status Status do certificado.
+	 * @return Certificado emitido.
+	 * @throws Exception
+	 */
+	private static X509Certificate emitir(CertificateStatus status)
+			throws Exception {
+		X509Certificate cert = CertificadosTeste.emitir("CN=Titular",
+				CertificadosTeste.gerarChaves().getPublic(), emissor,
+				chavesEmissor.getPrivate(), false);
+		respondedor.setStatus(cert, status);
+		return cert;
+	}
+}
@@ -0,0 +1,157 @@
+package sicid.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.InputStream;
+import java.security.cert.X509Certificate;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import sicid.util.CertificadoIcpBrasilParser.AtributoIcpBrasil;
+
+import com.robsonmartins.fiap.tcc.util.CertificadoSerializador;
+
+/**
+ * Testes de referencia (golden) do {@link CertificadoIcpBrasilParser}: os
+ *   atributos extraidos de certificados e-CPF, e-CNPJ e RIC, e de
+ *   certificados com SubjectAltName mal-formado, devem ser identicos aos
+ *   da implementacao original ({@link CertificadoIcpBrasilParserLegado}).
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+public class CertificadoIcpBrasilParserTest {
+
+	@Test
+	public void testECpf() throws Exception {
+		Map<String, String> atributos = comparar("ecpf.pem");
+		assertEquals("FULANO DE TAL", atributos.get("NOME_RESPONSAVEL"));
+		assertEquals("fulano.tal@exemplo.com.br", atributos.get("EMAIL"));
+		assertEquals("01021980", atributos.get("NASCIMENTO"));
+		assertEquals("12345678901", atributos.get("CPF"));
+		assertEquals("12345678901", atributos.get("PISPASEP"));
+		assertEquals("123456789012345", atributos.get("RG"));
+		assertEquals("SSP", atributos.get("RG_ORGEXPEDIDOR"));
+		assertEquals("SP", atributos.get("RG_UF"));
+		assertEquals("", atributos.get("CEI"));
+		assertEquals("123456789012", atributos.get("TITULO"));
+		assertEquals("123", atributos.get("TITULO_ZONA"));
+		assertEquals("4567", atributos.get("TITULO_SECAO"));
+		assertEquals("SAO PAULO", atributos.get("TITULO_MUNICIPIO"));
+		assertEquals("SP", atributos.get("TITULO_UF"));
+		assertEquals("fulano.tal", atributos.get("LOGIN"));
+	}
+
+	@Test
+	public void testECnpj() throws Exception {
+		Map<String, String> atributos = comparar("ecnpj.pem");
+		assertEquals("BELTRANO DA SILVA", atributos.get("NOME_RESPONSAVEL"));
+		assertEquals("EMPRESA EXEMPLO COMERCIO LTDA", atributos.get("NOME_PJ"));
+		assertEquals("12345678000199", atributos.get("CNPJ"));
+		assertEquals("15031975", atributos.get("NASCIMENTO"));
+		assertEquals("09876543210", atributos.get("CPF"));
+		assertEquals("", atributos.get("PISPASEP"));
+		assertEquals("", atributos.get("RG"));
+		assertEquals("", atributos.get("RG_ORGEXPEDIDOR"));
+		assertEquals("987654321098", atributos.get("CEI"));
+		assertEquals("contato@empresa.com.br", atributos.get("EMAIL"));
+		assertNotNull(atributos.get("GUID_SERVER"));
+	}
+
+	@Test
+	public void testRic() throws Exception {
+		Map<String, String> atributos = comparar("ric.pem");
+		assertEquals("CICLANO DE SOUZA", atributos.get("NOME_RESPONSAVEL"));
+		assertEquals("12345678901", atributos.get("RIC"));
+		assertEquals("98765432100", atributos.get("CPF"));
+		/* titulo zerado: demais campos do titulo sao descartados */
+		assertEquals("", atributos.get("TITULO"));
+		assertEquals("", atributos.get("TITULO_ZONA"));
+		assertEquals("", atributos.get("TITULO_UF"));
+	}
+
+	@Test
+	public void testCamposTruncados() throws Exception {
+		Map<String, String> atributos = comparar("truncado.pem");
+		assertEquals("01021980", atributos.get("NASCIMENTO"));
+		assertEquals("", atributos.get("CPF"));
+		assertEquals("", atributos.get("TITULO"));
+		assertEquals("", atributos.get("CEI"));
+	}
+
+	@Test
+	public void testTiposInesperados() throws Exception {
+		Map<String, String> atributos = comparar("tipos.pem");
+		assertEquals("SEM SEPARADOR", atributos.get("NOME_RESPONSAVEL"));
+		assertEquals("segundo@exemplo.com.br", atributos.get("EMAIL"));
+	}
+
+	@Test
+	public void testDerTruncado() throws Exception {
+		comparar("dertruncado.pem");
+	}
+
+	@Test
+	public void testTagImplicita() throws Exception {
+		Map<String, String> atributos = comparar("implicito.pem");
+		assertEquals("123", atributos.get("RIC"));
+	}
+
+	/* Extrai os atributos de um certificado de teste com as duas
+	 *   implementacoes, verificando que sao identicos (ou que ambas
+	 *   rejeitam o certificado).
+	 * @param arquivo Nome do arquivo do certificado (PEM).
+	 * @return Atributos extraidos, por nome.
+	 * @throws Exception
+	 */
+	private static Map<String, String> comparar(String arquivo) throws Exception {
+		X509Certificate cert = carregar(arquivo);
+		Map<String, String> esperado = null;
+		try {
+			esperado = new TreeMap<String, String>();
+			for (Map.Entry<CertificadoIcpBrasilParserLegado.AtributoIcpBrasil, String> e :
+					CertificadoIcpBrasilParserLegado.getAtributosIcpBrasil(cert).entrySet()) {
+				esperado.put(e.getKey().name(), e.getValue());
+			}
+		} catch (Exception e) {
+			esperado = null;
+		}
+		Map<String, String> obtido = null;
+		try {
+			obtido = new TreeMap<String, String>();
+			for (Map.Entry<AtributoIcpBrasil, String> e :
+					CertificadoIcpBrasilParser.getAtributosIcpBrasil(cert).entrySet()) {
+				obtido.put(e.getKey().name(), e.getValue());
+			}
+		} catch (Exception e) {
+			if (esperado != null) {
+				throw e;
+			}
+			return null;
+		}
+		if (esperado == null) {
+			fail(String.format("%s: accepted, but rejected by baseline parser: %s",
+					arquivo, obtido));
+		}
+		assertEquals(arquivo, esperado, obtido);
+		return obtido;
+	}
+
+	/* Carrega um certificado de teste.
+	 * @param arquivo Nome do arquivo do certificado (PEM).
+	 * @return Objeto que representa o certificado.
+	 * @throws Exception
+	 */
+	private static X509Certificate carregar(String arquivo) throws Exception {
+		InputStream in = CertificadoIcpBrasilParserTest.class
+			.getResourceAsStream("icpbrasil/" + arquivo);
+		assertNotNull(arquivo, in);
+		try {
+			return CertificadoSerializador.loadCertFromStream(in);
+		} finally {
+			in.close();
+		}
+	}
+}
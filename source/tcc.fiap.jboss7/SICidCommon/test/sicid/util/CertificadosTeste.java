@@ -0,0 +1,185 @@
+package sicid.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.Security;
+import java.security.cert.Certificate;
+import java.security.cert.X509CRL;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.bouncycastle.asn1.x509.BasicConstraints;
+import org.bouncycastle.asn1.x509.CRLNumber;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.X509Extension;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.x509.X509V2CRLGenerator;
+import org.bouncycastle.x509.X509V3CertificateGenerator;
+import org.bouncycastle.x509.extension.AuthorityKeyIdentifierStructure;
+import org.bouncycastle.x509.extension.SubjectKeyIdentifierStructure;
+
+/**
+ * Geracao de chaves, certificados e keystores para os testes.
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+@SuppressWarnings("deprecation")
+public class CertificadosTeste {
+
+	/* um dia, em ms */
+	public static final long DIA = 24 * 60 * 60 * 1000L;
+
+	/* numeros de serie dos certificados emitidos */
+	private static final AtomicLong seriais =
+		new AtomicLong(System.currentTimeMillis());
+
+	static {
+		if (Security.getProvider(BouncyCastleProvider.PROVIDER_NAME) == null) {
+			Security.addProvider(new BouncyCastleProvider());
+		}
+	}
+
+	/**
+	 * Gera um par de chaves RSA.
+	 * @return Par de chaves.
+	 * @throws Exception
+	 */
+	public static KeyPair gerarChaves() throws Exception {
+		KeyPairGenerator gerador = KeyPairGenerator.getInstance("RSA");
+		gerador.initialize(1024);
+		return gerador.generateKeyPair();
+	}
+
+	/**
+	 * Emite um certificado de autoridade certificadora auto-assinado.
+	 * @param dn DN do titular.
+	 * @param chaves Par de chaves do titular.
+	 * @return Certificado.
+	 * @throws Exception
+	 */
+	public static X509Certificate emitirRaiz(String dn,
+			KeyPair chaves) throws Exception {
+		return emitir(dn, chaves.getPublic(), null,
+				chaves.getPrivate(), true);
+	}
+
+	/**
+	 * Emite um certificado, valido de ontem ate' amanha.
+	 * @param dn DN do titular.
+	 * @param chave Chave publica do titular.
+	 * @param emissor Certificado do emissor (null = auto-assinado).
+	 * @param chaveEmissor Chave privada do emissor.
+	 * @param ac True se o certificado e' de autoridade certificadora.
+	 * @return Certificado.
+	 * @throws Exception
+	 */
+	public static X509Certificate emitir(String dn, PublicKey chave,
+			X509Certificate emissor, PrivateKey chaveEmissor,
+			boolean ac) throws Exception {
+
+		long agora = System.currentTimeMillis();
+		X509V3CertificateGenerator gerador = new X509V3CertificateGenerator();
+		gerador.setSerialNumber(BigInteger.valueOf(seriais.incrementAndGet()));
+		gerador.setSubjectDN(new X500Principal(dn));
+		gerador.setIssuerDN((emissor != null)
+				? emissor.getSubjectX500Principal() : new X500Principal(dn));
+		gerador.setNotBefore(new Date(agora - DIA));
+		gerador.setNotAfter(new Date(agora + DIA));
+		gerador.setPublicKey(chave);
+		gerador.setSignatureAlgorithm("SHA256WithRSAEncryption");
+		gerador.addExtension(X509Extension.subjectKeyIdentifier, false,
+				new SubjectKeyIdentifierStructure(chave));
+		if (emissor != null) {
+			gerador.addExtension(X509Extension.authorityKeyIdentifier, false,
+					new AuthorityKeyIdentifierStructure(emissor));
+		}
+		if (ac) {
+			gerador.addExtension(X509Extension.basicConstraints, true,
+					new BasicConstraints(true));
+		}
+		return gerador.generate(chaveEmissor, BouncyCastleProvider.PROVIDER_NAME);
+	}
+
+	/**
+	 * Emite uma CRL, vigente de ontem ate' amanha, com os certificados
+	 *   revogados ontem (motivo: comprometimento de chave).
+	 * @param emissor Certificado do emissor.
+	 * @param chaveEmissor Chave privada do emissor.
+	 * @param numero Numero da CRL.
+	 * @param revogados Numeros de serie dos certificados revogados.
+	 * @return CRL.
+	 * @throws Exception
+	 */
+	public static X509CRL emitirCRL(X509Certificate emissor,
+			PrivateKey chaveEmissor, long numero,
+			BigInteger... revogados) throws Exception {
+		return emitirCRL(emissor, chaveEmissor, numero,
+				CRLReason.keyCompromise, revogados);
+	}
+
+	/**
+	 * Emite uma CRL, vigente de ontem ate' amanha, com os certificados
+	 *   revogados ontem.
+	 * @param emissor Certificado do emissor.
+	 * @param chaveEmissor Chave privada do emissor.
+	 * @param numero Numero da CRL.
+	 * @param motivo Motivo da revogacao (CRLReason).
+	 * @param revogados Numeros de serie dos certificados revogados.
+	 * @return CRL.
+	 * @throws Exception
+	 */
+	public static X509CRL emitirCRL(X509Certificate emissor,
+			PrivateKey chaveEmissor, long numero, int motivo,
+			BigInteger... revogados) throws Exception {
+
+		long agora = System.currentTimeMillis();
+		X509V2CRLGenerator gerador = new X509V2CRLGenerator();
+		gerador.setIssuerDN(emissor.getSubjectX500Principal());
+		gerador.setThisUpdate(new Date(agora - DIA));
+		gerador.setNextUpdate(new Date(agora + DIA));
+		gerador.setSignatureAlgorithm("SHA256WithRSAEncryption");
+		gerador.addExtension(X509Extension.cRLNumber, false,
+				new CRLNumber(BigInteger.valueOf(numero)));
+		for (BigInteger serial : revogados) {
+			gerador.addCRLEntry(serial, new Date(agora - DIA), motivo);
+		}
+		return gerador.generate(chaveEmissor, BouncyCastleProvider.PROVIDER_NAME);
+	}
+
+	/**
+	 * Grava um keystore JKS com um par de chaves e o seu certificado
+	 *   auto-assinado.
+	 * @param arquivo Arquivo do keystore.
+	 * @param alias Alias do par de chaves.
+	 * @param senha Senha do keystore e do par de chaves.
+	 * @return Arquivo do keystore.
+	 * @throws Exception
+	 */
+	public static File gravarKeyStore(File arquivo, String alias,
+			String senha) throws Exception {
+
+		KeyPair chaves = gerarChaves();
+		X509Certificate cert = emitir("CN=" + alias, chaves.getPublic(),
+				null, chaves.getPrivate(), false);
+		KeyStore keyStore = KeyStore.getInstance("JKS");
+		keyStore.load(null, null);
+		keyStore.setKeyEntry(alias, chaves.getPrivate(), senha.toCharArray(),
+				new Certificate[] { cert });
+		OutputStream out = new FileOutputStream(arquivo);
+		try {
+			keyStore.store(out, senha.toCharArray());
+		} finally {
+			out.close();
+		}
+		return arquivo;
+	}
+}
@@ -0,0 +1,313 @@
+package sicid.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.KeyPair;
+import java.security.cert.CRLException;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+
+import org.bouncycastle.asn1.x509.CRLNumber;
+import org.bouncycastle.asn1.x509.CRLReason;
+import org.bouncycastle.asn1.x509.GeneralName;
+import org.bouncycastle.asn1.x509.GeneralNames;
+import org.bouncycastle.asn1.x509.IssuingDistributionPoint;
+import org.bouncycastle.asn1.x509.X509Extension;
+import org.bouncycastle.asn1.x509.X509ExtensionsGenerator;
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.x509.X509V2CRLGenerator;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Testes do indice de CRLs ({@link IndiceCRL}).
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+@SuppressWarnings("deprecation")
+public class IndiceCRLTest {
+
+	private static KeyPair chaves;
+	private static X509Certificate emissor;
+	private static X509Certificate revogado;
+	private static X509Certificate outro;
+
+	private File diretorio;
+
+	@BeforeClass
+	public static void iniciar() throws Exception {
+		chaves = CertificadosTeste.gerarChaves();
+		emissor = CertificadosTeste.emitirRaiz("CN=AC Teste Indice", chaves);
+		revogado = emitir();
+		outro = emitir();
+	}
+
+	@Before
+	public void criarDiretorio() throws Exception {
+		/* diretorio privado (permissoes exigidas pelo indice) */
+		diretorio = Files.createTempDirectory("sicid-indice").toFile();
+	}
+
+	@After
+	public void removerDiretorio() {
+		File[] arquivos = diretorio.listFiles();
+		if (arquivos != null) {
+			for (File arquivo : arquivos) {
+				arquivo.delete();
+			}
+		}
+		diretorio.delete();
+	}
+
+	@Test
+	public void testRevogacao() throws Exception {
+		IndiceCRL indice = compilar(CertificadosTeste.emitirCRL(emissor,
+				chaves.getPrivate(), 1, CRLReason.superseded,
+				revogado.getSerialNumber()).getEncoded(), "a.idx", null);
+		assertNotNull(indice.getDataRevogacao(revogado));
+		assertEquals(Integer.valueOf(CRLReason.superseded),
+				indice.getMotivoRevogacao(revogado));
+		assertNull(indice.getDataRevogacao(outro));
+		assertNull(indice.getMotivoRevogacao(outro));
+	}
+
+	@Test
+	public void testCRLInalterada() throws Exception {
+		IndiceCRL atual = compilar(CertificadosTeste.emitirCRL(emissor,
+				chaves.getPrivate(), 7, revogado.getSerialNumber()).getEncoded(),
+				"a.idx", null);
+		File arquivo = atual.getArquivo();
+		assertTrue(arquivo.setLastModified(1000L));
+		/* mesma CRL (mesmo numero), reemitida: indice nao e' reescrito */
+		assertSame(atual, compilar(CertificadosTeste.emitirCRL(emissor,
+				chaves.getPrivate(), 7, revogado.getSerialNumber()).getEncoded(),
+				"a.idx", atual));
+		assertEquals(1000L, arquivo.lastModified());
+		/* indice e CRL original */
+		assertEquals(2, diretorio.listFiles().length);
+	}
+
+	@Test
+	public void testTemporarioAbandonado() throws Exception {
+		File abandonado = new File(diretorio, "a.idx123.tmp");
+		assertTrue(abandonado.createNewFile());
+		compilar(CertificadosTeste.emitirCRL(emissor, chaves.getPrivate(), 1,
+				revogado.getSerialNumber()).getEncoded(), "a.idx", null);
+		assertEquals(2, diretorio.listFiles().length);
+	}
+
+	@Test
+	public void testReabrir() throws Exception {
+		compilar(CertificadosTeste.emitirCRL(emissor, chaves.getPrivate(), 3,
+				revogado.getSerialNumber()).getEncoded(), "a.idx", null);
+		File arquivo = new File(diretorio, "a.idx");
+		assertTrue(arquivo.setLastModified(1000L));
+		IndiceCRL indice = IndiceCRL.abrir(arquivo);
+		assertEquals(BigInteger.valueOf(3), indice.getNumero());
+		assertNotNull(indice.getDataRevogacao(revogado));
+		/* indice integro: reaproveitado, sem recompilacao */
+		assertEquals(1000L, arquivo.lastModified());
+	}
+
+	@Test
+	public void testIndiceAdulterado() throws Exception {
+		compilar(CertificadosTeste.emitirCRL(emissor, chaves.getPrivate(), 1,
+				revogado.getSerialNumber()).getEncoded(), "a.idx", null);
+		File arquivo = new File(diretorio, "a.idx");
+		/* altera o numero de serie do unico registro (apos o cabecalho) */
+		RandomAccessFile raf = new RandomAccessFile(arquivo, "rw");
+		try {
+			raf.seek(40);
+			int valor = raf.read();
+			raf.seek(40);
+			raf.write(valor ^ 0xFF);
+		} finally {
+			raf.close();
+		}
+		/* o indice e' recompilado a partir da CRL original */
+		assertNotNull(IndiceCRL.abrir(arquivo).getDataRevogacao(revogado));
+	}
+
+	@Test
+	public void testCRLDivergente() throws Exception {
+		compilar(CertificadosTeste.emitirCRL(emissor, chaves.getPrivate(), 1,
+				revogado.getSerialNumber()).getEncoded(), "a.idx", null);
+		compilar(CertificadosTeste.emitirCRL(emissor, chaves.getPrivate(), 2,
+				revogado.getSerialNumber(), outro.getSerialNumber()).getEncoded(),
+				"b.idx", null);
+		Files.copy(new File(diretorio, "b.crl").toPath(),
+				new File(diretorio, "a.crl").toPath(),
+				StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+		/* o indice nao corresponde 'a CRL original: e' recompilado */
+		IndiceCRL indice = IndiceCRL.abrir(new File(diretorio, "a.idx"));
+		assertEquals(BigInteger.valueOf(2), indice.getNumero());
+		assertNotNull(indice.getDataRevogacao(outro));
+	}
+
+	@Test
+	public void testPermissoes() throws Exception {
+		Assume.assumeTrue(isPosix());
+		compilar(CertificadosTeste.emitirCRL(emissor, chaves.getPrivate(), 1,
+				revogado.getSerialNumber()).getEncoded(), "a.idx", null);
+		Path arquivo = new File(diretorio, "a.idx").toPath();
+		Path crl = new File(diretorio, "a.crl").toPath();
+		assertEquals("rw-------", PosixFilePermissions.toString(
+				Files.getPosixFilePermissions(arquivo)));
+		/* indice com permissoes para outros usuarios: recompilado */
+		Files.setPosixFilePermissions(arquivo,
+				PosixFilePermissions.fromString("rw-rw-rw-"));
+		assertNotNull(IndiceCRL.abrir(arquivo.toFile()));
+		assertEquals("rw-------", PosixFilePermissions.toString(
+				Files.getPosixFilePermissions(arquivo)));
+		/* CRL original com permissoes para outros usuarios: descartada */
+		Files.setPosixFilePermissions(crl,
+				PosixFilePermissions.fromString("rw-r--r--"));
+		assertNull(IndiceCRL.abrir(arquivo.toFile()));
+	}
+
+	@Test
+	public void testDiretorio() throws Exception {
+		Assume.assumeTrue(isPosix());
+		File subdiretorio = new File(diretorio, "sub");
+		IndiceCRL.criarDiretorio(subdiretorio);
+		assertEquals("rwx------", PosixFilePermissions.toString(
+				Files.getPosixFilePermissions(subdiretorio.toPath())));
+		assertTrue(subdiretorio.delete());
+		compilar(CertificadosTeste.emitirCRL(emissor, chaves.getPrivate(), 1,
+				revogado.getSerialNumber()).getEncoded(), "a.idx", null);
+		/* diretorio com permissoes para outros usuarios: recusado */
+		Files.setPosixFilePermissions(diretorio.toPath(),
+				PosixFilePermissions.fromString("rwxrwxrwx"));
+		assertNull(IndiceCRL.abrir(new File(diretorio, "a.idx")));
+		try {
+			compilar(CertificadosTeste.emitirCRL(emissor, chaves.getPrivate(), 2,
+					revogado.getSerialNumber()).getEncoded(), "a.idx", null);
+			fail("Insecure CRL index directory accepted");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().startsWith("Insecure CRL index directory"));
+		}
+	}
+
+	@Test
+	public void testDiferencaMotivo() throws Exception {
+		IndiceCRL base = compilar(CertificadosTeste.emitirCRL(emissor,
+				chaves.getPrivate(), 1, CRLReason.keyCompromise,
+				revogado.getSerialNumber()).getEncoded(), "a.idx", null);
+		IndiceCRL novo = compilar(CertificadosTeste.emitirCRL(emissor,
+				chaves.getPrivate(), 2, CRLReason.cessationOfOperation,
+				revogado.getSerialNumber()).getEncoded(), "b.idx", null);
+
+		ByteArrayOutputStream diferenca = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(diferenca);
+		novo.exportar(out, base);
+		out.close();
+		IndiceCRL importado = IndiceCRL.importar(new DataInputStream(
+				new ByteArrayInputStream(diferenca.toByteArray())), base);
+		assertEquals(Integer.valueOf(CRLReason.cessationOfOperation),
+				importado.getMotivoRevogacao(revogado));
+		assertEquals(novo.getDataRevogacao(revogado),
+				importado.getDataRevogacao(revogado));
+		assertEquals(1, importado.size());
+	}
+
+	@Test
+	public void testCRLIndiretaEntrada() throws Exception {
+		X509ExtensionsGenerator extensoes = new X509ExtensionsGenerator();
+		extensoes.addExtension(X509Extension.certificateIssuer, true,
+				new GeneralNames(new GeneralName(GeneralName.directoryName,
+						"CN=Outra AC")));
+		X509V2CRLGenerator gerador = getGerador();
+		gerador.addCRLEntry(revogado.getSerialNumber(), new Date(),
+				extensoes.generate());
+		assertRejeitada(gerador);
+	}
+
+	@Test
+	public void testCRLIndiretaIDP() throws Exception {
+		X509V2CRLGenerator gerador = getGerador();
+		gerador.addExtension(X509Extension.issuingDistributionPoint, true,
+				new IssuingDistributionPoint(null, false, false, null, true, false));
+		gerador.addCRLEntry(revogado.getSerialNumber(), new Date(),
+				CRLReason.keyCompromise);
+		assertRejeitada(gerador);
+	}
+
+	/* Verifica se o sistema de arquivos suporta permissoes POSIX.
+	 * @return True se suporta.
+	 */
+	private static boolean isPosix() {
+		return FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+	}
+
+	/* Verifica que uma CRL e' rejeitada como indireta.
+	 * @param gerador Gerador da CRL.
+	 * @throws Exception
+	 */
+	private void assertRejeitada(X509V2CRLGenerator gerador) throws Exception {
+		try {
+			compilar(gerador.generate(chaves.getPrivate(),
+					BouncyCastleProvider.PROVIDER_NAME).getEncoded(), "a.idx", null);
+			fail("Indirect CRL accepted");
+		} catch (CRLException e) {
+			assertEquals("Indirect CRLs are not supported", e.getMessage());
+		}
+	}
+
+	/* Retorna um gerador de CRLs do emissor de teste.
+	 * @return Gerador de CRLs.
+	 */
+	private static X509V2CRLGenerator getGerador() {
+		long agora = System.currentTimeMillis();
+		X509V2CRLGenerator gerador = new X509V2CRLGenerator();
+		gerador.setIssuerDN(emissor.getSubjectX500Principal());
+		gerador.setThisUpdate(new Date(agora));
+		gerador.setNextUpdate(new Date(agora + CertificadosTeste.DIA));
+		gerador.setSignatureAlgorithm("SHA256WithRSAEncryption");
+		gerador.addExtension(X509Extension.cRLNumber, false,
+				new CRLNumber(BigInteger.ONE));
+		return gerador;
+	}
+
+	/* Compila uma CRL no diretorio de teste.
+	 * @param crl CRL codificada (DER).
+	 * @param nome Nome do arquivo do indice.
+	 * @param atual Indice atual (pode ser null).
+	 * @return Indice da CRL.
+	 * @throws Exception
+	 */
+	private IndiceCRL compilar(byte[] crl, String nome,
+			IndiceCRL atual) throws Exception {
+		return IndiceCRL.compilar(new ByteArrayInputStream(crl),
+				new File(diretorio, nome), atual);
+	}
+
+	/* Emite um certificado do emissor de teste.
+	 * @return Certificado emitido.
+	 * @throws Exception
+	 */
+	private static X509Certificate emitir() throws Exception {
+		return CertificadosTeste.emitir("CN=Titular",
+				CertificadosTeste.gerarChaves().getPublic(), emissor,
+				chaves.getPrivate(), false);
+	}
+}
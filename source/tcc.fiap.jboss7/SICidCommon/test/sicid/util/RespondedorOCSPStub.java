@@ -0,0 +1,185 @@
+package sicid.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.security.KeyPair;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.bouncycastle.ocsp.BasicOCSPResp;
+import org.bouncycastle.ocsp.BasicOCSPRespGenerator;
+import org.bouncycastle.ocsp.CertificateStatus;
+import org.bouncycastle.ocsp.OCSPReq;
+import org.bouncycastle.ocsp.OCSPRespGenerator;
+import org.bouncycastle.ocsp.Req;
+import org.bouncycastle.ocsp.UnknownStatus;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Respondedor OCSP simulado, local, para os testes do {@link CacheOCSP}:
+ *   responde as requisicoes (HTTP POST) com o status configurado para
+ *   cada numero de serie (desconhecido, se nao configurado), assinando
+ *   as respostas com a chave configurada.
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+@SuppressWarnings({ "deprecation", "restriction" })
+public class RespondedorOCSPStub implements HttpHandler {
+
+	/* servidor HTTP */
+	private final HttpServer servidor;
+	/* status configurados, por numero de serie */
+	private final Map<BigInteger, CertificateStatus> status =
+		new ConcurrentHashMap<BigInteger, CertificateStatus>();
+	/* numero de requisicoes recebidas */
+	private final AtomicInteger requisicoes = new AtomicInteger();
+
+	/* chaves do signatario das respostas */
+	private volatile KeyPair signatario;
+	/* proxima atualizacao das respostas, relativa ao instante atual, em ms */
+	private volatile long proximaAtualizacao = 60 * 60 * 1000L;
+
+	/**
+	 * Cria e inicia um respondedor em uma porta livre (localhost).
+	 * @param signatario Chaves do signatario das respostas.
+	 * @throws IOException
+	 */
+	public RespondedorOCSPStub(KeyPair signatario) throws IOException {
+		this.signatario = signatario;
+		servidor = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		servidor.createContext("/ocsp", this);
+		servidor.start();
+	}
+
+	/**
+	 * Retorna a URL do respondedor.
+	 * @return URL do respondedor.
+	 */
+	public String getURL() {
+		return String.format("http://127.0.0.1:%d/ocsp",
+				servidor.getAddress().getPort());
+	}
+
+	/**
+	 * Define o status de um certificado.
+	 * @param cert Certificado.
+	 * @param status Status do certificado (CertificateStatus.GOOD,
+	 *   RevokedStatus ou UnknownStatus).
+	 */
+	public void setStatus(X509Certificate cert, CertificateStatus status) {
+		if (status == CertificateStatus.GOOD) {
+			this.status.put(cert.getSerialNumber(), new Bom());
+		} else {
+			this.status.put(cert.getSerialNumber(), status);
+		}
+	}
+
+	/**
+	 * Define as chaves do signatario das respostas.
+	 * @param signatario Chaves do signatario.
+	 */
+	public void setSignatario(KeyPair signatario) {
+		this.signatario = signatario;
+	}
+
+	/**
+	 * Define a proxima atualizacao (nextUpdate) das respostas.
+	 * @param proximaAtualizacao Proxima atualizacao, relativa ao instante
+	 *   atual, em ms (pode ser negativa).
+	 */
+	public void setProximaAtualizacao(long proximaAtualizacao) {
+		this.proximaAtualizacao = proximaAtualizacao;
+	}
+
+	/**
+	 * Retorna o numero de requisicoes recebidas.
+	 * @return Numero de requisicoes.
+	 */
+	public int getRequisicoes() {
+		return requisicoes.get();
+	}
+
+	/**
+	 * Finaliza o respondedor.
+	 */
+	public void finalizar() {
+		servidor.stop(0);
+	}
+
+	@Override
+	public void handle(HttpExchange troca) throws IOException {
+		try {
+			requisicoes.incrementAndGet();
+			byte[] resposta = responder(new OCSPReq(ler(troca.getRequestBody())));
+			troca.getResponseHeaders().set("Content-Type", "application/ocsp-response");
+			troca.sendResponseHeaders(200, resposta.length);
+			OutputStream out = troca.getResponseBody();
+			try {
+				out.write(resposta);
+			} finally {
+				out.close();
+			}
+		} catch (Exception e) {
+			troca.sendResponseHeaders(500, -1);
+		} finally {
+			troca.close();
+		}
+	}
+
+	/* Gera a resposta de uma requisicao OCSP.
+	 * @param requisicao Requisicao OCSP.
+	 * @return Resposta OCSP codificada (DER).
+	 * @throws Exception
+	 */
+	private byte[] responder(OCSPReq requisicao) throws Exception {
+		KeyPair chaves = signatario;
+		long agora = System.currentTimeMillis();
+		BasicOCSPRespGenerator gerador =
+			new BasicOCSPRespGenerator(chaves.getPublic());
+		for (Req req : requisicao.getRequestList()) {
+			CertificateStatus certStatus =
+				status.get(req.getCertID().getSerialNumber());
+			if (certStatus == null) {
+				certStatus = new UnknownStatus();
+			} else if (certStatus instanceof Bom) {
+				certStatus = CertificateStatus.GOOD;
+			}
+			gerador.addResponse(req.getCertID(), certStatus,
+					new Date(agora - 60 * 1000L),
+					new Date(agora + proximaAtualizacao), null);
+		}
+		BasicOCSPResp basicResp = gerador.generate("SHA256WithRSA",
+				chaves.getPrivate(), null, new Date(agora),
+				BouncyCastleProvider.PROVIDER_NAME);
+		return new OCSPRespGenerator().generate(
+				OCSPRespGenerator.SUCCESSFUL, basicResp).getEncoded();
+	}
+
+	/* Le todo o conteudo de um stream.
+	 * @param in Stream.
+	 * @return Conteudo lido.
+	 * @throws IOException
+	 */
+	private static byte[] ler(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int lidos;
+		while ((lidos = in.read(buffer)) != -1) {
+			out.write(buffer, 0, lidos);
+		}
+		return out.toByteArray();
+	}
+
+	/* Marcador do status GOOD (representado por null no BouncyCastle). */
+	private static class Bom implements CertificateStatus { }
+}
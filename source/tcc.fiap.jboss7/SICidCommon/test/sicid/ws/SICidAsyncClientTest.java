@@ -0,0 +1,196 @@
+package sicid.ws;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.xml.ws.BindingProvider;
+import javax.xml.ws.Endpoint;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import sicid.bean.CertificadoStatus;
+import sicid.util.CertificadosTeste;
+
+/**
+ * Testes do cliente assincrono do SICid ({@link SICidAsyncClient}),
+ *   contra um servico simulado local que injeta latencia nas respostas.
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+public class SICidAsyncClientTest {
+
+	/* limite de requisicoes pendentes usado nos testes */
+	private static final int MAXIMO_PENDENTES = 2;
+	/* timeouts do cliente, em ms */
+	private static final long TIMEOUT_CONEXAO  = 300;
+	private static final long TIMEOUT_RESPOSTA = 700;
+	/* latencia de uma resposta lenta, em ms */
+	private static final long LENTA = 3000;
+
+	private static SICidServiceStub servico;
+	private static Endpoint endpoint;
+	private static ExecutorService executorEndpoint;
+	private static File keyStore;
+	private static String url;
+
+	/* requisicoes submetidas pelo teste em execucao */
+	private final List<Future<?>> submetidas = new ArrayList<Future<?>>();
+
+	@BeforeClass
+	public static void iniciar() throws Exception {
+		/* lido na carga da classe do cliente */
+		System.setProperty("sicid.async.maximo",
+				String.valueOf(MAXIMO_PENDENTES));
+
+		keyStore = CertificadosTeste.gravarKeyStore(
+				File.createTempFile("sicid-async", ".jks"), "cliente", "senha");
+		ServerSocket socket = new ServerSocket(0);
+		int porta = socket.getLocalPort();
+		socket.close();
+		url = String.format("http://127.0.0.1:%d/sicid", porta);
+
+		servico = new SICidServiceStub();
+		executorEndpoint = Executors.newCachedThreadPool();
+		endpoint = Endpoint.create(servico);
+		endpoint.setExecutor(executorEndpoint);
+		endpoint.publish(url);
+	}
+
+	@AfterClass
+	public static void finalizar() {
+		endpoint.stop();
+		executorEndpoint.shutdown();
+		keyStore.delete();
+	}
+
+	@After
+	public void cancelar() {
+		for (Future<?> futuro : submetidas) {
+			futuro.cancel(true);
+		}
+	}
+
+	@Test
+	public void testLimitePendentes() throws Exception {
+		servico.setLatencia(LENTA);
+		SICidAsyncClient client = new SICidAsyncClient(getPropriedades(url));
+		for (int i = 0; i < MAXIMO_PENDENTES; i++) {
+			submetidas.add(client.validarCertificado("certificado"));
+		}
+		long inicio = System.currentTimeMillis();
+		try {
+			submetidas.add(client.validarCertificado("certificado"));
+			fail("Pending request limit not enforced");
+		} catch (Exception e) {
+			assertTrue(e.getMessage().startsWith("Too many pending requests"));
+		}
+		/* aguarda uma vaga ate' o timeout de conexao */
+		assertTrue(System.currentTimeMillis() - inicio >= TIMEOUT_CONEXAO - 50);
+	}
+
+	@Test
+	public void testTimeoutTotal() throws Exception {
+		servico.setLatencia(LENTA);
+		SICidAsyncClient client = new SICidAsyncClient(getPropriedades(url));
+		Future<CertificadoStatus> futuro = client.validarCertificado("certificado");
+		submetidas.add(futuro);
+		long inicio = System.currentTimeMillis();
+		try {
+			futuro.get();
+			fail("Total timeout not enforced");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof TimeoutException);
+		}
+		long decorrido = System.currentTimeMillis() - inicio;
+		assertTrue(decorrido >= TIMEOUT_CONEXAO + TIMEOUT_RESPOSTA - 50);
+		assertTrue(decorrido < LENTA);
+		assertTrue(futuro.isCancelled());
+	}
+
+	@Test
+	public void testTimeoutEsperaLiberaVaga() throws Exception {
+		servico.setLatencia(LENTA);
+		SICidAsyncClient client = new SICidAsyncClient(getPropriedades(url));
+		for (int i = 0; i < MAXIMO_PENDENTES; i++) {
+			submetidas.add(client.validarCertificado("certificado"));
+		}
+		try {
+			submetidas.get(0).get(100, TimeUnit.MILLISECONDS);
+			fail("Timeout not enforced");
+		} catch (TimeoutException e) {
+			assertTrue(submetidas.get(0).isCancelled());
+		}
+		/* a vaga da requisicao cancelada e' liberada imediatamente */
+		long inicio = System.currentTimeMillis();
+		submetidas.add(client.validarCertificado("certificado"));
+		assertTrue(System.currentTimeMillis() - inicio < TIMEOUT_CONEXAO);
+	}
+
+	@Test
+	public void testRestauraTimeouts() throws Exception {
+		servico.setLatencia(0);
+		/* keystore exclusivo do teste: pool de proxies proprio */
+		Properties props = getPropriedades(url);
+		File exclusivo = CertificadosTeste.gravarKeyStore(
+				File.createTempFile("sicid-async", ".jks"), "cliente", "senha");
+		props.setProperty("sicid.keyStore", exclusivo.getAbsolutePath());
+		SICidClient sincrono = new SICidClient(props);
+		Map<String, Object> context =
+			((BindingProvider) sincrono.getService()).getRequestContext();
+		context.put("com.sun.xml.ws.request.timeout", 12345);
+		sincrono.close();
+
+		SICidAsyncClient client = new SICidAsyncClient(props);
+		assertEquals(CertificadoStatus.VALID,
+				client.validarCertificado("certificado").get());
+
+		/* o mesmo proxy volta ao pool com os valores anteriores */
+		sincrono = new SICidClient(props);
+		context = ((BindingProvider) sincrono.getService()).getRequestContext();
+		try {
+			assertEquals(12345, context.get("com.sun.xml.ws.request.timeout"));
+			assertNull(context.get("com.sun.xml.ws.connect.timeout"));
+			assertNull(context.get("javax.xml.ws.client.connectionTimeout"));
+			assertNull(context.get("javax.xml.ws.client.receiveTimeout"));
+		} finally {
+			sincrono.close();
+			exclusivo.delete();
+		}
+	}
+
+	/* Retorna as opcoes de conexao com o servico simulado.
+	 * @param url URL do servico.
+	 * @return Opcoes do cliente.
+	 */
+	private static Properties getPropriedades(String url) {
+		Properties props = new Properties();
+		props.setProperty("sicid.url", url);
+		props.setProperty("sicid.namespace", "http://ws.sicid/");
+		props.setProperty("sicid.service", "SICidService");
+		props.setProperty("sicid.wsdl", url + "?wsdl");
+		props.setProperty("sicid.keyStore", keyStore.getAbsolutePath());
+		props.setProperty("sicid.storePass", "senha");
+		props.setProperty("sicid.keyAlias", "cliente");
+		props.setProperty("sicid.keyPass", "senha");
+		props.setProperty("sicid.timeout.conexao", String.valueOf(TIMEOUT_CONEXAO));
+		props.setProperty("sicid.timeout.resposta", String.valueOf(TIMEOUT_RESPOSTA));
+		return props;
+	}
+}
@@ -0,0 +1,117 @@
+package sicid.ws;
+
+import java.util.List;
+
+import javax.activation.DataHandler;
+import javax.jws.WebService;
+
+import sicid.bean.CertificadoStatus;
+import sicid.bean.CertificadoStatusCollecion;
+import sicid.bean.Cidadao;
+import sicid.bean.CidadaoCollecion;
+import sicid.bean.EventoRevogacaoCollecion;
+import sicid.bean.IdentificacaoCidadao;
+
+/**
+ * Servico SICid simulado, para os testes dos clientes: responde a
+ *   validacao de certificados (sempre VALID) apos uma latencia
+ *   configuravel. As demais operacoes retornam null.
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+@WebService(serviceName = "SICidService", portName = "SICidPort",
+	targetNamespace = "http://ws.sicid/", endpointInterface = "sicid.ws.ISICidService")
+public class SICidServiceStub implements ISICidService {
+
+	/* latencia das respostas, em ms */
+	private volatile long latencia;
+
+	/**
+	 * Define a latencia das respostas.
+	 * @param latencia Latencia, em ms.
+	 */
+	public void setLatencia(long latencia) {
+		this.latencia = latencia;
+	}
+
+	@Override
+	public CertificadoStatus validarCertificado(String content) {
+		aguardar();
+		return CertificadoStatus.VALID;
+	}
+
+	@Override
+	public CertificadoStatusCollecion validarCertificados(
+			List<String> contents) throws Exception {
+		return null;
+	}
+
+	@Override
+	public Cidadao consultarCidadao(String content) {
+		aguardar();
+		return null;
+	}
+
+	@Override
+	public Cidadao consultarCidadaoPorCpf(String cpf) {
+		return null;
+	}
+
+	@Override
+	public Cidadao consultarCidadaoPorRic(String ric) {
+		return null;
+	}
+
+	@Override
+	public IdentificacaoCidadao identificarCidadao(String content) {
+		aguardar();
+		return null;
+	}
+
+	@Override
+	public CidadaoCollecion listarCidadaos() {
+		return null;
+	}
+
+	@Override
+	public CidadaoCollecion listarCidadaosPaginado(String aposDname,
+			int tamanhoPagina) {
+		return null;
+	}
+
+	@Override
+	public CidadaoCollecion listarAlteracoesCidadaos(long aposVersao,
+			int tamanhoPagina) {
+		return null;
+	}
+
+	@Override
+	public DataHandler exportarCidadaos() throws Exception {
+		return null;
+	}
+
+	@Override
+	public CertificadoStatus notificarRevogacao(String content)
+			throws Exception {
+		return null;
+	}
+
+	@Override
+	public EventoRevogacaoCollecion listarEventosRevogacao(long aposSequencia,
+			long espera) throws Exception {
+		return null;
+	}
+
+	@Override
+	public byte[] obterPacoteValidacao(long versao) throws Exception {
+		return null;
+	}
+
+	/* Aguarda a latencia configurada. */
+	private void aguardar() {
+		try {
+			Thread.sleep(latencia);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package sicid.model;
+
+import javax.annotation.PostConstruct;
+import javax.ejb.Singleton;
+import javax.ejb.Startup;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import sicid.bean.VersaoCidadao;
+import sicid.dao.CidadaoDAO;
+
+/**
+ * Prepara, na inicializacao da aplicacao, o contador das versoes das
+ *   alteracoes de cidadaos ({@link VersaoCidadao}), atribuindo uma versao
+ *   aos cidadaos gravados antes da existencia das versoes.<br/>
+ * O ajuste e' feito antes de qualquer requisicao 'a aplicacao, e nao
+ *   onera as consultas e gravacoes de cidadaos.
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+@Singleton
+@Startup
+public class AjusteVersoes {
+
+	/* nome da unidade de persistencia configurada em persistence.xml */
+	private static final String PERSISTENCE_UNIT_NAME = "sicid";
+
+	/* EntityManager para JPA. */
+	@PersistenceContext(unitName=PERSISTENCE_UNIT_NAME)
+	private EntityManager entityManager;
+
+	/* para fazer log */
+	private static Logger logger;
+
+	/**
+	 * Cria uma nova instancia do ajuste das versoes.
+	 */
+	public AjusteVersoes() {
+		logger = LogManager.getLogger(AjusteVersoes.class);
+	}
+
+	/* prepara o contador das versoes, na transacao do container */
+	@PostConstruct
+	@TransactionAttribute(TransactionAttributeType.REQUIRED)
+	protected void init() {
+		try {
+			int cidadaos = new CidadaoDAO(entityManager).prepararVersoes();
+			if (cidadaos > 0) {
+				logger.info(String.format(
+						"Versoes atribuidas a %d cidadaos", cidadaos));
+			}
+		} catch (Exception e) {
+			logger.error("Error preparing citizen version counter", e);
+		}
+	}
+}
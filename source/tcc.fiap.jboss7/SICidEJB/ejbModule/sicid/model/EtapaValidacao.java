@@ -0,0 +1,19 @@
+package sicid.model;
+
+/**
+ * Etapas da validacao de um certificado digital, na ordem em que
+ *   sao executadas pelo {@link SICidEngine}.
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+public enum EtapaValidacao {
+	/** Decodificacao do certificado (Base64/DER). */
+	ANALISE,
+	/** Datas de validade do certificado. */
+	DATA,
+	/** Verificacao estrutural (certificado auto-assinado). */
+	ESTRUTURA,
+	/** Cadeia de certificados confiaveis. */
+	CADEIA,
+	/** Consulta de revogacao (OCSP ou CRLs). */
+	REVOGACAO;
+}
@@ -0,0 +1,205 @@
+package sicid.model;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.MapMessage;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.Topic;
+import javax.naming.InitialContext;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import sicid.bean.EventoRevogacao;
+import sicid.bean.TipoEventoRevogacao;
+
+/**
+ * Jornal dos eventos de revogacao do SICid ({@link EventoRevogacao}).<br/>
+ * Os eventos recebem numeros de sequencia crescentes (iniciados no
+ *   instante de inicializacao, de modo que nao se repetem apos um
+ *   reinicio) e os mais recentes sao mantidos em memoria, para que os
+ *   consumidores obtenham os eventos a partir do ultimo recebido
+ *   (inclusive aguardando por novos eventos: long-poll). Caso eventos
+ *   solicitados ja' tenham sido descartados, o consumidor recebe um
+ *   evento {@link TipoEventoRevogacao#RESINCRONIZAR}.<br/>
+ * Cada evento e' tambem publicado (sem garantia de entrega) em um
+ *   topico JMS, como uma MapMessage com as propriedades "sequencia",
+ *   "tipo", "data" (ms), "emissor", "serial", "fingerprint" e "url".<br/>
+ * Configuracao (system properties; tempos em ms):
+ * <ul>
+ *   <li>sicid.eventos.capacidade: numero de eventos mantidos
+ *     (padrao: 1000);</li>
+ *   <li>sicid.eventos.espera: tempo maximo de espera por novos eventos
+ *     (padrao: 30 segundos);</li>
+ *   <li>sicid.eventos.connectionFactory: nome JNDI da ConnectionFactory
+ *     JMS (padrao: "java:/ConnectionFactory");</li>
+ *   <li>sicid.eventos.topico: nome JNDI do topico JMS
+ *     (padrao: "java:/topic/sicid/revogacao").</li>
+ * </ul>
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+public class JornalRevogacao {
+
+	/* numero de eventos mantidos */
+	private static final int CAPACIDADE =
+		Math.max(1, Integer.getInteger("sicid.eventos.capacidade", 1000));
+	/* tempo maximo de espera por novos eventos */
+	private static final long ESPERA_MAXIMA =
+		Long.getLong("sicid.eventos.espera", 30 * 1000L);
+	/* nome JNDI da ConnectionFactory JMS */
+	private static final String CONNECTION_FACTORY = System.getProperty(
+			"sicid.eventos.connectionFactory", "java:/ConnectionFactory");
+	/* nome JNDI do topico JMS */
+	private static final String TOPICO = System.getProperty(
+			"sicid.eventos.topico", "java:/topic/sicid/revogacao");
+
+	/* instancia unica */
+	private static final JornalRevogacao instancia = new JornalRevogacao();
+
+	/* eventos mantidos, em ordem de sequencia */
+	private final LinkedList<EventoRevogacao> eventos =
+		new LinkedList<EventoRevogacao>();
+	/* sequencia do ultimo evento */
+	private long sequencia = System.currentTimeMillis();
+
+	/* para fazer log */
+	private static Logger logger;
+	private static boolean trace;
+
+	/* Cria o jornal de eventos. */
+	private JornalRevogacao() {
+		logger = LogManager.getLogger(JornalRevogacao.class);
+		trace = logger.isTraceEnabled();
+	}
+
+	/**
+	 * Retorna a instancia do jornal de eventos.
+	 * @return Jornal de eventos.
+	 */
+	public static JornalRevogacao getInstance() {
+		return instancia;
+	}
+
+	/**
+	 * Registra e publica um evento de revogacao.
+	 * @param tipo Tipo do evento.
+	 * @param emissor DN do emissor (ou do certificado, para uma ancora).
+	 * @param serial Numero de serie do certificado, em hexadecimal
+	 *   (pode ser null).
+	 * @param fingerprint Fingerprint do certificado (pode ser null).
+	 * @param url URL da CRL (pode ser null).
+	 * @return Evento registrado.
+	 */
+	public EventoRevogacao publicar(TipoEventoRevogacao tipo, String emissor,
+			String serial, String fingerprint, String url) {
+
+		EventoRevogacao evento = new EventoRevogacao();
+		evento.setTipo(tipo);
+		evento.setData(new Date());
+		evento.setEmissor(emissor);
+		evento.setSerial(serial);
+		evento.setFingerprint(fingerprint);
+		evento.setUrl(url);
+		synchronized (this) {
+			evento.setSequencia(++sequencia);
+			eventos.addLast(evento);
+			while (eventos.size() > CAPACIDADE) {
+				eventos.removeFirst();
+			}
+			notifyAll();
+		}
+		if (trace) {
+			logger.trace(String.format("Evento de revogacao %d: %s %s %s",
+					evento.getSequencia(), tipo, emissor,
+					(serial != null) ? serial : (url != null) ? url : ""));
+		}
+		enviar(evento);
+		return evento;
+	}
+
+	/**
+	 * Retorna os eventos posteriores a um numero de sequencia,
+	 *   aguardando por novos eventos se nao houver nenhum.
+	 * @param aposSequencia Sequencia do ultimo evento recebido
+	 *   (0 = nenhum).
+	 * @param espera Tempo maximo de espera por novos eventos, em ms
+	 *   (limitado pela configuracao; 0 = nao aguarda).
+	 * @return Lista de eventos, em ordem de sequencia (vazia se nao
+	 *   houver novos eventos). Se eventos posteriores 'a sequencia
+	 *   informada tiverem sido descartados, o primeiro evento e' do
+	 *   tipo {@link TipoEventoRevogacao#RESINCRONIZAR}.
+	 * @throws InterruptedException
+	 */
+	public synchronized List<EventoRevogacao> listar(long aposSequencia,
+			long espera) throws InterruptedException {
+
+		long limite = System.currentTimeMillis() +
+			Math.max(0, Math.min(espera, ESPERA_MAXIMA));
+		long restante;
+		while (aposSequencia == sequencia &&
+				(restante = limite - System.currentTimeMillis()) > 0) {
+			wait(restante);
+		}
+		List<EventoRevogacao> lista = new ArrayList<EventoRevogacao>();
+		long primeira = eventos.isEmpty()
+			? sequencia + 1 : eventos.getFirst().getSequencia();
+		if (aposSequencia < primeira - 1 || aposSequencia > sequencia) {
+			EventoRevogacao resincronizar = new EventoRevogacao();
+			resincronizar.setTipo(TipoEventoRevogacao.RESINCRONIZAR);
+			resincronizar.setData(new Date());
+			resincronizar.setSequencia(primeira - 1);
+			lista.add(resincronizar);
+			aposSequencia = primeira - 1;
+		}
+		for (EventoRevogacao evento : eventos) {
+			if (evento.getSequencia() > aposSequencia) {
+				lista.add(evento);
+			}
+		}
+		return lista;
+	}
+
+	/* Publica um evento no topico JMS. Falhas sao somente registradas:
+	 *   os consumidores obtem os eventos perdidos pelo jornal.
+	 * @param evento Evento de revogacao.
+	 */
+	private void enviar(EventoRevogacao evento) {
+		Connection conexao = null;
+		try {
+			InitialContext context = new InitialContext();
+			ConnectionFactory factory =
+				(ConnectionFactory) context.lookup(CONNECTION_FACTORY);
+			Topic topico = (Topic) context.lookup(TOPICO);
+			conexao = factory.createConnection();
+			Session sessao = conexao.createSession(false, Session.AUTO_ACKNOWLEDGE);
+			MessageProducer produtor = sessao.createProducer(topico);
+			MapMessage mensagem = sessao.createMapMessage();
+			mensagem.setLong("sequencia", evento.getSequencia());
+			mensagem.setString("tipo", evento.getTipo().name());
+			mensagem.setLong("data", evento.getData().getTime());
+			mensagem.setString("emissor", evento.getEmissor());
+			mensagem.setString("serial", evento.getSerial());
+			mensagem.setString("fingerprint", evento.getFingerprint());
+			mensagem.setString("url", evento.getUrl());
+			mensagem.setStringProperty("tipo", evento.getTipo().name());
+			produtor.send(mensagem);
+		} catch (Exception e) {
+			if (trace) {
+				logger.trace("Evento de revogacao nao publicado no topico JMS: " +
+						e.getMessage());
+			}
+		} finally {
+			if (conexao != null) {
+				try {
+					conexao.close();
+				} catch (Exception e) { }
+			}
+		}
+	}
+}
@@ -0,0 +1,172 @@
+package sicid.model;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Metricas das etapas de validacao de certificados: numero de
+ *   execucoes, reprovacoes e histograma de latencia de cada etapa.<br/>
+ * Os contadores sao atualizados sem bloqueio, e podem ser
+ *   consultados via JMX ({@link MetricasValidacaoMBean}).
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+public class MetricasValidacao implements MetricasValidacaoMBean {
+
+	/* nome JMX das metricas */
+	private static final String JMX_NAME =
+		"com.robsonmartins.fiap.tcc:type=Validacao,name=SICid";
+
+	/* limites superiores das faixas de latencia, em microssegundos */
+	private static final long[] FAIXAS = {
+		10, 100, 1000, 10 * 1000, 100 * 1000, 1000 * 1000, 10 * 1000 * 1000 };
+
+	/* instancia unica (compartilhada entre as instancias do EJB) */
+	private static final MetricasValidacao instancia = new MetricasValidacao();
+	static {
+		instancia.registrarMBean();
+	}
+
+	/* etapas */
+	private final EtapaValidacao[] etapas = EtapaValidacao.values();
+	/* contadores, por etapa */
+	private final AtomicLongArray execucoes = new AtomicLongArray(etapas.length);
+	private final AtomicLongArray falhas = new AtomicLongArray(etapas.length);
+	private final AtomicLongArray latenciaTotal = new AtomicLongArray(etapas.length);
+	private final AtomicLongArray latenciaMaxima = new AtomicLongArray(etapas.length);
+	/* histogramas, por etapa (FAIXAS.length + 1 faixas por etapa) */
+	private final AtomicLongArray histogramas =
+		new AtomicLongArray(etapas.length * (FAIXAS.length + 1));
+
+	/* Cria uma nova instancia das metricas. */
+	private MetricasValidacao() {
+	}
+
+	/**
+	 * Retorna a instancia unica das metricas de validacao.
+	 * @return Metricas de validacao.
+	 */
+	public static MetricasValidacao getInstance() {
+		return instancia;
+	}
+
+	/**
+	 * Registra a execucao de uma etapa de validacao.
+	 * @param etapa Etapa executada.
+	 * @param inicio Instante de inicio da etapa ({@link System#nanoTime()}).
+	 * @param falhou True se a etapa reprovou o certificado (ou falhou).
+	 * @return Instante de termino da etapa ({@link System#nanoTime()}),
+	 *   que pode ser usado como inicio da etapa seguinte.
+	 */
+	public long registrar(EtapaValidacao etapa, long inicio, boolean falhou) {
+		long fim = System.nanoTime();
+		long latencia = Math.max((fim - inicio) / 1000, 0);
+		int i = etapa.ordinal();
+		execucoes.incrementAndGet(i);
+		if (falhou) {
+			falhas.incrementAndGet(i);
+		}
+		latenciaTotal.addAndGet(i, latencia);
+		long maxima;
+		while (latencia > (maxima = latenciaMaxima.get(i)) &&
+				!latenciaMaxima.compareAndSet(i, maxima, latencia)) {
+			/* nova tentativa */
+		}
+		int faixa = 0;
+		while (faixa < FAIXAS.length && latencia > FAIXAS[faixa]) {
+			faixa++;
+		}
+		histogramas.incrementAndGet(i * (FAIXAS.length + 1) + faixa);
+		return fim;
+	}
+
+	@Override
+	public String[] getEtapas() {
+		String[] nomes = new String[etapas.length];
+		for (int i = 0; i < etapas.length; i++) {
+			nomes[i] = etapas[i].name();
+		}
+		return nomes;
+	}
+
+	@Override
+	public long[] getExecucoes() {
+		return copiar(execucoes);
+	}
+
+	@Override
+	public long[] getFalhas() {
+		return copiar(falhas);
+	}
+
+	@Override
+	public long[] getLatenciaMedia() {
+		long[] medias = new long[etapas.length];
+		for (int i = 0; i < etapas.length; i++) {
+			long n = execucoes.get(i);
+			medias[i] = (n > 0) ? latenciaTotal.get(i) / n : 0;
+		}
+		return medias;
+	}
+
+	@Override
+	public long[] getLatenciaMaxima() {
+		return copiar(latenciaMaxima);
+	}
+
+	@Override
+	public long[] getFaixas() {
+		return FAIXAS.clone();
+	}
+
+	@Override
+	public long[] getHistograma(String etapa) {
+		int i = EtapaValidacao.valueOf(etapa.trim().toUpperCase()).ordinal();
+		long[] histograma = new long[FAIXAS.length + 1];
+		for (int faixa = 0; faixa < histograma.length; faixa++) {
+			histograma[faixa] = histogramas.get(i * (FAIXAS.length + 1) + faixa);
+		}
+		return histograma;
+	}
+
+	@Override
+	public void zerar() {
+		for (int i = 0; i < etapas.length; i++) {
+			execucoes.set(i, 0);
+			falhas.set(i, 0);
+			latenciaTotal.set(i, 0);
+			latenciaMaxima.set(i, 0);
+		}
+		for (int i = 0; i < histogramas.length(); i++) {
+			histogramas.set(i, 0);
+		}
+	}
+
+	/* Retorna uma copia de um array de contadores.
+	 * @param contadores Contadores.
+	 * @return Copia dos contadores.
+	 */
+	private static long[] copiar(AtomicLongArray contadores) {
+		long[] copia = new long[contadores.length()];
+		for (int i = 0; i < copia.length; i++) {
+			copia[i] = contadores.get(i);
+		}
+		return copia;
+	}
+
+	/* Publica as metricas no servidor JMX da plataforma. Caso ja' existam
+	 *   metricas publicadas (ex: apos um redeploy), estas sao substituidas.
+	 */
+	private void registrarMBean() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objName = new ObjectName(JMX_NAME);
+			if (server.isRegistered(objName)) {
+				server.unregisterMBean(objName);
+			}
+			server.registerMBean(this, objName);
+		} catch (Exception e) { /* JMX indisponivel: ignora */ }
+	}
+}
@@ -0,0 +1,60 @@
+package sicid.model;
+
+/**
+ * Interface de gerenciamento (JMX) das {@link MetricasValidacao}.<br/>
+ * Os arrays retornados sao indexados pelas etapas de validacao, na
+ *   ordem de {@link #getEtapas()}.
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+public interface MetricasValidacaoMBean {
+
+	/**
+	 * Retorna os nomes das etapas de validacao.
+	 * @return Nomes das etapas.
+	 */
+	public String[] getEtapas();
+
+	/**
+	 * Retorna o numero de execucoes de cada etapa.
+	 * @return Numero de execucoes, por etapa.
+	 */
+	public long[] getExecucoes();
+
+	/**
+	 * Retorna o numero de reprovacoes (ou erros) de cada etapa.
+	 * @return Numero de reprovacoes, por etapa.
+	 */
+	public long[] getFalhas();
+
+	/**
+	 * Retorna a latencia media de cada etapa, em microssegundos.
+	 * @return Latencia media, por etapa.
+	 */
+	public long[] getLatenciaMedia();
+
+	/**
+	 * Retorna a latencia maxima de cada etapa, em microssegundos.
+	 * @return Latencia maxima, por etapa.
+	 */
+	public long[] getLatenciaMaxima();
+
+	/**
+	 * Retorna os limites superiores das faixas dos histogramas de
+	 *   latencia, em microssegundos (a ultima faixa nao tem limite).
+	 * @return Limites das faixas.
+	 */
+	public long[] getFaixas();
+
+	/**
+	 * Retorna o histograma de latencia de uma etapa.
+	 * @param etapa Nome da etapa.
+	 * @return Numero de execucoes em cada faixa de {@link #getFaixas()},
+	 *   mais a faixa sem limite.
+	 */
+	public long[] getHistograma(String etapa);
+
+	/**
+	 * Zera todos os contadores.
+	 */
+	public void zerar();
+}
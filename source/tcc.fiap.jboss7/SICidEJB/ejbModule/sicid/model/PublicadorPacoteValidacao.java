@@ -0,0 +1,201 @@
+package sicid.model;
+
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import javax.security.auth.x500.X500Principal;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import sicid.util.CacheCRL;
+import sicid.util.IndiceCRL;
+import sicid.util.IndiceConfianca;
+import sicid.util.PacoteValidacao;
+
+import com.robsonmartins.fiap.tcc.util.CertificadoAssinador;
+import com.robsonmartins.fiap.tcc.util.FabricaClienteWS;
+import com.robsonmartins.fiap.tcc.util.JBossUtil;
+
+/**
+ * Publicador dos pacotes de validacao offline do SICid
+ *   ({@link PacoteValidacao}).<br/>
+ * Uma nova versao do pacote e' gerada (no maximo uma vez por intervalo)
+ *   somente quando os certificados confiaveis ou as CRLs dos seus
+ *   emissores mantidas no {@link CacheCRL} sao alterados. As versoes
+ *   mais recentes sao mantidas, de modo que um cliente em uma delas
+ *   recebe somente as diferencas; os pacotes assinados sao gerados uma
+ *   unica vez por versao base.<br/>
+ * Configuracao (system properties; tempos em ms):
+ * <ul>
+ *   <li>sicid.pacote.versoes: numero de versoes mantidas (padrao: 10);</li>
+ *   <li>sicid.pacote.intervalo: intervalo minimo entre versoes
+ *     (padrao: 60 segundos);</li>
+ *   <li>sicid.pacote.config: arquivo properties com o keystore do
+ *     SICid (padrao: "sicid.properties").</li>
+ * </ul>
+ * Opcoes do arquivo properties:
+ * <ul>
+ * <li><em>sicid.pacote.keyStore</em>: Nome do arquivo de keystore contendo
+ *   o par de chaves usado para assinar os pacotes.
+ * <li><em>sicid.pacote.storeType</em>: Tipo do arquivo de keystore (default: "JKS").
+ * <li><em>sicid.pacote.storePass</em>: Senha do arquivo de keystore.
+ * <li><em>sicid.pacote.keyAlias</em>: Alias do par de chaves dentro do keystore.
+ * <li><em>sicid.pacote.keyPass</em>: Senha do par de chaves dentro do keystore.
+ * </ul>
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+public class PublicadorPacoteValidacao {
+
+	/* nomes das opcoes no arquivo properties */
+	private final static String OPTION_KEYSTORE      = "sicid.pacote.keyStore" ;
+	private final static String OPTION_KEYSTORE_TYPE = "sicid.pacote.storeType";
+	private final static String OPTION_KEYSTORE_PASS = "sicid.pacote.storePass";
+	private final static String OPTION_KEY_ALIAS     = "sicid.pacote.keyAlias" ;
+	private final static String OPTION_KEY_PASS      = "sicid.pacote.keyPass"  ;
+
+	/* numero de versoes mantidas */
+	private static final int VERSOES =
+		Math.max(1, Integer.getInteger("sicid.pacote.versoes", 10));
+	/* intervalo minimo entre versoes */
+	private static final long INTERVALO =
+		Long.getLong("sicid.pacote.intervalo", 60 * 1000L);
+	/* arquivo properties com o keystore */
+	private static final String ARQUIVO_CONFIG =
+		System.getProperty("sicid.pacote.config", "sicid.properties");
+
+	/* versoes mantidas (a mais recente primeiro) */
+	private final LinkedList<PacoteValidacao> versoes =
+		new LinkedList<PacoteValidacao>();
+	/* pacotes assinados da versao mais recente, por versao base */
+	private final Map<Long, byte[]> gerados = new HashMap<Long, byte[]>();
+	/* instante da ultima verificacao de alteracoes */
+	private long verificadoEm;
+
+	/* para fazer log */
+	private static Logger logger;
+	private static boolean trace;
+
+	/**
+	 * Cria uma nova instancia do publicador.
+	 */
+	public PublicadorPacoteValidacao() {
+		logger = LogManager.getLogger(PublicadorPacoteValidacao.class);
+		trace = logger.isTraceEnabled();
+	}
+
+	/**
+	 * Retorna o pacote de validacao mais recente para um cliente.
+	 * @param versao Versao do pacote do cliente (0 = nenhuma).
+	 * @param indice Indice atual dos certificados confiaveis.
+	 * @return Pacote assinado: somente as diferencas se a versao do
+	 *   cliente ainda for mantida, ou o pacote completo. Retorna um
+	 *   pacote vazio se o cliente ja' estiver na versao mais recente.
+	 * @throws Exception
+	 */
+	public synchronized byte[] obter(long versao,
+			IndiceConfianca indice) throws Exception {
+
+		PacoteValidacao atual = atualizar(indice);
+		if (versao == atual.getVersao()) {
+			return new byte[0];
+		}
+		PacoteValidacao base = null;
+		for (PacoteValidacao anterior : versoes) {
+			if (anterior.getVersao() == versao) {
+				base = anterior;
+				break;
+			}
+		}
+		Long chave = (base != null) ? base.getVersao() : 0L;
+		byte[] pacote = gerados.get(chave);
+		if (pacote == null) {
+			Properties props = FabricaClienteWS.getPropriedades(
+					ARQUIVO_CONFIG, this.getClass().getClassLoader());
+			String keyStoreFile = getKeyStoreFileFullPath(
+					props.getProperty(OPTION_KEYSTORE));
+			String keyStoreType = props.getProperty(OPTION_KEYSTORE_TYPE, "JKS");
+			String keyAlias = props.getProperty(OPTION_KEY_ALIAS);
+			String keyStorePass = props.getProperty(OPTION_KEYSTORE_PASS);
+			KeyPair keys = CertificadoAssinador.getKeyPairFromFile(keyStoreFile,
+					keyStoreType, keyAlias, keyStorePass,
+					props.getProperty(OPTION_KEY_PASS, keyStorePass));
+			X509Certificate signatario = CertificadoAssinador.getCertFromFile(
+					keyStoreFile, keyStoreType, keyAlias, keyStorePass);
+			if (keys == null || signatario == null) {
+				throw new Exception("Validation bundle signing key not found");
+			}
+			PrivateKey chavePrivada = keys.getPrivate();
+			pacote = atual.gerar(base, chavePrivada, signatario);
+			gerados.put(chave, pacote);
+			if (trace) {
+				logger.trace(String.format(
+						"Pacote de validacao gerado: versao %d, base %d (%d bytes)",
+						atual.getVersao(), chave, pacote.length));
+			}
+		}
+		return pacote;
+	}
+
+	/* Gera uma nova versao do pacote, se o intervalo minimo tiver
+	 *   decorrido e o conteudo tiver sido alterado.
+	 * @param indice Indice atual dos certificados confiaveis.
+	 * @return Versao mais recente do pacote.
+	 */
+	private PacoteValidacao atualizar(IndiceConfianca indice) {
+		PacoteValidacao atual = versoes.peekFirst();
+		long agora = System.currentTimeMillis();
+		if (atual != null && agora < verificadoEm + INTERVALO) {
+			return atual;
+		}
+		verificadoEm = agora;
+		List<X509Certificate> ancoras = indice.getCertificados();
+		Map<String, IndiceCRL> crls = new TreeMap<String, IndiceCRL>();
+		for (Map.Entry<String, IndiceCRL> crl : CacheCRL.listar().entrySet()) {
+			X500Principal emissor = crl.getValue().getIssuerX500Principal();
+			for (X509Certificate ancora : ancoras) {
+				if (ancora.getSubjectX500Principal().equals(emissor)) {
+					crls.put(crl.getKey(), crl.getValue());
+					break;
+				}
+			}
+		}
+		if (atual != null && atual.isEquivalente(ancoras, crls)) {
+			return atual;
+		}
+		/* a versao e' o instante de geracao, sempre crescente */
+		long versao = (atual != null) ? Math.max(agora, atual.getVersao() + 1) : agora;
+		atual = new PacoteValidacao(versao, ancoras, crls);
+		versoes.addFirst(atual);
+		while (versoes.size() > VERSOES) {
+			versoes.removeLast();
+		}
+		gerados.clear();
+		if (trace) {
+			logger.trace(String.format(
+					"Nova versao do pacote de validacao: %d (%d certificados, %d CRLs)",
+					versao, ancoras.size(), crls.size()));
+		}
+		return atual;
+	}
+
+	/* Retorna o caminho completo do arquivo de KeyStore.
+	 * @param keyStoreFile Nome do arquivo de KeyStore.
+	 * @return Caminho completo do arquivo, ou o proprio nome se nao encontrado.
+	 */
+	private String getKeyStoreFileFullPath(String keyStoreFile) {
+		String ksFileRealPath = keyStoreFile;
+		try {
+			/* tenta obter path absoluto do arquivo no JBoss */
+			ksFileRealPath = JBossUtil.getJBossAbsFilePath(keyStoreFile);
+		} catch (Exception e) { }
+		return ksFileRealPath;
+	}
+}
@@ -1,17 +1,46 @@
 package sicid.model;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.security.MessageDigest;
 import java.security.cert.X509Certificate;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
 import javax.annotation.security.PermitAll;
+import javax.ejb.SessionContext;
 import javax.ejb.Stateless;
+import javax.ejb.TransactionAttribute;
+import javax.ejb.TransactionAttributeType;
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
 
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
@@ -22,17 +51,28 @@ import sicid.bean.Cidadao;
 import sicid.bean.ConsumidorConfiavel;
 import sicid.bean.DocumentoRG;
 import sicid.bean.DocumentoTitulo;
+import sicid.bean.ErroCadastroLote;
+import sicid.bean.EventoRevogacao;
+import sicid.bean.IdentificacaoCidadao;
+import sicid.bean.ResultadoCadastroLote;
+import sicid.bean.TipoEventoRevogacao;
 import sicid.bean.Usuario;
 import sicid.dao.CertificadoConfiavelDAO;
 import sicid.dao.CidadaoDAO;
 import sicid.dao.ConsumidorConfiavelDAO;
 import sicid.dao.UsuarioDAO;
+import sicid.util.CacheCRL;
 import sicid.util.CertificadoIcpBrasilParser;
 import sicid.util.CertificadoIcpBrasilParser.AtributoIcpBrasil;
 import sicid.util.CertificadoValidador;
+import sicid.util.IndiceCRL;
+import sicid.util.IndiceConfianca;
+import sicid.ws.FluxoCidadaos;
 import sun.misc.BASE64Encoder;
 
+import com.robsonmartins.fiap.tcc.util.CacheExpiravel;
 import com.robsonmartins.fiap.tcc.util.CertificadoSerializador;
+import com.robsonmartins.fiap.tcc.util.EstatisticasCache;
 
 /**
  * Motor do Servico de Identificacao do Cidadao (SICid).<br/>
@@ -46,6 +86,110 @@ public class SICidEngine implements ISICidEngine {
 	/* nome da unidade de persistencia configurada em persistence.xml */
 	private static final String PERSISTENCE_UNIT_NAME = "sicid";
 	
+	/* numero maximo de resultados de validacao mantidos em cache */
+	private static final int CACHE_VALIDACAO_CAPACIDADE =
+		Integer.getInteger("sicid.cache.validacao.capacidade", 10000);
+	/* tempo maximo de vida de um resultado de validacao em cache, em ms */
+	private static final long CACHE_VALIDACAO_TTL =
+		Long.getLong("sicid.cache.validacao.ttl", 5 * 60 * 1000L);
+	/* tempo maximo de vida de um resultado VALID obtido sem que nenhuma
+	   fonte de revogacao (OCSP ou CRL) tenha respondido, em ms */
+	private static final long CACHE_VALIDACAO_RETENTATIVA =
+		Long.getLong("sicid.cache.validacao.retentativa", 60 * 1000L);
+	
+	/* cache de resultados de validacao, pela geracao do indice de
+	   certificados confiaveis usado e pelo fingerprint SHA-256 do
+	   certificado (compartilhado entre as instancias do EJB) */
+	private static final CacheExpiravel<String, CertificadoStatus> cacheValidacao =
+		new CacheExpiravel<String, CertificadoStatus>(
+				CACHE_VALIDACAO_CAPACIDADE, CACHE_VALIDACAO_TTL);
+	static {
+		cacheValidacao.registrarMBean("SICidValidacao");
+	}
+	
+	/* jornal dos eventos de revogacao */
+	private static final JornalRevogacao jornal = JornalRevogacao.getInstance();
+	static {
+		CacheCRL.adicionarOuvinte(new CacheCRL.OuvinteCRL() {
+			@Override
+			public void crlReemitida(String crlURL, IndiceCRL crl) {
+				jornal.publicar(TipoEventoRevogacao.CRL_REEMITIDA,
+						crl.getIssuerX500Principal().getName(), null, null, crlURL);
+			}
+		});
+	}
+	
+	/* numero maximo de cidadaos em uma pagina da listagem */
+	private static final int PAGINA_CIDADAOS_MAXIMO =
+		Math.max(1, Integer.getInteger("sicid.cidadaos.pagina.maximo", 1000));
+	/* numero de linhas lidas do banco de dados a cada leitura do cursor
+	   na exportacao de cidadaos */
+	private static final int EXPORTACAO_LOTE =
+		Math.max(1, Integer.getInteger("sicid.cidadaos.exportacao.lote", 100));
+	
+	/* numero de registros gravados em cada transacao do cadastro em lote */
+	private static final int CADASTRO_BLOCO =
+		Math.max(1, Integer.getInteger("sicid.cadastro.bloco", 500));
+	/* tamanho maximo de um certificado no cadastro em lote, em bytes */
+	private static final int CADASTRO_TAMANHO_MAXIMO =
+		Integer.getInteger("sicid.cadastro.tamanho.maximo", 100000);
+	/* numero maximo de erros mantidos no relatorio do cadastro em lote */
+	private static final int CADASTRO_ERROS_MAXIMO =
+		Integer.getInteger("sicid.cadastro.erros.maximo", 1000);
+	
+	/* numero maximo de notificacoes de revogacao aceitas de um mesmo
+	   emissor em uma janela */
+	private static final int REVOGACAO_LIMITE =
+		Integer.getInteger("sicid.revogacao.limite", 60);
+	/* duracao da janela do limite de notificacoes de revogacao, em ms */
+	private static final long REVOGACAO_JANELA =
+		Long.getLong("sicid.revogacao.janela", 60 * 1000L);
+	/* notificacoes de revogacao na janela atual, por emissor confiavel
+	   (DN); limitado ao numero de emissores cadastrados */
+	private static final ConcurrentMap<String, JanelaNotificacao> notificacoes =
+		new ConcurrentHashMap<String, JanelaNotificacao>();
+	
+	/* numero maximo de certificados em um lote de validacao */
+	private static final int LOTE_VALIDACAO_MAXIMO =
+		Integer.getInteger("sicid.lote.maximo", 1000);
+	/* numero de threads para validacao de lotes */
+	private static final int LOTE_VALIDACAO_THREADS =
+		Integer.getInteger("sicid.lote.threads",
+				Runtime.getRuntime().availableProcessors());
+	
+	/* executor (limitado) das validacoes de lotes; quando a fila esta'
+	   cheia, a validacao e' executada pela propria thread chamadora */
+	private static final ExecutorService executorValidacao =
+		new ThreadPoolExecutor(LOTE_VALIDACAO_THREADS, LOTE_VALIDACAO_THREADS,
+			60, TimeUnit.SECONDS,
+			new LinkedBlockingQueue<Runnable>(LOTE_VALIDACAO_MAXIMO),
+			new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "sicid-validacao");
+					t.setDaemon(true);
+					return t;
+				}
+			},
+			new ThreadPoolExecutor.CallerRunsPolicy());
+	
+	/* metricas das etapas de validacao */
+	private static final MetricasValidacao metricas =
+		MetricasValidacao.getInstance();
+	
+	/* geracao do cadastro de certificados confiaveis (incrementada apos a
+	   confirmacao de cada transacao que o altera) */
+	private static final AtomicLong geracaoConfianca = new AtomicLong();
+	/* indice dos certificados confiaveis, com a geracao do cadastro a partir
+	   da qual foi construido (substituido integralmente, por compare-and-set;
+	   null = ainda nao construido) */
+	private static final AtomicReference<Confianca> confianca =
+		new AtomicReference<Confianca>();
+	
+	/* publicador dos pacotes de validacao offline */
+	private static final PublicadorPacoteValidacao publicadorPacote =
+		new PublicadorPacoteValidacao();
+	
 	/* DAO de certificados confiaveis */
 	private CertificadoConfiavelDAO certConfiavelDAO;
 	/* DAO de consumidores confiaveis */
@@ -58,6 +202,14 @@ public class SICidEngine implements ISICidEngine {
 	/* EntityManager para JPA. */
 	@PersistenceContext(unitName=PERSISTENCE_UNIT_NAME)
 	private EntityManager entityManager;
+	
+	/* contexto do EJB (para chamadas com nova transacao) */
+	@Resource
+	private SessionContext sessionContext;
+	
+	/* registro de sincronizacao das transacoes (acoes apos a confirmacao) */
+	@Resource
+	private TransactionSynchronizationRegistry transacoes;
 
 	/* para fazer log */
 	private static Logger logger;
@@ -78,53 +230,36 @@ public class SICidEngine implements ISICidEngine {
 		consConfiavelDAO = new ConsumidorConfiavelDAO(entityManager);
 		usuarioDAO = new UsuarioDAO(entityManager);
 		cidadaoDAO = new CidadaoDAO(entityManager);
+		EstatisticasCache.registrarMBean(entityManager, PERSISTENCE_UNIT_NAME);
 	}
 
 	@Override
 	public CertificadoStatus validarCertificado(String content) {
+		return validarCertificado(content, getConfianca(), null);
+	}
+
+	/* Valida um certificado. Nao acessa o estado do EJB (EntityManager,
+	 *   contexto de seguranca ou transacao), podendo ser executado pelas
+	 *   threads do executor das validacoes de lotes.
+	 * @param content Conteudo de um certificado, codificado em Base64.
+	 * @param confianca Indice dos certificados confiaveis e sua geracao.
+	 * @param emissor Emissor confiavel ja' resolvido (ou null).
+	 * @return Status do certificado (UNKNOWN em caso de erro).
+	 */
+	private static CertificadoStatus validarCertificado(String content,
+			Confianca confianca, X509Certificate emissor) {
 		X509Certificate x509Cert = null;
 		try {
 			if (trace) {
 				logger.trace("Validando um certificado");
 			}
-			if (content == null) { 
-				throw new NullPointerException("Certificado inv\u00E1lido (nulo).");
-			}
-			x509Cert = CertificadoSerializador.strToCert(content);
+			x509Cert = analisarCertificado(content);
 			if (trace) {
 				logger.trace(String.format("Certificado (DN): %s", 
 						x509Cert.getSubjectX500Principal().getName()));
 			}
 			
-			if (CertificadoValidador.isSelfSigned(x509Cert)) {
-				if (trace) {
-					logger.trace("Certificado INVALIDO: auto-assinado");
-				}
-				return CertificadoStatus.INVALID;
-			}
-			if (!CertificadoValidador.isValidByDate(x509Cert)) {
-				if (trace) {
-					logger.trace("Certificado EXPIRADO");
-				}
-				return CertificadoStatus.EXPIRED;
-			}
-			if (!CertificadoValidador.isValidKeyChain(x509Cert, 
-					listarX509CertConfiaveis())) {
-				if (trace) {
-					logger.trace("Certificado INVALIDO: cadeia nao-confiavel");
-				}
-				return CertificadoStatus.INVALID;
-			}
-			if (CertificadoValidador.isRevoked(x509Cert)) {
-				if (trace) {
-					logger.trace("Certificado REVOGADO");
-				}
-				return CertificadoStatus.REVOKED;
-			}
-			if (trace) {
-				logger.trace("Certificado VALIDO");
-			}
-			return CertificadoStatus.VALID;
+			return validarCertificado(x509Cert, confianca, emissor);
 			
 		} catch (Exception e) {
 			if (trace) {
@@ -134,11 +269,67 @@ public class SICidEngine implements ISICidEngine {
 		}
 	}
 
+	@Override
+	public List<CertificadoStatus> validarCertificados(List<String> contents)
+			throws Exception {
+		
+		if (contents == null) { 
+			throw new NullPointerException("Lista de certificados inv\u00E1lida (nula).");
+		}
+		if (contents.size() > LOTE_VALIDACAO_MAXIMO) {
+			throw new Exception(String.format(
+					"Lote excede o limite de %d certificados.", LOTE_VALIDACAO_MAXIMO));
+		}
+		if (trace) {
+			logger.trace(String.format(
+					"Validando um lote de %d certificados", contents.size()));
+		}
+		/* o indice e' construido na thread do EJB (usa o EntityManager),
+		   antes de despachar as validacoes, que nao acessam o EJB */
+		final Confianca confianca = getConfianca();
+		final Map<String, X509Certificate> emissores =
+			consultarOCSP(contents, confianca);
+		
+		/* certificados repetidos sao validados uma unica vez */
+		Map<String, Future<CertificadoStatus>> tarefas =
+			new HashMap<String, Future<CertificadoStatus>>();
+		List<Future<CertificadoStatus>> resultados =
+			new ArrayList<Future<CertificadoStatus>>(contents.size());
+		for (final String content : contents) {
+			Future<CertificadoStatus> tarefa = tarefas.get(content);
+			if (tarefa == null) {
+				tarefa = executorValidacao.submit(new Callable<CertificadoStatus>() {
+					@Override
+					public CertificadoStatus call() {
+						return validarCertificado(content, confianca,
+								emissores.get(content));
+					}
+				});
+				tarefas.put(content, tarefa);
+			}
+			resultados.add(tarefa);
+		}
+		
+		List<CertificadoStatus> status =
+			new ArrayList<CertificadoStatus>(contents.size());
+		for (Future<CertificadoStatus> resultado : resultados) {
+			try {
+				status.add(resultado.get());
+			} catch (ExecutionException e) {
+				status.add(CertificadoStatus.UNKNOWN);
+			}
+		}
+		if (trace) {
+			logger.trace(String.format("Lote de %d certificados validado "
+					+ "(%d distintos)", contents.size(), tarefas.size()));
+		}
+		return status;
+	}
+
 	@Override
 	public Cidadao consultarCidadao(String content) {
 		X509Certificate x509Cert = null;
 		Cidadao cidadao = null;
-		Map<AtributoIcpBrasil, String> props = null;
 		try {
 			if (trace) {
 				logger.trace("Consultando informacoes de um cidadao");
@@ -153,24 +344,11 @@ public class SICidEngine implements ISICidEngine {
 						x509Cert.getSubjectX500Principal().getName()));
 			}
 			
-			cidadao = 
-				cidadaoDAO.localizar(
-					x509Cert.getSubjectX500Principal().getName());
+			cidadao = localizarCidadao(x509Cert);
 			if (cidadao == null) {
 				throw new Exception("Cidad\u00E3o n\u00E3o encontrado.");
 			}
 			
-			props =
-				CertificadoIcpBrasilParser.getAtributosIcpBrasil(x509Cert);
-			if (props != null) {
-				cidadao.setEmail(props.get(AtributoIcpBrasil.EMAIL));
-				cidadao.setLogin(props.get(AtributoIcpBrasil.LOGIN));
-			}
-			if (trace) {
-				logger.trace(String.format(
-						"Obtidas informacoes do cidadao '%s'", cidadao.getNome()));
-			}
-			
 		} catch (Exception e) {	
 			if (trace) {
 				logger.error("Erro ao obter informacoes do cidadao", e);
@@ -180,11 +358,145 @@ public class SICidEngine implements ISICidEngine {
 		return cidadao;
 	}
 
+	@Override
+	public IdentificacaoCidadao identificarCidadao(String content) {
+		X509Certificate x509Cert = null;
+		IdentificacaoCidadao identificacao = new IdentificacaoCidadao();
+		try {
+			if (trace) {
+				logger.trace("Identificando um cidadao");
+			}
+			x509Cert = analisarCertificado(content);
+			if (trace) {
+				logger.trace(String.format("Certificado (DN): %s", 
+						x509Cert.getSubjectX500Principal().getName()));
+			}
+			
+			identificacao.setStatus(
+					validarCertificado(x509Cert, getConfianca(), null));
+			if (identificacao.getStatus() == CertificadoStatus.VALID) {
+				identificacao.setCidadao(localizarCidadao(x509Cert));
+			}
+			
+		} catch (Exception e) {
+			if (trace) {
+				logger.error("Erro ao identificar cidadao", e);
+			}
+			identificacao.setStatus(CertificadoStatus.UNKNOWN);
+			identificacao.setCidadao(null);
+		}
+		return identificacao;
+	}
+
+	@Override
+	public Cidadao consultarCidadaoPorCpf(String cpf) {
+		return cidadaoDAO.localizarPorCpf(cpf);
+	}
+
+	@Override
+	public Cidadao consultarCidadaoPorRic(String ric) {
+		return cidadaoDAO.localizarPorRic(ric);
+	}
+
 	@Override
 	public List<Cidadao> listarCidadaos() {
 		return cidadaoDAO.listar();
 	}
 
+	@Override
+	public List<Cidadao> listarCidadaos(String aposDname, int tamanhoPagina) {
+		int tamanho = (tamanhoPagina > 0)
+			? Math.min(tamanhoPagina, PAGINA_CIDADAOS_MAXIMO) : PAGINA_CIDADAOS_MAXIMO;
+		return cidadaoDAO.listarPagina(aposDname, tamanho);
+	}
+
+	@Override
+	public List<Cidadao> listarAlteracoesCidadaos(long aposVersao, int tamanhoPagina) {
+		int tamanho = (tamanhoPagina > 0)
+			? Math.min(tamanhoPagina, PAGINA_CIDADAOS_MAXIMO) : PAGINA_CIDADAOS_MAXIMO;
+		return cidadaoDAO.listarAlteracoes(aposVersao, tamanho);
+	}
+
+	@Override
+	public long exportarCidadaos(OutputStream out) throws Exception {
+		try {
+			final FluxoCidadaos.Escritor escritor = new FluxoCidadaos.Escritor(out);
+			cidadaoDAO.percorrer(new CidadaoDAO.Processador() {
+				@Override
+				public void processar(Cidadao cidadao) throws Exception {
+					escritor.escrever(cidadao);
+				}
+			}, EXPORTACAO_LOTE);
+			escritor.close();
+			if (trace) {
+				logger.trace(String.format("%d cidadaos exportados",
+						escritor.getQuantidade()));
+			}
+			return escritor.getQuantidade();
+		} catch (Exception e) {
+			logger.error("Error exporting citizens: " + e.getMessage());
+			Exception ex = new Exception("Error exporting citizens");
+			ex.initCause(e);
+			throw ex;
+		}
+	}
+
+	@Override
+	public byte[] obterPacoteValidacao(long versao) throws Exception {
+		try {
+			return publicadorPacote.obter(versao, getIndiceConfianca());
+		} catch (Exception e) {
+			logger.error("Error generating validation bundle: " + e.getMessage());
+			Exception ex = new Exception("Error generating validation bundle");
+			ex.initCause(e);
+			throw ex;
+		}
+	}
+
+	@Override
+	public CertificadoStatus notificarRevogacao(String content) throws Exception {
+		
+		try {
+			X509Certificate x509Cert = CertificadoSerializador.strToCert(content);
+			if (trace) {
+				logger.trace(String.format("Notificacao de revogacao: %s",
+						x509Cert.getSubjectX500Principal().getName()));
+			}
+			/* somente certificados de emissores confiaveis, e dentro do
+			   limite do emissor: cada notificacao descarta as informacoes
+			   em cache e forca novas consultas OCSP/CRL */
+			Confianca confianca = getConfianca();
+			X509Certificate emissor =
+				confianca.indice.getEmissorConfiavel(x509Cert);
+			if (emissor == null) {
+				throw new Exception("Certificate issuer is not trusted");
+			}
+			registrarNotificacao(emissor.getSubjectX500Principal().getName());
+			/* a notificacao somente descarta as informacoes em cache: o
+			   evento e' publicado se o emissor confirmar a revogacao */
+			CertificadoValidador.invalidarRevogacao(x509Cert);
+			cacheValidacao.remover(getChaveCache(confianca, x509Cert));
+			CertificadoStatus status =
+				validarCertificado(x509Cert, confianca, emissor);
+			if (status == CertificadoStatus.REVOKED) {
+				publicarEvento(TipoEventoRevogacao.CERTIFICADO_REVOGADO, x509Cert);
+			}
+			return status;
+			
+		} catch (Exception e) {
+			logger.error("Error processing revocation notice: " + e.getMessage());
+			Exception ex = new Exception("Error processing revocation notice");
+			ex.initCause(e);
+			throw ex;
+		}
+	}
+
+	@Override
+	public List<EventoRevogacao> listarEventosRevogacao(long aposSequencia,
+			long espera) throws Exception {
+		return jornal.listar(aposSequencia, espera);
+	}
+
 	@Override
 	public List<CertificadoConfiavel> listarCertConfiaveis() {
 		return certConfiavelDAO.listar();
@@ -206,6 +518,9 @@ public class SICidEngine implements ISICidEngine {
 			trustedCert.setX509Certificate(x509cert);
 		
 			certConfiavelDAO.inserir(trustedCert);
+			/* o conjunto de certificados confiaveis mudou */
+			registrarAlteracaoConfianca();
+			publicarEvento(TipoEventoRevogacao.ANCORA_ADICIONADA, x509cert);
 			
 			if (trace) {
 				logger.trace("Certificado confiavel adicionado com sucesso");
@@ -226,7 +541,14 @@ public class SICidEngine implements ISICidEngine {
 			if (trace) {
 				logger.trace("Removendo certificado confiavel");
 			}
+			CertificadoConfiavel trustedCert = certConfiavelDAO.localizar(id);
 			certConfiavelDAO.excluir(id);
+			/* o conjunto de certificados confiaveis mudou */
+			registrarAlteracaoConfianca();
+			if (trustedCert != null && trustedCert.getX509Certificate() != null) {
+				publicarEvento(TipoEventoRevogacao.ANCORA_REMOVIDA,
+						trustedCert.getX509Certificate());
+			}
 
 			if (trace) {
 				logger.trace("Certificado confiavel removido com sucesso");
@@ -247,6 +569,20 @@ public class SICidEngine implements ISICidEngine {
 
 	@Override
 	public void adicionarAppConfiavel(InputStream istream) throws Exception {
+		adicionarApp(istream, SICID_ACCESS_ROLE);
+	}
+
+	@Override
+	public void adicionarAppIcp(InputStream istream) throws Exception {
+		adicionarApp(istream, SICID_ICP_ROLE);
+	}
+
+	/* Adiciona uma aplicacao confiavel ao cadastro.
+	 * @param istream Objeto InputStream (certificado da aplicacao).
+	 * @param role Role da aplicacao.
+	 * @throws Exception
+	 */
+	private void adicionarApp(InputStream istream, String role) throws Exception {
 		
 		try {
 			if (trace) {
@@ -270,7 +606,7 @@ public class SICidEngine implements ISICidEngine {
 			if (name == null) { name = dname; }
 
 			trustedApp.setName(name);
-			trustedApp.setRole(SICID_ACCESS_ROLE);
+			trustedApp.setRole(role);
 			
 			consConfiavelDAO.inserir(trustedApp);
 			
@@ -438,14 +774,189 @@ public class SICidEngine implements ISICidEngine {
 		}
 	}
 	
+	@Override
+	@TransactionAttribute(TransactionAttributeType.NOT_SUPPORTED)
+	public ResultadoCadastroLote adicionarCidadaos(InputStream istream,
+			OuvinteCadastroLote ouvinte) throws Exception {
+		
+		if (istream == null) {
+			throw new NullPointerException("Arquivo inv\u00E1lido (nulo).");
+		}
+		if (trace) {
+			logger.trace("Cadastrando cidadaos em lote");
+		}
+		ResultadoCadastroLote resultado =
+			new ResultadoCadastroLote(CADASTRO_ERROS_MAXIMO);
+		/* cada bloco e' gravado em uma nova transacao, pelo proxy do EJB */
+		ISICidEngine engine = sessionContext.getBusinessObject(ISICidEngine.class);
+		List<RegistroLote> bloco = new ArrayList<RegistroLote>(CADASTRO_BLOCO);
+		try {
+			ZipInputStream zip = new ZipInputStream(istream);
+			long numero = 0;
+			ZipEntry entrada;
+			while ((entrada = zip.getNextEntry()) != null) {
+				if (entrada.isDirectory()) { continue; }
+				RegistroLote registro = new RegistroLote(++numero, entrada.getName());
+				try {
+					registro.conteudo = lerRegistro(zip);
+				} catch (Exception e) {
+					registro.erro = e.getLocalizedMessage();
+				}
+				bloco.add(registro);
+				if (bloco.size() >= CADASTRO_BLOCO) {
+					processarBloco(engine, bloco, resultado, ouvinte);
+					bloco.clear();
+				}
+			}
+			if (!bloco.isEmpty()) {
+				processarBloco(engine, bloco, resultado, ouvinte);
+			}
+		} catch (Exception e) {
+			logger.error("Error reading citizens archive: " + e.getMessage());
+			Exception ex = new Exception("Erro ao ler o arquivo de certificados.");
+			ex.initCause(e);
+			throw ex;
+		}
+		logger.info("Cadastro de cidadaos em lote: " + resultado);
+		return resultado;
+	}
+
+	@Override
+	@TransactionAttribute(TransactionAttributeType.REQUIRES_NEW)
+	public void adicionarBlocoCidadaos(List<Cidadao> cidadaos) throws Exception {
+		cidadaoDAO.inserirLote(cidadaos);
+	}
+
+	/* Processa um bloco do cadastro em lote: analisa os certificados em
+	 *   paralelo e grava os cidadaos em uma unica transacao. Se a gravacao
+	 *   do bloco falhar, os cidadaos sao gravados um a um, de modo a
+	 *   identificar os registros com erro.
+	 * @param engine Proxy do EJB.
+	 * @param bloco Registros do bloco.
+	 * @param resultado Resultado do cadastro.
+	 * @param ouvinte Ouvinte do progresso (pode ser null).
+	 */
+	private void processarBloco(ISICidEngine engine, List<RegistroLote> bloco,
+			ResultadoCadastroLote resultado, OuvinteCadastroLote ouvinte) {
+		
+		List<Future<Cidadao>> tarefas = new ArrayList<Future<Cidadao>>(bloco.size());
+		for (final RegistroLote registro : bloco) {
+			if (registro.erro != null) {
+				tarefas.add(null);
+				continue;
+			}
+			tarefas.add(executorValidacao.submit(new Callable<Cidadao>() {
+				@Override
+				public Cidadao call() throws Exception {
+					return analisarRegistro(registro.conteudo);
+				}
+			}));
+		}
+		Map<String, RegistroLote> validos = new HashMap<String, RegistroLote>();
+		List<Cidadao> cidadaos = new ArrayList<Cidadao>(bloco.size());
+		for (int i = 0; i < bloco.size(); i++) {
+			RegistroLote registro = bloco.get(i);
+			registro.conteudo = null;
+			if (registro.erro == null) {
+				try {
+					registro.cidadao = tarefas.get(i).get();
+					if (validos.containsKey(registro.cidadao.getDname())) {
+						registro.erro = "Cidad\u00E3o repetido no arquivo.";
+					}
+				} catch (ExecutionException e) {
+					registro.erro = e.getCause().getLocalizedMessage();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					registro.erro = "Cadastro interrompido.";
+				}
+			}
+			if (registro.erro != null) {
+				resultado.adicionarErro(new ErroCadastroLote(
+						registro.numero, registro.arquivo, registro.erro));
+			} else {
+				validos.put(registro.cidadao.getDname(), registro);
+				cidadaos.add(registro.cidadao);
+			}
+		}
+		try {
+			engine.adicionarBlocoCidadaos(cidadaos);
+			for (int i = 0; i < cidadaos.size(); i++) {
+				resultado.adicionarCadastrado();
+			}
+		} catch (Exception e) {
+			if (trace) {
+				logger.trace("Erro ao gravar bloco de cidadaos; gravando um a um", e);
+			}
+			for (Cidadao cidadao : cidadaos) {
+				try {
+					engine.adicionarBlocoCidadaos(Collections.singletonList(cidadao));
+					resultado.adicionarCadastrado();
+				} catch (Exception ex) {
+					RegistroLote registro = validos.get(cidadao.getDname());
+					resultado.adicionarErro(new ErroCadastroLote(registro.numero,
+							registro.arquivo, getMensagemCausa(ex)));
+				}
+			}
+		}
+		if (ouvinte != null) {
+			ouvinte.progresso(resultado);
+		}
+	}
+
+	/* Analisa o certificado de um registro do cadastro em lote.
+	 * @param conteudo Conteudo do certificado (DER ou PEM).
+	 * @return Objeto com as informacoes do cidadao.
+	 * @throws Exception Se o certificado for invalido ou nao contiver
+	 *   os dados obrigatorios do cidadao.
+	 */
+	private static Cidadao analisarRegistro(byte[] conteudo) throws Exception {
+		X509Certificate cert = CertificadoSerializador.loadCertFromStream(
+				new ByteArrayInputStream(conteudo));
+		Cidadao cidadao = extrairCidadao(cert);
+		if (cidadao.getDname() == null || cidadao.getNome() == null ||
+				cidadao.getDataNascimento() == null) {
+			throw new Exception("Certificado sem os dados obrigat\u00F3rios " +
+					"do cidad\u00E3o (nome e data de nascimento).");
+		}
+		return cidadao;
+	}
+
+	/* Le o conteudo da entrada corrente de um arquivo ZIP.
+	 * @param zip Arquivo ZIP, posicionado na entrada.
+	 * @return Conteudo da entrada.
+	 * @throws Exception Se a entrada exceder o tamanho maximo.
+	 */
+	private static byte[] lerRegistro(ZipInputStream zip) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[4096];
+		int lidos;
+		while ((lidos = zip.read(buffer)) > 0) {
+			out.write(buffer, 0, lidos);
+			if (out.size() > CADASTRO_TAMANHO_MAXIMO) {
+				throw new Exception(String.format(
+						"Arquivo excede o tamanho m\u00E1ximo (%d bytes).",
+						CADASTRO_TAMANHO_MAXIMO));
+			}
+		}
+		return out.toByteArray();
+	}
+
+	/* Retorna a mensagem da causa original de uma excecao.
+	 * @param e Excecao.
+	 * @return Mensagem da causa original.
+	 */
+	private static String getMensagemCausa(Throwable e) {
+		Throwable causa = e;
+		while (causa.getCause() != null && causa.getCause() != causa) {
+			causa = causa.getCause();
+		}
+		return (causa.getLocalizedMessage() != null)
+			? causa.getLocalizedMessage() : causa.toString();
+	}
+
 	@Override
 	public Cidadao getCidadaoInfoFromCert(String content) throws Exception {
 		X509Certificate cert = null;
-		Map<AtributoIcpBrasil, String> props = null;
-
-		Cidadao cidadao = new Cidadao();
-		DocumentoRG rg = new DocumentoRG();
-		DocumentoTitulo titulo = new DocumentoTitulo();
 		
 		if (trace) {
 			logger.trace("Obtendo informacoes de um certificado");
@@ -463,6 +974,21 @@ public class SICidEngine implements ISICidEngine {
 			logger.trace(String.format("Certificado (DN): %s", 
 					cert.getSubjectX500Principal().getName()));
 		}
+		return extrairCidadao(cert);
+	}
+
+	/* Obtem as informacoes de um cidadao contidas em seu certificado.
+	 * @param cert Objeto que representa o certificado.
+	 * @return Objeto com as informacoes do cidadao.
+	 * @throws Exception
+	 */
+	private static Cidadao extrairCidadao(X509Certificate cert) throws Exception {
+		Map<AtributoIcpBrasil, String> props = null;
+
+		Cidadao cidadao = new Cidadao();
+		DocumentoRG rg = new DocumentoRG();
+		DocumentoTitulo titulo = new DocumentoTitulo();
+		
 		try {
 			props = CertificadoIcpBrasilParser.getAtributosIcpBrasil(cert);
 		} catch (Exception e) {
@@ -511,6 +1037,351 @@ public class SICidEngine implements ISICidEngine {
 		return cidadao;
 	}
 
+	/* Decodifica um certificado (etapa de analise da validacao).
+	 * @param content Conteudo de um certificado, codificado em Base64.
+	 * @return Objeto que representa o certificado.
+	 * @throws Exception
+	 */
+	private static X509Certificate analisarCertificado(String content)
+			throws Exception {
+		long inicio = System.nanoTime();
+		boolean falhou = true;
+		try {
+			if (content == null) { 
+				throw new NullPointerException("Certificado inv\u00E1lido (nulo).");
+			}
+			X509Certificate x509Cert = CertificadoSerializador.strToCert(content);
+			falhou = false;
+			return x509Cert;
+		} finally {
+			metricas.registrar(EtapaValidacao.ANALISE, inicio, falhou);
+		}
+	}
+
+	/* Valida um certificado, consultando o cache de resultados de validacao.
+	 *   Os resultados sao indexados pela geracao do indice usado: um
+	 *   resultado obtido com um indice anterior nunca e' reaproveitado.
+	 * @param x509Cert Objeto que representa o certificado a ser validado.
+	 * @param confianca Indice dos certificados confiaveis e sua geracao.
+	 * @param emissor Emissor confiavel ja' resolvido (ou null).
+	 * @return Status do certificado.
+	 * @throws Exception
+	 */
+	private static CertificadoStatus validarCertificado(
+			X509Certificate x509Cert, Confianca confianca,
+			X509Certificate emissor) throws Exception {
+		
+		String chave = getChaveCache(confianca, x509Cert);
+		CertificadoStatus status = cacheValidacao.obter(chave);
+		if (status != null) {
+			if (trace) {
+				logger.trace(String.format(
+						"Certificado %s (resultado em cache)", status));
+			}
+			return status;
+		}
+		
+		List<Date> validades = new ArrayList<Date>();
+		status = validarCertificado(x509Cert, confianca.indice, emissor,
+				validades);
+		cacheValidacao.inserir(chave, status, 
+				getExpiracaoCache(x509Cert, status, validades));
+		return status;
+	}
+
+	/* Publica um evento de revogacao referente a um certificado.
+	 * @param tipo Tipo do evento.
+	 * @param x509Cert Certificado revogado, ou ancora adicionada/removida.
+	 */
+	private void publicarEvento(TipoEventoRevogacao tipo,
+			X509Certificate x509Cert) {
+		try {
+			boolean ancora = (tipo != TipoEventoRevogacao.CERTIFICADO_REVOGADO);
+			jornal.publicar(tipo, ancora
+					? x509Cert.getSubjectX500Principal().getName()
+					: x509Cert.getIssuerX500Principal().getName(),
+				x509Cert.getSerialNumber().toString(16),
+				CertificadoSerializador.getFingerprint(x509Cert), null);
+		} catch (Exception e) {
+			logger.error("Error publishing revocation event: " + e.getMessage());
+		}
+	}
+
+	/* Consulta antecipadamente, por OCSP, o status de revogacao dos
+	 *   certificados de um lote ainda ausentes do cache de validacao,
+	 *   agrupando-os por emissor: cada respondedor recebe uma unica
+	 *   requisicao, e as validacoes seguintes usam as respostas em cache.
+	 * @param contents Lista de certificados, codificados em Base64.
+	 * @param confianca Indice dos certificados confiaveis e sua geracao.
+	 * @return Emissores confiaveis resolvidos, por certificado (para que
+	 *   as validacoes nao verifiquem novamente as assinaturas).
+	 */
+	private Map<String, X509Certificate> consultarOCSP(List<String> contents,
+			Confianca confianca) {
+		
+		Map<String, X509Certificate> emissores =
+			new HashMap<String, X509Certificate>();
+		Map<X509Certificate, List<X509Certificate>> porEmissor =
+			new HashMap<X509Certificate, List<X509Certificate>>();
+		for (String content : new HashSet<String>(contents)) {
+			try {
+				X509Certificate x509Cert = CertificadoSerializador.strToCert(content);
+				if (cacheValidacao.obter(getChaveCache(confianca, x509Cert)) != null) {
+					continue;
+				}
+				X509Certificate emissor =
+					confianca.indice.getEmissorConfiavel(x509Cert);
+				if (emissor == null) { continue; }
+				emissores.put(content, emissor);
+				List<X509Certificate> lote = porEmissor.get(emissor);
+				if (lote == null) {
+					lote = new ArrayList<X509Certificate>();
+					porEmissor.put(emissor, lote);
+				}
+				lote.add(x509Cert);
+			} catch (Exception e) { /* certificado invalido */ }
+		}
+		for (Map.Entry<X509Certificate, List<X509Certificate>> lote :
+				porEmissor.entrySet()) {
+			if (lote.getValue().size() > 1) {
+				CertificadoValidador.consultarOCSP(lote.getValue(), lote.getKey());
+			}
+		}
+		return emissores;
+	}
+
+	/* Localiza um cidadao no cadastro, pelo DN do seu certificado, e
+	 *   complementa os seus dados com as informacoes do certificado.
+	 * @param x509Cert Objeto que representa o certificado do cidadao.
+	 * @return Dados cadastrais do cidadao, ou null se nao encontrado.
+	 * @throws Exception
+	 */
+	private Cidadao localizarCidadao(X509Certificate x509Cert) throws Exception {
+		
+		Cidadao cidadao = 
+			cidadaoDAO.localizar(
+				x509Cert.getSubjectX500Principal().getName());
+		if (cidadao == null) {
+			return null;
+		}
+		
+		Map<AtributoIcpBrasil, String> props =
+			CertificadoIcpBrasilParser.getAtributosIcpBrasil(x509Cert);
+		if (props != null) {
+			cidadao.setEmail(props.get(AtributoIcpBrasil.EMAIL));
+			cidadao.setLogin(props.get(AtributoIcpBrasil.LOGIN));
+		}
+		if (trace) {
+			logger.trace(String.format(
+					"Obtidas informacoes do cidadao '%s'", cidadao.getNome()));
+		}
+		return cidadao;
+	}
+
+	/* Valida um certificado, executando as etapas de validacao em ordem
+	 *   crescente de custo: datas de validade, verificacao estrutural
+	 *   (auto-assinado), cadeia de certificados confiaveis e revogacao
+	 *   (consulta de rede). A primeira etapa que reprovar o certificado
+	 *   encerra a validacao, exceto a de datas: um certificado expirado
+	 *   ainda passa pela verificacao estrutural, que tem precedencia
+	 *   (auto-assinado e expirado = INVALID). O emissor e' resolvido (com
+	 *   a verificacao da assinatura do certificado) uma unica vez, na etapa
+	 *   de cadeia, e reaproveitado na etapa de revogacao.
+	 * @param x509Cert Objeto que representa o certificado a ser validado.
+	 * @param indice Indice dos certificados confiaveis.
+	 * @param emissor Emissor confiavel ja' resolvido, ou null para
+	 *   resolve-lo a partir do indice.
+	 * @param validades Lista onde serao adicionadas as datas de validade
+	 *   das informacoes de revogacao consultadas (OCSP ou CRLs).
+	 * @return Status do certificado.
+	 * @throws Exception
+	 */
+	private static CertificadoStatus validarCertificado(
+			X509Certificate x509Cert, IndiceConfianca indice,
+			X509Certificate emissor, List<Date> validades) throws Exception {
+		
+		long inicio = System.nanoTime();
+		boolean expirado = !CertificadoValidador.isValidByDate(x509Cert);
+		inicio = metricas.registrar(EtapaValidacao.DATA, inicio, expirado);
+		
+		boolean autoAssinado = CertificadoValidador.isSelfSigned(x509Cert);
+		inicio = metricas.registrar(EtapaValidacao.ESTRUTURA, inicio, autoAssinado);
+		if (autoAssinado) {
+			if (trace) {
+				logger.trace("Certificado INVALIDO: auto-assinado");
+			}
+			return CertificadoStatus.INVALID;
+		}
+		if (expirado) {
+			if (trace) {
+				logger.trace("Certificado EXPIRADO");
+			}
+			return CertificadoStatus.EXPIRED;
+		}
+		
+		boolean confiavel = false;
+		try {
+			if (emissor == null) {
+				emissor = indice.getEmissorConfiavel(x509Cert);
+			}
+			confiavel = (emissor != null) || indice.isEmpty();
+		} finally {
+			inicio = metricas.registrar(EtapaValidacao.CADEIA, inicio, !confiavel);
+		}
+		if (!confiavel) {
+			if (trace) {
+				logger.trace("Certificado INVALIDO: cadeia nao-confiavel");
+			}
+			return CertificadoStatus.INVALID;
+		}
+		
+		boolean revogado = true;
+		try {
+			revogado = CertificadoValidador.isRevoked(x509Cert, emissor, validades);
+		} finally {
+			metricas.registrar(EtapaValidacao.REVOGACAO, inicio, revogado);
+		}
+		if (revogado) {
+			if (trace) {
+				logger.trace("Certificado REVOGADO");
+			}
+			return CertificadoStatus.REVOKED;
+		}
+		if (trace) {
+			logger.trace("Certificado VALIDO");
+		}
+		return CertificadoStatus.VALID;
+	}
+
+	/* Retorna a chave de um certificado no cache de resultados de validacao.
+	 * @param confianca Indice dos certificados confiaveis e sua geracao.
+	 * @param x509Cert Objeto que representa o certificado.
+	 * @return Chave do cache (geracao e fingerprint do certificado).
+	 * @throws Exception
+	 */
+	private static String getChaveCache(Confianca confianca,
+			X509Certificate x509Cert) throws Exception {
+		return confianca.geracao + ":" +
+			CertificadoSerializador.getFingerprint(x509Cert);
+	}
+
+	/* Calcula o instante de expiracao do resultado de uma validacao no
+	 *   cache. Um resultado VALID nao pode sobreviver 'a expiracao do
+	 *   certificado, nem 'a proxima atualizacao (nextUpdate) das
+	 *   respostas OCSP ou CRLs consultadas. Se nenhuma fonte de revogacao
+	 *   respondeu (ex: CRL inacessivel), o resultado e' mantido somente
+	 *   ate' a proxima tentativa (CACHE_VALIDACAO_RETENTATIVA).
+	 * @param x509Cert Objeto que representa o certificado validado.
+	 * @param status Status do certificado.
+	 * @param validades Validades das informacoes de revogacao consultadas.
+	 * @return Instante de expiracao, em ms.
+	 */
+	private static long getExpiracaoCache(X509Certificate x509Cert,
+			CertificadoStatus status, List<Date> validades) {
+		
+		long expiraEm = System.currentTimeMillis() + CACHE_VALIDACAO_TTL;
+		if (status == CertificadoStatus.VALID) {
+			expiraEm = Math.min(expiraEm, x509Cert.getNotAfter().getTime());
+			if (validades.isEmpty()) {
+				expiraEm = Math.min(expiraEm,
+						System.currentTimeMillis() + CACHE_VALIDACAO_RETENTATIVA);
+			}
+			for (Date validade : validades) {
+				expiraEm = Math.min(expiraEm, validade.getTime());
+			}
+		}
+		return expiraEm;
+	}
+
+	/* Retorna o indice dos certificados confiaveis, construindo-o a partir
+	 *   do cadastro se necessario.
+	 * @return Indice dos certificados confiaveis.
+	 */
+	private IndiceConfianca getIndiceConfianca() {
+		return getConfianca().indice;
+	}
+
+	/* Retorna o indice dos certificados confiaveis e a sua geracao,
+	 *   reconstruindo-o se o cadastro tiver sido alterado (alteracao
+	 *   confirmada) desde a sua construcao.
+	 * @return Indice dos certificados confiaveis, com a sua geracao.
+	 */
+	private Confianca getConfianca() {
+		long geracao = geracaoConfianca.get();
+		Confianca atual = confianca.get();
+		if (atual != null && atual.geracao >= geracao) {
+			return atual;
+		}
+		return reconstruirIndiceConfianca(geracao);
+	}
+
+	/* Constroi um novo indice dos certificados confiaveis a partir do
+	 *   cadastro (dados confirmados) e o publica atomicamente, exceto se
+	 *   um indice de geracao igual ou posterior ja' tiver sido publicado.
+	 * @param geracao Geracao do cadastro, obtida antes da sua leitura.
+	 * @return Indice publicado, com a sua geracao.
+	 */
+	private Confianca reconstruirIndiceConfianca(long geracao) {
+		if (trace) {
+			logger.trace("Construindo indice de certificados confiaveis");
+		}
+		Confianca atual = confianca.get();
+		Confianca nova = new Confianca(new IndiceConfianca(
+				listarX509CertConfiaveis(),
+				(atual != null) ? atual.indice : null), geracao);
+		while (true) {
+			atual = confianca.get();
+			if (atual != null && atual.geracao >= geracao) {
+				return atual;
+			}
+			if (confianca.compareAndSet(atual, nova)) {
+				return nova;
+			}
+		}
+	}
+
+	/* Registra uma notificacao de revogacao de um emissor, na janela
+	 *   atual do emissor (iniciando uma nova janela se a atual expirou).
+	 * @param emissor DN do emissor confiavel.
+	 * @throws Exception Se o limite de notificacoes do emissor na janela
+	 *   for excedido.
+	 */
+	private static void registrarNotificacao(String emissor) throws Exception {
+		JanelaNotificacao janela = notificacoes.get(emissor);
+		if (janela == null) {
+			JanelaNotificacao nova = new JanelaNotificacao();
+			janela = notificacoes.putIfAbsent(emissor, nova);
+			if (janela == null) {
+				janela = nova;
+			}
+		}
+		if (!janela.registrar()) {
+			throw new Exception(String.format(
+					"Revocation notice rate limit exceeded for issuer: %s", emissor));
+		}
+	}
+
+	/* Registra uma alteracao do cadastro de certificados confiaveis na
+	 *   transacao corrente. Somente apos a confirmacao da transacao a
+	 *   geracao do cadastro e' incrementada, o indice e' reconstruido
+	 *   (na proxima consulta) a partir dos dados confirmados, e os
+	 *   resultados de validacao em cache (obtidos com o indice anterior)
+	 *   sao descartados; se a transacao for desfeita, nada e' alterado.
+	 */
+	private void registrarAlteracaoConfianca() {
+		transacoes.registerInterposedSynchronization(new Synchronization() {
+			@Override
+			public void beforeCompletion() { }
+			@Override
+			public void afterCompletion(int status) {
+				if (status == Status.STATUS_COMMITTED) {
+					geracaoConfianca.incrementAndGet();
+					cacheValidacao.limpar();
+				}
+			}
+		});
+	}
+
 	/* Retorna uma lista de objetos {@link X509Certificate}, que
 	 *   representam os certificados confiaveis cadastrados.
 	 * @return Lista de certificados confiaveis, como objetos
@@ -528,4 +1399,51 @@ public class SICidEngine implements ISICidEngine {
 		}
 		return trustedX509Certs;
 	}
+
+	/* Indice dos certificados confiaveis e a geracao do cadastro a partir
+	   da qual foi construido. */
+	private static class Confianca {
+		private final IndiceConfianca indice;
+		private final long geracao;
+		private Confianca(IndiceConfianca indice, long geracao) {
+			this.indice = indice;
+			this.geracao = geracao;
+		}
+	}
+
+	/* Janela do limite de notificacoes de revogacao de um emissor. */
+	private static class JanelaNotificacao {
+		private long inicio;
+		private int quantidade;
+		/* Registra uma notificacao.
+		 * @return False se o limite da janela foi excedido.
+		 */
+		private synchronized boolean registrar() {
+			long agora = System.currentTimeMillis();
+			if (agora - inicio >= REVOGACAO_JANELA) {
+				inicio = agora;
+				quantidade = 0;
+			}
+			return ++quantidade <= REVOGACAO_LIMITE;
+		}
+	}
+
+	/* Registro (certificado) de um cadastro em lote. */
+	private static class RegistroLote {
+		/* numero do registro (a partir de 1) */
+		private final long numero;
+		/* nome do arquivo do registro */
+		private final String arquivo;
+		/* conteudo do certificado (descartado apos a analise) */
+		private byte[] conteudo;
+		/* informacoes do cidadao */
+		private Cidadao cidadao;
+		/* mensagem de erro (null = sem erro) */
+		private String erro;
+		
+		public RegistroLote(long numero, String arquivo) {
+			this.numero = numero;
+			this.arquivo = arquivo;
+		}
+	}
 }
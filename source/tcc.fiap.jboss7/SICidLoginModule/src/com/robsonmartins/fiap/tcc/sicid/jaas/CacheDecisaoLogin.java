@@ -0,0 +1,353 @@
+package com.robsonmartins.fiap.tcc.sicid.jaas;
+
+import java.security.Principal;
+import java.security.acl.Group;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jboss.security.SimpleGroup;
+import org.jboss.security.SimplePrincipal;
+
+import sicid.bean.EventoRevogacao;
+import sicid.ws.AssinanteRevogacao;
+import sicid.ws.OuvinteRevogacao;
+import sun.misc.BASE64Decoder;
+
+import com.robsonmartins.fiap.tcc.util.CacheExpiravel;
+import com.robsonmartins.fiap.tcc.util.CertificadoSerializador;
+
+/**
+ * Cache de decisoes de login dos LoginModules do SICid.<br/>
+ * Cada decisao e' indexada pelo par (fingerprint do certificado,
+ *   digest da assinatura), de modo que somente a mesma credencial
+ *   reaproveita uma decisao anterior. Logins aceitos armazenam o nome
+ *   de usuario e os grupos de roles resolvidos, ate' o tempo de vida
+ *   configurado (limitado a' expiracao do certificado); assinaturas
+ *   rejeitadas sao armazenadas por um tempo de vida proprio.<br/>
+ * Opcionalmente, o cache assina os eventos de revogacao do SICid
+ *   ({@link AssinanteRevogacao}): as decisoes afetadas por um evento sao
+ *   descartadas e, enquanto o assinante estiver conectado, os logins
+ *   aceitos sao mantidos por um tempo de vida maior.
+ *
+ * <p>
+ * Opcoes do LoginModule:
+ * <ul>
+ * <li><em>cache.disable</em>: Desabilita o cache de decisoes de login.
+ * <li><em>cache.size</em>: Numero maximo de decisoes armazenadas
+ *   (default: 1000).
+ * <li><em>cache.ttl</em>: Tempo de vida de um login aceito, em ms
+ *   (default: 60000).
+ * <li><em>cache.negativeTtl</em>: Tempo de vida de uma assinatura
+ *   rejeitada, em ms (default: 30000).
+ * <li><em>cache.events</em>: Assina os eventos de revogacao do SICid,
+ *   usando a configuracao do cliente definida em <em>sicid.clientProps</em>
+ *   (default: false).
+ * <li><em>cache.eventsTtl</em>: Tempo de vida de um login aceito enquanto
+ *   os eventos de revogacao estiverem sendo recebidos, em ms
+ *   (default: 600000).
+ * </ul>
+ * <p>
+ *
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+public class CacheDecisaoLogin implements OuvinteRevogacao {
+
+	/* nomes das opcoes do cache no arquivo login-config.xml */
+	private final static String OPTION_CACHE_DISABLE      = "cache.disable"    ;
+	private final static String OPTION_CACHE_SIZE         = "cache.size"       ;
+	private final static String OPTION_CACHE_TTL          = "cache.ttl"        ;
+	private final static String OPTION_CACHE_NEGATIVE_TTL = "cache.negativeTtl";
+	private final static String OPTION_CACHE_EVENTS       = "cache.events"     ;
+	private final static String OPTION_CACHE_EVENTS_TTL   = "cache.eventsTtl"  ;
+
+	/* opcao com o arquivo de configuracao do cliente SICid */
+	private final static String OPTION_SICID_CLIENT_PROPS = "sicid.clientProps";
+
+	/* opcao com o nome do security domain, definida pelo JBoss */
+	private final static String OPTION_SECURITY_DOMAIN =
+		"jboss.security.security_domain";
+
+	/* valores padrao das opcoes */
+	private final static int  DEFAULT_CACHE_SIZE         = 1000;
+	private final static long DEFAULT_CACHE_TTL          = 60 * 1000L;
+	private final static long DEFAULT_CACHE_NEGATIVE_TTL = 30 * 1000L;
+	private final static long DEFAULT_CACHE_EVENTS_TTL   = 10 * 60 * 1000L;
+
+	/* caches, por configuracao do LoginModule */
+	private static final ConcurrentMap<String, CacheDecisaoLogin> caches =
+		new ConcurrentHashMap<String, CacheDecisaoLogin>();
+
+	/* decisoes armazenadas */
+	private final CacheExpiravel<String, DecisaoLogin> decisoes;
+	/* tempo de vida de um login aceito, em ms */
+	private final long ttl;
+	/* tempo de vida de uma assinatura rejeitada, em ms */
+	private final long ttlNegativo;
+	/* tempo de vida de um login aceito com os eventos assinados, em ms */
+	private final long ttlEventos;
+	/* assinante dos eventos de revogacao (null = nao assinado) */
+	private volatile AssinanteRevogacao assinante;
+
+	/* Cria uma nova instancia do cache.
+	 * @param capacidade Numero maximo de decisoes.
+	 * @param ttl Tempo de vida de um login aceito, em ms.
+	 * @param ttlNegativo Tempo de vida de uma assinatura rejeitada, em ms.
+	 * @param ttlEventos Tempo de vida de um login aceito com os eventos
+	 *   de revogacao assinados, em ms.
+	 */
+	private CacheDecisaoLogin(int capacidade, long ttl, long ttlNegativo,
+			long ttlEventos) {
+		this.decisoes = new CacheExpiravel<String, DecisaoLogin>(capacidade,
+				Math.max(Math.max(ttl, ttlNegativo), ttlEventos));
+		this.ttl = ttl;
+		this.ttlNegativo = ttlNegativo;
+		this.ttlEventos = ttlEventos;
+	}
+
+	/**
+	 * Retorna o cache de decisoes de uma configuracao de LoginModule.
+	 *   LoginModules com as mesmas opcoes compartilham o mesmo cache.
+	 * @param modulo Classe do LoginModule.
+	 * @param options Opcoes do LoginModule.
+	 * @return Cache de decisoes, ou null se o cache estiver desabilitado.
+	 */
+	public static CacheDecisaoLogin getInstance(Class<?> modulo,
+			Map<String, ?> options) {
+
+		if ("true".equalsIgnoreCase((String) options.get(OPTION_CACHE_DISABLE))) {
+			return null;
+		}
+		String configuracao = modulo.getName() +
+			new TreeMap<String, Object>(options).toString();
+		CacheDecisaoLogin cache = caches.get(configuracao);
+		if (cache == null) {
+			int capacidade = (int) getOpcao(options,
+					OPTION_CACHE_SIZE, DEFAULT_CACHE_SIZE);
+			long ttl = getOpcao(options,
+					OPTION_CACHE_TTL, DEFAULT_CACHE_TTL);
+			long ttlNegativo = getOpcao(options,
+					OPTION_CACHE_NEGATIVE_TTL, DEFAULT_CACHE_NEGATIVE_TTL);
+			String clientProps = (String) options.get(OPTION_SICID_CLIENT_PROPS);
+			boolean eventos = clientProps != null &&
+				"true".equalsIgnoreCase((String) options.get(OPTION_CACHE_EVENTS));
+			long ttlEventos = eventos ? getOpcao(options,
+					OPTION_CACHE_EVENTS_TTL, DEFAULT_CACHE_EVENTS_TTL) : ttl;
+			CacheDecisaoLogin novo =
+				new CacheDecisaoLogin(capacidade, ttl, ttlNegativo, ttlEventos);
+			cache = caches.putIfAbsent(configuracao, novo);
+			if (cache == null) {
+				cache = novo;
+				Object domain = options.get(OPTION_SECURITY_DOMAIN);
+				cache.decisoes.registrarMBean(String.format("%s-%s",
+						modulo.getSimpleName(),
+						(domain != null) ? domain : Integer.toHexString(
+								configuracao.hashCode())));
+				if (eventos) {
+					try {
+						cache.assinante = AssinanteRevogacao.getInstance(clientProps);
+						cache.assinante.adicionarOuvinte(cache);
+					} catch (Exception e) {
+						/* sem eventos: usa o tempo de vida padrao */
+						cache.assinante = null;
+					}
+				}
+			}
+		}
+		return cache;
+	}
+
+	/**
+	 * Retorna a chave de uma credencial: fingerprint do certificado
+	 *   e digest da assinatura.
+	 * @param cert Certificado apresentado no login.
+	 * @param signed Assinatura do certificado, codificada em Base64.
+	 * @return Chave da credencial.
+	 * @throws Exception
+	 */
+	public static String getChave(X509Certificate cert,
+			String signed) throws Exception {
+		byte[] sigBuffer = new BASE64Decoder().decodeBuffer(signed);
+		return CertificadoSerializador.getFingerprint(cert) + ":" +
+			CertificadoSerializador.getFingerprint(sigBuffer);
+	}
+
+	/**
+	 * Obtem a decisao de login armazenada para uma credencial.
+	 * @param chave Chave da credencial.
+	 * @return Decisao armazenada, ou null se nao existir ou estiver expirada.
+	 */
+	public DecisaoLogin obter(String chave) {
+		DecisaoLogin decisao = decisoes.obter(chave);
+		/* login aceito com os eventos assinados: vale somente pelo tempo
+		   de vida padrao se os eventos deixaram de ser recebidos */
+		if (decisao != null && decisao.isAceito() && ttlEventos > ttl &&
+				System.currentTimeMillis() - decisao.criadoEm > ttl &&
+				!isAssinado()) {
+			decisoes.remover(chave);
+			return null;
+		}
+		return decisao;
+	}
+
+	/**
+	 * Armazena um login aceito.
+	 * @param chave Chave da credencial.
+	 * @param cert Certificado apresentado no login.
+	 * @param username Nome de usuario resolvido.
+	 * @param roles Grupos de roles resolvidos.
+	 */
+	public void aceitar(String chave, X509Certificate cert,
+			String username, Group[] roles) {
+		long expiraEm = Math.min(System.currentTimeMillis() +
+				(isAssinado() ? ttlEventos : ttl), cert.getNotAfter().getTime());
+		decisoes.inserir(chave, new DecisaoLogin(username, roles), expiraEm);
+	}
+
+	/**
+	 * Armazena uma assinatura rejeitada.
+	 * @param chave Chave da credencial.
+	 */
+	public void rejeitar(String chave) {
+		decisoes.inserir(chave, new DecisaoLogin(null, null),
+				System.currentTimeMillis() + ttlNegativo);
+	}
+
+	/**
+	 * Remove todas as decisoes armazenadas.
+	 */
+	public void limpar() {
+		decisoes.limpar();
+	}
+
+	/**
+	 * Descarta as decisoes afetadas por um evento de revogacao: as do
+	 *   certificado revogado, ou todas as decisoes, se o conjunto de
+	 *   certificados confiaveis ou uma CRL foi alterada.
+	 * @param evento Evento de revogacao.
+	 */
+	@Override
+	public void eventoRecebido(EventoRevogacao evento) {
+		switch (evento.getTipo()) {
+			case CERTIFICADO_REVOGADO:
+				if (evento.getFingerprint() != null) {
+					String prefixo = evento.getFingerprint() + ":";
+					for (String chave : decisoes.getChaves()) {
+						if (chave.startsWith(prefixo)) {
+							decisoes.remover(chave);
+						}
+					}
+					break;
+				}
+				limpar();
+				break;
+			case ANCORA_ADICIONADA:
+				/* nenhum login aceito deixa de ser valido */
+				break;
+			default:
+				limpar();
+				break;
+		}
+	}
+
+	/* Indica se os eventos de revogacao estao sendo recebidos.
+	 * @return True se o assinante estiver conectado.
+	 */
+	private boolean isAssinado() {
+		AssinanteRevogacao atual = assinante;
+		return atual != null && atual.isConectado();
+	}
+
+	/* Retorna o valor numerico de uma opcao do LoginModule.
+	 * @param options Opcoes do LoginModule.
+	 * @param option Nome da opcao.
+	 * @param padrao Valor padrao.
+	 * @return Valor da opcao, ou o valor padrao se ausente ou invalida.
+	 */
+	private static long getOpcao(Map<String, ?> options,
+			String option, long padrao) {
+		Object valor = options.get(option);
+		if (valor == null) { return padrao; }
+		try {
+			long numero = Long.parseLong(valor.toString().trim());
+			return (numero > 0) ? numero : padrao;
+		} catch (NumberFormatException e) {
+			return padrao;
+		}
+	}
+
+	/**
+	 * Decisao de login armazenada no cache.
+	 */
+	public static class DecisaoLogin {
+
+		/* nome de usuario (null = assinatura rejeitada) */
+		private final String username;
+		/* instante da decisao */
+		private final long criadoEm = System.currentTimeMillis();
+		/* roles, por nome de grupo */
+		private final Map<String, List<String>> grupos;
+
+		/* Cria uma nova decisao.
+		 * @param username Nome de usuario, ou null se rejeitada.
+		 * @param roles Grupos de roles.
+		 */
+		private DecisaoLogin(String username, Group[] roles) {
+			this.username = username;
+			Map<String, List<String>> mapa =
+				new LinkedHashMap<String, List<String>>();
+			if (roles != null) {
+				for (Group group : roles) {
+					List<String> membros = new ArrayList<String>();
+					Enumeration<? extends Principal> members = group.members();
+					while (members.hasMoreElements()) {
+						membros.add(members.nextElement().getName());
+					}
+					mapa.put(group.getName(),
+							Collections.unmodifiableList(membros));
+				}
+			}
+			this.grupos = Collections.unmodifiableMap(mapa);
+		}
+
+		/**
+		 * Indica se o login foi aceito.
+		 * @return True se aceito, false se a assinatura foi rejeitada.
+		 */
+		public boolean isAceito() {
+			return username != null;
+		}
+
+		/**
+		 * Retorna o nome de usuario resolvido no login.
+		 * @return Nome de usuario.
+		 */
+		public String getUsername() {
+			return username;
+		}
+
+		/**
+		 * Retorna uma copia dos grupos de roles resolvidos no login.
+		 * @return Grupos de roles.
+		 */
+		public Group[] getRoles() {
+			Group[] roles = new Group[grupos.size()];
+			int i = 0;
+			for (Map.Entry<String, List<String>> grupo : grupos.entrySet()) {
+				SimpleGroup sg = new SimpleGroup(grupo.getKey());
+				for (String membro : grupo.getValue()) {
+					sg.addMember(new SimplePrincipal(membro));
+				}
+				roles[i++] = sg;
+			}
+			return roles;
+		}
+	}
+}
@@ -13,6 +13,8 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.naming.InitialContext;
 import javax.naming.NamingException;
@@ -26,17 +28,16 @@ import javax.security.auth.login.LoginException;
 import javax.sql.DataSource;
 import javax.transaction.SystemException;
 import javax.transaction.Transaction;
-import javax.transaction.TransactionManager;
 
 import org.apache.log4j.LogManager;
 import org.apache.log4j.Logger;
 import org.jboss.security.NestableGroup;
 import org.jboss.security.SimpleGroup;
 import org.jboss.security.auth.spi.DatabaseServerLoginModule;
-import org.jboss.security.plugins.TransactionManagerLocator;
 
 import com.robsonmartins.fiap.tcc.util.CertificadoAssinador;
 import com.robsonmartins.fiap.tcc.util.CertificadoSerializador;
+import com.robsonmartins.fiap.tcc.sicid.jaas.CacheDecisaoLogin.DecisaoLogin;
 
 import sicid.ws.SICidClient;
 import sicid.bean.CertificadoStatus;
@@ -73,6 +74,21 @@ import sun.misc.BASE64Decoder;
  * <pre>
  *    "select * from Principals"
  * </pre>
+ * <li><em>principalsExistQuery</em>: Consulta SQL opcional, mais leve que
+ *   <em>fullPrincipalsQuery</em>, para verificar se ha' usuarios cadastrados.
+ *   Deve retornar ao menos uma linha, ou uma contagem maior que zero, se houver
+ *   usuarios, equivalente a:
+ * <pre>
+ *    "select count(*) from Principals"
+ * </pre>
+ * <li><em>principalRolesQuery</em>: Consulta SQL opcional para obter, em uma
+ *   unica consulta, o nome de usuario e os seus Roles e RoleGroups a partir do
+ *   Distinguished Name (DN). Se especificada, <em>principalsQuery</em> e
+ *   <em>rolesQuery</em> nao sao usadas. Equivalente a:
+ * <pre>
+ *    "select p.PrincipalID, r.Role, r.RoleGroup from Principals p
+ *       left join Roles r on r.PrincipalID=p.PrincipalID where p.DN=?"
+ * </pre>
  * <li><em>principalIdForEmpty</em>: Id a ser atribuida a um usuario caso nao haja
  *   usuarios cadastrados.
  * <li><em>roleForEmpty</em>: Role a ser atribuida a um usuario caso nao haja usuarios
@@ -92,6 +108,10 @@ import sun.misc.BASE64Decoder;
  * <li><em>sicid.keyAlias</em>: Alias do par de chaves a ser usado, dentro do arquivo
  *   de keystore.
  * <li><em>sicid.keyPass</em>: Senha do par de chaves dentro do arquivo de keystore.
+ * <li><em>cache.disable</em>, <em>cache.size</em>, <em>cache.ttl</em>,
+ *   <em>cache.negativeTtl</em>, <em>cache.events</em>, <em>cache.eventsTtl</em>:
+ *   Configuracao do cache de decisoes de login
+ *   (ver {@link CacheDecisaoLogin}).
  * </ul>
  * <p>
  *  
@@ -101,6 +121,8 @@ public class SICidDBLoginModule extends DatabaseServerLoginModule {
 	
 	/* nomes das opcoes do loginModule no arquivo login-config.xml */
 	private final static String OPTION_FULL_QUERY          = "fullPrincipalsQuery";
+	private final static String OPTION_EXIST_QUERY         = "principalsExistQuery";
+	private final static String OPTION_PRINCIPAL_ROLES_QUERY = "principalRolesQuery";
 	private final static String OPTION_ID_FOR_EMPTY        = "principalIdForEmpty";
 	private final static String OPTION_ROLE_FOR_EMPTY      = "roleForEmpty"       ;
 
@@ -126,6 +148,8 @@ public class SICidDBLoginModule extends DatabaseServerLoginModule {
 	private Group[] roles;
 
 	private String fullPrincipalsQuery;
+	private String principalsExistQuery;
+	private String principalRolesQuery;
 	private String principalIdForEmpty;
 	private String roleForEmpty;
 	private String sicidDisable;
@@ -140,11 +164,21 @@ public class SICidDBLoginModule extends DatabaseServerLoginModule {
 	private String sicidKeyPass;
 	
 	private boolean isPrincipalsEmpty;
+	/* roles obtidas junto com o username */
+	private Group[] loadedRoles;
+	
+	/* estado compartilhado, por configuracao do LoginModule */
+	private static final ConcurrentMap<String, ConfiguracaoDB> configuracoes =
+		new ConcurrentHashMap<String, ConfiguracaoDB>();
+	/* estado compartilhado da configuracao deste LoginModule */
+	private ConfiguracaoDB configuracao;
 	
 	/* cliente do servico SICid */
 	private SICidClient sicid = null;
 	/* indica se a consulta ao servico SICid esta' habilitada */
 	private boolean sicidEnabled = true;
+	/* cache de decisoes de login (null = desabilitado) */
+	private CacheDecisaoLogin cache = null;
 	
     /**
 	 * Initialize this LoginModule.
@@ -161,12 +195,15 @@ public class SICidDBLoginModule extends DatabaseServerLoginModule {
 		log = LogManager.getLogger(SICidDBLoginModule.class);
 		trace = log.isTraceEnabled();
 		sicid = new SICidClient();
+		cache = CacheDecisaoLogin.getInstance(SICidDBLoginModule.class, options);
 
 		super.initialize(subject, callbackHandler, sharedState, options);
 		
 		Map<String, String> loginModuleOpts = parseOptions(options);
 
 		fullPrincipalsQuery = loginModuleOpts.get(OPTION_FULL_QUERY         );
+		principalsExistQuery = loginModuleOpts.get(OPTION_EXIST_QUERY       );
+		principalRolesQuery = loginModuleOpts.get(OPTION_PRINCIPAL_ROLES_QUERY);
 		principalIdForEmpty = loginModuleOpts.get(OPTION_ID_FOR_EMPTY       );
 		roleForEmpty        = loginModuleOpts.get(OPTION_ROLE_FOR_EMPTY     );
 		sicidDisable        = loginModuleOpts.get(OPTION_SICID_DISABLE      );
@@ -185,6 +222,16 @@ public class SICidDBLoginModule extends DatabaseServerLoginModule {
 
 		sicidEnabled = !("true".equalsIgnoreCase(sicidDisable));
 		isPrincipalsEmpty = false;
+		
+		String chaveConfiguracao = String.format("%s|%s|%s|%s|%s",
+				dsJndiName, principalsQuery, rolesQuery,
+				fullPrincipalsQuery, principalsExistQuery);
+		configuracao = configuracoes.get(chaveConfiguracao);
+		if (configuracao == null) {
+			ConfiguracaoDB nova = new ConfiguracaoDB();
+			configuracao = configuracoes.putIfAbsent(chaveConfiguracao, nova);
+			if (configuracao == null) { configuracao = nova; }
+		}
 
 		if (sicidKeyStorePass == null) { sicidKeyStorePass = ""; }
 		if (sicidKeyPass      == null) { sicidKeyPass      = ""; }
@@ -196,6 +243,8 @@ public class SICidDBLoginModule extends DatabaseServerLoginModule {
 		
 		if (trace) {
 			log.trace(String.format("%s=%s", OPTION_FULL_QUERY         , fullPrincipalsQuery));
+			log.trace(String.format("%s=%s", OPTION_EXIST_QUERY        , principalsExistQuery));
+			log.trace(String.format("%s=%s", OPTION_PRINCIPAL_ROLES_QUERY, principalRolesQuery));
 			log.trace(String.format("%s=%s", OPTION_ID_FOR_EMPTY       , principalIdForEmpty));
 			log.trace(String.format("%s=%s", OPTION_ROLE_FOR_EMPTY     , roleForEmpty       ));
 			log.trace(String.format("%s=%s", OPTION_SICID_DISABLE      , sicidDisable       ));
@@ -254,15 +303,43 @@ public class SICidDBLoginModule extends DatabaseServerLoginModule {
 				throw exception;
 			}
 			
-			isPrincipalsEmpty = isPrincipalsEmpty();
-
+			/* credencial ja' avaliada recentemente: reaproveita a decisao */
+			String chave = null;
+			if (cache != null) {
+				try {
+					chave = CacheDecisaoLogin.getChave(cert, pass);
+				} catch (Exception e) {
+					chave = null;
+				}
+				DecisaoLogin decisao = (chave != null) ? cache.obter(chave) : null;
+				if (decisao != null) {
+					return loginFromCache(cert, name, decisao);
+				}
+			}
+			
 			dname = cert.getSubjectX500Principal().getName();
+			loadedRoles = null;
 			String username = (String) getUsersPassword();
 
 			if (trace) {
 				log.trace(String.format("Login: certificate DN: %s", dname));
 			}
 
+			try {
+				verifySignature(cert, pass);
+				
+			} catch (Exception e) {
+				
+				if (chave != null) {
+					cache.rejeitar(chave);
+				}
+				LoginException exception =
+					new LoginException(String.format(
+							"Invalid Certificate %s", dname));
+				exception.initCause(e);
+				throw exception;
+			}
+
 			try {
 				validateCert(name, pass);
 				
@@ -328,6 +405,11 @@ public class SICidDBLoginModule extends DatabaseServerLoginModule {
 				throw exception;
 			}
 			
+			/* o mapeamento provisorio (tabela de usuarios vazia) nao e'
+			   armazenado, pois deixa de valer ao cadastrar o primeiro usuario */
+			if (chave != null && !isPrincipalsEmpty) {
+				cache.aceitar(chave, cert, username, roles);
+			}
 			return true;
 			
 		} catch (Exception e) {
@@ -417,99 +499,7 @@ public class SICidDBLoginModule extends DatabaseServerLoginModule {
      */
 	@Override
 	protected String getUsersPassword() throws LoginException {
-
-		if (isPrincipalsEmpty) {
-			return principalIdForEmpty;
-		}
-		
-		String username = null;
-		Connection conn = null;
-		PreparedStatement ps = null;
-		ResultSet rs = null;
-
-		Transaction tx = null;
-		if (suspendResume) {
-			try {
-				if (tm == null) {
-					throw new IllegalStateException("Transaction Manager is null");
-				}
-				tx = tm.suspend();
-			} catch (SystemException e)	{
-				throw new RuntimeException(e);
-			}
-			if (trace) {
-				log.trace("suspendAnyTransaction");
-			}
-		}
-
-		try	{
-			InitialContext ctx = new InitialContext();
-			DataSource ds = (DataSource) ctx.lookup(dsJndiName);
-			conn = ds.getConnection();
-			if (trace) {
-				log.trace(
-						String.format("Executing query: %s, with DN: %s",
-								principalsQuery, dname));
-			}
-			ps = conn.prepareStatement(principalsQuery);
-			ps.setString(1, dname);
-			rs = ps.executeQuery();
-			if (rs.next() == false) {
-				if (trace) {
-					log.trace("Query returned no matches from db");
-				}
-				throw new FailedLoginException(
-						"No matching username found in Principals");
-			}
-
-			username = rs.getString(1);
-			if (trace) {
-				log.trace("Obtained username");
-			}
-			
-		} catch (NamingException ex) {
-			
-			LoginException le =
-				new LoginException(
-						String.format("Error looking up DataSource from: %s", dsJndiName));
-			le.initCause(ex);
-			throw le;
-			
-		} catch(SQLException ex) {
-			
-			LoginException le = new LoginException("Query failed");
-			le.initCause(ex);
-			throw le;
-			
-		} finally {
-			
-			if (rs != null)	{
-				try	{
-					rs.close();
-				} catch (SQLException e) {}
-			}
-			if (ps != null) {
-				try	{
-					ps.close();
-				} catch(SQLException e) {}
-			}
-			if (conn != null) {
-				try {
-					conn.close();
-				} catch (SQLException ex) {}
-			}
-			if (suspendResume) {
-				try	{
-					tm.resume(tx);
-				} catch (Exception e) {
-					throw new RuntimeException(e);
-				} 
-				if (trace) {
-					log.trace("resumeAnyTransaction");
-				}
-			}
-		}
-		return username;
+		return loadPrincipal();
 	}
 	
 	/**
@@ -542,36 +532,12 @@ public class SICidDBLoginModule extends DatabaseServerLoginModule {
 	@Override
 	protected Group[] getRoleSets() throws LoginException {
 		
-		Group[] roleSets = null;
-			
-		if (isPrincipalsEmpty) {
-			roleSets = new Group[1];
-			SimpleGroup sg = new SimpleGroup("Roles");
-			try {
-				Principal p = createIdentity(roleForEmpty);
-				sg.addMember(p);
-			} catch (Exception e) {
-				if (trace) {
-					log.trace(String.format(
-						"Failed to create principal: %s", roleForEmpty), e);
-				}
-			}
-			roleSets[0] = sg;
-			return roleSets;			
-		}
-		
-		String username = getUsername();
-		if (trace) {
-			log.trace(String.format(
-					"getRoleSets using rolesQuery: %s, username: %s",
-					rolesQuery, username));
+		/* roles ja' obtidas junto com o username */
+		if (loadedRoles == null) {
+			loadPrincipal();
 		}
-		roleSets =
-			getRoleSets(username, dsJndiName, rolesQuery, suspendResume);
-		
-		return roleSets;
+		return loadedRoles;
 	}
-
 	/* Retorna as opcoes do LoginModule.
 	 * @param options Opcoes passadas via arquivo login-config.xml.
 	 * @return Opcoes do LoginModule.
@@ -581,6 +547,8 @@ public class SICidDBLoginModule extends DatabaseServerLoginModule {
 		Map<String, String> optList = new HashMap<String, String>();
 		
 		String fullQuery    = (String) options.get(OPTION_FULL_QUERY         );
+		String existQuery   = (String) options.get(OPTION_EXIST_QUERY        );
+		String prRolesQuery = (String) options.get(OPTION_PRINCIPAL_ROLES_QUERY);
 		String idForEmpty   = (String) options.get(OPTION_ID_FOR_EMPTY       );
 		String roleForEmpty = (String) options.get(OPTION_ROLE_FOR_EMPTY     );
 		String disable      = (String) options.get(OPTION_SICID_DISABLE      );
@@ -616,6 +584,8 @@ public class SICidDBLoginModule extends DatabaseServerLoginModule {
 		}
 		
 		optList.put(OPTION_FULL_QUERY         , fullQuery   );
+		optList.put(OPTION_EXIST_QUERY        , existQuery  );
+		optList.put(OPTION_PRINCIPAL_ROLES_QUERY, prRolesQuery);
 		optList.put(OPTION_ID_FOR_EMPTY       , idForEmpty  );
 		optList.put(OPTION_ROLE_FOR_EMPTY     , roleForEmpty);
 		optList.put(OPTION_SICID_DISABLE      , disable     );
@@ -632,6 +602,53 @@ public class SICidDBLoginModule extends DatabaseServerLoginModule {
 		return optList;
 	}
 
+	/* Verifica a assinatura do certificado, feita com a chave privada
+	 *   do seu titular.
+	 * @param cert Certificado apresentado no login.
+	 * @param signed Assinatura do certificado, codificada em Base64.
+	 * @throws Exception Se a assinatura nao confere.
+	 */
+	private void verifySignature(X509Certificate cert,
+			String signed) throws Exception {
+		
+		byte[] sigBuffer = new BASE64Decoder().decodeBuffer(signed);
+		if (!CertificadoAssinador.verify(cert.getPublicKey(),
+				cert.getEncoded(), sigBuffer)) {
+			throw new Exception("Wrong signature");
+		}
+	}
+
+	/* Conclui o login a partir de uma decisao armazenada no cache.
+	 * @param cert Certificado apresentado no login.
+	 * @param name Conteudo do certificado, codificado em Base64.
+	 * @param decisao Decisao armazenada.
+	 * @return True se o login foi aceito.
+	 * @throws Exception Se a assinatura foi rejeitada.
+	 */
+	private boolean loginFromCache(X509Certificate cert, String name,
+			DecisaoLogin decisao) throws Exception {
+		
+		dname = cert.getSubjectX500Principal().getName();
+		if (!decisao.isAceito()) {
+			LoginException exception =
+				new LoginException(String.format(
+						"Invalid Certificate %s", dname));
+			exception.initCause(new Exception("Wrong signature"));
+			throw exception;
+		}
+		if (trace) {
+			log.trace(String.format(
+					"Login (cached): DN: %s, username: %s",
+					dname, decisao.getUsername()));
+		}
+		this.usernameIdentity = createIdentity(decisao.getUsername());
+		this.roles = decisao.getRoles();
+		// substitui username pelo certificado no identity primario
+		this.identity = createIdentity(name);
+		super.loginOk = true;
+		return true;
+	}
+
 	/* Valida um certificado, realizando uma consulta ao servico SICid.
 	 * @param content Conteudo do certificado, codificado em Base64.
 	 * @param signed Assinatura do certificado, codificada em Base64.
@@ -642,19 +659,10 @@ public class SICidDBLoginModule extends DatabaseServerLoginModule {
 		CertificadoStatus status = CertificadoStatus.INVALID;
 
 		try {
-			X509Certificate cert = CertificadoSerializador.strToCert(content);
-			byte[] sigBuffer = new BASE64Decoder().decodeBuffer(signed);
-
 			if (trace) {
-				log.trace(String.format("Validating certificate: %s", 
-						cert.getSubjectX500Principal().getName()));
+				log.trace(String.format("Validating certificate: %s", dname));
 			}
 
-			if (!CertificadoAssinador.verify(cert.getPublicKey(),
-					cert.getEncoded(), sigBuffer)) {
-				throw new Exception("Wrong signature");
-			}
-			
 			if (sicidEnabled) {
 				try {
 					sicid.connect(sicidServiceURL, sicidNamespace, sicidService,
@@ -668,6 +676,9 @@ public class SICidDBLoginModule extends DatabaseServerLoginModule {
 						new Exception("Failed to connect in SICid service");
 					exception.initCause(e);
 					throw exception;
+				} finally {
+					/* devolve o proxy do servico ao pool */
+					sicid.close();
 				}
 				
 			} else {
@@ -694,155 +705,162 @@ public class SICidDBLoginModule extends DatabaseServerLoginModule {
 		}
 	}
 	
-	/* Retorna true se a tabela de usuarios esta' vazia.
-	 * @return True se nao ha' usuarios cadastrados.
-	 * @throws Exception
+	/* Obtem o username mapeado para o DN do certificado e os seus roles,
+	 *   usando uma unica conexao (e uma unica suspensao da transacao
+	 *   corrente). Enquanto a tabela de usuarios estiver vazia, verifica
+	 *   tambem se o primeiro usuario ja' foi cadastrado.
+	 * @return Username mapeado para o DN.
+	 * @throws LoginException
 	 */
-	private boolean isPrincipalsEmpty() {
+	private String loadPrincipal() throws LoginException {
+		
+		String username = null;
 		Connection conn = null;
-		PreparedStatement ps = null;
-		ResultSet rs = null;
-		TransactionManager tm = null;
-
-		if (suspendResume) {
-			TransactionManagerLocator tml = new TransactionManagerLocator();
-			try {
-				tm = tml.getTM("java:jboss/TransactionManager");
-			} catch (NamingException e1) {
-				if (trace) {
-					log.trace("Error in Transaction Manager", e1);
+		Transaction tx = suspendTransaction();
+		
+		try	{
+			conn = getDataSource().getConnection();
+			
+			if (configuracao.verificarVazia) {
+				isPrincipalsEmpty = isPrincipalsEmpty(conn);
+				if (!isPrincipalsEmpty) {
+					/* o cadastro nao volta a ficar vazio: nao verifica mais */
+					configuracao.verificarVazia = false;
 				}
-				return false;
+			} else {
+				isPrincipalsEmpty = false;
 			}
-			if (tm == null) {
-				if (trace) {
-					log.trace("Transaction Manager is null");
-				}
-				return false;
+			
+			if (isPrincipalsEmpty) {
+				loadedRoles = getRoleSetsForEmpty();
+				return principalIdForEmpty;
 			}
-		}      
-		Transaction tx = null;
-		if (suspendResume) {
-			try	{
-				tx = tm.suspend();
-			} catch (SystemException e)	{
-				if (trace) {
-					log.trace("Error suspending transaction", e);
-				}
-				return false;
+			
+			if (principalRolesQuery != null) {
+				username = loadPrincipalRoles(conn);
+			} else {
+				username = loadPrincipal(conn);
+				loadedRoles = loadRoles(conn, username);
 			}
-			if (trace) {
-				log.trace("suspendAnyTransaction");
+			
+		} catch (NamingException ex) {
+			
+			LoginException le =
+				new LoginException(
+						String.format("Error looking up DataSource from: %s", dsJndiName));
+			le.initCause(ex);
+			throw le;
+			
+		} catch (SQLException ex) {
+			
+			/* DataSource possivelmente reimplantado: resolve novamente */
+			configuracao.ds = null;
+			LoginException le = new LoginException("Query failed");
+			le.initCause(ex);
+			throw le;
+			
+		} finally {
+			
+			if (conn != null) {
+				try {
+					conn.close();
+				} catch (SQLException ex) {}
 			}
+			resumeTransaction(tx);
 		}
+		return username;
+	}
 
-		try	{
-			InitialContext ctx = new InitialContext();
-			DataSource ds = (DataSource) ctx.lookup(dsJndiName);
-			conn = ds.getConnection();
+	/* Obtem o username e os roles com a consulta unificada
+	 *   (principalRolesQuery).
+	 * @param conn Conexao com o banco de dados.
+	 * @return Username mapeado para o DN.
+	 * @throws LoginException
+	 * @throws SQLException
+	 */
+	private String loadPrincipalRoles(Connection conn)
+			throws LoginException, SQLException {
+		
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
 			if (trace) {
-				log.trace(String.format(
-						"Executing query: %s", fullPrincipalsQuery));
+				log.trace(
+						String.format("Executing query: %s, with DN: %s",
+								principalRolesQuery, dname));
 			}
-			ps = conn.prepareStatement(fullPrincipalsQuery);
+			ps = conn.prepareStatement(principalRolesQuery);
+			ps.setString(1, dname);
 			rs = ps.executeQuery();
 			if (rs.next() == false) {
 				if (trace) {
-					log.trace("Principals table is empty");
+					log.trace("Query returned no matches from db");
 				}
-				return true;
+				throw new FailedLoginException(
+						"No matching username found in Principals");
 			}
-		} catch (Exception e) {
+			String username = rs.getString(1);
 			if (trace) {
-				log.trace("Error executing query", e);
+				log.trace("Obtained username");
 			}
-			return false;
+			loadedRoles = readRoleSets(rs, 2);
+			return username;
 			
 		} finally {
-			if (rs != null)	{
-				try	{
-					rs.close();
-				} catch (SQLException e) {}
-			}
-			if (ps != null)	{
-				try	{
-					ps.close();
-				} catch(SQLException e)	{}
-			}
-			if (conn != null) {
-				try	{
-					conn.close();
-				} catch (Exception ex) {}
-			}
-			if (suspendResume) {
-				try {
-					tm.resume(tx);
-				} catch (Exception e) {
-					if (trace) {
-						log.trace("Error resuming transaction", e);
-					}
-					return false;
-				}
-				if (trace) {
-					log.trace("resumeAnyTransaction");
-				}
-			}
-		}
-		if (trace) {
-			log.trace("Principals table is not empty");
+			close(rs, ps);
 		}
-		return false;
 	}
 	
-	/* 
-	 * Execute the rolesQuery against the dsJndiName to obtain the roles
-	 *   for the authenticated user.
-	 * @return Group[] containing the sets of roles
-	 * 
-	 * Source: org.jboss.security.auth.spi.DbUtil.java
+	/* Obtem o username mapeado para o DN (principalsQuery).
+	 * @param conn Conexao com o banco de dados.
+	 * @return Username mapeado para o DN.
+	 * @throws LoginException
+	 * @throws SQLException
 	 */
-	private Group[] getRoleSets(String username, String dsJndiName,
-			String rolesQuery, boolean suspendResume) throws LoginException {
+	private String loadPrincipal(Connection conn)
+			throws LoginException, SQLException {
 		
-		Connection conn = null;
-		HashMap<String,Group> setsMap = new HashMap<String,Group>();
 		PreparedStatement ps = null;
 		ResultSet rs = null;
-
-		TransactionManager tm = null;
-
-		if (suspendResume) {
-			TransactionManagerLocator tml = new TransactionManagerLocator();
-			try {
-				tm = tml.getTM("java:/TransactionManager");
-				
-			} catch (NamingException e1) {
-				
-				throw new RuntimeException(e1);
-			}
-			
-			if (tm == null) {
-				throw new IllegalStateException("Transaction Manager is null");
+		try {
+			if (trace) {
+				log.trace(
+						String.format("Executing query: %s, with DN: %s",
+								principalsQuery, dname));
 			}
-		}      
-		Transaction tx = null;
-		if (suspendResume) {
-			try	{
-				tx = tm.suspend();
-				
-			} catch (SystemException e)	{
-				
-				throw new RuntimeException(e);
+			ps = conn.prepareStatement(principalsQuery);
+			ps.setString(1, dname);
+			rs = ps.executeQuery();
+			if (rs.next() == false) {
+				if (trace) {
+					log.trace("Query returned no matches from db");
+				}
+				throw new FailedLoginException(
+						"No matching username found in Principals");
 			}
 			if (trace) {
-				log.trace("suspendAnyTransaction");
+				log.trace("Obtained username");
 			}
+			return rs.getString(1);
+			
+		} finally {
+			close(rs, ps);
 		}
-
-		try	{
-			InitialContext ctx = new InitialContext();
-			DataSource ds = (DataSource) ctx.lookup(dsJndiName);
-			conn = ds.getConnection();
+	}
+	
+	/* Obtem os roles de um usuario (rolesQuery).
+	 * @param conn Conexao com o banco de dados.
+	 * @param username Nome do usuario.
+	 * @return Grupos de roles do usuario.
+	 * @throws LoginException
+	 * @throws SQLException
+	 */
+	private Group[] loadRoles(Connection conn, String username)
+			throws LoginException, SQLException {
+		
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		try {
 			if (trace) {
 				log.trace(String.format(
 						"Executing query: %s, with username: %s", rolesQuery, username));
@@ -854,19 +872,36 @@ public class SICidDBLoginModule extends DatabaseServerLoginModule {
 			
 			rs = ps.executeQuery();
 			if (rs.next() == false) {
-				if (trace) {
-					log.trace("No roles found");
-				}
-		        if (getUnauthenticatedIdentity() == null) {
-		        	throw new FailedLoginException("No matching username found in Roles");
-		        }
-				Group[] roleSets = { new SimpleGroup("Roles") };
-				return roleSets;
+				return readRoleSets(null, 1);
 			}
-
+			return readRoleSets(rs, 1);
+			
+		} finally {
+			close(rs, ps);
+		}
+	}
+	
+	/* 
+	 * Le os roles (e RoleGroups) de um ResultSet, a partir da linha atual.
+	 *   Linhas com role nulo (ex: juncao sem roles) sao ignoradas.
+	 * @param rs ResultSet posicionado na primeira linha, ou null se
+	 *   a consulta nao retornou linhas.
+	 * @param column Indice da coluna do role (a coluna seguinte contem
+	 *   o RoleGroup).
+	 * @return Group[] containing the sets of roles
+	 * 
+	 * Source: org.jboss.security.auth.spi.DbUtil.java
+	 */
+	private Group[] readRoleSets(ResultSet rs, int column)
+			throws LoginException, SQLException {
+		
+		HashMap<String,Group> setsMap = new HashMap<String,Group>();
+		
+		if (rs != null) {
 			do {
-				String name = rs.getString(1);
-				String groupName = rs.getString(2);
+				String name = rs.getString(column);
+				if (name == null) { continue; }
+				String groupName = rs.getString(column + 1);
 				if (groupName == null || groupName.length() == 0) {
 					groupName = "Roles";
 				}
@@ -892,52 +927,158 @@ public class SICidDBLoginModule extends DatabaseServerLoginModule {
 				}
 				
 			} while (rs.next());
-			
-		} catch (NamingException ex) {
-			
-			LoginException le =
-				new LoginException(String.format(
-						"Error looking up DataSource from: %s", dsJndiName));
-			le.initCause(ex);
-			throw le;
-			
-		} catch (SQLException ex) {
-			
-			LoginException le = new LoginException("Query failed");
-			le.initCause(ex);
-		 	throw le;
-		 	
-		} finally {
+		}
+		
+		if (setsMap.isEmpty()) {
+			if (trace) {
+				log.trace("No roles found");
+			}
+	        if (getUnauthenticatedIdentity() == null) {
+	        	throw new FailedLoginException("No matching username found in Roles");
+	        }
+			Group[] roleSets = { new SimpleGroup("Roles") };
+			return roleSets;
+		}
 
-			if (rs != null)	{
-				try	{
-					rs.close();
-				} catch (SQLException e) {}
+		Group[] roleSets = new Group[setsMap.size()];
+		setsMap.values().toArray(roleSets);
+		return roleSets;
+	}
+	
+	/* Retorna os roles atribuidos a um usuario caso nao haja
+	 *   usuarios cadastrados (roleForEmpty).
+	 * @return Grupos de roles.
+	 */
+	private Group[] getRoleSetsForEmpty() {
+		SimpleGroup sg = new SimpleGroup("Roles");
+		try {
+			Principal p = createIdentity(roleForEmpty);
+			sg.addMember(p);
+		} catch (Exception e) {
+			if (trace) {
+				log.trace(String.format(
+					"Failed to create principal: %s", roleForEmpty), e);
 			}
-			if (ps != null)	{
-				try	{
-					ps.close();
-				} catch(SQLException e)	{}
+		}
+		Group[] roleSets = { sg };
+		return roleSets;
+	}
+	
+	/* Retorna true se a tabela de usuarios esta' vazia. Usa a consulta
+	 *   principalsExistQuery, se definida, ou fullPrincipalsQuery,
+	 *   limitada a uma linha.
+	 * @param conn Conexao com o banco de dados.
+	 * @return True se nao ha' usuarios cadastrados.
+	 */
+	private boolean isPrincipalsEmpty(Connection conn) {
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		String query = (principalsExistQuery != null)
+			? principalsExistQuery : fullPrincipalsQuery;
+		try	{
+			if (trace) {
+				log.trace(String.format("Executing query: %s", query));
 			}
-			if (conn != null) {
-				try	{
-					conn.close();
-				} catch (Exception ex) {}
+			ps = conn.prepareStatement(query);
+			ps.setMaxRows(1);
+			rs = ps.executeQuery();
+			/* sem linhas, ou contagem igual a zero */
+			boolean empty = (rs.next() == false) ||
+				(principalsExistQuery != null &&
+					rs.getObject(1) instanceof Number &&
+					((Number) rs.getObject(1)).longValue() == 0);
+			if (trace) {
+				log.trace(empty ? "Principals table is empty"
+						: "Principals table is not empty");
 			}
-			if (suspendResume) {
-				try {
-					tm.resume(tx);
-				} catch (Exception e) {
-					throw new RuntimeException(e);
-				}
-				if (trace) {
-					log.trace("resumeAnyTransaction");
+			return empty;
+			
+		} catch (Exception e) {
+			if (trace) {
+				log.trace("Error executing query", e);
+			}
+			return false;
+			
+		} finally {
+			close(rs, ps);
+		}
+	}
+	
+	/* Retorna o DataSource do banco de dados, resolvido uma unica vez
+	 *   por configuracao do LoginModule.
+	 * @return DataSource.
+	 * @throws NamingException
+	 */
+	private DataSource getDataSource() throws NamingException {
+		DataSource ds = configuracao.ds;
+		if (ds == null) {
+			InitialContext ctx = new InitialContext();
+			ds = (DataSource) ctx.lookup(dsJndiName);
+			configuracao.ds = ds;
+		}
+		return ds;
+	}
+	
+	/* Suspende a transacao corrente, se configurado (suspendResume).
+	 * @return Transacao suspensa, ou null.
+	 */
+	private Transaction suspendTransaction() {
+		Transaction tx = null;
+		if (suspendResume) {
+			try {
+				if (tm == null) {
+					throw new IllegalStateException("Transaction Manager is null");
 				}
+				tx = tm.suspend();
+			} catch (SystemException e)	{
+				throw new RuntimeException(e);
+			}
+			if (trace) {
+				log.trace("suspendAnyTransaction");
 			}
 		}
-
-		Group[] roleSets = new Group[setsMap.size()];
-		setsMap.values().toArray(roleSets);
-		return roleSets;
+		return tx;
+	}
+	
+	/* Retoma uma transacao suspensa, se configurado (suspendResume).
+	 * @param tx Transacao suspensa.
+	 */
+	private void resumeTransaction(Transaction tx) {
+		if (suspendResume) {
+			try	{
+				tm.resume(tx);
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			} 
+			if (trace) {
+				log.trace("resumeAnyTransaction");
+			}
+		}
+	}
+	
+	/* Fecha um ResultSet e um PreparedStatement, ignorando erros.
+	 * @param rs ResultSet, ou null.
+	 * @param ps PreparedStatement, ou null.
+	 */
+	private static void close(ResultSet rs, PreparedStatement ps) {
+		if (rs != null)	{
+			try	{
+				rs.close();
+			} catch (SQLException e) {}
+		}
+		if (ps != null) {
+			try	{
+				ps.close();
+			} catch(SQLException e) {}
+		}
+	}
+	
+	/* Estado compartilhado pelas instancias do LoginModule com a mesma
+	 *   configuracao (DataSource e consultas). */
+	private static class ConfiguracaoDB {
+		/* DataSource resolvido (null = ainda nao resolvido) */
+		private volatile DataSource ds;
+		/* indica se a tabela de usuarios ainda pode estar vazia */
+		private volatile boolean verificarVazia = true;
 	}
 }
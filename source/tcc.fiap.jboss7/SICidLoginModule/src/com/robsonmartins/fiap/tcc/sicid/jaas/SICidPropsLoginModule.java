@@ -1,6 +1,9 @@
 package com.robsonmartins.fiap.tcc.sicid.jaas;
 
+import java.security.Principal;
+import java.security.acl.Group;
 import java.security.cert.X509Certificate;
+import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
@@ -20,6 +23,7 @@ import org.jboss.security.auth.spi.UsersRolesLoginModule;
 
 import com.robsonmartins.fiap.tcc.util.CertificadoAssinador;
 import com.robsonmartins.fiap.tcc.util.CertificadoSerializador;
+import com.robsonmartins.fiap.tcc.sicid.jaas.CacheDecisaoLogin.DecisaoLogin;
 import sicid.ws.SICidClient;
 import sicid.bean.CertificadoStatus;
 import sun.misc.BASE64Decoder;
@@ -59,6 +63,10 @@ import sun.misc.BASE64Decoder;
  * <li><em>sicid.keyAlias</em>: Alias do par de chaves a ser usado, dentro do arquivo
  *   de keystore.
  * <li><em>sicid.keyPass</em>: Senha do par de chaves dentro do arquivo de keystore.
+ * <li><em>cache.disable</em>, <em>cache.size</em>, <em>cache.ttl</em>,
+ *   <em>cache.negativeTtl</em>, <em>cache.events</em>, <em>cache.eventsTtl</em>:
+ *   Configuracao do cache de decisoes de login
+ *   (ver {@link CacheDecisaoLogin}).
  * </ul>
  * <p>
  * 
@@ -105,6 +113,8 @@ public class SICidPropsLoginModule extends UsersRolesLoginModule {
 	private SICidClient sicid = null;
 	/* indica se a consulta ao servico SICid esta' habilitada */
 	private boolean sicidEnabled = true;
+	/* cache de decisoes de login (null = desabilitado) */
+	private CacheDecisaoLogin cache = null;
 
     /**
 	 * Initialize this LoginModule.
@@ -121,6 +131,7 @@ public class SICidPropsLoginModule extends UsersRolesLoginModule {
 		log = LogManager.getLogger(SICidPropsLoginModule.class);
 		trace = log.isTraceEnabled();
 		sicid = new SICidClient();
+		cache = CacheDecisaoLogin.getInstance(SICidPropsLoginModule.class, options);
 		
 		super.initialize(subject, callbackHandler, sharedState, options);
 
@@ -220,6 +231,20 @@ public class SICidPropsLoginModule extends UsersRolesLoginModule {
 				throw exception;
 			}
 
+			/* credencial ja' avaliada recentemente: reaproveita a decisao */
+			String chave = null;
+			if (cache != null) {
+				try {
+					chave = CacheDecisaoLogin.getChave(cert, pass);
+				} catch (Exception e) {
+					chave = null;
+				}
+				DecisaoLogin decisao = (chave != null) ? cache.obter(chave) : null;
+				if (decisao != null) {
+					return loginFromCache(cert, name, decisao);
+				}
+			}
+
 			dname = cert.getSubjectX500Principal().getName();
 			String username = (String) users.get(dname);
 
@@ -227,6 +252,21 @@ public class SICidPropsLoginModule extends UsersRolesLoginModule {
 				log.trace(String.format("Login: certificate DN: %s", dname));
 			}
 
+			try {
+				verifySignature(cert, pass);
+				
+			} catch (Exception e) {
+				
+				if (chave != null) {
+					cache.rejeitar(chave);
+				}
+				LoginException exception =
+					new LoginException(String.format(
+							"Invalid Certificate %s", dname));
+				exception.initCause(e);
+				throw exception;
+			}
+
 			try {
 				validateCert(name, pass);
 				
@@ -263,6 +303,13 @@ public class SICidPropsLoginModule extends UsersRolesLoginModule {
 				log.trace(String.format("Role: %s", rolename));
 			}
 
+			if (chave != null) {
+				SimpleGroup sg = new SimpleGroup("Roles");
+				if (rolename != null) {
+					sg.addMember(new SimplePrincipal(rolename));
+				}
+				cache.aceitar(chave, cert, username, new Group[] { sg });
+			}
 			return true;
 			
 		} catch (Exception e) {
@@ -375,6 +422,56 @@ public class SICidPropsLoginModule extends UsersRolesLoginModule {
 		return optList;
 	}
 	
+	/* Verifica a assinatura do certificado, feita com a chave privada
+	 *   do seu titular.
+	 * @param cert Certificado apresentado no login.
+	 * @param signed Assinatura do certificado, codificada em Base64.
+	 * @throws Exception Se a assinatura nao confere.
+	 */
+	private void verifySignature(X509Certificate cert,
+			String signed) throws Exception {
+		
+		byte[] sigBuffer = new BASE64Decoder().decodeBuffer(signed);
+		if (!CertificadoAssinador.verify(cert.getPublicKey(),
+				cert.getEncoded(), sigBuffer)) {
+			throw new Exception("Wrong signature");
+		}
+	}
+
+	/* Conclui o login a partir de uma decisao armazenada no cache.
+	 * @param cert Certificado apresentado no login.
+	 * @param name Conteudo do certificado, codificado em Base64.
+	 * @param decisao Decisao armazenada.
+	 * @return True se o login foi aceito.
+	 * @throws Exception Se a assinatura foi rejeitada.
+	 */
+	private boolean loginFromCache(X509Certificate cert, String name,
+			DecisaoLogin decisao) throws Exception {
+		
+		dname = cert.getSubjectX500Principal().getName();
+		if (!decisao.isAceito()) {
+			LoginException exception =
+				new LoginException(String.format(
+						"Invalid Certificate %s", dname));
+			exception.initCause(new Exception("Wrong signature"));
+			throw exception;
+		}
+		if (trace) {
+			log.trace(String.format(
+					"Login (cached): DN: %s, username: %s",
+					dname, decisao.getUsername()));
+		}
+		// substitui username pelo certificado no identity primario
+		this.user = name;
+		for (Group group : decisao.getRoles()) {
+			Enumeration<? extends Principal> members = group.members();
+			if (members.hasMoreElements()) {
+				this.role = members.nextElement().getName();
+			}
+		}
+		return true;
+	}
+
 	/* Valida um certificado, realizando uma consulta ao servico SICid.
 	 * @param content Conteudo do certificado, codificado em Base64.
 	 * @param signed Assinatura do certificado, codificada em Base64.
@@ -385,19 +482,10 @@ public class SICidPropsLoginModule extends UsersRolesLoginModule {
 		CertificadoStatus status = CertificadoStatus.INVALID;
 
 		try {
-			X509Certificate cert = CertificadoSerializador.strToCert(content);
-			byte[] sigBuffer = new BASE64Decoder().decodeBuffer(signed);
-
 			if (trace) {
-				log.trace(String.format("Validating certificate: %s", 
-						cert.getSubjectX500Principal().getName()));
+				log.trace(String.format("Validating certificate: %s", dname));
 			}
 
-			if (!CertificadoAssinador.verify(cert.getPublicKey(),
-					cert.getEncoded(), sigBuffer)) {
-				throw new Exception("Wrong signature");
-			}
-			
 			if (sicidEnabled) {
 				try {
 					sicid.connect(sicidServiceURL, sicidNamespace, sicidService,
@@ -411,6 +499,9 @@ public class SICidPropsLoginModule extends UsersRolesLoginModule {
 						new Exception("Failed to connect in SICid service");
 					exception.initCause(e);
 					throw exception;
+				} finally {
+					/* devolve o proxy do servico ao pool */
+					sicid.close();
 				}
 				
 			} else {
@@ -1,27 +1,51 @@
 package sicid.ws;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+import javax.activation.DataHandler;
+import javax.activation.FileDataSource;
+
 import javax.annotation.security.RolesAllowed;
 import javax.ejb.EJB;
 import javax.ejb.Stateless;
 import javax.jws.WebService;
+import javax.xml.ws.soap.MTOM;
 
 import org.jboss.security.annotation.SecurityDomain;
 import org.jboss.ws.api.annotation.WebContext;
 
 import sicid.bean.CertificadoStatus;
+import sicid.bean.CertificadoStatusCollecion;
 import sicid.bean.Cidadao;
 import sicid.bean.CidadaoCollecion;
+import sicid.bean.EventoRevogacaoCollecion;
+import sicid.bean.IdentificacaoCidadao;
 import sicid.model.ISICidEngine;
 
 /**
- * Implementacao do Servico de Identificacao do Cidadao (SICid).
+ * Implementacao do Servico de Identificacao do Cidadao (SICid).<br/>
+ * Configuracao da exportacao de cidadaos (system properties):
+ * <ul>
+ *   <li>sicid.exportacao.diretorio: diretorio dos arquivos temporarios
+ *     da exportacao (padrao: java.io.tmpdir/sicid-exportacao);</li>
+ *   <li>sicid.exportacao.idade: idade, em ms, a partir da qual um arquivo
+ *     temporario nao lido (ex: anexo descartado pelo cliente) e'
+ *     excluido (padrao: 1 hora).</li>
+ * </ul>
  * @author Robson Martins (robson@robsonmartins.com)
  */
 @WebService(serviceName = "SICidService", portName = "SICidPort",
 	targetNamespace = "http://ws.sicid/", endpointInterface = "sicid.ws.ISICidService")
 
 @SecurityDomain("SICidService")
-@RolesAllowed("wsuser")
+@RolesAllowed({"wsuser", "icpuser"})
 
 //@WebContext(contextRoot = "/sicid/service", urlPattern = "/sicid",
 //	transportGuarantee = "CONFIDENTIAL", authMethod = "BASIC", secureWSDLAccess = true)
@@ -29,9 +53,18 @@ import sicid.model.ISICidEngine;
 @WebContext(contextRoot = "/sicid/service", urlPattern = "/sicid",
 	authMethod = "BASIC", secureWSDLAccess = true)
 
+@MTOM
 @Stateless
 public class SICidService implements ISICidService {
 
+	/* diretorio dos arquivos temporarios da exportacao */
+	private static final File DIRETORIO_EXPORTACAO = new File(System.getProperty(
+			"sicid.exportacao.diretorio", new File(
+					System.getProperty("java.io.tmpdir"), "sicid-exportacao").getPath()));
+	/* idade maxima de um arquivo temporario da exportacao, em ms */
+	private static final long IDADE_EXPORTACAO =
+		Long.getLong("sicid.exportacao.idade", 60 * 60 * 1000L);
+
 	/* Instancia do motor (MVC 'model') do SICid */
 	@EJB
 	private ISICidEngine sicidEngine;
@@ -41,11 +74,34 @@ public class SICidService implements ISICidService {
 		return sicidEngine.validarCertificado(content);
 	}
 
+	@Override
+	public CertificadoStatusCollecion validarCertificados(List<String> contents)
+			throws Exception {
+		CertificadoStatusCollecion status = new CertificadoStatusCollecion();
+		status.setStatus(sicidEngine.validarCertificados(contents));
+		return status;
+	}
+
 	@Override
 	public Cidadao consultarCidadao(String content) {
 		return sicidEngine.consultarCidadao(content);
 	}
 	
+	@Override
+	public Cidadao consultarCidadaoPorCpf(String cpf) {
+		return sicidEngine.consultarCidadaoPorCpf(cpf);
+	}
+	
+	@Override
+	public Cidadao consultarCidadaoPorRic(String ric) {
+		return sicidEngine.consultarCidadaoPorRic(ric);
+	}
+	
+	@Override
+	public IdentificacaoCidadao identificarCidadao(String content) {
+		return sicidEngine.identificarCidadao(content);
+	}
+	
 	@Override
 	public CidadaoCollecion listarCidadaos() {
 		CidadaoCollecion cidadaos = new CidadaoCollecion();
@@ -53,4 +109,106 @@ public class SICidService implements ISICidService {
 		return cidadaos;
 	}
 
+	@Override
+	public CidadaoCollecion listarCidadaosPaginado(String aposDname,
+			int tamanhoPagina) {
+		CidadaoCollecion cidadaos = new CidadaoCollecion();
+		cidadaos.setCidadaos(sicidEngine.listarCidadaos(aposDname, tamanhoPagina));
+		return cidadaos;
+	}
+
+	@Override
+	public CidadaoCollecion listarAlteracoesCidadaos(long aposVersao,
+			int tamanhoPagina) {
+		CidadaoCollecion cidadaos = new CidadaoCollecion();
+		cidadaos.setCidadaos(
+				sicidEngine.listarAlteracoesCidadaos(aposVersao, tamanhoPagina));
+		return cidadaos;
+	}
+
+	@Override
+	public DataHandler exportarCidadaos() throws Exception {
+		/* os cidadaos sao gravados em um arquivo temporario (e nao em
+		   memoria), enviado como anexo e excluido apos a leitura; os
+		   arquivos nunca lidos sao excluidos nas exportacoes seguintes */
+		excluirExportacoesAntigas();
+		File arquivo = File.createTempFile(
+				"sicid-cidadaos", ".xml", DIRETORIO_EXPORTACAO);
+		OutputStream out = new FileOutputStream(arquivo);
+		try {
+			sicidEngine.exportarCidadaos(out);
+		} catch (Exception e) {
+			out.close();
+			arquivo.delete();
+			throw e;
+		}
+		out.close();
+		return new DataHandler(new ArquivoTemporarioDataSource(arquivo));
+	}
+
+	/* somente aplicacoes de ACs (ex: ICPAdmin) notificam revogacoes */
+	@Override
+	@RolesAllowed("icpuser")
+	public CertificadoStatus notificarRevogacao(String content)
+			throws Exception {
+		return sicidEngine.notificarRevogacao(content);
+	}
+
+	@Override
+	public EventoRevogacaoCollecion listarEventosRevogacao(long aposSequencia,
+			long espera) throws Exception {
+		EventoRevogacaoCollecion eventos = new EventoRevogacaoCollecion();
+		eventos.setEventos(sicidEngine.listarEventosRevogacao(aposSequencia, espera));
+		return eventos;
+	}
+
+	@Override
+	public byte[] obterPacoteValidacao(long versao) throws Exception {
+		return sicidEngine.obterPacoteValidacao(versao);
+	}
+
+	/* Exclui os arquivos temporarios da exportacao mais antigos que a
+	 *   idade maxima (anexos nao lidos), criando o diretorio se necessario.
+	 */
+	private static void excluirExportacoesAntigas() {
+		File[] arquivos = DIRETORIO_EXPORTACAO.listFiles();
+		if (arquivos == null) {
+			DIRETORIO_EXPORTACAO.mkdirs();
+			return;
+		}
+		long limite = System.currentTimeMillis() - IDADE_EXPORTACAO;
+		for (File arquivo : arquivos) {
+			if (arquivo.isFile() && arquivo.lastModified() < limite) {
+				arquivo.delete();
+			}
+		}
+	}
+
+	/* DataSource de um arquivo temporario, excluido ao final da leitura. */
+	private static class ArquivoTemporarioDataSource extends FileDataSource {
+		
+		public ArquivoTemporarioDataSource(File arquivo) {
+			super(arquivo);
+		}
+
+		@Override
+		public String getContentType() {
+			return "application/octet-stream";
+		}
+
+		@Override
+		public InputStream getInputStream() throws IOException {
+			final File arquivo = getFile();
+			return new FilterInputStream(new FileInputStream(arquivo)) {
+				@Override
+				public void close() throws IOException {
+					try {
+						super.close();
+					} finally {
+						arquivo.delete();
+					}
+				}
+			};
+		}
+	}
 }
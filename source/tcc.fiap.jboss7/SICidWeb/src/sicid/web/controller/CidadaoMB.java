@@ -3,6 +3,7 @@ package sicid.web.controller;
 import java.io.InputStream;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import javax.faces.application.FacesMessage;
@@ -13,7 +14,10 @@ import org.primefaces.event.FileUploadEvent;
 import sicid.bean.Cidadao;
 import sicid.bean.DocumentoRG;
 import sicid.bean.DocumentoTitulo;
+import sicid.bean.ErroCadastroLote;
+import sicid.bean.ResultadoCadastroLote;
 import sicid.model.ISICidEngine;
+import sicid.model.OuvinteCadastroLote;
 
 import com.robsonmartins.fiap.tcc.util.CertificadoSerializador;
 import com.robsonmartins.fiap.tcc.util.FacesUtil;
@@ -35,6 +39,8 @@ public class CidadaoMB extends AbstractSICidMB {
 	
 	/* lista de cidadaos cadastrados no SICid */
 	private List<Cidadao> cidadaos;
+	/* resultado (parcial ou final) do ultimo cadastro em lote */
+	private volatile ResultadoCadastroLote resultadoLote;
 	
 	/**
 	 * Cria uma nova instancia do controller.
@@ -110,6 +116,53 @@ public class CidadaoMB extends AbstractSICidMB {
 		}
 	}
 	
+	/**
+	 * Event Handler do componente {@link FileUpload}, para cadastrar em
+	 *   lote os cidadaos de um arquivo ZIP de certificados.
+	 * @param event Objeto Event do componente FileUpload (Primefaces).
+	 */
+	public void uploadLoteCidadaos(FileUploadEvent event) {
+		resultadoLote = null;
+		try {
+			InputStream istream = event.getFile().getInputstream();
+			resultadoLote = sicidEngine.adicionarCidadaos(istream,
+				new OuvinteCadastroLote() {
+					@Override
+					public void progresso(ResultadoCadastroLote resultado) {
+						resultadoLote = resultado;
+					}
+				});
+			FacesUtil.addFacesMessage("Cadastro em lote conclu\u00EDdo.",
+					resultadoLote.toString(),
+					(resultadoLote.getFalhas() == 0)
+						? FacesMessage.SEVERITY_INFO : FacesMessage.SEVERITY_WARN);
+			atualizarListaCidadaos();
+		} catch (Exception e) {
+			FacesUtil.addFacesMessage("Erro ao cadastrar os cidad\u00E3os.",
+					e.getLocalizedMessage(), FacesMessage.SEVERITY_ERROR);
+		}
+	}
+	
+	/**
+	 * Retorna o progresso do cadastro em lote.
+	 * @return Descricao do progresso, ou string vazia se nenhum
+	 *   cadastro em lote foi realizado.
+	 */
+	public String getProgressoLote() {
+		ResultadoCadastroLote resultado = resultadoLote;
+		return (resultado != null) ? resultado.toString() : "";
+	}
+	
+	/**
+	 * Retorna o relatorio de erros do ultimo cadastro em lote.
+	 * @return Lista de erros.
+	 */
+	public List<ErroCadastroLote> getErrosLote() {
+		ResultadoCadastroLote resultado = resultadoLote;
+		return (resultado != null)
+			? resultado.getErros() : Collections.<ErroCadastroLote>emptyList();
+	}
+	
 	/**
 	 * Action para adicionar um cidadao ao cadastro.
 	 */
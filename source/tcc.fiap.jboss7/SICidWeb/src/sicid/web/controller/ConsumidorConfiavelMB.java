@@ -75,6 +75,23 @@ public class ConsumidorConfiavelMB extends AbstractSICidMB {
 		}
 	}
 
+	/**
+	 * Event Handler do componente {@link FileUpload}, para adicionar a
+	 *   aplicacao de uma AC (autorizada a notificar revogacoes) ao cadastro.
+	 * @param event Objeto Event do componente FileUpload (Primefaces).
+	 */
+	public void uploadCertAppIcp(FileUploadEvent event) {
+		try {
+			sicidEngine.adicionarAppIcp(event.getFile().getInputstream());
+			FacesUtil.addFacesMessage("Aplica\u00E7\u00E3o adicionada com sucesso.",
+					null, FacesMessage.SEVERITY_INFO);
+			atualizarListaApps();
+		} catch (Exception e) {
+			FacesUtil.addFacesMessage("Erro ao adicionar a aplica\u00E7\u00E3o.",
+					e.getLocalizedMessage(), FacesMessage.SEVERITY_ERROR);
+		}
+	}
+
 	/**
 	 * Action para remover uma aplicacao confiavel do cadastro.
 	 */
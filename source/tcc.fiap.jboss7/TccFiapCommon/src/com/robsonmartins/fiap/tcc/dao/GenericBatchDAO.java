@@ -0,0 +1,313 @@
+package com.robsonmartins.fiap.tcc.dao;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+
+/**
+ * Classe abstrata com operacoes para manipulacao de dados (objetos
+ *   persistidos) via JPA em lotes, estendendo {@link GenericDAO}.<br/>
+ * Diferente de {@link GenericDAO}, nao ha' sincronizacao na instancia
+ *   do DAO: o controle de concorrencia e' feito pela transacao.
+ *   As operacoes em lote enviam as alteracoes ao banco de dados (flush)
+ *   e desanexam os objetos do lote (detach) a cada intervalo de objetos,
+ *   de modo que a memoria usada nao depende do tamanho do lote; os demais
+ *   objetos do contexto de persistencia do chamador sao preservados
+ *   (para que as instrucoes SQL sejam agrupadas, a unidade de
+ *   persistencia deve configurar hibernate.jdbc.batch_size). As
+ *   exclusoes sao feitas sem carregar os objetos, que sao descartados
+ *   do cache de segundo nivel.<br/>
+ * Configuracao (system properties):
+ * <ul>
+ *   <li>tccfiap.dao.lote.intervalo: numero de objetos entre cada
+ *     flush/detach (padrao: 50).</li>
+ * </ul>
+ * @param <T> Classe do bean persistido
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+public abstract class GenericBatchDAO <T> extends GenericDAO<T> {
+
+	/* numero padrao de objetos entre cada flush/detach */
+	private static final int INTERVALO_LOTE =
+		Math.max(1, Integer.getInteger("tccfiap.dao.lote.intervalo", 50));
+
+	/* numero de objetos entre cada flush/detach */
+	private int intervaloLote = INTERVALO_LOTE;
+	
+	/**
+	 * Cria uma nova instancia de DAO.
+	 * @param entityManager Objeto {@link EntityManager} da API JPA.
+	 */
+	public GenericBatchDAO(EntityManager entityManager) {
+		super(entityManager);
+	}
+
+	/**
+	 * Retorna o numero de objetos entre cada flush/detach das
+	 *   operacoes em lote.
+	 * @return Numero de objetos.
+	 */
+	public int getIntervaloLote() {
+		return intervaloLote;
+	}
+
+	/**
+	 * Configura o numero de objetos entre cada flush/detach das
+	 *   operacoes em lote.
+	 * @param intervaloLote Numero de objetos.
+	 */
+	public void setIntervaloLote(int intervaloLote) {
+		this.intervaloLote = Math.max(1, intervaloLote);
+	}
+
+	/**
+	 * Insere (persiste) um objeto 
+	 * @param obj Objeto a ser persistido
+	 * @throws Exception 
+	 */
+	@Override
+	public void inserir(T obj) throws Exception {
+		em.merge(obj);
+		em.flush();
+	}
+
+	/**
+	 * Exclui um objeto persistido, sem carrega-lo (o objeto, se estiver
+	 *   no contexto de persistencia, nao e' desanexado).
+	 * @param id Id do objeto a ser removido
+	 * @throws Exception Se o objeto nao existir.
+	 */
+	@Override
+	public void excluir(Object id) throws Exception {
+		int excluidos = em.createQuery(String.format(
+				"delete from %s e where e.%s = :id",
+				getClasse().getSimpleName(), getAtributoId()))
+				.setParameter("id", id)
+				.executeUpdate();
+		descartarCache(id);
+		if (excluidos == 0) {
+			throw new Exception(String.format("%s not found: %s",
+					getClasse().getSimpleName(), id));
+		}
+	}
+
+	/**
+	 * Insere ou Atualiza (persiste) um lote de objetos. As alteracoes
+	 *   pendentes do contexto de persistencia tambem sao enviadas ao banco
+	 *   de dados (flush); as copias gerenciadas dos objetos do lote sao
+	 *   desanexadas, e os demais objetos gerenciados (inclusive os do lote
+	 *   que ja' o eram antes da chamada) permanecem no contexto.
+	 * @param objs Objetos a serem persistidos.
+	 * @throws Exception 
+	 */
+	public void inserirLote(Collection<T> objs) throws Exception {
+		List<T> gravados = new ArrayList<T>(intervaloLote);
+		for (T obj : objs) {
+			boolean gerenciado = em.contains(obj);
+			T gravado = em.merge(obj);
+			if (!gerenciado) {
+				gravados.add(gravado);
+			}
+			if (gravados.size() == intervaloLote) {
+				desanexar(gravados);
+			}
+		}
+		desanexar(gravados);
+	}
+
+	/**
+	 * Envia as alteracoes ao banco de dados (flush) e desanexa do contexto
+	 *   de persistencia os objetos informados (somente eles).
+	 * @param objs Objetos gerenciados a serem desanexados (a colecao e'
+	 *   esvaziada).
+	 */
+	protected void desanexar(Collection<?> objs) {
+		em.flush();
+		for (Object obj : objs) {
+			em.detach(obj);
+		}
+		objs.clear();
+	}
+
+	/**
+	 * Exclui um lote de objetos persistidos, sem carrega-los.
+	 * @param ids Ids dos objetos a serem removidos.
+	 * @return Numero de objetos removidos.
+	 * @throws Exception 
+	 */
+	public int excluirLote(Collection<?> ids) throws Exception {
+		String jpql = String.format("delete from %s e where e.%s in (:ids)",
+				getClasse().getSimpleName(), getAtributoId());
+		int excluidos = 0;
+		List<Object> bloco = new ArrayList<Object>(intervaloLote);
+		for (Object id : ids) {
+			bloco.add(id);
+			if (bloco.size() == intervaloLote) {
+				excluidos += em.createQuery(jpql)
+					.setParameter("ids", bloco).executeUpdate();
+				bloco.clear();
+			}
+		}
+		if (!bloco.isEmpty()) {
+			excluidos += em.createQuery(jpql)
+				.setParameter("ids", bloco).executeUpdate();
+		}
+		descartarCache();
+		return excluidos;
+	}
+
+	/**
+	 * Lista uma pagina dos objetos persistidos, em ordem de id (paginacao
+	 *   por chave: cada pagina inicia apos o ultimo id da anterior).
+	 * @param aposId Id do ultimo objeto da pagina anterior
+	 *   (null = primeira pagina).
+	 * @param limite Numero maximo de objetos na pagina.
+	 * @return Lista de objetos persistidos.
+	 * @throws Exception 
+	 */
+	@SuppressWarnings("unchecked")
+	public List<T> listar(Object aposId, int limite) throws Exception {
+		String entidade = getClasse().getSimpleName();
+		String id = getAtributoId();
+		Query query = (aposId != null)
+			? em.createQuery(String.format(
+					"from %s e where e.%s > :id order by e.%s", entidade, id, id))
+					.setParameter("id", aposId)
+			: em.createQuery(String.format(
+					"from %s e order by e.%s", entidade, id));
+		return (List<T>) query.setMaxResults(limite).getResultList();
+	}
+
+	/**
+	 * Abre um cursor (somente leitura) sobre todos os objetos
+	 *   persistidos, em ordem de id. O cursor deve ser fechado apos o uso.
+	 * @return Cursor dos objetos persistidos.
+	 * @throws Exception 
+	 */
+	public Cursor<T> percorrer() throws Exception {
+		return percorrer(String.format("from %s e order by e.%s",
+				getClasse().getSimpleName(), getAtributoId()));
+	}
+
+	/**
+	 * Abre um cursor (somente leitura) sobre os resultados de uma
+	 *   consulta HQL/JPQL sem parametros. O cursor deve ser fechado
+	 *   apos o uso.
+	 * @param consulta Consulta HQL/JPQL, retornando objetos da classe.
+	 * @return Cursor dos objetos persistidos.
+	 * @throws Exception 
+	 */
+	protected Cursor<T> percorrer(String consulta) throws Exception {
+		return percorrer(consulta, intervaloLote);
+	}
+
+	/**
+	 * Abre um cursor (somente leitura) sobre os resultados de uma
+	 *   consulta HQL/JPQL sem parametros. O cursor deve ser fechado
+	 *   apos o uso.
+	 * @param consulta Consulta HQL/JPQL, retornando objetos da classe.
+	 * @param tamanhoLote Numero de linhas obtidas do banco de dados
+	 *   a cada leitura do cursor.
+	 * @return Cursor dos objetos persistidos.
+	 * @throws Exception 
+	 */
+	protected Cursor<T> percorrer(String consulta, int tamanhoLote) throws Exception {
+		Session session = em.unwrap(Session.class);
+		ScrollableResults resultados = session.createQuery(consulta)
+			.setReadOnly(true)
+			.setFetchSize(tamanhoLote)
+			.scroll(ScrollMode.FORWARD_ONLY);
+		return new Cursor<T>(session, resultados);
+	}
+
+	/**
+	 * Cursor (somente leitura) sobre objetos persistidos. Cada objeto e'
+	 *   desanexado do contexto de persistencia ao avancar para o proximo,
+	 *   de modo que a memoria usada nao depende do numero de objetos.
+	 * @param <E> Classe do bean persistido
+	 */
+	public static class Cursor <E> implements Iterator<E>, Closeable {
+
+		private final Session session;
+		private final ScrollableResults resultados;
+		/* proximo objeto (null = ainda nao lido ou fim dos resultados) */
+		private E proximo;
+		/* ultimo objeto retornado (a ser desanexado) */
+		private E anterior;
+		private boolean fechado;
+
+		/* Cria um cursor sobre os resultados de uma consulta. */
+		private Cursor(Session session, ScrollableResults resultados) {
+			this.session = session;
+			this.resultados = resultados;
+		}
+
+		/**
+		 * Verifica se ha' mais objetos.
+		 * @return True se houver mais objetos.
+		 */
+		@Override
+		@SuppressWarnings("unchecked")
+		public boolean hasNext() {
+			if (proximo == null && !fechado) {
+				if (anterior != null) {
+					session.evict(anterior);
+					anterior = null;
+				}
+				if (resultados.next()) {
+					proximo = (E) resultados.get(0);
+				} else {
+					close();
+				}
+			}
+			return proximo != null;
+		}
+
+		/**
+		 * Retorna o proximo objeto.
+		 * @return Objeto persistido.
+		 */
+		@Override
+		public E next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			anterior = proximo;
+			proximo = null;
+			return anterior;
+		}
+
+		/**
+		 * Operacao nao suportada.
+		 */
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+
+		/**
+		 * Fecha o cursor.
+		 */
+		@Override
+		public void close() {
+			if (!fechado) {
+				fechado = true;
+				if (anterior != null) {
+					session.evict(anterior);
+					anterior = null;
+				}
+				resultados.close();
+			}
+		}
+	}
+}
@@ -4,11 +4,17 @@ import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.List;
 
+import javax.persistence.Cacheable;
 import javax.persistence.EntityManager;
+import javax.persistence.Query;
+import javax.persistence.metamodel.EntityType;
+import javax.persistence.metamodel.SingularAttribute;
 
 /**
  * Classe abstrata com operacoes basicas para mainupulacao
- * de dados (objetos persistidos) via JPA
+ * de dados (objetos persistidos) via JPA<br/>
+ * Se a classe do bean for {@link Cacheable}, as consultas deste DAO
+ *   sao mantidas no cache de consultas (query cache) do Hibernate.
  * @param <T> Classe do bean persistido
  * @author Robson Martins (robson@robsonmartins.com)
  */
@@ -18,6 +24,10 @@ public abstract class GenericDAO <T> {
 	protected EntityManager em;
 	/* armazena a classe concreta derivada deste DAO */
 	private Class<T> classe;
+	/* indica se a classe do bean e' mantida no cache de segundo nivel */
+	private boolean cacheavel;
+	/* nome do atributo id do bean (obtido do metamodelo) */
+	private String atributoId;
 	
 	/**
 	 * Cria uma nova instancia de DAO.
@@ -30,9 +40,104 @@ public abstract class GenericDAO <T> {
 			(ParameterizedType) thisClass.getGenericSuperclass();
 		Type t2 = t.getActualTypeArguments()[0];
 		this.classe = (Class<T>) t2;
+		this.cacheavel = classe.isAnnotationPresent(Cacheable.class);
 		em = entityManager;
 	}
 
+	/**
+	 * Retorna a classe do bean persistido.
+	 * @return Classe do bean.
+	 */
+	protected Class<T> getClasse() {
+		return classe;
+	}
+
+	/**
+	 * Retorna o nome do atributo id do bean, a partir do metamodelo.
+	 * @return Nome do atributo id.
+	 * @throws Exception Se o bean nao tiver um id simples.
+	 */
+	protected String getAtributoId() throws Exception {
+		if (atributoId == null) {
+			EntityType<T> tipo = em.getMetamodel().entity(getClasse());
+			for (SingularAttribute<? super T, ?> atributo : tipo.getSingularAttributes()) {
+				if (atributo.isId()) {
+					atributoId = atributo.getName();
+					break;
+				}
+			}
+			if (atributoId == null) {
+				throw new Exception(String.format("%s has no single id attribute",
+						getClasse().getSimpleName()));
+			}
+		}
+		return atributoId;
+	}
+
+	/**
+	 * Ajusta a sequencia usada na geracao dos ids do bean (banco de dados
+	 *   H2), de modo que o proximo valor seja maior que o maior id ja'
+	 *   gravado (ex: ids gerados anteriormente por uma coluna identity).<br/>
+	 * Deve ser executado em uma transacao, antes da primeira inclusao de
+	 *   objetos (na inicializacao da aplicacao).
+	 * @param sequencia Nome da sequencia.
+	 * @return True se a sequencia foi ajustada, false se o proximo valor
+	 *   ja' era maior que o maior id.
+	 * @throws Exception Se a sequencia nao existir.
+	 */
+	public boolean ajustarSequencia(String sequencia) throws Exception {
+		Number maximo = (Number) em.createQuery(String.format(
+				"select max(e.%s) from %s e",
+				getAtributoId(), classe.getSimpleName())).getSingleResult();
+		List<?> proximo = em.createNativeQuery(
+				"select current_value + increment from information_schema.sequences" +
+				" where sequence_name = ?").setParameter(1, sequencia.toUpperCase())
+				.getResultList();
+		if (proximo.isEmpty()) {
+			throw new Exception(String.format("Sequence not found: %s", sequencia));
+		}
+		if (maximo == null ||
+				((Number) proximo.get(0)).longValue() > maximo.longValue()) {
+			return false;
+		}
+		em.createNativeQuery(String.format("alter sequence %s restart with %d",
+				sequencia, maximo.longValue() + 1)).executeUpdate();
+		return true;
+	}
+
+	/**
+	 * Configura uma consulta para ser mantida no cache de consultas do
+	 *   Hibernate, se a classe do bean for {@link Cacheable}.
+	 * @param query Consulta.
+	 * @return A propria consulta.
+	 */
+	protected Query consultaCacheavel(Query query) {
+		if (cacheavel) {
+			query.setHint("org.hibernate.cacheable", Boolean.TRUE);
+		}
+		return query;
+	}
+
+	/**
+	 * Descarta um objeto do cache de segundo nivel (ex: apos uma
+	 *   alteracao feita fora do contexto de persistencia).
+	 * @param id Id do objeto
+	 */
+	public void descartarCache(Object id) {
+		if (cacheavel) {
+			em.getEntityManagerFactory().getCache().evict(classe, id);
+		}
+	}
+
+	/**
+	 * Descarta todos os objetos da classe do cache de segundo nivel.
+	 */
+	public void descartarCache() {
+		if (cacheavel) {
+			em.getEntityManagerFactory().getCache().evict(classe);
+		}
+	}
+
 	/**
 	 * Localiza um objeto persistido pelo id
 	 * @param id Id do objeto
@@ -58,8 +163,8 @@ public abstract class GenericDAO <T> {
 	public List<T> listar() throws Exception {
 		List<T> list = null;
 		try {
-			list = (List<T>) em.createQuery(
-					"from " + classe.getSimpleName()).getResultList();
+			list = (List<T>) consultaCacheavel(em.createQuery(
+					"from " + classe.getSimpleName())).getResultList();
 		} catch (Exception e) {
 			throw e;
 		}
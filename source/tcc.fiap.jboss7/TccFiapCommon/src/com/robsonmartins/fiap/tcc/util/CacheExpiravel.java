@@ -0,0 +1,191 @@
+package com.robsonmartins.fiap.tcc.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Cache em memoria, de tamanho limitado (politica LRU) e com tempo
+ *   de expiracao (TTL) por entrada.<br/>
+ * E' seguro para acesso concorrente, e mantem contadores de acertos
+ *   (hits), falhas (misses) e remocoes (evictions), que podem ser
+ *   publicados via JMX.
+ * @param <K> Tipo da chave.
+ * @param <V> Tipo do valor armazenado.
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+public class CacheExpiravel<K, V> implements CacheExpiravelMBean {
+
+	/* dominio JMX dos caches */
+	private static final String JMX_DOMAIN = "com.robsonmartins.fiap.tcc";
+
+	/* capacidade maxima (numero de entradas) */
+	private final int capacidade;
+	/* tempo de vida padrao de uma entrada, em ms */
+	private final long ttlPadrao;
+	/* entradas do cache, em ordem de acesso */
+	private final LinkedHashMap<K, Entrada<V>> entradas;
+
+	/* contadores */
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * Cria uma nova instancia do cache.
+	 * @param capacidade Numero maximo de entradas. Ao ser atingido,
+	 *   a entrada acessada ha' mais tempo e' descartada.
+	 * @param ttlPadrao Tempo de vida padrao de uma entrada, em ms.
+	 */
+	public CacheExpiravel(int capacidade, long ttlPadrao) {
+		this.capacidade = (capacidade > 0) ? capacidade : 1;
+		this.ttlPadrao = ttlPadrao;
+		this.entradas = new LinkedHashMap<K, Entrada<V>>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, Entrada<V>> eldest) {
+				if (size() > CacheExpiravel.this.capacidade) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Obtem um valor armazenado no cache.
+	 * @param chave Chave do valor.
+	 * @return Valor armazenado, ou null se nao existir ou estiver expirado.
+	 */
+	public synchronized V obter(K chave) {
+		Entrada<V> entrada = entradas.get(chave);
+		if (entrada == null) {
+			misses++;
+			return null;
+		}
+		if (entrada.expiraEm <= System.currentTimeMillis()) {
+			entradas.remove(chave);
+			evictions++;
+			misses++;
+			return null;
+		}
+		hits++;
+		return entrada.valor;
+	}
+
+	/**
+	 * Armazena um valor no cache, com o tempo de vida padrao.
+	 * @param chave Chave do valor.
+	 * @param valor Valor a ser armazenado.
+	 */
+	public void inserir(K chave, V valor) {
+		inserir(chave, valor, System.currentTimeMillis() + ttlPadrao);
+	}
+
+	/**
+	 * Armazena um valor no cache, ate' um instante determinado. O
+	 *   instante de expiracao e' limitado ao tempo de vida padrao.
+	 * @param chave Chave do valor.
+	 * @param valor Valor a ser armazenado.
+	 * @param expiraEm Instante de expiracao da entrada, em ms
+	 *   (conforme {@link System#currentTimeMillis()}).
+	 */
+	public synchronized void inserir(K chave, V valor, long expiraEm) {
+		long limite = System.currentTimeMillis() + ttlPadrao;
+		if (expiraEm > limite) { expiraEm = limite; }
+		if (chave == null || valor == null ||
+				expiraEm <= System.currentTimeMillis()) {
+			return;
+		}
+		entradas.put(chave, new Entrada<V>(valor, expiraEm));
+	}
+
+	/**
+	 * Remove um valor do cache.
+	 * @param chave Chave do valor.
+	 */
+	public synchronized void remover(K chave) {
+		if (entradas.remove(chave) != null) {
+			evictions++;
+		}
+	}
+
+	/**
+	 * Retorna as chaves armazenadas no cache (inclusive as expiradas
+	 *   ainda nao removidas).
+	 * @return Copia das chaves.
+	 */
+	public synchronized List<K> getChaves() {
+		return new ArrayList<K>(entradas.keySet());
+	}
+
+	@Override
+	public synchronized void limpar() {
+		evictions += entradas.size();
+		entradas.clear();
+	}
+
+	@Override
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	@Override
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	@Override
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	@Override
+	public synchronized int getTamanho() {
+		return entradas.size();
+	}
+
+	@Override
+	public int getCapacidade() {
+		return capacidade;
+	}
+
+	@Override
+	public long getTtlPadrao() {
+		return ttlPadrao;
+	}
+
+	/**
+	 * Publica o cache (contadores) no servidor JMX da plataforma.
+	 *   Caso ja' exista um cache publicado com o mesmo nome (ex: apos
+	 *   um redeploy), este e' substituido.
+	 * @param nome Nome do cache.
+	 */
+	public void registrarMBean(String nome) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objName = new ObjectName(
+					String.format("%s:type=Cache,name=%s", JMX_DOMAIN, nome));
+			if (server.isRegistered(objName)) {
+				server.unregisterMBean(objName);
+			}
+			server.registerMBean(this, objName);
+		} catch (Exception e) { /* JMX indisponivel: ignora */ }
+	}
+
+	/* Entrada do cache: valor e instante de expiracao. */
+	private static class Entrada<V> {
+		private final V valor;
+		private final long expiraEm;
+		private Entrada(V valor, long expiraEm) {
+			this.valor = valor;
+			this.expiraEm = expiraEm;
+		}
+	}
+}
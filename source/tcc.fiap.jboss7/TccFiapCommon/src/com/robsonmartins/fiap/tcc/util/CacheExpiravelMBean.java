@@ -0,0 +1,50 @@
+package com.robsonmartins.fiap.tcc.util;
+
+/**
+ * Interface de gerenciamento (JMX) de um {@link CacheExpiravel}.
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+public interface CacheExpiravelMBean {
+
+	/**
+	 * Retorna o numero de acertos (consultas atendidas pelo cache).
+	 * @return Numero de acertos.
+	 */
+	public long getHits();
+
+	/**
+	 * Retorna o numero de falhas (consultas nao atendidas pelo cache).
+	 * @return Numero de falhas.
+	 */
+	public long getMisses();
+
+	/**
+	 * Retorna o numero de entradas removidas (por capacidade,
+	 *   expiracao ou invalidacao).
+	 * @return Numero de entradas removidas.
+	 */
+	public long getEvictions();
+
+	/**
+	 * Retorna o numero de entradas armazenadas.
+	 * @return Numero de entradas.
+	 */
+	public int getTamanho();
+
+	/**
+	 * Retorna a capacidade maxima (numero de entradas).
+	 * @return Capacidade maxima.
+	 */
+	public int getCapacidade();
+
+	/**
+	 * Retorna o tempo de vida padrao de uma entrada, em ms.
+	 * @return Tempo de vida padrao, em ms.
+	 */
+	public long getTtlPadrao();
+
+	/**
+	 * Remove todas as entradas do cache.
+	 */
+	public void limpar();
+}
@@ -37,7 +37,7 @@ public class CertificadoAssinador {
 		KeyPair    keys       = null;
 		
 		KeyStore keyStore =
-			loadKeyStoreFromFile(keyStoreFile, keyStorePass, keyStoreType);
+			getKeyStoreFromFile(keyStoreFile, keyStorePass, keyStoreType);
 		Key key = keyStore.getKey(keyAlias, keyPass.toCharArray());
 
 		if (key instanceof PrivateKey) {
@@ -83,7 +83,7 @@ public class CertificadoAssinador {
 			String keyStorePass) throws Exception {
 
 		KeyStore keyStore =
-			loadKeyStoreFromFile(keyStoreFile, keyStorePass, keyStoreType);
+			getKeyStoreFromFile(keyStoreFile, keyStorePass, keyStoreType);
 		return (X509Certificate) keyStore.getCertificate(keyAlias);
 	}
 
@@ -208,19 +208,24 @@ public class CertificadoAssinador {
 		return verify("SHA1withRSA", key, content, signed);
 	}
 	
-	/* Retorna um objeto {@link KeyStore} a partir de um arquivo.
+	/**
+	 * Retorna um objeto {@link KeyStore} a partir de um arquivo.
 	 * @param keyStoreFile Nome do arquivo de keystore.
 	 * @param keyStorePass Senha do keystore.
 	 * @param keyStoreType Tipo do arquivo de keystore.
 	 * @return Objeto KeyStore.
 	 * @throws Exception
 	 */
-	private static KeyStore loadKeyStoreFromFile(String keyStoreFile, 
+	public static KeyStore getKeyStoreFromFile(String keyStoreFile, 
 			String keyStorePass, String keyStoreType) throws Exception {
 		
 		KeyStore keyStore = KeyStore.getInstance(keyStoreType);
 		InputStream istream = new FileInputStream(keyStoreFile);
-		keyStore.load(istream, keyStorePass.toCharArray());
+		try {
+			keyStore.load(istream, keyStorePass.toCharArray());
+		} finally {
+			istream.close();
+		}
 		return keyStore;
 	}
 	
@@ -2,23 +2,74 @@ package com.robsonmartins.fiap.tcc.util;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
-
-import sun.misc.BASE64Decoder;
-import sun.misc.BASE64Encoder;
+import java.util.Arrays;
 
 /**
  * Serializa um objeto certificado ({@link X509Certificate})
- *   no formato Base64.
+ *   no formato Base64.<br/>
+ * A codificacao Base64 e' feita diretamente sobre arrays, tolerando
+ *   espacos e quebras de linha na entrada, sem strings intermediarias.
+ *   Certificados desserializados sao mantidos em um cache (LRU),
+ *   indexado pelo seu conteudo binario (DER), de modo que o mesmo
+ *   certificado recebido repetidamente e' interpretado uma unica vez.<br/>
+ * Configuracao (system properties):
+ * <ul>
+ *   <li>tccfiap.cache.certificados.capacidade: numero maximo de
+ *     certificados no cache (padrao: 1000);</li>
+ *   <li>tccfiap.cache.certificados.ttl: tempo de vida de um certificado
+ *     no cache, em ms (padrao: 10 minutos).</li>
+ * </ul>
  * @author Robson Martins (robson@robsonmartins.com)
  */
 public class CertificadoSerializador {
 
-	/* encoder Base64 */
-	private static BASE64Encoder encoder = new BASE64Encoder();
-	/* decoder Base64 */
-	private static BASE64Decoder decoder = new BASE64Decoder();
+	/* alfabeto Base64 */
+	private static final char[] BASE64 =
+		"ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+			.toCharArray();
+	/* valores dos caracteres Base64 (-1 = invalido, -2 = espaco,
+	   -3 = padding) */
+	private static final byte[] VALORES_BASE64 = new byte[128];
+	static {
+		Arrays.fill(VALORES_BASE64, (byte) -1);
+		for (int i = 0; i < BASE64.length; i++) {
+			VALORES_BASE64[BASE64[i]] = (byte) i;
+		}
+		VALORES_BASE64[' ' ] = -2;
+		VALORES_BASE64['\t'] = -2;
+		VALORES_BASE64['\r'] = -2;
+		VALORES_BASE64['\n'] = -2;
+		VALORES_BASE64['\f'] = -2;
+		VALORES_BASE64['=' ] = -3;
+	}
+
+	/* fabrica de certificados, por thread (CertificateFactory nao
+	   e' garantidamente thread-safe) */
+	private static final ThreadLocal<CertificateFactory> fabrica =
+		new ThreadLocal<CertificateFactory>() {
+			@Override
+			protected CertificateFactory initialValue() {
+				try {
+					return CertificateFactory.getInstance("X.509");
+				} catch (CertificateException e) {
+					throw new IllegalStateException(e);
+				}
+			}
+		};
+
+	/* cache de certificados desserializados, por conteudo binario (DER) */
+	private static final CacheExpiravel<ByteBuffer, X509Certificate> cache =
+		new CacheExpiravel<ByteBuffer, X509Certificate>(
+			Integer.getInteger("tccfiap.cache.certificados.capacidade", 1000),
+			Long.getLong("tccfiap.cache.certificados.ttl", 10 * 60 * 1000L));
+	static {
+		cache.registrarMBean("Certificados");
+	}
 	
 	/**
 	 * Serializa um certificado para string (Base64). 
@@ -29,25 +80,22 @@ public class CertificadoSerializador {
 	public static String certToStr(X509Certificate cert) throws Exception {
 		String out = null;
 		if (cert != null) {
-			out = encoder.encode(cert.getEncoded()).replaceAll("\\s+","");
+			out = encodeBase64(cert.getEncoded());
 		}
 		return out;
 	}
 	
 	/**
 	 * Desserializa um certificado a partir de uma string (Base64).
+	 *   Espacos e quebras de linha sao ignorados.
 	 * @param s String codificada em Base64.
 	 * @return Objeto que representa um certificado.
 	 * @throws Exception
 	 */
 	public static X509Certificate strToCert(String s) throws Exception {
-        CertificateFactory certificateFactory = null;
         X509Certificate out = null;
 		if (s != null) {
-	        certificateFactory = CertificateFactory.getInstance("X.509");
-			ByteArrayInputStream byteInStream =
-				new ByteArrayInputStream(decoder.decodeBuffer(s.replaceAll("\\s+","")));
-	        out = (X509Certificate) certificateFactory.generateCertificate(byteInStream);
+			out = bytesToCert(decodeBase64(s));
 		}
 		return out;
 	}
@@ -73,13 +121,18 @@ public class CertificadoSerializador {
 	 * @throws Exception
 	 */
 	public static X509Certificate bytesToCert(byte[] buffer) throws Exception {
-        CertificateFactory certificateFactory = null;
         X509Certificate out = null;
 		if (buffer != null) {
-	        certificateFactory = CertificateFactory.getInstance("X.509");
-			ByteArrayInputStream byteInStream =
-				new ByteArrayInputStream(buffer);
-	        out = (X509Certificate) certificateFactory.generateCertificate(byteInStream);
+			ByteBuffer chave = ByteBuffer.wrap(buffer);
+			out = cache.obter(chave);
+			if (out == null) {
+				ByteArrayInputStream byteInStream =
+					new ByteArrayInputStream(buffer);
+		        out = (X509Certificate)
+		        	fabrica.get().generateCertificate(byteInStream);
+		        /* a chave nao pode ser alterada pelo chamador */
+		        cache.inserir(ByteBuffer.wrap(buffer.clone()), out);
+			}
 		}
 		return out;
 	}
@@ -94,6 +147,35 @@ public class CertificadoSerializador {
 		return cert.getSubjectX500Principal().getName();
 	}
 
+	/**
+	 * Retorna a impressao digital (fingerprint SHA-256) de um certificado,
+	 *   calculada sobre o seu conteudo binario (DER).
+	 * @param cert Objeto que representa um certificado.
+	 * @return Fingerprint SHA-256, em hexadecimal.
+	 * @throws Exception
+	 */
+	public static String getFingerprint(X509Certificate cert) throws Exception {
+		return getFingerprint(cert.getEncoded());
+	}
+
+	/**
+	 * Retorna a impressao digital (fingerprint SHA-256) de um conteudo
+	 *   binario (DER).
+	 * @param buffer Array de bytes.
+	 * @return Fingerprint SHA-256, em hexadecimal.
+	 * @throws Exception
+	 */
+	public static String getFingerprint(byte[] buffer) throws Exception {
+		final char[] hexChars = "0123456789abcdef".toCharArray();
+		byte[] digest = MessageDigest.getInstance("SHA-256").digest(buffer);
+		char[] out = new char[digest.length * 2];
+		for (int i = 0; i < digest.length; i++) {
+			out[i * 2    ] = hexChars[(digest[i] >> 4) & 0x0F];
+			out[i * 2 + 1] = hexChars[ digest[i]       & 0x0F];
+		}
+		return new String(out);
+	}
+
 	/**
 	 * Obtem um objeto certificado ({@link X509Certificate}) a partir de
 	 *   uma instancia de {@link InputStream}, que pode apontar para um
@@ -108,11 +190,8 @@ public class CertificadoSerializador {
 		
 		InputStream filteredStream = filterPemCert(istream);
 		
-		CertificateFactory certFactory =
-			CertificateFactory.getInstance("X.509");
-
 		X509Certificate x509cert =
-			(X509Certificate)certFactory.generateCertificate(filteredStream);
+			(X509Certificate)fabrica.get().generateCertificate(filteredStream);
 		
 		return x509cert;
 	}
@@ -187,4 +266,75 @@ public class CertificadoSerializador {
 		/* retorna um InputStream baseado no buffer interno */
 		return internalStream;
 	}
+
+	/**
+	 * Codifica um conteudo binario em Base64, sem quebras de linha.
+	 * @param buffer Array de bytes.
+	 * @return String codificada em Base64.
+	 */
+	public static String encodeBase64(byte[] buffer) {
+		char[] out = new char[((buffer.length + 2) / 3) * 4];
+		int idxOut = 0;
+		int idx = 0;
+		for (; idx + 2 < buffer.length; idx += 3) {
+			int bits = ((buffer[idx] & 0xFF) << 16) |
+				((buffer[idx + 1] & 0xFF) << 8) | (buffer[idx + 2] & 0xFF);
+			out[idxOut++] = BASE64[(bits >> 18) & 0x3F];
+			out[idxOut++] = BASE64[(bits >> 12) & 0x3F];
+			out[idxOut++] = BASE64[(bits >>  6) & 0x3F];
+			out[idxOut++] = BASE64[ bits        & 0x3F];
+		}
+		int resto = buffer.length - idx;
+		if (resto > 0) {
+			int bits = (buffer[idx] & 0xFF) << 16;
+			if (resto == 2) { bits |= (buffer[idx + 1] & 0xFF) << 8; }
+			out[idxOut++] = BASE64[(bits >> 18) & 0x3F];
+			out[idxOut++] = BASE64[(bits >> 12) & 0x3F];
+			out[idxOut++] = (resto == 2) ? BASE64[(bits >> 6) & 0x3F] : '=';
+			out[idxOut++] = '=';
+		}
+		return new String(out);
+	}
+
+	/**
+	 * Decodifica uma string Base64, ignorando espacos e quebras de linha.
+	 * @param s String codificada em Base64.
+	 * @return Array de bytes.
+	 * @throws Exception Se a string contem caracteres invalidos.
+	 */
+	public static byte[] decodeBase64(String s) throws Exception {
+		/* primeira passagem: conta os caracteres significativos */
+		int len = s.length();
+		int count = 0;
+		boolean padding = false;
+		for (int i = 0; i < len; i++) {
+			char c = s.charAt(i);
+			int valor = (c < 128) ? VALORES_BASE64[c] : -1;
+			if (valor == -1 || (padding && valor >= 0)) {
+				throw new Exception(String.format(
+						"Invalid Base64 character at position %d", i));
+			}
+			if (valor == -3) { padding = true; }
+			if (valor >= 0) { count++; }
+		}
+		if (count % 4 == 1) {
+			throw new Exception("Invalid Base64 length");
+		}
+		/* segunda passagem: decodifica diretamente no array de saida */
+		byte[] out = new byte[(count * 3) / 4];
+		int idxOut = 0;
+		int bits = 0;
+		int nBits = 0;
+		for (int i = 0; i < len && idxOut < out.length; i++) {
+			int valor = VALORES_BASE64[s.charAt(i)];
+			if (valor < 0) { continue; }
+			bits = (bits << 6) | valor;
+			nBits += 6;
+			if (nBits >= 8) {
+				nBits -= 8;
+				out[idxOut++] = (byte) (bits >> nBits);
+			}
+		}
+		return out;
+	}
 }
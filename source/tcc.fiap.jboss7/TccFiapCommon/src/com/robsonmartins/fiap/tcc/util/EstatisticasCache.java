@@ -0,0 +1,136 @@
+package com.robsonmartins.fiap.tcc.util;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.Session;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.SecondLevelCacheStatistics;
+import org.hibernate.stat.Statistics;
+
+/**
+ * Estatisticas do cache de segundo nivel e do cache de consultas do
+ *   Hibernate de uma unidade de persistencia, publicadas via JMX
+ *   (a unidade deve configurar hibernate.generate_statistics).
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+public class EstatisticasCache implements EstatisticasCacheMBean {
+
+	/* dominio JMX dos caches */
+	private static final String JMX_DOMAIN = "com.robsonmartins.fiap.tcc";
+
+	/* fabrica de EntityManager da unidade de persistencia */
+	private final EntityManagerFactory emf;
+	/* fabrica de sessoes do Hibernate da unidade de persistencia */
+	private final SessionFactory sessionFactory;
+
+	/* Cria as estatisticas de uma unidade de persistencia.
+	 * @param entityManager EntityManager da unidade de persistencia.
+	 */
+	private EstatisticasCache(EntityManager entityManager) {
+		this.emf = entityManager.getEntityManagerFactory();
+		this.sessionFactory = entityManager.unwrap(Session.class).getSessionFactory();
+	}
+
+	/**
+	 * Registra as estatisticas de uma unidade de persistencia no
+	 *   servidor JMX da plataforma (somente uma vez por nome), com o
+	 *   ObjectName "com.robsonmartins.fiap.tcc:type=CacheJPA,name=nome".
+	 * @param entityManager EntityManager da unidade de persistencia.
+	 * @param nome Nome da unidade de persistencia.
+	 */
+	public static void registrarMBean(EntityManager entityManager, String nome) {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objName = new ObjectName(
+					String.format("%s:type=CacheJPA,name=%s", JMX_DOMAIN, nome));
+			synchronized (EstatisticasCache.class) {
+				if (!server.isRegistered(objName)) {
+					server.registerMBean(new EstatisticasCache(entityManager), objName);
+				}
+			}
+		} catch (Exception e) { /* JMX ou Hibernate indisponivel: ignora */ }
+	}
+
+	@Override
+	public long getHits() {
+		return getStatistics().getSecondLevelCacheHitCount();
+	}
+
+	@Override
+	public long getMisses() {
+		return getStatistics().getSecondLevelCacheMissCount();
+	}
+
+	@Override
+	public long getPuts() {
+		return getStatistics().getSecondLevelCachePutCount();
+	}
+
+	@Override
+	public double getTaxaAcertos() {
+		return taxa(getHits(), getMisses());
+	}
+
+	@Override
+	public long getQueryHits() {
+		return getStatistics().getQueryCacheHitCount();
+	}
+
+	@Override
+	public long getQueryMisses() {
+		return getStatistics().getQueryCacheMissCount();
+	}
+
+	@Override
+	public double getTaxaAcertosConsultas() {
+		return taxa(getQueryHits(), getQueryMisses());
+	}
+
+	@Override
+	public String getRegioes() {
+		StringBuilder regioes = new StringBuilder();
+		Statistics stats = getStatistics();
+		for (String regiao : stats.getSecondLevelCacheRegionNames()) {
+			SecondLevelCacheStatistics regiaoStats =
+				stats.getSecondLevelCacheStatistics(regiao);
+			if (regiaoStats == null) { continue; }
+			regioes.append(String.format("%s: hits=%d, misses=%d, elementos=%d%n",
+					regiao, regiaoStats.getHitCount(), regiaoStats.getMissCount(),
+					regiaoStats.getElementCountInMemory()));
+		}
+		return regioes.toString();
+	}
+
+	@Override
+	public void zerar() {
+		getStatistics().clear();
+	}
+
+	@Override
+	public void limpar() {
+		emf.getCache().evictAll();
+		sessionFactory.getCache().evictQueryRegions();
+	}
+
+	/* Retorna as estatisticas do Hibernate.
+	 * @return Estatisticas do Hibernate.
+	 */
+	private Statistics getStatistics() {
+		return sessionFactory.getStatistics();
+	}
+
+	/* Calcula a taxa de acertos.
+	 * @param hits Numero de acertos.
+	 * @param misses Numero de falhas.
+	 * @return Taxa de acertos (0 a 1).
+	 */
+	private static double taxa(long hits, long misses) {
+		long total = hits + misses;
+		return (total > 0) ? (double) hits / total : 0.0;
+	}
+}
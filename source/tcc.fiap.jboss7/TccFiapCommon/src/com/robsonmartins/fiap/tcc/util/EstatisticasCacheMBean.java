@@ -0,0 +1,68 @@
+package com.robsonmartins.fiap.tcc.util;
+
+/**
+ * Interface de gerenciamento (JMX) de um {@link EstatisticasCache}.
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+public interface EstatisticasCacheMBean {
+
+	/**
+	 * Retorna o numero de acertos do cache de segundo nivel.
+	 * @return Numero de acertos.
+	 */
+	public long getHits();
+
+	/**
+	 * Retorna o numero de falhas do cache de segundo nivel.
+	 * @return Numero de falhas.
+	 */
+	public long getMisses();
+
+	/**
+	 * Retorna o numero de objetos armazenados no cache de segundo nivel.
+	 * @return Numero de objetos armazenados.
+	 */
+	public long getPuts();
+
+	/**
+	 * Retorna a taxa de acertos do cache de segundo nivel.
+	 * @return Taxa de acertos (0 a 1).
+	 */
+	public double getTaxaAcertos();
+
+	/**
+	 * Retorna o numero de acertos do cache de consultas.
+	 * @return Numero de acertos.
+	 */
+	public long getQueryHits();
+
+	/**
+	 * Retorna o numero de falhas do cache de consultas.
+	 * @return Numero de falhas.
+	 */
+	public long getQueryMisses();
+
+	/**
+	 * Retorna a taxa de acertos do cache de consultas.
+	 * @return Taxa de acertos (0 a 1).
+	 */
+	public double getTaxaAcertosConsultas();
+
+	/**
+	 * Retorna as estatisticas de cada regiao do cache de segundo nivel.
+	 * @return Uma linha por regiao: nome, acertos, falhas e objetos
+	 *   em memoria.
+	 */
+	public String getRegioes();
+
+	/**
+	 * Zera as estatisticas.
+	 */
+	public void zerar();
+
+	/**
+	 * Remove todos os objetos e consultas do cache (ex: apos uma
+	 *   alteracao feita diretamente no banco de dados).
+	 */
+	public void limpar();
+}
@@ -0,0 +1,383 @@
+package com.robsonmartins.fiap.tcc.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.net.URL;
+import java.security.Key;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import javax.xml.namespace.QName;
+import javax.xml.ws.BindingProvider;
+import javax.xml.ws.Service;
+import javax.xml.ws.handler.MessageContext;
+import javax.xml.ws.soap.SOAPBinding;
+
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+/**
+ * Fabrica de clientes (proxies) de servicos web, autenticados por
+ *   certificado digital (HTTP/BASIC, com o certificado como username
+ *   e a sua assinatura como password).<br/>
+ * Mantem uma instancia por configuracao (servico + keystore), que le o
+ *   keystore, calcula as credenciais e cria o objeto {@link Service} uma
+ *   unica vez, e mantem um pool de proxies (ports) prontos para uso.
+ *   O WSDL e' obtido do classpath (se configurado) ou derivado da
+ *   interface do servico, sem acesso ao servidor remoto. A fabrica e'
+ *   reinicializada somente quando o arquivo de keystore e' alterado.<br/>
+ * Instancias desta classe sao seguras para acesso concorrente; os
+ *   proxies, nao: cada proxy deve ser usado por uma thread de cada vez.
+ * @param <T> Interface do servico web.
+ * @author Robson Martins (robson@robsonmartins.com)
+ */
+public class FabricaClienteWS<T> {
+
+	/* intervalo minimo entre verificacoes de alteracao de arquivos, em ms */
+	private static final long INTERVALO_VERIFICACAO = 5 * 1000L;
+	/* numero maximo de proxies mantidos no pool de cada fabrica */
+	private static final int POOL_MAXIMO =
+		Integer.getInteger("tccfiap.ws.pool", 32);
+
+	/* fabricas, por configuracao */
+	private static final ConcurrentMap<String, FabricaClienteWS<?>> fabricas =
+		new ConcurrentHashMap<String, FabricaClienteWS<?>>();
+	/* arquivos properties ja' lidos, por nome */
+	private static final ConcurrentMap<String, ArquivoPropriedades> propriedades =
+		new ConcurrentHashMap<String, ArquivoPropriedades>();
+
+	/* interface do servico */
+	private final Class<T> sei;
+	/* configuracao do servico */
+	private final String serviceURL;
+	private final String namespace;
+	private final String service;
+	private final String port;
+	private final String wsdl;
+	/* configuracao do keystore */
+	private final String keyStoreFile;
+	private final String keyStoreType;
+	private final String keyAlias;
+	private final String keyStorePass;
+	private final String keyPass;
+
+	/* estado atual (service, credenciais e pool de proxies) */
+	private volatile Estado<T> estado;
+	/* instante da ultima verificacao de alteracao do keystore */
+	private volatile long ultimaVerificacao;
+
+	/* para fazer log */
+	private static Logger logger = LogManager.getLogger(FabricaClienteWS.class);
+
+	/* Cria uma nova fabrica (use getInstance). */
+	private FabricaClienteWS(Class<T> sei, String serviceURL, String namespace,
+			String service, String port, String wsdl, String keyStoreFile,
+			String keyStoreType, String keyAlias, String keyStorePass,
+			String keyPass) {
+		this.sei          = sei;
+		this.serviceURL   = serviceURL;
+		this.namespace    = namespace;
+		this.service      = service;
+		this.port         = port;
+		this.wsdl         = wsdl;
+		this.keyStoreFile = keyStoreFile;
+		this.keyStoreType = keyStoreType;
+		this.keyAlias     = keyAlias;
+		this.keyStorePass = keyStorePass;
+		this.keyPass      = keyPass;
+	}
+
+	/**
+	 * Retorna a fabrica de clientes de uma configuracao de servico.
+	 * @param sei Interface do servico web.
+	 * @param serviceURL URL do servico.
+	 * @param namespace Namespace do servico.
+	 * @param service Nome do servico.
+	 * @param port Nome do port do servico.
+	 * @param wsdl Recurso do classpath (ou URL) com o WSDL do servico,
+	 *   ou null para derivar o WSDL da interface do servico.
+	 * @param keyStoreFile Caminho completo do arquivo de keystore
+	 *   a ser usado para obter o par de chaves do cliente.
+	 * @param keyStoreType Tipo do arquivo de keystore (default: JKS).
+	 * @param keyAlias Alias do par de chaves dentro do arquivo de keystore.
+	 * @param keyStorePass Senha do arquivo de keystore.
+	 * @param keyPass Senha do par de chaves dentro do arquivo de keystore.
+	 * @return Fabrica de clientes.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> FabricaClienteWS<T> getInstance(Class<T> sei,
+			String serviceURL, String namespace, String service, String port,
+			String wsdl, String keyStoreFile, String keyStoreType,
+			String keyAlias, String keyStorePass, String keyPass) {
+
+		if (keyStoreType == null || "".equals(keyStoreType)) {
+			keyStoreType = "JKS";
+		}
+		String chave = String.format("%s|%s|%s|%s|%s|%s|%s|%s|%s|%s|%s",
+				sei.getName(), serviceURL, namespace, service, port, wsdl,
+				keyStoreFile, keyStoreType, keyAlias, keyStorePass, keyPass);
+		FabricaClienteWS<?> fabrica = fabricas.get(chave);
+		if (fabrica == null) {
+			FabricaClienteWS<T> nova = new FabricaClienteWS<T>(sei, serviceURL,
+					namespace, service, port, wsdl, keyStoreFile, keyStoreType,
+					keyAlias, keyStorePass, keyPass);
+			fabrica = fabricas.putIfAbsent(chave, nova);
+			if (fabrica == null) { fabrica = nova; }
+		}
+		return (FabricaClienteWS<T>) fabrica;
+	}
+
+	/**
+	 * Obtem um proxy do servico, pronto para uso (autenticado). Apos o
+	 *   uso, o proxy deve ser devolvido com {@link #devolverPorta(Object)}.
+	 * @return Proxy do servico.
+	 * @throws Exception
+	 */
+	public T obterPorta() throws Exception {
+		Estado<T> atual = getEstado();
+		T porta = atual.pool.poll();
+		if (porta == null) {
+			porta = atual.criarPorta();
+		}
+		return porta;
+	}
+
+	/**
+	 * Devolve um proxy do servico ao pool. Proxies criados antes de uma
+	 *   reinicializacao da fabrica sao descartados.
+	 * @param porta Proxy do servico.
+	 */
+	public void devolverPorta(T porta) {
+		Estado<T> atual = estado;
+		if (porta != null && atual != null && atual.isPorta(porta)) {
+			atual.pool.offer(porta);
+		}
+	}
+
+	/**
+	 * Verifica se um proxy do servico foi criado com a configuracao atual
+	 *   da fabrica (ou seja, se a fabrica nao foi reinicializada).
+	 * @param porta Proxy do servico.
+	 * @return True se o proxy pode continuar sendo usado.
+	 * @throws Exception
+	 */
+	public boolean isAtual(T porta) throws Exception {
+		return porta != null && getEstado().isPorta(porta);
+	}
+
+	/**
+	 * Retorna as opcoes definidas em um arquivo properties. O arquivo e'
+	 *   lido uma unica vez, e relido somente se for alterado.
+	 * @param propsFileName Nome do arquivo properties.
+	 * @param loader ClassLoader usado para procurar o arquivo.
+	 * @return Opcoes presentes no arquivo (somente leitura).
+	 * @throws Exception
+	 */
+	public static Properties getPropriedades(String propsFileName,
+			ClassLoader loader) throws Exception {
+
+		ArquivoPropriedades arquivo = propriedades.get(propsFileName);
+		if (arquivo == null || arquivo.isModificado()) {
+			arquivo = new ArquivoPropriedades(propsFileName, loader);
+			propriedades.put(propsFileName, arquivo);
+		}
+		return new Properties(arquivo.props);
+	}
+
+	/* Retorna o estado atual da fabrica, reinicializando-o se ainda nao
+	 *   existir ou se o arquivo de keystore tiver sido alterado.
+	 * @return Estado atual.
+	 * @throws Exception
+	 */
+	private Estado<T> getEstado() throws Exception {
+		Estado<T> atual = estado;
+		long agora = System.currentTimeMillis();
+		if (atual != null && agora - ultimaVerificacao < INTERVALO_VERIFICACAO) {
+			return atual;
+		}
+		long modificado = new File(keyStoreFile).lastModified();
+		if (atual != null && atual.keyStoreModificado == modificado) {
+			ultimaVerificacao = agora;
+			return atual;
+		}
+		synchronized (this) {
+			atual = estado;
+			if (atual == null || atual.keyStoreModificado != modificado) {
+				if (logger.isTraceEnabled()) {
+					logger.trace(String.format(
+							"Initializing client of %s (url=%s keystore=%s)",
+							service, serviceURL, keyStoreFile));
+				}
+				atual = new Estado<T>(this, modificado);
+				estado = atual;
+			}
+			ultimaVerificacao = agora;
+		}
+		return atual;
+	}
+
+	/* Estado de uma fabrica: objeto Service, credenciais e pool de proxies,
+	 *   validos enquanto o keystore nao for alterado. */
+	private static class Estado<T> {
+
+		private final FabricaClienteWS<T> fabrica;
+		private final long keyStoreModificado;
+		private final Service wsService;
+		private final QName qnamePort;
+		private final String username;
+		private final String password;
+		private final BlockingQueue<T> pool;
+
+		/* Inicializa o estado: le o keystore, calcula as credenciais e
+		 *   cria o objeto Service.
+		 * @param fabrica Fabrica.
+		 * @param keyStoreModificado Data de alteracao do keystore.
+		 * @throws Exception
+		 */
+		private Estado(FabricaClienteWS<T> fabrica,
+				long keyStoreModificado) throws Exception {
+
+			this.fabrica = fabrica;
+			this.keyStoreModificado = keyStoreModificado;
+			this.pool = new LinkedBlockingQueue<T>(POOL_MAXIMO);
+
+			/* le o keystore uma unica vez */
+			KeyStore keyStore = CertificadoAssinador.getKeyStoreFromFile(
+					fabrica.keyStoreFile, fabrica.keyStorePass, fabrica.keyStoreType);
+			Key key = keyStore.getKey(fabrica.keyAlias, fabrica.keyPass.toCharArray());
+			X509Certificate cert =
+				(X509Certificate) keyStore.getCertificate(fabrica.keyAlias);
+			if (cert == null || !(key instanceof PrivateKey)) {
+				throw new Exception(String.format(
+						"Error reading keystore file %s", fabrica.keyStoreFile));
+			}
+
+			/* username recebe o conteudo do certificado, e password a
+			 * assinatura do conteudo do certificado, em formato Base64 */
+			this.username = CertificadoSerializador.certToStr(cert);
+			this.password = CertificadoSerializador.encodeBase64(
+					CertificadoAssinador.sign((PrivateKey) key, cert.getEncoded()));
+
+			QName qnameService = new QName(fabrica.namespace, fabrica.service);
+			this.qnamePort = new QName(fabrica.namespace, fabrica.port);
+			URL wsdlUrl = getWsdlURL(fabrica.wsdl);
+			if (wsdlUrl != null) {
+				this.wsService = Service.create(wsdlUrl, qnameService);
+			} else {
+				/* sem WSDL: o modelo do servico e' derivado da interface */
+				this.wsService = Service.create(qnameService);
+				this.wsService.addPort(qnamePort,
+						SOAPBinding.SOAP11HTTP_BINDING, fabrica.serviceURL);
+			}
+		}
+
+		/* Cria um novo proxy do servico, autenticado.
+		 * @return Proxy do servico.
+		 */
+		private T criarPorta() {
+			T porta = wsService.getPort(qnamePort, fabrica.sei);
+			Map<String, Object> reqContext =
+				((BindingProvider) porta).getRequestContext();
+			reqContext.put(BindingProvider.ENDPOINT_ADDRESS_PROPERTY,
+					fabrica.serviceURL);
+			reqContext.put(BindingProvider.USERNAME_PROPERTY, username);
+			reqContext.put(BindingProvider.PASSWORD_PROPERTY, password);
+			/* mantem a conexao HTTP aberta entre as requisicoes */
+			Map<String, List<String>> headers = new HashMap<String, List<String>>();
+			headers.put("Connection", Collections.singletonList("keep-alive"));
+			reqContext.put(MessageContext.HTTP_REQUEST_HEADERS, headers);
+			return porta;
+		}
+
+		/* Verifica se um proxy foi criado por este estado.
+		 * @param porta Proxy do servico.
+		 * @return True se o proxy foi criado por este estado.
+		 */
+		private boolean isPorta(T porta) {
+			return password.equals(((BindingProvider) porta)
+					.getRequestContext().get(BindingProvider.PASSWORD_PROPERTY));
+		}
+
+		/* Retorna a URL do WSDL do servico.
+		 * @param wsdl Recurso do classpath ou URL do WSDL (pode ser null).
+		 * @return URL do WSDL, ou null se nao especificado.
+		 * @throws Exception
+		 */
+		private static URL getWsdlURL(String wsdl) throws Exception {
+			if (wsdl == null || "".equals(wsdl)) {
+				return null;
+			}
+			URL url = FabricaClienteWS.class.getClassLoader().getResource(wsdl);
+			if (url == null) {
+				url = Thread.currentThread().getContextClassLoader().getResource(wsdl);
+			}
+			if (url == null) {
+				url = new URL(wsdl);
+			}
+			return url;
+		}
+	}
+
+	/* Arquivo properties lido, e a sua data de alteracao. */
+	private static class ArquivoPropriedades {
+
+		private final Properties props;
+		private final File arquivo;
+		private final long modificado;
+
+		/* Le um arquivo properties.
+		 * @param propsFileName Nome do arquivo properties.
+		 * @param loader ClassLoader usado para procurar o arquivo.
+		 * @throws Exception
+		 */
+		private ArquivoPropriedades(String propsFileName,
+				ClassLoader loader) throws Exception {
+
+			InputStream inputStream = null;
+			/* tenta obter path absoluto do arquivo no JBoss */
+			String filename = JBossUtil.getJBossAbsFilePath(propsFileName);
+			File file = new File(filename);
+			/* tenta obter arquivo no path especificado via classloader */
+			try {
+				inputStream = loader.getResourceAsStream(filename);
+			} catch (Exception e) { }
+			if (inputStream == null) {
+				/* se nao achou, tenta obter arquivo diretamente no path */
+				try {
+					inputStream = new FileInputStream(file);
+				} catch (Exception e) {	}
+			}
+			if (inputStream == null) {
+				throw new FileNotFoundException(
+						String.format("File %s not found.", propsFileName));
+			}
+			try {
+				props = new Properties();
+				props.load(inputStream);
+			} finally {
+				inputStream.close();
+			}
+			this.arquivo = file.isFile() ? file : null;
+			this.modificado = (arquivo != null) ? arquivo.lastModified() : 0;
+		}
+
+		/* Verifica se o arquivo foi alterado desde a leitura.
+		 * @return True se o arquivo foi alterado.
+		 */
+		private boolean isModificado() {
+			return arquivo != null && arquivo.lastModified() != modificado;
+		}
+	}
+}